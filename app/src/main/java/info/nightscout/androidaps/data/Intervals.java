@@ -78,6 +78,24 @@ public abstract class Intervals<T extends Interval> {
         return ~lo;  // value not present
     }
 
+    /**
+     * @return index of the newest interval starting at or before time, -1 if there is none
+     */
+    public synchronized int lastIndexStartingBefore(long time) {
+        int lo = 0;
+        int hi = rawData.size() - 1;
+
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (rawData.keyAt(mid) <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi;
+    }
+
     public abstract T getValueByInterval(long time);
 
     public synchronized int size() {
@@ -45,6 +45,13 @@ public class Profile {
     private JSONArray targetHigh;
     private LongSparseArray<Double> targetHigh_v; // oldest at index 0
 
+    // compiled copies of *_v arrays used by time lookups
+    private volatile ProfileSegments isf_c;
+    private volatile ProfileSegments ic_c;
+    private volatile ProfileSegments basal_c;
+    private volatile ProfileSegments targetLow_c;
+    private volatile ProfileSegments targetHigh_c;
+
     private int percentage;
     private int timeshift;
 
@@ -94,6 +101,11 @@ public class Profile {
         basal_v = null;
         targetLow_v = null;
         targetHigh_v = null;
+        isf_c = null;
+        ic_c = null;
+        basal_c = null;
+        targetLow_c = null;
+        targetHigh_c = null;
 
         isValid = true;
         isValidated = false;
@@ -261,6 +273,8 @@ public class Profile {
                 basal_v = null;
                 isValidated = false;
             }
+            // recompile with limited values
+            basal_c = null;
 
         }
         return isValid;
@@ -347,21 +361,6 @@ public class Profile {
         return multiplier;
     }
 
-    private double getValueToTime(LongSparseArray<Double> array, Integer timeAsSeconds) {
-        Double lastValue = null;
-
-        for (Integer index = 0; index < array.size(); index++) {
-            long tas = array.keyAt(index);
-            double value = array.valueAt(index);
-            if (lastValue == null) lastValue = value;
-            if (timeAsSeconds < tas) {
-                break;
-            }
-            lastValue = value;
-        }
-        return lastValue;
-    }
-
     protected String format_HH_MM(Integer timeAsSeconds) {
         String time;
         int hour = timeAsSeconds / 60 / 60;
@@ -398,9 +397,15 @@ public class Profile {
     }
 
     public double getIsfTimeFromMidnight(int timeAsSeconds) {
-        if (isf_v == null)
-            isf_v = convertToSparseArray(isf);
-        return getValueToTime(isf_v, timeAsSeconds);
+        ProfileSegments segments = isf_c;
+        if (segments == null) {
+            synchronized (this) {
+                if (isf_v == null)
+                    isf_v = convertToSparseArray(isf);
+                isf_c = segments = new ProfileSegments(isf_v);
+            }
+        }
+        return segments.valueAt(timeAsSeconds);
     }
 
     public String getIsfList() {
@@ -431,9 +436,15 @@ public class Profile {
     }
 
     public double getIcTimeFromMidnight(int timeAsSeconds) {
-        if (ic_v == null)
-            ic_v = convertToSparseArray(ic);
-        return getValueToTime(ic_v, timeAsSeconds);
+        ProfileSegments segments = ic_c;
+        if (segments == null) {
+            synchronized (this) {
+                if (ic_v == null)
+                    ic_v = convertToSparseArray(ic);
+                ic_c = segments = new ProfileSegments(ic_v);
+            }
+        }
+        return segments.valueAt(timeAsSeconds);
     }
 
     public String getIcList() {
@@ -463,11 +474,16 @@ public class Profile {
         return getBasalTimeFromMidnight(secondsFromMidnight(time));
     }
 
-    public synchronized double getBasalTimeFromMidnight(int timeAsSeconds) {
-        if (basal_v == null) {
-            basal_v = convertToSparseArray(basal);
+    public double getBasalTimeFromMidnight(int timeAsSeconds) {
+        ProfileSegments segments = basal_c;
+        if (segments == null) {
+            synchronized (this) {
+                if (basal_v == null)
+                    basal_v = convertToSparseArray(basal);
+                basal_c = segments = new ProfileSegments(basal_v);
+            }
         }
-        return getValueToTime(basal_v, timeAsSeconds);
+        return segments.valueAt(timeAsSeconds);
     }
 
     public String getBasalList() {
@@ -516,9 +532,15 @@ public class Profile {
     }
 
     double getTargetLowTimeFromMidnight(int timeAsSeconds) {
-        if (targetLow_v == null)
-            targetLow_v = convertToSparseArray(targetLow);
-        return getValueToTime(targetLow_v, timeAsSeconds);
+        ProfileSegments segments = targetLow_c;
+        if (segments == null) {
+            synchronized (this) {
+                if (targetLow_v == null)
+                    targetLow_v = convertToSparseArray(targetLow);
+                targetLow_c = segments = new ProfileSegments(targetLow_v);
+            }
+        }
+        return segments.valueAt(timeAsSeconds);
     }
 
     public double getTargetHighMgdl() {
@@ -530,9 +552,15 @@ public class Profile {
     }
 
     double getTargetHighTimeFromMidnight(int timeAsSeconds) {
-        if (targetHigh_v == null)
-            targetHigh_v = convertToSparseArray(targetHigh);
-        return getValueToTime(targetHigh_v, timeAsSeconds);
+        ProfileSegments segments = targetHigh_c;
+        if (segments == null) {
+            synchronized (this) {
+                if (targetHigh_v == null)
+                    targetHigh_v = convertToSparseArray(targetHigh);
+                targetHigh_c = segments = new ProfileSegments(targetHigh_v);
+            }
+        }
+        return segments.valueAt(timeAsSeconds);
     }
 
     public class TargetValue {
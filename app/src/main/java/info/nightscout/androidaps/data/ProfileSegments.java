@@ -0,0 +1,33 @@
+package info.nightscout.androidaps.data;
+
+import androidx.collection.LongSparseArray;
+
+/**
+ * Immutable primitive copy of one profile array (basal, isf, ic, targets)
+ * Segments are sorted by start (seconds from midnight), oldest at index 0
+ */
+class ProfileSegments {
+    private final int[] starts;
+    private final double[] values;
+
+    ProfileSegments(LongSparseArray<Double> array) {
+        starts = new int[array.size()];
+        values = new double[array.size()];
+        for (int index = 0; index < array.size(); index++) {
+            starts[index] = (int) array.keyAt(index);
+            values[index] = array.valueAt(index);
+        }
+    }
+
+    // value of the last segment started before timeAsSeconds, first value if there is none
+    double valueAt(int timeAsSeconds) {
+        int lo = 0;
+        int hi = starts.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= timeAsSeconds) lo = mid + 1;
+            else hi = mid - 1;
+        }
+        return values[Math.max(hi, 0)];
+    }
+}
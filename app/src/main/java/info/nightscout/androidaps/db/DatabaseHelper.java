@@ -5,6 +5,7 @@ import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 
 import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
 
 import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
 import com.j256.ormlite.dao.CloseableIterator;
@@ -93,6 +94,9 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
 
     private static final ScheduledExecutorService bgWorker = Executors.newSingleThreadScheduledExecutor();
     private static ScheduledFuture<?> scheduledBgPost = null;
+    // earliest changed reading of all changes merged into scheduled post
+    private static BgReading scheduledBgReading = null;
+    private static boolean scheduledBgReload = false;
 
     private static final ScheduledExecutorService tempBasalsWorker = Executors.newSingleThreadScheduledExecutor();
     private static ScheduledFuture<?> scheduledTemBasalsPost = null;
@@ -289,6 +293,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         try {
             TableUtils.dropTable(connectionSource, ProfileSwitch.class, true);
             TableUtils.createTableIfNotExists(connectionSource, ProfileSwitch.class);
+            updateEarliestDataChange(0);
         } catch (SQLException e) {
             log.error("Unhandled exception", e);
         }
@@ -390,6 +395,62 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return false;
     }
 
+    /**
+     * Store batch of readings (backfill) in one transaction. Stored records in the same
+     * time range are loaded by one query and only one EventNewBG with the earliest
+     * changed reading is sent for the whole batch.
+     *
+     * @return newly created readings
+     */
+    public List<BgReading> createIfNotExists(List<BgReading> bgReadings, String from) {
+        List<BgReading> created = new ArrayList<>();
+        if (bgReadings.isEmpty()) return created;
+        try {
+            Dao<BgReading, Long> daoBgReadings = getDaoBgReadings();
+            long start = Long.MAX_VALUE;
+            long end = 0;
+            for (BgReading bgReading : bgReadings) {
+                bgReading.date = roundDateToSec(bgReading.date);
+                start = Math.min(start, bgReading.date);
+                end = Math.max(end, bgReading.date);
+            }
+            LongSparseArray<BgReading> stored = new LongSparseArray<>();
+            for (BgReading old : daoBgReadings.queryBuilder().where().between("date", start, end).query())
+                stored.put(old.date, old);
+
+            // published only after batch is committed, nothing is stored on rollback
+            List<BgReading> createdInBatch = new ArrayList<>();
+            BgReading earliestChange = daoBgReadings.callBatchTasks(() -> {
+                BgReading earliest = null;
+                for (BgReading bgReading : bgReadings) {
+                    BgReading old = stored.get(bgReading.date);
+                    if (old == null) {
+                        daoBgReadings.create(bgReading);
+                        stored.put(bgReading.date, bgReading);
+                        createdInBatch.add(bgReading);
+                        if (L.isEnabled(L.DATABASE))
+                            log.debug("BG: New record from: " + from + " " + bgReading.toString());
+                    } else if (!old.isEqual(bgReading)) {
+                        old.copyFrom(bgReading);
+                        daoBgReadings.update(old);
+                        if (L.isEnabled(L.DATABASE))
+                            log.debug("BG: Updating record from: " + from + " New data: " + old.toString());
+                    } else
+                        continue;
+                    if (earliest == null || bgReading.date < earliest.date)
+                        earliest = bgReading;
+                }
+                return earliest;
+            });
+            created.addAll(createdInBatch);
+            if (earliestChange != null)
+                scheduleBgChange(earliestChange);
+        } catch (Exception e) {
+            log.error("Unhandled exception", e);
+        }
+        return created;
+    }
+
     public void update(BgReading bgReading) {
         bgReading.date = roundDateToSec(bgReading.date);
         try {
@@ -399,23 +460,40 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         }
     }
 
+    /**
+     * @param bgReading changed reading or null if everything must be reloaded
+     */
     private static void scheduleBgChange(@Nullable final BgReading bgReading) {
         class PostRunnable implements Runnable {
             public void run() {
+                BgReading earliest;
+                synchronized (bgWorker) {
+                    if (scheduledBgReading == null && !scheduledBgReload)
+                        return; // already posted by previous run
+                    earliest = scheduledBgReload ? null : scheduledBgReading;
+                    scheduledBgReading = null;
+                    scheduledBgReload = false;
+                    scheduledBgPost = null;
+                }
                 if (L.isEnabled(L.DATABASE))
                     log.debug("Firing EventNewBg");
-                RxBus.INSTANCE.send(new EventNewBG(bgReading));
-                scheduledBgPost = null;
+                RxBus.INSTANCE.send(new EventNewBG(earliest));
             }
         }
-        // prepare task for execution in 1 sec
-        // cancel waiting task to prevent sending multiple posts
-        if (scheduledBgPost != null)
-            scheduledBgPost.cancel(false);
-        Runnable task = new PostRunnable();
-        final int sec = 1;
-        scheduledBgPost = bgWorker.schedule(task, sec, TimeUnit.SECONDS);
-
+        synchronized (bgWorker) {
+            // posts are merged, keep the earliest change so calculation starts from there
+            if (bgReading == null)
+                scheduledBgReload = true;
+            else if (scheduledBgReading == null || bgReading.date < scheduledBgReading.date)
+                scheduledBgReading = bgReading;
+            // prepare task for execution in 1 sec
+            // cancel waiting task to prevent sending multiple posts
+            if (scheduledBgPost != null)
+                scheduledBgPost.cancel(false);
+            Runnable task = new PostRunnable();
+            final int sec = 1;
+            scheduledBgPost = bgWorker.schedule(task, sec, TimeUnit.SECONDS);
+        }
     }
 
     /*
@@ -572,6 +650,16 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return 0;
     }
 
+    // single statement for whole batch of acknowledged requests
+    public int deleteDbRequests(List<String> nsClientIds) {
+        try {
+            return getDaoDbRequest().deleteIds(nsClientIds);
+        } catch (SQLException e) {
+            log.error("Unhandled exception", e);
+        }
+        return 0;
+    }
+
     public void deleteDbRequestbyMongoId(String action, String id) {
         try {
             QueryBuilder<DbRequest, String> queryBuilder = getDaoDbRequest().queryBuilder();
@@ -1165,6 +1253,23 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return null;
     }
 
+    /**
+     * Returns stored records with given pump ids using one query for whole batch
+     */
+    public List<TemporaryBasal> findTempBasalsByPumpIds(List<Long> pumpIds) {
+        if (pumpIds.isEmpty()) return new ArrayList<>();
+        try {
+            QueryBuilder<TemporaryBasal, Long> queryBuilder = getDaoTemporaryBasal().queryBuilder();
+            Where where = queryBuilder.where();
+            where.in("pumpId", pumpIds);
+            PreparedQuery<TemporaryBasal> preparedQuery = queryBuilder.prepare();
+            return getDaoTemporaryBasal().query(preparedQuery);
+        } catch (SQLException e) {
+            log.error("Unhandled exception", e);
+        }
+        return new ArrayList<>();
+    }
+
 
     // ------------ ExtendedBolus handling ---------------
 
@@ -1681,6 +1786,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                         getDaoProfileSwitch().create(profileSwitch);
                         if (L.isEnabled(L.DATABASE))
                             log.debug("PROFILESWITCH: Updating record by date from: " + Source.getString(profileSwitch.source) + " " + old.toString());
+                        updateEarliestDataChange(profileSwitch.date);
                         scheduleProfileSwitchChange();
                         return true;
                     }
@@ -1696,11 +1802,14 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                     if (trList.size() > 0) {
                         old = trList.get(0);
                         if (!old.isEqual(profileSwitch)) {
+                            long oldDate = old.date;
                             getDaoProfileSwitch().delete(old); // need to delete/create because date may change too
                             old.copyFrom(profileSwitch);
                             getDaoProfileSwitch().create(old);
                             if (L.isEnabled(L.DATABASE))
                                 log.debug("PROFILESWITCH: Updating record by _id from: " + Source.getString(profileSwitch.source) + " " + old.toString());
+                            updateEarliestDataChange(oldDate);
+                            updateEarliestDataChange(old.date);
                             scheduleProfileSwitchChange();
                             return true;
                         }
@@ -1711,6 +1820,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                 getDaoProfileSwitch().create(profileSwitch);
                 if (L.isEnabled(L.DATABASE))
                     log.debug("PROFILESWITCH: New record from: " + Source.getString(profileSwitch.source) + " " + profileSwitch.toString());
+                updateEarliestDataChange(profileSwitch.date);
                 scheduleProfileSwitchChange();
                 return true;
             }
@@ -1718,6 +1828,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                 getDaoProfileSwitch().create(profileSwitch);
                 if (L.isEnabled(L.DATABASE))
                     log.debug("PROFILESWITCH: New record from: " + Source.getString(profileSwitch.source) + " " + profileSwitch.toString());
+                updateEarliestDataChange(profileSwitch.date);
                 scheduleProfileSwitchChange();
                 return true;
             }
@@ -1730,6 +1841,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     public void delete(ProfileSwitch profileSwitch) {
         try {
             getDaoProfileSwitch().delete(profileSwitch);
+            updateEarliestDataChange(profileSwitch.date);
             scheduleProfileSwitchChange();
         } catch (SQLException e) {
             log.error("Unhandled exception", e);
@@ -1743,6 +1855,9 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                     log.debug("Firing EventProfileNeedsUpdate");
                 RxBus.INSTANCE.send(new EventReloadProfileSwitchData());
                 RxBus.INSTANCE.send(new EventProfileNeedsUpdate());
+                if (earliestDataChange != null)
+                    RxBus.INSTANCE.send(new EventNewHistoryData(earliestDataChange));
+                earliestDataChange = null;
                 scheduledProfileSwitchEventPost = null;
             }
         }
@@ -1889,6 +2004,21 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return null;
     }
 
+    /**
+     * Bolus IDs of pump with timestamp between from and to, used to build InsightHistoryIndex
+     */
+    public List<InsightBolusID> getInsightBolusIDs(String pumpSerial, long from, long to) {
+        try {
+            return getDaoInsightBolusID().queryBuilder()
+                    .where().eq("pumpSerial", pumpSerial)
+                    .and().between("timestamp", from, to)
+                    .query();
+        } catch (SQLException e) {
+            log.error("Unhandled exception", e);
+        }
+        return new ArrayList<>();
+    }
+
     public void createOrUpdate(InsightPumpID pumpID) {
         try {
             getDaoInsightPumpID().createOrUpdate(pumpID);
@@ -1911,5 +2041,32 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return null;
     }
 
+    /**
+     * Stopped and paused events of pump with timestamp between from and to
+     */
+    public List<InsightPumpID> getPumpStoppedEvents(String pumpSerial, long from, long to) {
+        try {
+            return getDaoInsightPumpID().queryBuilder()
+                    .orderBy("timestamp", true)
+                    .where().eq("pumpSerial", pumpSerial)
+                    .and().in("eventType", "PumpStopped", "PumpPaused")
+                    .and().between("timestamp", from, to)
+                    .query();
+        } catch (SQLException e) {
+            log.error("Unhandled exception", e);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Stores all Insight history records written by batch in one transaction
+     */
+    public void runInInsightHistoryBatch(Runnable batch) throws Exception {
+        getDaoInsightPumpID().callBatchTasks(() -> {
+            batch.run();
+            return null;
+        });
+    }
+
     // ---------------- Food handling ---------------
 }
@@ -6,6 +6,8 @@ package info.nightscout.androidaps.db;
 
 import android.graphics.Color;
 
+import androidx.annotation.Nullable;
+
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 
@@ -26,7 +28,6 @@ import info.nightscout.androidaps.plugins.configBuilder.ConfigBuilderPlugin;
 import info.nightscout.androidaps.plugins.general.overview.graphExtensions.DataPointWithLabelInterface;
 import info.nightscout.androidaps.plugins.general.overview.graphExtensions.PointsWithLabelGraphSeries;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.AutosensResult;
-import info.nightscout.androidaps.plugins.treatments.Treatment;
 import info.nightscout.androidaps.utils.DateUtil;
 import info.nightscout.androidaps.utils.DecimalFormatter;
 import info.nightscout.androidaps.utils.JsonHelper;
@@ -219,84 +220,56 @@ public class ExtendedBolus implements Interval, DataPointWithLabelInterface {
 
     public IobTotal iobCalc(long time) {
         IobTotal result = new IobTotal(time);
-        InsulinInterface insulinInterface = ConfigBuilderPlugin.getPlugin().getActiveInsulin();
-
-        double realDuration = getDurationToTime(time);
-
-        if (realDuration > 0) {
-            double dia_ago = time - dia * 60 * 60 * 1000;
-            int aboutFiveMinIntervals = (int) Math.ceil(realDuration / 5d);
-            double spacing = realDuration / aboutFiveMinIntervals;
-
-            for (long j = 0L; j < aboutFiveMinIntervals; j++) {
-                // find middle of the interval
-                long calcdate = (long) (date + j * spacing * 60 * 1000 + 0.5d * spacing * 60 * 1000);
-
-                if (calcdate > dia_ago && calcdate <= time) {
-                    double tempBolusSize = absoluteRate() * spacing / 60d;
-
-                    Treatment tempBolusPart = new Treatment();
-                    tempBolusPart.insulin = tempBolusSize;
-                    tempBolusPart.date = calcdate;
-
-                    Iob aIOB = insulinInterface.iobCalcForTreatment(tempBolusPart, time, dia);
-                    result.iob += aIOB.iobContrib;
-                    result.activity += aIOB.activityContrib;
-                    result.extendedBolusInsulin += tempBolusPart.insulin;
-                }
-            }
-        }
+        addIobCalc(result, new Iob(), time, end(), null, 1d);
         return result;
     }
 
     public IobTotal iobCalc(long time, Profile profile, AutosensResult lastAutosensResult, boolean exercise_mode, int half_basal_exercise_target, boolean isTempTarget) {
         IobTotal result = new IobTotal(time);
-        InsulinInterface insulinInterface = ConfigBuilderPlugin.getPlugin().getActiveInsulin();
-
-        double realDuration = getDurationToTime(time);
-        double netBasalAmount = 0d;
+        addIobCalc(result, new Iob(), time, end(), profile, TemporaryBasal.sensitivityRatio(profile, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget));
+        return result;
+    }
 
-        double sensitivityRatio = lastAutosensResult.ratio;
-        double normalTarget = 100;
+    /**
+     * Allocation free IOB calculation. Adds IOB of this extended bolus delivered until end
+     * to total. Accumulator is only scratch space and may be shared between calls.
+     * Profile is needed only for autosens correction (sensitivityRatio != 1)
+     */
+    public void addIobCalc(IobTotal total, Iob accumulator, long time, long end, @Nullable Profile profile, double sensitivityRatio) {
+        InsulinInterface insulinInterface = ConfigBuilderPlugin.getPlugin().getActiveInsulin();
 
-        if (exercise_mode && isTempTarget && profile.getTargetMgdl() >= normalTarget + 5) {
-            // w/ target 100, temp target 110 = .89, 120 = 0.8, 140 = 0.67, 160 = .57, and 200 = .44
-            // e.g.: Sensitivity ratio set to 0.8 based on temp target of 120; Adjusting basal from 1.65 to 1.35; ISF from 58.9 to 73.6
-            double c = half_basal_exercise_target - normalTarget;
-            sensitivityRatio = c / (c + profile.getTargetMgdl() - normalTarget);
-        }
+        double realDuration = getDurationToTime(time, end);
 
         if (realDuration > 0) {
-            double netBasalRate;
+            double absoluteRate = absoluteRate();
             double dia_ago = time - dia * 60 * 60 * 1000;
             int aboutFiveMinIntervals = (int) Math.ceil(realDuration / 5d);
             double spacing = realDuration / aboutFiveMinIntervals;
 
+            double extendedBolusInsulin = 0d;
+            accumulator.iobContrib = 0d;
+            accumulator.activityContrib = 0d;
+
             for (long j = 0L; j < aboutFiveMinIntervals; j++) {
                 // find middle of the interval
                 long calcdate = (long) (date + j * spacing * 60 * 1000 + 0.5d * spacing * 60 * 1000);
 
-                double basalRate = profile.getBasal(calcdate);
-                double basalRateCorrection = basalRate * (sensitivityRatio - 1);
-
-
-                netBasalRate = absoluteRate() - basalRateCorrection;
+                double netBasalRate = absoluteRate;
+                if (profile != null) {
+                    double basalRateCorrection = profile.getBasal(calcdate) * (sensitivityRatio - 1);
+                    netBasalRate = absoluteRate - basalRateCorrection;
+                }
 
                 if (calcdate > dia_ago && calcdate <= time) {
                     double tempBolusSize = netBasalRate * spacing / 60d;
-
-                    Treatment tempBolusPart = new Treatment();
-                    tempBolusPart.insulin = tempBolusSize;
-                    tempBolusPart.date = calcdate;
-
-                    Iob aIOB = insulinInterface.iobCalcForTreatment(tempBolusPart, time, dia);
-                    result.iob += aIOB.iobContrib;
-                    result.activity += aIOB.activityContrib;
-                    result.extendedBolusInsulin += tempBolusPart.insulin;
+                    extendedBolusInsulin += tempBolusSize;
+                    insulinInterface.addIobContrib(tempBolusSize, calcdate, time, dia, accumulator);
                 }
             }
+            total.iob += accumulator.iobContrib;
+            total.activity += accumulator.activityContrib;
+            total.extendedBolusInsulin += extendedBolusInsulin;
         }
-        return result;
     }
 
     public int getRealDuration() {
@@ -304,7 +277,11 @@ public class ExtendedBolus implements Interval, DataPointWithLabelInterface {
     }
 
     private int getDurationToTime(long time) {
-        long endTime = Math.min(time, end());
+        return getDurationToTime(time, end());
+    }
+
+    private int getDurationToTime(long time, long end) {
+        long endTime = Math.min(time, end);
         long msecs = endTime - date;
         return Math.round(msecs / 60f / 1000);
     }
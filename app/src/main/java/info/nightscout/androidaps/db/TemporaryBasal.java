@@ -18,7 +18,6 @@ import info.nightscout.androidaps.logging.L;
 import info.nightscout.androidaps.plugins.configBuilder.ConfigBuilderPlugin;
 import info.nightscout.androidaps.plugins.configBuilder.ProfileFunctions;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.AutosensResult;
-import info.nightscout.androidaps.plugins.treatments.Treatment;
 import info.nightscout.androidaps.utils.DateUtil;
 import info.nightscout.androidaps.utils.DecimalFormatter;
 import info.nightscout.androidaps.utils.SP;
@@ -236,50 +235,7 @@ public class TemporaryBasal implements Interval, DbObjectBase {
         }
 
         IobTotal result = new IobTotal(time);
-        InsulinInterface insulinInterface = ConfigBuilderPlugin.getPlugin().getActiveInsulin();
-
-        int realDuration = getDurationToTime(time);
-        double netBasalAmount = 0d;
-
-        if (realDuration > 0) {
-            double netBasalRate;
-            double dia = profile.getDia();
-            double dia_ago = time - dia * 60 * 60 * 1000;
-            int aboutFiveMinIntervals = (int) Math.ceil(realDuration / 5d);
-            double tempBolusSpacing = realDuration / aboutFiveMinIntervals;
-
-            for (long j = 0L; j < aboutFiveMinIntervals; j++) {
-                // find middle of the interval
-                long calcdate = (long) (date + j * tempBolusSpacing * 60 * 1000 + 0.5d * tempBolusSpacing * 60 * 1000);
-
-                double basalRate = profile.getBasal(calcdate);
-
-                if (isAbsolute) {
-                    netBasalRate = absoluteRate - basalRate;
-                } else {
-                    netBasalRate = (percentRate - 100) / 100d * basalRate;
-                }
-
-                if (calcdate > dia_ago && calcdate <= time) {
-                    double tempBolusSize = netBasalRate * tempBolusSpacing / 60d;
-                    netBasalAmount += tempBolusSize;
-
-                    Treatment tempBolusPart = new Treatment();
-                    tempBolusPart.insulin = tempBolusSize;
-                    tempBolusPart.date = calcdate;
-
-                    Iob aIOB = insulinInterface.iobCalcForTreatment(tempBolusPart, time, dia);
-                    result.basaliob += aIOB.iobContrib;
-                    result.activity += aIOB.activityContrib;
-                    result.netbasalinsulin += tempBolusPart.insulin;
-                    if (tempBolusPart.insulin > 0) {
-                        result.hightempinsulin += tempBolusPart.insulin;
-                    }
-                }
-                result.netRatio = netBasalRate; // ratio at the end of interval
-            }
-        }
-        result.netInsulin = netBasalAmount;
+        result.netRatio = addIobCalc(result, new Iob(), time, end(), profile, 1d);
         return result;
     }
 
@@ -291,11 +247,11 @@ public class TemporaryBasal implements Interval, DbObjectBase {
         }
 
         IobTotal result = new IobTotal(time);
-        InsulinInterface insulinInterface = ConfigBuilderPlugin.getPlugin().getActiveInsulin();
-
-        double realDuration = getDurationToTime(time);
-        double netBasalAmount = 0d;
+        result.netRatio = addIobCalc(result, new Iob(), time, end(), profile, sensitivityRatio(profile, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget));
+        return result;
+    }
 
+    public static double sensitivityRatio(Profile profile, AutosensResult lastAutosensResult, boolean exercise_mode, int half_basal_exercise_target, boolean isTempTarget) {
         double sensitivityRatio = lastAutosensResult.ratio;
         double normalTarget = 100;
 
@@ -305,49 +261,67 @@ public class TemporaryBasal implements Interval, DbObjectBase {
             double c = half_basal_exercise_target - normalTarget;
             sensitivityRatio = c / (c + profile.getTargetMgdl() - normalTarget);
         }
+        return sensitivityRatio;
+    }
+
+    /**
+     * Allocation free IOB calculation. Adds IOB of this temp basal delivered until end
+     * to total. Accumulator is only scratch space and may be shared between calls.
+     *
+     * @return net basal rate at the end of interval
+     */
+    public double addIobCalc(IobTotal total, Iob accumulator, long time, long end, Profile profile, double sensitivityRatio) {
+
+        if (isFakeExtended) {
+            log.error("iobCalc should only be called on Extended boluses separately");
+            return 0d;
+        }
+
+        InsulinInterface insulinInterface = ConfigBuilderPlugin.getPlugin().getActiveInsulin();
+
+        int realDuration = getDurationToTime(time, end);
+        double netBasalRate = 0d;
 
         if (realDuration > 0) {
-            double netBasalRate;
             double dia = profile.getDia();
             double dia_ago = time - dia * 60 * 60 * 1000;
             int aboutFiveMinIntervals = (int) Math.ceil(realDuration / 5d);
             double tempBolusSpacing = realDuration / aboutFiveMinIntervals;
 
+            double netBasalAmount = 0d;
+            double hightempinsulin = 0d;
+            accumulator.iobContrib = 0d;
+            accumulator.activityContrib = 0d;
+
             for (long j = 0L; j < aboutFiveMinIntervals; j++) {
                 // find middle of the interval
                 long calcdate = (long) (date + j * tempBolusSpacing * 60 * 1000 + 0.5d * tempBolusSpacing * 60 * 1000);
 
-                double basalRate = profile.getBasal(calcdate);
-                basalRate *= sensitivityRatio;
+                double profileBasal = profile.getBasal(calcdate);
+                double basalRate = profileBasal * sensitivityRatio;
 
                 if (isAbsolute) {
                     netBasalRate = absoluteRate - basalRate;
                 } else {
-                    double abs = percentRate / 100d * profile.getBasal(calcdate);
-                    netBasalRate = abs - basalRate;
+                    netBasalRate = percentRate / 100d * profileBasal - basalRate;
                 }
 
                 if (calcdate > dia_ago && calcdate <= time) {
                     double tempBolusSize = netBasalRate * tempBolusSpacing / 60d;
                     netBasalAmount += tempBolusSize;
-
-                    Treatment tempBolusPart = new Treatment();
-                    tempBolusPart.insulin = tempBolusSize;
-                    tempBolusPart.date = calcdate;
-
-                    Iob aIOB = insulinInterface.iobCalcForTreatment(tempBolusPart, time, dia);
-                    result.basaliob += aIOB.iobContrib;
-                    result.activity += aIOB.activityContrib;
-                    result.netbasalinsulin += tempBolusPart.insulin;
-                    if (tempBolusPart.insulin > 0) {
-                        result.hightempinsulin += tempBolusPart.insulin;
+                    if (tempBolusSize > 0) {
+                        hightempinsulin += tempBolusSize;
                     }
+                    insulinInterface.addIobContrib(tempBolusSize, calcdate, time, dia, accumulator);
                 }
-                result.netRatio = netBasalRate; // ratio at the end of interval
             }
+            total.basaliob += accumulator.iobContrib;
+            total.activity += accumulator.activityContrib;
+            total.netbasalinsulin += netBasalAmount;
+            total.hightempinsulin += hightempinsulin;
+            total.netInsulin += netBasalAmount;
         }
-        result.netInsulin = netBasalAmount;
-        return result;
+        return netBasalRate;
     }
 
     public int getRealDuration() {
@@ -355,7 +329,11 @@ public class TemporaryBasal implements Interval, DbObjectBase {
     }
 
     private int getDurationToTime(long time) {
-        long endTime = Math.min(time, end());
+        return getDurationToTime(time, end());
+    }
+
+    private int getDurationToTime(long time, long end) {
+        long endTime = Math.min(time, end);
         long msecs = endTime - date;
         return Math.round(msecs / 60f / 1000);
     }
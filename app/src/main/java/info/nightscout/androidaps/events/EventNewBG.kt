@@ -2,4 +2,7 @@ package info.nightscout.androidaps.events
 
 import info.nightscout.androidaps.db.BgReading
 
-class EventNewBG(val bgReading: BgReading?) : EventLoop()
\ No newline at end of file
+/**
+ * @param bgReading earliest reading changed since last event, null if all data must be reloaded
+ */
+class EventNewBG(val bgReading: BgReading?) : EventLoop()
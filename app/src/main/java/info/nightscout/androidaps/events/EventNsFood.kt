@@ -1,16 +1,16 @@
 package info.nightscout.androidaps.events
 
-import android.os.Bundle
+import org.json.JSONArray
 
 /**
  * Event which is published with data fetched from NightScout specific for the
  * Food-class.
  *
- * Payload is the from NS retrieved JSON-String which should be handled by all
+ * Payload is the from NS retrieved JSON array which should be handled by all
  * subscriber.
  */
 
-class EventNsFood(val mode: Int, val payload: Bundle) : Event() {
+class EventNsFood(val mode: Int, val payload: JSONArray) : Event() {
     companion object {
         val ADD = 0
         val UPDATE = 1
@@ -20,4 +20,10 @@ public interface InsulinInterface {
     String getComment();
     double getDia();
     Iob iobCalcForTreatment(Treatment treatment, long time, double dia);
+
+    /**
+     * Allocation free variant of iobCalcForTreatment for temp basal and extended bolus slices.
+     * Adds iob and activity of insulin delivered at bolusTime to accumulator.
+     */
+    void addIobContrib(double insulin, long bolusTime, long time, double dia, Iob accumulator);
 }
@@ -41,6 +41,14 @@ public interface TreatmentsInterface {
 
     boolean addToHistoryTempBasal(TemporaryBasal tempBasal);
 
+    /**
+     * Store records read from pump history in one transaction.
+     * Records already stored with the same pumpId are skipped without touching DB.
+     *
+     * @return number of newly created records
+     */
+    int addToHistoryTempBasals(List<TemporaryBasal> tempBasals);
+
     // basal that can be faked by extended boluses
     boolean isTempBasalInProgress();
     TemporaryBasal getTempBasalFromHistory(long time);
@@ -54,6 +62,15 @@ public interface TreatmentsInterface {
 
     boolean addToHistoryTreatment(DetailedBolusInfo detailedBolusInfo, boolean allowUpdate);
 
+    /**
+     * Store boluses read from pump history in one transaction. Update is allowed.
+     * Unchanged records already stored with the same pumpId are skipped without touching DB
+     * and treatments change is announced once for whole batch.
+     *
+     * @return number of newly created records
+     */
+    int addToHistoryTreatments(List<DetailedBolusInfo> detailedBolusInfos);
+
     TempTarget getTempTargetFromHistory();
     TempTarget getTempTargetFromHistory(long time);
     Intervals<TempTarget> getTempTargetsFromHistory();
@@ -0,0 +1,125 @@
+package info.nightscout.androidaps.plugins.aps.loop;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import info.nightscout.androidaps.logging.L;
+import info.nightscout.androidaps.plugins.aps.openAPSMA.LoggerCallback;
+
+/**
+ * Rhino objects shared by determine-basal adapters
+ * <p>
+ * Standard objects are initialized only once into sealed shared scope and every
+ * invocation gets its own top level scope with shared one as prototype.
+ * Scripts are compiled only once and executed in the new scope, so no state
+ * leaks from previous loop run.
+ * Context must be entered with optimization level -1 (Android compatible)
+ */
+public class RhinoScripts {
+    private static Logger log = LoggerFactory.getLogger(L.APS);
+
+    private static ScriptableObject sharedScope = null;
+    private static final Map<String, Script> scripts = new HashMap<>();
+
+    public static Scriptable newScope(Context rhino) throws IllegalAccessException, InstantiationException, InvocationTargetException {
+        ScriptableObject shared;
+        synchronized (RhinoScripts.class) {
+            if (sharedScope == null) {
+                ScriptableObject scope = rhino.initStandardObjects(null, true);
+                ScriptableObject.defineClass(scope, LoggerCallback.class);
+                scope.sealObject();
+                sharedScope = scope;
+            }
+            shared = sharedScope;
+        }
+        Scriptable scope = rhino.newObject(shared);
+        scope.setPrototype(shared);
+        scope.setParentScope(null);
+        return scope;
+    }
+
+    // file from assets, compiled on first use
+    public static Script getScript(Context rhino, ScriptReader scriptReader, String fileName) throws IOException {
+        synchronized (scripts) {
+            Script script = scripts.get(fileName);
+            if (script == null) {
+                long start = System.currentTimeMillis();
+                script = rhino.compileString(readFile(scriptReader, fileName), fileName, 0, null);
+                scripts.put(fileName, script);
+                if (L.isEnabled(L.APS))
+                    log.debug("Compiled " + fileName + " in " + (System.currentTimeMillis() - start) + " ms");
+            }
+            return script;
+        }
+    }
+
+    // inline code, keyed by its source
+    public static Script getScript(Context rhino, String source, String sourceName) {
+        synchronized (scripts) {
+            Script script = scripts.get(source);
+            if (script == null) {
+                script = rhino.compileString(source, sourceName, 0, null);
+                scripts.put(source, script);
+            }
+            return script;
+        }
+    }
+
+    /**
+     * Build native JS value directly instead of JSON.parse(json.toString())
+     * Numbers are created the same way as Rhino JSON parser does
+     */
+    public static Object toNative(Context rhino, Scriptable scope, @Nullable Object value) throws JSONException {
+        if (value == null || value == JSONObject.NULL) return null;
+        if (value instanceof JSONObject) {
+            JSONObject json = (JSONObject) value;
+            Scriptable object = rhino.newObject(scope);
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                object.put(key, object, toNative(rhino, scope, json.get(key)));
+            }
+            return object;
+        }
+        if (value instanceof JSONArray) {
+            JSONArray json = (JSONArray) value;
+            Object[] elements = new Object[json.length()];
+            for (int i = 0; i < json.length(); i++)
+                elements[i] = toNative(rhino, scope, json.get(i));
+            return rhino.newArray(scope, elements);
+        }
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            int i = (int) d;
+            if (i == d) return i;
+            return d;
+        }
+        if (value instanceof Boolean || value instanceof String) return value;
+        return value.toString();
+    }
+
+    private static String readFile(ScriptReader scriptReader, String fileName) throws IOException {
+        byte[] bytes = scriptReader.readFile(fileName);
+        String string = new String(bytes, StandardCharsets.UTF_8);
+        if (string.startsWith("#!/usr/bin/env node")) {
+            string = string.substring(20);
+        }
+        return string;
+    }
+}
@@ -9,14 +9,12 @@ import org.mozilla.javascript.NativeJSON;
 import org.mozilla.javascript.NativeObject;
 import org.mozilla.javascript.RhinoException;
 import org.mozilla.javascript.Scriptable;
-import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.Undefined;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.charset.StandardCharsets;
 
 import javax.annotation.Nullable;
 
@@ -31,6 +29,7 @@ import info.nightscout.androidaps.data.Profile;
 import info.nightscout.androidaps.db.TemporaryBasal;
 import info.nightscout.androidaps.logging.L;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.IobCobCalculatorPlugin;
+import info.nightscout.androidaps.plugins.aps.loop.RhinoScripts;
 import info.nightscout.androidaps.plugins.aps.loop.ScriptReader;
 import info.nightscout.androidaps.plugins.aps.openAPSMA.LoggerCallback;
 import info.nightscout.androidaps.plugins.aps.openAPSSMB.SMBDefaults;
@@ -82,26 +81,26 @@ public class DetermineBasalAdapterAMAJS {
         DetermineBasalResultAMA determineBasalResultAMA = null;
 
         Context rhino = Context.enter();
-        Scriptable scope = rhino.initStandardObjects();
         // Turn off optimization to make Rhino Android compatible
         rhino.setOptimizationLevel(-1);
 
         try {
+            // fresh top level scope on top of shared standard objects
+            Scriptable scope = RhinoScripts.newScope(rhino);
 
             //register logger callback for console.log and console.error
-            ScriptableObject.defineClass(scope, LoggerCallback.class);
             Scriptable myLogger = rhino.newObject(scope, "LoggerCallback", null);
             scope.put("console2", scope, myLogger);
-            rhino.evaluateString(scope, readFile("OpenAPSAMA/loggerhelper.js"), "JavaScript", 0, null);
+            RhinoScripts.getScript(rhino, mScriptReader, "OpenAPSAMA/loggerhelper.js").exec(rhino, scope);
 
             //set module parent
-            rhino.evaluateString(scope, "var module = {\"parent\":Boolean(1)};", "JavaScript", 0, null);
-            rhino.evaluateString(scope, "var round_basal = function round_basal(basal, profile) { return basal; };", "JavaScript", 0, null);
-            rhino.evaluateString(scope, "require = function() {return round_basal;};", "JavaScript", 0, null);
+            RhinoScripts.getScript(rhino, "var module = {\"parent\":Boolean(1)};", "JavaScript").exec(rhino, scope);
+            RhinoScripts.getScript(rhino, "var round_basal = function round_basal(basal, profile) { return basal; };", "JavaScript").exec(rhino, scope);
+            RhinoScripts.getScript(rhino, "require = function() {return round_basal;};", "JavaScript").exec(rhino, scope);
 
             //generate functions "determine_basal" and "setTempBasal"
-            rhino.evaluateString(scope, readFile("OpenAPSAMA/determine-basal.js"), "JavaScript", 0, null);
-            rhino.evaluateString(scope, readFile("OpenAPSAMA/basal-set-temp.js"), "setTempBasal.js", 0, null);
+            RhinoScripts.getScript(rhino, mScriptReader, "OpenAPSAMA/determine-basal.js").exec(rhino, scope);
+            RhinoScripts.getScript(rhino, mScriptReader, "OpenAPSAMA/basal-set-temp.js").exec(rhino, scope);
             Object determineBasalObj = scope.get("determine_basal", scope);
             Object setTempBasalFunctionsObj = scope.get("tempBasalFunctions", scope);
 
@@ -113,7 +112,7 @@ public class DetermineBasalAdapterAMAJS {
                 Object[] params = new Object[]{
                         makeParam(mGlucoseStatus, rhino, scope),
                         makeParam(mCurrentTemp, rhino, scope),
-                        makeParamArray(mIobData, rhino, scope),
+                        RhinoScripts.toNative(rhino, scope, mIobData),
                         makeParam(mProfile, rhino, scope),
                         makeParam(mAutosensData, rhino, scope),
                         makeParam(mMealData, rhino, scope),
@@ -136,6 +135,8 @@ public class DetermineBasalAdapterAMAJS {
             }
         } catch (IOException e) {
             log.error("IOException");
+        } catch (JSONException e) {
+            log.error("Unhandled exception", e);
         } catch (RhinoException e) {
             log.error("RhinoException: (" + e.lineNumber() + "," + e.columnNumber() + ") " + e.toString());
         } catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
@@ -264,27 +265,11 @@ public class DetermineBasalAdapterAMAJS {
     }
 
 
-    private Object makeParam(JSONObject jsonObject, Context rhino, Scriptable scope) {
+    private Object makeParam(JSONObject jsonObject, Context rhino, Scriptable scope) throws JSONException {
 
         if (jsonObject == null) return Undefined.instance;
 
-        Object param = NativeJSON.parse(rhino, scope, jsonObject.toString(), (context, scriptable, scriptable1, objects) -> objects[1]);
-        return param;
-    }
-
-    private Object makeParamArray(JSONArray jsonArray, Context rhino, Scriptable scope) {
-        //Object param = NativeJSON.parse(rhino, scope, "{myarray: " + jsonArray.toString() + " }", new Callable() {
-        Object param = NativeJSON.parse(rhino, scope, jsonArray.toString(), (context, scriptable, scriptable1, objects) -> objects[1]);
-        return param;
-    }
-
-    private String readFile(String filename) throws IOException {
-        byte[] bytes = mScriptReader.readFile(filename);
-        String string = new String(bytes, StandardCharsets.UTF_8);
-        if (string.startsWith("#!/usr/bin/env node")) {
-            string = string.substring(20);
-        }
-        return string;
+        return RhinoScripts.toNative(rhino, scope, jsonObject);
     }
 
 }
@@ -0,0 +1,1261 @@
+package info.nightscout.androidaps.plugins.aps.openAPSSMB;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.javascript.ScriptRuntime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import info.nightscout.androidaps.logging.L;
+
+/**
+ * Java port of OpenAPSSMB/determine-basal.js including basal-set-temp.js
+ * and round_basal stub used by DetermineBasalAdapterSMBJS.
+ * <p>
+ * Inputs and result are the same as in JS version, console output is returned by getScriptDebug().
+ * JS semantics is kept (undefined values, number to string conversion, Math.round)
+ * so the result is identical. Verified by DetermineBasalSMBParityTest,
+ * any change in determine-basal.js must be ported here too.
+ */
+class DetermineBasalSMB {
+    private static Logger log = LoggerFactory.getLogger(L.APS);
+
+    private static final int MAX_PREDICTIONS = 48;
+
+    private final long now;
+    private final StringBuilder console = new StringBuilder();
+
+    DetermineBasalSMB(long now) {
+        this.now = now;
+    }
+
+    String getScriptDebug() {
+        return console.length() > 0 ? "d:\n" + console.toString() : "";
+    }
+
+    JSONObject determineBasal(JSONObject glucose_status, JSONObject currenttemp, JSONArray iobArray, JSONObject profile,
+                              @Nullable JSONObject autosens_data, JSONObject meal_data, boolean microBolusAllowed) throws JSONException {
+        JSONObject rT = new JSONObject(); //short for requestedTemp
+
+        String deliverAt = isoString(now);
+
+        if (!profile.has("current_basal")) {
+            rT.put("error", "Error: could not get current basal rate");
+            return rT;
+        }
+        double profile_current_basal = num(profile, "current_basal");
+        double basal = profile_current_basal;
+
+        double bgTime = num(glucose_status, "date");
+        double minAgo = round((now - bgTime) / 60 / 1000, 1);
+
+        double bg = num(glucose_status, "glucose");
+        if (bg < 39) {  //Dexcom is in ??? mode or calibrating
+            rT.put("reason", "CGM is calibrating or in ??? state");
+        }
+        if (minAgo > 12 || minAgo < -5) { // Dexcom data is too old, or way in the future
+            rT.put("reason", "If current system time " + dateString(now) + " is correct, then BG data is too old. The last BG data was read " + str(minAgo) + "m ago at " + dateString(bgTime));
+        }
+        if (bg < 39 || minAgo > 12 || minAgo < -5) {
+            if (num(currenttemp, "rate") >= basal) { // high temp is running
+                addReason(rT, ". Canceling high temp basal of " + str(currenttemp.opt("rate")));
+                rT.put("deliverAt", deliverAt);
+                rT.put("temp", "absolute");
+                rT.put("duration", 0);
+                rT.put("rate", 0);
+                return rT;
+            } else if (num(currenttemp, "rate") == 0 && num(currenttemp, "duration") > 30) { //shorten long zero temps to 30m
+                addReason(rT, ". Shortening " + str(currenttemp.opt("duration")) + "m long zero temp to 30m. ");
+                rT.put("deliverAt", deliverAt);
+                rT.put("temp", "absolute");
+                rT.put("duration", 30);
+                rT.put("rate", 0);
+                return rT;
+            } else { //do nothing.
+                addReason(rT, ". Temp " + str(currenttemp.opt("rate")) + " <= current basal " + str(basal) + "U/hr; doing nothing. ");
+                return rT;
+            }
+        }
+
+        double max_iob = num(profile, "max_iob"); // maximum amount of non-bolus IOB OpenAPS will ever deliver
+
+        // if min and max are set, then set target to their average
+        double target_bg;
+        double min_bg;
+        double max_bg;
+        if (profile.has("min_bg") && profile.has("max_bg")) {
+            min_bg = num(profile, "min_bg");
+            max_bg = num(profile, "max_bg");
+            target_bg = (min_bg + max_bg) / 2;
+        } else {
+            rT.put("error", "Error: could not determine target_bg. ");
+            return rT;
+        }
+
+        Double sensitivityRatio = null; // undefined
+        boolean high_temptarget_raises_sensitivity = truthy(profile, "exercise_mode") || truthy(profile, "high_temptarget_raises_sensitivity");
+        double normalTarget = 100; // evaluate high/low temptarget against 100, not scheduled basal (which might change)
+        double halfBasalTarget;
+        if (truthy(profile, "half_basal_exercise_target")) {
+            halfBasalTarget = num(profile, "half_basal_exercise_target");
+        } else {
+            halfBasalTarget = 160; // when temptarget is 160 mg/dL, run 50% basal (120 = 75%; 140 = 60%)
+        }
+        if (high_temptarget_raises_sensitivity && truthy(profile, "temptargetSet") && target_bg > normalTarget + 10
+                || truthy(profile, "low_temptarget_lowers_sensitivity") && truthy(profile, "temptargetSet") && target_bg < normalTarget) {
+            // w/ target 100, temp target 110 = .89, 120 = 0.8, 140 = 0.67, 160 = .57, and 200 = .44
+            double c = halfBasalTarget - normalTarget;
+            double ratio = c / (c + target_bg - normalTarget);
+            // limit sensitivityRatio to profile.autosens_max (1.2x by default)
+            ratio = Math.min(ratio, num(profile, "autosens_max"));
+            sensitivityRatio = round(ratio, 2);
+            consoleError("Sensitivity ratio set to " + str(sensitivityRatio) + " based on temp target of " + str(target_bg) + "; ");
+        } else if (autosens_data != null) {
+            sensitivityRatio = autosens_data.has("ratio") ? num(autosens_data, "ratio") : null;
+            consoleError("Autosens ratio: " + str(sensitivityRatio) + "; ");
+        }
+        double ratio = sensitivityRatio != null ? sensitivityRatio : Double.NaN;
+        if (truthy(ratio)) {
+            basal = profile_current_basal * ratio;
+            if (basal != profile_current_basal) {
+                consoleError("Adjusting basal from " + str(profile_current_basal) + " to " + str(basal) + "; ");
+            } else {
+                consoleError("Basal unchanged: " + str(basal) + "; ");
+            }
+        }
+
+        // adjust min, max, and target BG for sensitivity, such that 50% increase in ISF raises target from 100 to 120
+        if (truthy(profile, "temptargetSet")) {
+            //console.error("Temp Target set, not adjusting with autosens; ");
+        } else if (autosens_data != null) {
+            double autosensRatio = num(autosens_data, "ratio");
+            if (truthy(profile, "sensitivity_raises_target") && autosensRatio < 1 || truthy(profile, "resistance_lowers_target") && autosensRatio > 1) {
+                // with a target of 100, default 0.7-1.2 autosens min/max range would allow a 93-117 target range
+                min_bg = round((min_bg - 60) / autosensRatio) + 60;
+                max_bg = round((max_bg - 60) / autosensRatio) + 60;
+                double new_target_bg = round((target_bg - 60) / autosensRatio) + 60;
+                // don't allow target_bg below 80
+                new_target_bg = Math.max(80, new_target_bg);
+                if (target_bg == new_target_bg) {
+                    consoleError("target_bg unchanged: " + str(new_target_bg) + "; ");
+                } else {
+                    consoleError("target_bg from " + str(target_bg) + " to " + str(new_target_bg) + "; ");
+                }
+                target_bg = new_target_bg;
+            }
+        }
+
+        // single element array is not unwrapped in JS and fails on missing properties
+        JSONObject iob_data = iobArray.length() > 1 ? iobArray.getJSONObject(0) : null;
+        if (iob_data == null || !iob_data.has("activity") || !iob_data.has("iob")) {
+            rT.put("error", "Error: iob_data missing some property. ");
+            return rT;
+        }
+
+        double tickValue = round(num(glucose_status, "delta"), 0);
+        Object tick;
+        if (num(glucose_status, "delta") > -0.5) {
+            tick = "+" + str(tickValue);
+        } else {
+            tick = tickValue;
+        }
+        double minDelta = Math.min(num(glucose_status, "delta"), num(glucose_status, "short_avgdelta"));
+        double minAvgDelta = Math.min(num(glucose_status, "short_avgdelta"), num(glucose_status, "long_avgdelta"));
+        double maxDelta = Math.max(num(glucose_status, "delta"), Math.max(num(glucose_status, "short_avgdelta"), num(glucose_status, "long_avgdelta")));
+
+        double profile_sens = round(num(profile, "sens"), 1);
+        double sens = num(profile, "sens");
+        if (autosens_data != null) {
+            sens = num(profile, "sens") / ratio;
+            sens = round(sens, 1);
+            if (sens != profile_sens) {
+                consoleError("ISF from " + str(profile_sens) + " to " + str(sens));
+            } else {
+                consoleError("ISF unchanged: " + str(sens));
+            }
+        }
+        consoleError("; CR:", profile.opt("carb_ratio"));
+
+        // compare currenttemp to iob_data.lastTemp and cancel temp if they don't match
+        JSONObject lastTemp = iob_data.optJSONObject("lastTemp");
+        double lastTempAge;
+        if (lastTemp != null) {
+            lastTempAge = round((now - num(lastTemp, "date")) / 60000); // in minutes
+        } else {
+            lastTempAge = 0;
+        }
+        double tempModulus = (lastTempAge + num(currenttemp, "duration")) % 30;
+        consoleError("currenttemp:", currenttemp, "lastTempAge:", lastTempAge, "m", "tempModulus:", tempModulus, "m");
+        rT.put("temp", "absolute");
+        rT.put("deliverAt", deliverAt);
+        if (microBolusAllowed && lastTemp != null && num(currenttemp, "rate") != num(lastTemp, "rate")) {
+            rT.put("reason", "Warning: currenttemp rate " + str(currenttemp.opt("rate")) + " != lastTemp rate " + str(lastTemp.opt("rate")) + " from pumphistory; setting neutral temp of " + str(basal) + ".");
+            return setTempBasal(basal, 30, profile, rT, currenttemp);
+        }
+        if (lastTemp != null && num(currenttemp, "duration") > 0) {
+            double lastTempEnded = lastTempAge - num(lastTemp, "duration");
+            if (lastTempEnded > 5) {
+                rT.put("reason", "Warning: currenttemp running but lastTemp from pumphistory ended " + str(lastTempEnded) + "m ago; setting neutral temp of " + str(basal) + ".");
+                return setTempBasal(basal, 30, profile, rT, currenttemp);
+            }
+        }
+
+        //calculate BG impact: the amount BG "should" be rising or falling based on insulin activity alone
+        double bgi = round((-num(iob_data, "activity") * sens * 5), 2);
+        // project deviations for 30 minutes
+        double deviation = round(30d / 5 * (minDelta - bgi));
+        // don't overreact to a big negative delta: use minAvgDelta if deviation is negative
+        if (deviation < 0) {
+            deviation = round((30d / 5) * (minAvgDelta - bgi));
+            // and if deviation is still negative, use long_avgdelta
+            if (deviation < 0) {
+                deviation = round((30d / 5) * (num(glucose_status, "long_avgdelta") - bgi));
+            }
+        }
+
+        // calculate the naive (bolus calculator math) eventual BG based on net IOB and sensitivity
+        double naive_eventualBG;
+        if (num(iob_data, "iob") > 0) {
+            naive_eventualBG = round(bg - (num(iob_data, "iob") * sens));
+        } else { // if IOB is negative, be more conservative and use the lower of sens, profile.sens
+            naive_eventualBG = round(bg - (num(iob_data, "iob") * Math.min(sens, num(profile, "sens"))));
+        }
+        // and adjust it for the deviation above
+        double eventualBG = naive_eventualBG + deviation;
+
+        // adjust target BG range if needed to safely bring down high BG faster without causing lows
+        if (bg > max_bg && truthy(profile, "adv_target_adjustments") && !truthy(profile, "temptargetSet")) {
+            // with target=100, as BG rises from 100 to 160, adjustedTarget drops from 100 to 80
+            double adjustedMinBG = round(Math.max(80, min_bg - (bg - min_bg) / 3), 0);
+            double adjustedTargetBG = round(Math.max(80, target_bg - (bg - target_bg) / 3), 0);
+            double adjustedMaxBG = round(Math.max(80, max_bg - (bg - max_bg) / 3), 0);
+            // if eventualBG, naive_eventualBG, and target_bg aren't all above adjustedMinBG, don't use it
+            if (eventualBG > adjustedMinBG && naive_eventualBG > adjustedMinBG && min_bg > adjustedMinBG) {
+                consoleError("Adjusting targets for high BG: min_bg from " + str(min_bg) + " to " + str(adjustedMinBG) + "; ");
+                min_bg = adjustedMinBG;
+            } else {
+                consoleError("min_bg unchanged: " + str(min_bg) + "; ");
+            }
+            // if eventualBG, naive_eventualBG, and target_bg aren't all above adjustedTargetBG, don't use it
+            if (eventualBG > adjustedTargetBG && naive_eventualBG > adjustedTargetBG && target_bg > adjustedTargetBG) {
+                consoleError("target_bg from " + str(target_bg) + " to " + str(adjustedTargetBG) + "; ");
+                target_bg = adjustedTargetBG;
+            } else {
+                consoleError("target_bg unchanged: " + str(target_bg) + "; ");
+            }
+            // if eventualBG, naive_eventualBG, and max_bg aren't all above adjustedMaxBG, don't use it
+            if (eventualBG > adjustedMaxBG && naive_eventualBG > adjustedMaxBG && max_bg > adjustedMaxBG) {
+                consoleError("max_bg from " + str(max_bg) + " to " + str(adjustedMaxBG));
+                max_bg = adjustedMaxBG;
+            } else {
+                consoleError("max_bg unchanged: " + str(max_bg));
+            }
+        }
+
+        double expectedDelta = calculateExpectedDelta(target_bg, eventualBG, bgi);
+        if (Double.isNaN(eventualBG)) {
+            rT.put("error", "Error: could not calculate eventualBG. ");
+            return rT;
+        }
+
+        // min_bg of 90 -> threshold of 65, 100 -> 70 110 -> 75, and 130 -> 85
+        double threshold = min_bg - 0.5 * (min_bg - 40);
+
+        rT = new JSONObject();
+        rT.put("temp", "absolute");
+        putNumber(rT, "bg", bg);
+        if (tick instanceof String) rT.put("tick", tick);
+        else putNumber(rT, "tick", tickValue);
+        putNumber(rT, "eventualBG", eventualBG);
+        rT.put("insulinReq", 0);
+        // reservoir_data is undefined
+        rT.put("deliverAt", deliverAt);
+        if (sensitivityRatio != null) putNumber(rT, "sensitivityRatio", sensitivityRatio);
+
+        // enable SMB whenever we have COB or UAM is enabled
+        // SMB is disabled by default, unless explicitly enabled in preferences.json
+        boolean enableSMB = false;
+        // disable SMB when a high temptarget is set
+        if (!microBolusAllowed) {
+            consoleError("SMB disabled (!microBolusAllowed)");
+        } else if (!truthy(profile, "allowSMB_with_high_temptarget") && truthy(profile, "temptargetSet") && target_bg > 100) {
+            consoleError("SMB disabled due to high temptarget of", target_bg);
+            // enable SMB/UAM (if enabled in preferences) while we have COB
+        } else if (isTrue(profile, "enableSMB_with_COB") && truthy(meal_data, "mealCOB")) {
+            if (truthy(meal_data, "bwCarbs")) {
+                if (truthy(profile, "A52_risk_enable")) {
+                    consoleError("Warning: SMB enabled with Bolus Wizard carbs: be sure to easy bolus 30s before using Bolus Wizard");
+                    enableSMB = true;
+                } else {
+                    consoleError("SMB not enabled for Bolus Wizard COB");
+                }
+            } else {
+                consoleError("SMB enabled for COB of", meal_data.opt("mealCOB"));
+                enableSMB = true;
+            }
+            // enable SMB/UAM (if enabled in preferences) for a full 6 hours after any carb entry
+        } else if (isTrue(profile, "enableSMB_after_carbs") && truthy(meal_data, "carbs")) {
+            if (truthy(meal_data, "bwCarbs")) {
+                if (truthy(profile, "A52_risk_enable")) {
+                    consoleError("Warning: SMB enabled with Bolus Wizard carbs: be sure to easy bolus 30s before using Bolus Wizard");
+                    enableSMB = true;
+                } else {
+                    consoleError("SMB not enabled for Bolus Wizard carbs");
+                }
+            } else {
+                consoleError("SMB enabled for 6h after carb entry");
+                enableSMB = true;
+            }
+            // enable SMB/UAM (if enabled in preferences) if a low temptarget is set
+        } else if (isTrue(profile, "enableSMB_with_temptarget") && (truthy(profile, "temptargetSet") && target_bg < 100)) {
+            if (truthy(meal_data, "bwFound")) {
+                if (truthy(profile, "A52_risk_enable")) {
+                    consoleError("Warning: SMB enabled within 6h of using Bolus Wizard: be sure to easy bolus 30s before using Bolus Wizard");
+                    enableSMB = true;
+                } else {
+                    consoleError("enableSMB_with_temptarget not supported within 6h of using Bolus Wizard");
+                }
+            } else {
+                consoleError("SMB enabled for temptarget of", convertBg(target_bg, profile));
+                enableSMB = true;
+            }
+            // enable SMB/UAM if always-on (unless previously disabled for high temptarget)
+        } else if (isTrue(profile, "enableSMB_always")) {
+            if (truthy(meal_data, "bwFound")) {
+                if (isTrue(profile, "A52_risk_enable")) {
+                    consoleError("Warning: SMB enabled within 6h of using Bolus Wizard: be sure to easy bolus 30s before using Bolus Wizard");
+                    enableSMB = true;
+                } else {
+                    consoleError("enableSMB_always not supported within 6h of using Bolus Wizard");
+                }
+            } else {
+                consoleError("SMB enabled due to enableSMB_always");
+                enableSMB = true;
+            }
+        } else {
+            consoleError("SMB disabled (no enableSMB preferences active)");
+        }
+        // enable UAM (if enabled in preferences)
+        boolean enableUAM = truthy(profile, "enableUAM");
+
+        double mealCOB = num(meal_data, "mealCOB");
+        double carbs = num(meal_data, "carbs");
+
+        // calculate current carb absorption rate, and how long to absorb all carbs
+        // CI = current carb impact on BG in mg/dL/5m
+        double ci = round((minDelta - bgi), 1);
+        double uci = round((minDelta - bgi), 1);
+        // ISF (mg/dL/U) / CR (g/U) = CSF (mg/dL/g)
+        double csf;
+        if (truthy(profile, "temptargetSet")) {
+            // if temptargetSet, use unadjusted profile.sens to allow activity mode sensitivityRatio to adjust CR
+            csf = num(profile, "sens") / num(profile, "carb_ratio");
+        } else {
+            // otherwise, use autosens-adjusted sens to counteract autosens meal insulin dosing adjustments
+            // so that autotuned CR is still in effect even when basals and ISF are being adjusted by autosens
+            csf = sens / num(profile, "carb_ratio");
+        }
+        double maxCarbAbsorptionRate = 30; // g/h; maximum rate to assume carbs will absorb if no CI observed
+        // limit Carb Impact to maxCarbAbsorptionRate * csf in mg/dL per 5m
+        double maxCI = round(maxCarbAbsorptionRate * csf * 5 / 60, 1);
+        if (ci > maxCI) {
+            consoleError("Limiting carb impact from", ci, "to", maxCI, "mg/dL/5m (", maxCarbAbsorptionRate, "g/h )");
+            ci = maxCI;
+        }
+        double remainingCATimeMin = 3; // h; before carb absorption starts
+        // adjust remainingCATime (instead of CR) for autosens
+        remainingCATimeMin = remainingCATimeMin / ratio;
+        // 20 g/h means that anything <= 60g will get a remainingCATimeMin, 80g will get 4h, and 120g 6h
+        // when actual absorption ramps up it will take over from remainingCATime
+        double assumedCarbAbsorptionRate = 20; // g/h; maximum rate to assume carbs will absorb if no CI observed
+        double remainingCATime = remainingCATimeMin;
+        if (truthy(carbs)) {
+            // if carbs * assumedCarbAbsorptionRate > remainingCATimeMin, raise it
+            // so <= 90g is assumed to take 3h, and 120g=4h
+            remainingCATimeMin = Math.max(remainingCATimeMin, mealCOB / assumedCarbAbsorptionRate);
+            double lastCarbAge = round((now - num(meal_data, "lastCarbTime")) / 60000);
+
+            double fractionCOBAbsorbed = (carbs - mealCOB) / carbs;
+            remainingCATime = remainingCATimeMin + 1.5 * lastCarbAge / 60;
+            remainingCATime = round(remainingCATime, 1);
+            consoleError("Last carbs", lastCarbAge, "minutes ago; remainingCATime:", remainingCATime, "hours;", str(round(fractionCOBAbsorbed * 100)) + "% carbs absorbed");
+        }
+
+        // calculate the number of carbs absorbed over remainingCATime hours at current CI
+        // CI (mg/dL/5m) * (5m)/5 (m) * 60 (min/hr) * 4 (h) / 2 (linear decay factor) = total carb impact (mg/dL)
+        double totalCI = Math.max(0, ci / 5 * 60 * remainingCATime / 2);
+        // totalCI (mg/dL) / CSF (mg/dL/g) = total carbs absorbed (g)
+        double totalCA = totalCI / csf;
+        double remainingCarbsCap = 90; // default to 90
+        double remainingCarbsFraction = 1;
+        if (truthy(profile, "remainingCarbsCap")) {
+            remainingCarbsCap = Math.min(90, num(profile, "remainingCarbsCap"));
+        }
+        if (truthy(profile, "remainingCarbsFraction")) {
+            remainingCarbsFraction = Math.min(1, num(profile, "remainingCarbsFraction"));
+        }
+        double remainingCarbsIgnore = 1 - remainingCarbsFraction;
+        double remainingCarbs = Math.max(0, mealCOB - totalCA - carbs * remainingCarbsIgnore);
+        remainingCarbs = Math.min(remainingCarbsCap, remainingCarbs);
+        // assume remainingCarbs will absorb in a /\ shaped bilinear curve
+        // peaking at remainingCATime / 2 and ending at remainingCATime hours
+        // area of the /\ triangle is the same as a remainingCIpeak-height rectangle out to remainingCATime/2
+        // remainingCIpeak (mg/dL/5m) = remainingCarbs (g) * CSF (mg/dL/g) * 5 (m/5m) * 1h/60m / (remainingCATime/2) (h)
+        double remainingCIpeak = remainingCarbs * csf * 5 / 60 / (remainingCATime / 2);
+
+        // calculate peak deviation in last hour, and slope from that to current deviation
+        double slopeFromMaxDeviation = round(num(meal_data, "slopeFromMaxDeviation"), 2);
+        // calculate lowest deviation in last hour, and slope from that to current deviation
+        double slopeFromMinDeviation = round(num(meal_data, "slopeFromMinDeviation"), 2);
+        // assume deviations will drop back down at least at 1/3 the rate they ramped up
+        double slopeFromDeviations = Math.min(slopeFromMaxDeviation, -slopeFromMinDeviation / 3);
+
+        // duration (in 5m data points) = COB (g) * CSF (mg/dL/g) / ci (mg/dL/5m)
+        // limit cid to remainingCATime hours: the reset goes to remainingCI
+        double cid;
+        if (ci == 0) {
+            // avoid divide by zero
+            cid = 0;
+        } else {
+            cid = Math.min(remainingCATime * 60 / 5 / 2, Math.max(0, mealCOB * csf / ci));
+        }
+        // accelerated carb impact predictions (aCOBpredBGs) are not used in result, skipped
+        // duration (hours) = duration (5m) * 5 / 60 * 2 (to account for linear decay)
+        consoleError("Carb Impact:", ci, "mg/dL per 5m; CI Duration:", round(cid * 5 / 60 * 2, 1), "hours; remaining CI (~2h peak):", round(remainingCIpeak, 1), "mg/dL per 5m");
+        double minIOBPredBG = 999;
+        double minCOBPredBG = 999;
+        double minUAMPredBG = 999;
+        double minGuardBG;
+        double minCOBGuardBG = 999;
+        double minUAMGuardBG = 999;
+        double minIOBGuardBG = 999;
+        double minZTGuardBG = 999;
+        double minPredBG;
+        double avgPredBG;
+        double IOBpredBG = eventualBG;
+        double COBpredBG = Double.NaN;
+        double UAMpredBG = Double.NaN;
+        double maxIOBPredBG = bg;
+        double maxCOBPredBG = bg;
+        double lastIOBpredBG;
+        double lastCOBpredBG = Double.NaN;
+        double lastUAMpredBG = Double.NaN;
+        double UAMduration = 0;
+        boolean carbImpact = truthy(cid) || remainingCIpeak > 0;
+
+        double[] IOBpredBGs = new double[MAX_PREDICTIONS];
+        double[] COBpredBGs = new double[MAX_PREDICTIONS];
+        double[] UAMpredBGs = new double[MAX_PREDICTIONS];
+        double[] ZTpredBGs = new double[MAX_PREDICTIONS];
+        IOBpredBGs[0] = COBpredBGs[0] = UAMpredBGs[0] = ZTpredBGs[0] = bg;
+        int iobLength = 1, cobLength = 1, uamLength = 1, ztLength = 1;
+        StringBuilder remainingCIs = new StringBuilder();
+        StringBuilder predCIs = new StringBuilder();
+
+        // set minPredBGs starting when currently-dosed insulin activity will peak
+        // look ahead 60m (regardless of insulin type) so as to be less aggressive on slower insulins
+        // add 30m to allow for insluin delivery (SMBs or temps)
+        double insulinPeakTime = 90;
+        double insulinPeak5m = (insulinPeakTime / 60) * 12;
+
+        for (int tick5m = 0; tick5m < iobArray.length(); tick5m++) {
+            JSONObject iobTick = iobArray.getJSONObject(tick5m);
+            double predBGI = round((-num(iobTick, "activity") * sens * 5), 2);
+            JSONObject iobWithZeroTemp = iobTick.optJSONObject("iobWithZeroTemp");
+            if (iobWithZeroTemp == null) {
+                consoleError("Problem with iobArray.  Optional feature Advanced Meal Assist disabled:", "TypeError: iobWithZeroTemp is undefined");
+                break;
+            }
+            double predZTBGI = round((-num(iobWithZeroTemp, "activity") * sens * 5), 2);
+            // for IOBpredBGs, predicted deviation impact drops linearly from current deviation down to zero
+            // over 60 minutes (data points every 5m)
+            double predDev = ci * (1 - Math.min(1, iobLength / (60d / 5)));
+            IOBpredBG = IOBpredBGs[iobLength - 1] + predBGI + predDev;
+            // calculate predBGs with long zero temp without deviations
+            double ZTpredBG = ZTpredBGs[ztLength - 1] + predZTBGI;
+            // for COBpredBGs, predicted carb impact drops linearly from current carb impact down to zero
+            // eventually accounting for all carbs (if they can be absorbed over DIA)
+            double predCI = Math.max(0, Math.max(0, ci) * (1 - cobLength / Math.max(cid * 2, 1)));
+            // if any carbs aren't absorbed after remainingCATime hours, assume they'll absorb in a /\ shaped
+            // bilinear curve peaking at remainingCIpeak at remainingCATime/2 hours (remainingCATime/2*12 * 5m)
+            // and ending at remainingCATime h (remainingCATime*12 * 5m intervals)
+            double intervals = Math.min(cobLength, (remainingCATime * 12) - cobLength);
+            double remainingCI = Math.max(0, intervals / (remainingCATime / 2 * 12) * remainingCIpeak);
+            if (tick5m > 0) {
+                remainingCIs.append(' ');
+                predCIs.append(' ');
+            }
+            remainingCIs.append(str(round(remainingCI, 0)));
+            predCIs.append(str(round(predCI, 0)));
+            COBpredBG = COBpredBGs[cobLength - 1] + predBGI + Math.min(0, predDev) + predCI + remainingCI;
+            // for UAMpredBGs, predicted carb impact drops at slopeFromDeviations
+            // calculate predicted CI from UAM based on slopeFromDeviations
+            double predUCIslope = Math.max(0, uci + (uamLength * slopeFromDeviations));
+            // if slopeFromDeviations is too flat, predicted deviation impact drops linearly from
+            // current deviation down to zero over 3h (data points every 5m)
+            double predUCImax = Math.max(0, uci * (1 - uamLength / Math.max(3d * 60 / 5, 1)));
+            // predicted CI from UAM is the lesser of CI based on deviationSlope or DIA
+            double predUCI = Math.min(predUCIslope, predUCImax);
+            if (predUCI > 0) {
+                UAMduration = round((uamLength + 1) * 5d / 60, 1);
+            }
+            UAMpredBG = UAMpredBGs[uamLength - 1] + predBGI + Math.min(0, predDev) + predUCI;
+            // truncate all BG predictions at 4 hours
+            if (iobLength < MAX_PREDICTIONS) IOBpredBGs[iobLength++] = IOBpredBG;
+            if (cobLength < MAX_PREDICTIONS) COBpredBGs[cobLength++] = COBpredBG;
+            if (uamLength < MAX_PREDICTIONS) UAMpredBGs[uamLength++] = UAMpredBG;
+            if (ztLength < MAX_PREDICTIONS) ZTpredBGs[ztLength++] = ZTpredBG;
+            // calculate minGuardBGs without a wait from COB, UAM, IOB predBGs
+            if (COBpredBG < minCOBGuardBG) minCOBGuardBG = round(COBpredBG);
+            if (UAMpredBG < minUAMGuardBG) minUAMGuardBG = round(UAMpredBG);
+            if (IOBpredBG < minIOBGuardBG) minIOBGuardBG = round(IOBpredBG);
+            if (ZTpredBG < minZTGuardBG) minZTGuardBG = round(ZTpredBG);
+
+            // wait 90m before setting minIOBPredBG
+            if (iobLength > insulinPeak5m && (IOBpredBG < minIOBPredBG)) minIOBPredBG = round(IOBpredBG);
+            if (IOBpredBG > maxIOBPredBG) maxIOBPredBG = IOBpredBG;
+            // wait 85-105m before setting COB and 60m for UAM minPredBGs
+            if (carbImpact && cobLength > insulinPeak5m && (COBpredBG < minCOBPredBG)) minCOBPredBG = round(COBpredBG);
+            if (carbImpact && COBpredBG > maxIOBPredBG) maxCOBPredBG = COBpredBG;
+            if (enableUAM && uamLength > 12 && (UAMpredBG < minUAMPredBG)) minUAMPredBG = round(UAMpredBG);
+        }
+        if (truthy(mealCOB)) {
+            consoleError("predCIs (mg/dL/5m):", predCIs.toString());
+            consoleError("remainingCIs:      ", remainingCIs.toString());
+        }
+        JSONObject predBGs = new JSONObject();
+        rT.put("predBGs", predBGs);
+        clamp(IOBpredBGs, iobLength);
+        iobLength = trimFlatTail(IOBpredBGs, iobLength);
+        predBGs.put("IOB", toJSONArray(IOBpredBGs, iobLength));
+        lastIOBpredBG = round(IOBpredBGs[iobLength - 1]);
+        clamp(ZTpredBGs, ztLength);
+        for (int i = ztLength - 1; i > 6; i--) {
+            // stop displaying ZTpredBGs once they're rising and above target
+            if (ZTpredBGs[i - 1] >= ZTpredBGs[i] || ZTpredBGs[i] < target_bg) break;
+            else ztLength--;
+        }
+        predBGs.put("ZT", toJSONArray(ZTpredBGs, ztLength));
+        if (mealCOB > 0 && (ci > 0 || remainingCIpeak > 0)) {
+            clamp(COBpredBGs, cobLength);
+            cobLength = trimFlatTail(COBpredBGs, cobLength);
+            predBGs.put("COB", toJSONArray(COBpredBGs, cobLength));
+            lastCOBpredBG = round(COBpredBGs[cobLength - 1]);
+            eventualBG = Math.max(eventualBG, round(COBpredBGs[cobLength - 1]));
+        }
+        if (ci > 0 || remainingCIpeak > 0) {
+            if (enableUAM) {
+                clamp(UAMpredBGs, uamLength);
+                uamLength = trimFlatTail(UAMpredBGs, uamLength);
+                predBGs.put("UAM", toJSONArray(UAMpredBGs, uamLength));
+                lastUAMpredBG = round(UAMpredBGs[uamLength - 1]);
+                if (truthy(UAMpredBGs[uamLength - 1])) {
+                    eventualBG = Math.max(eventualBG, round(UAMpredBGs[uamLength - 1]));
+                }
+            }
+
+            // set eventualBG and snoozeBG based on COB or UAM predBGs
+            putNumber(rT, "eventualBG", eventualBG);
+        }
+
+        consoleError("UAM Impact:", uci, "mg/dL per 5m; UAM Duration:", UAMduration, "hours");
+
+        minIOBPredBG = Math.max(39, minIOBPredBG);
+        minCOBPredBG = Math.max(39, minCOBPredBG);
+        minUAMPredBG = Math.max(39, minUAMPredBG);
+        minPredBG = round(minIOBPredBG);
+
+        double fractionCarbsLeft = mealCOB / carbs;
+        // if we have COB and UAM is enabled, average both
+        if (minUAMPredBG < 999 && minCOBPredBG < 999) {
+            // weight COBpredBG vs. UAMpredBG based on how many carbs remain as COB
+            avgPredBG = round((1 - fractionCarbsLeft) * UAMpredBG + fractionCarbsLeft * COBpredBG);
+            // if UAM is disabled, average IOB and COB
+        } else if (minCOBPredBG < 999) {
+            avgPredBG = round((IOBpredBG + COBpredBG) / 2);
+            // if we have UAM but no COB, average IOB and UAM
+        } else if (minUAMPredBG < 999) {
+            avgPredBG = round((IOBpredBG + UAMpredBG) / 2);
+        } else {
+            avgPredBG = round(IOBpredBG);
+        }
+        // if avgPredBG is below minZTGuardBG, bring it up to that level
+        if (minZTGuardBG > avgPredBG) {
+            avgPredBG = minZTGuardBG;
+        }
+
+        // if we have both minCOBGuardBG and minUAMGuardBG, blend according to fractionCarbsLeft
+        if (carbImpact) {
+            if (enableUAM) {
+                minGuardBG = fractionCarbsLeft * minCOBGuardBG + (1 - fractionCarbsLeft) * minUAMGuardBG;
+            } else {
+                minGuardBG = minCOBGuardBG;
+            }
+        } else if (enableUAM) {
+            minGuardBG = minUAMGuardBG;
+        } else {
+            minGuardBG = minIOBGuardBG;
+        }
+        minGuardBG = round(minGuardBG);
+
+        double minZTUAMPredBG = minUAMPredBG;
+        // if minZTGuardBG is below threshold, bring down any super-high minUAMPredBG by averaging
+        // this helps prevent UAM from giving too much insulin in case absorption falls off suddenly
+        if (minZTGuardBG < threshold) {
+            minZTUAMPredBG = (minUAMPredBG + minZTGuardBG) / 2;
+            // if minZTGuardBG is between threshold and target, blend in the averaging
+        } else if (minZTGuardBG < target_bg) {
+            // target 100, threshold 70, minZTGuardBG 85 gives 50%: (85-70) / (100-70)
+            double blendPct = (minZTGuardBG - threshold) / (target_bg - threshold);
+            double blendedMinZTGuardBG = minUAMPredBG * blendPct + minZTGuardBG * (1 - blendPct);
+            minZTUAMPredBG = (minUAMPredBG + blendedMinZTGuardBG) / 2;
+            // if minUAMPredBG is below minZTGuardBG, bring minUAMPredBG up by averaging
+            // this allows more insulin if lastUAMPredBG is below target, but minZTGuardBG is still high
+        } else if (minZTGuardBG > minUAMPredBG) {
+            minZTUAMPredBG = (minUAMPredBG + minZTGuardBG) / 2;
+        }
+        minZTUAMPredBG = round(minZTUAMPredBG);
+        // if any carbs have been entered recently
+        if (truthy(carbs)) {
+            // if UAM is disabled, use max of minIOBPredBG, minCOBPredBG
+            if (!enableUAM && minCOBPredBG < 999) {
+                minPredBG = round(Math.max(minIOBPredBG, minCOBPredBG));
+                // if we have COB, use minCOBPredBG, or blendedMinPredBG if it's higher
+            } else if (minCOBPredBG < 999) {
+                // calculate blendedMinPredBG based on how many carbs remain as COB
+                double blendedMinPredBG = fractionCarbsLeft * minCOBPredBG + (1 - fractionCarbsLeft) * minZTUAMPredBG;
+                // if blendedMinPredBG > minCOBPredBG, use that instead
+                minPredBG = round(Math.max(minIOBPredBG, Math.max(minCOBPredBG, blendedMinPredBG)));
+                // if carbs have been entered, but have expired, use minUAMPredBG
+            } else {
+                minPredBG = minZTUAMPredBG;
+            }
+            // in pure UAM mode, use the higher of minIOBPredBG,minUAMPredBG
+        } else if (enableUAM) {
+            minPredBG = round(Math.max(minIOBPredBG, minZTUAMPredBG));
+        }
+
+        // make sure minPredBG isn't higher than avgPredBG
+        minPredBG = Math.min(minPredBG, avgPredBG);
+
+        consoleError("minPredBG: " + str(minPredBG) + " minIOBPredBG: " + str(minIOBPredBG) + " minZTGuardBG: " + str(minZTGuardBG));
+        if (minCOBPredBG < 999) {
+            consoleError(" minCOBPredBG: " + str(minCOBPredBG));
+        }
+        if (minUAMPredBG < 999) {
+            consoleError(" minUAMPredBG: " + str(minUAMPredBG));
+        }
+        consoleError(" avgPredBG:", avgPredBG, "COB:", meal_data.opt("mealCOB"), "/", meal_data.opt("carbs"));
+        // But if the COB line falls off a cliff, don't trust UAM too much:
+        // use maxCOBPredBG if it's been set and lower than minPredBG
+        if (maxCOBPredBG > bg) {
+            minPredBG = Math.min(minPredBG, maxCOBPredBG);
+        }
+
+        putNumber(rT, "COB", mealCOB);
+        putNumber(rT, "IOB", num(iob_data, "iob"));
+        rT.put("reason", "COB: " + str(meal_data.opt("mealCOB")) + ", Dev: " + convertBg(deviation, profile) + ", BGI: " + convertBg(bgi, profile) + ", ISF: " + convertBg(sens, profile) + ", CR: " + str(round(num(profile, "carb_ratio"), 2)) + ", Target: " + convertBg(target_bg, profile) + ", minPredBG " + convertBg(minPredBG, profile) + ", minGuardBG " + convertBg(minGuardBG, profile) + ", IOBpredBG " + convertBg(lastIOBpredBG, profile));
+        if (lastCOBpredBG > 0) {
+            addReason(rT, ", COBpredBG " + convertBg(lastCOBpredBG, profile));
+        }
+        if (lastUAMpredBG > 0) {
+            addReason(rT, ", UAMpredBG " + convertBg(lastUAMpredBG, profile));
+        }
+        addReason(rT, "; ");
+        // use naive_eventualBG if above 40, but switch to minGuardBG if both eventualBGs hit floor of 39
+        double carbsReqBG = naive_eventualBG;
+        if (carbsReqBG < 40) {
+            carbsReqBG = Math.min(minGuardBG, carbsReqBG);
+        }
+        double bgUndershoot = threshold - carbsReqBG;
+        // calculate how long until COB (or IOB) predBGs drop below min_bg
+        int minutesAboveMinBG = 240;
+        int minutesAboveThreshold = 240;
+        double[] predictions = IOBpredBGs;
+        int predictionsLength = iobLength;
+        if (mealCOB > 0 && (ci > 0 || remainingCIpeak > 0)) {
+            predictions = COBpredBGs;
+            predictionsLength = cobLength;
+        }
+        for (int i = 0; i < predictionsLength; i++) {
+            if (predictions[i] < min_bg) {
+                minutesAboveMinBG = 5 * i;
+                break;
+            }
+        }
+        for (int i = 0; i < predictionsLength; i++) {
+            if (predictions[i] < threshold) {
+                minutesAboveThreshold = 5 * i;
+                break;
+            }
+        }
+
+        if (enableSMB && minGuardBG < threshold) {
+            consoleError("minGuardBG", convertBg(minGuardBG, profile), "projected below", convertBg(threshold, profile), "- disabling SMB");
+            enableSMB = false;
+        }
+        if (maxDelta > 0.20 * bg) {
+            consoleError("maxDelta", convertBg(maxDelta, profile), "> 20% of BG", convertBg(bg, profile), "- disabling SMB");
+            addReason(rT, "maxDelta " + convertBg(maxDelta, profile) + " > 20% of BG " + convertBg(bg, profile) + ": SMB disabled; ");
+            enableSMB = false;
+        }
+
+        consoleError("BG projected to remain above", convertBg(min_bg, profile), "for", minutesAboveMinBG, "minutes");
+        if (minutesAboveThreshold < 240 || minutesAboveMinBG < 60) {
+            consoleError("BG projected to remain above", convertBg(threshold, profile), "for", minutesAboveThreshold, "minutes");
+        }
+        // include at least minutesAboveMinBG worth of zero temps in calculating carbsReq
+        // always include at least 30m worth of zero temp (carbs to 80, low temp up to target)
+        double zeroTempDuration = minutesAboveThreshold;
+        // BG undershoot, minus effect of zero temps until hitting min_bg, converted to grams, minus COB
+        double zeroTempEffect = profile_current_basal * sens * zeroTempDuration / 60;
+        // don't count the last 25% of COB against carbsReq
+        double COBforCarbsReq = Math.max(0, mealCOB - 0.25 * carbs);
+        double carbsReq = (bgUndershoot - zeroTempEffect) / csf - COBforCarbsReq;
+        zeroTempEffect = round(zeroTempEffect);
+        carbsReq = round(carbsReq);
+        consoleError("naive_eventualBG:", naive_eventualBG, "bgUndershoot:", bgUndershoot, "zeroTempDuration:", zeroTempDuration, "zeroTempEffect:", zeroTempEffect, "carbsReq:", carbsReq);
+        if (carbsReq >= num(profile, "carbsReqThreshold") && minutesAboveThreshold <= 45) {
+            putNumber(rT, "carbsReq", carbsReq);
+            addReason(rT, str(carbsReq) + " add'l carbs req w/in " + minutesAboveThreshold + "m; ");
+        }
+        // don't low glucose suspend if IOB is already super negative and BG is rising faster than predicted
+        if (bg < threshold && num(iob_data, "iob") < -profile_current_basal * 20 / 60 && minDelta > 0 && minDelta > expectedDelta) {
+            addReason(rT, "IOB " + str(iob_data.opt("iob")) + " < " + str(round(-profile_current_basal * 20 / 60, 2)));
+            addReason(rT, " and minDelta " + convertBg(minDelta, profile) + " > " + "expectedDelta " + convertBg(expectedDelta, profile) + "; ");
+            // predictive low glucose suspend mode: BG is / is projected to be < threshold
+        } else if (bg < threshold || minGuardBG < threshold) {
+            addReason(rT, "minGuardBG " + convertBg(minGuardBG, profile) + "<" + convertBg(threshold, profile));
+            bgUndershoot = target_bg - minGuardBG;
+            double worstCaseInsulinReq = bgUndershoot / sens;
+            double durationReq = round(60 * worstCaseInsulinReq / profile_current_basal);
+            durationReq = round(durationReq / 30) * 30;
+            // always set a 30-120m zero temp (oref0-pump-loop will let any longer SMB zero temp run)
+            durationReq = Math.min(120, Math.max(30, durationReq));
+            return setTempBasal(0, durationReq, profile, rT, currenttemp);
+        }
+
+        double currentTempDuration = num(currenttemp, "duration");
+        double currentTempRate = num(currenttemp, "rate");
+
+        if (eventualBG < min_bg) { // if eventual BG is below target:
+            addReason(rT, "Eventual BG " + convertBg(eventualBG, profile) + " < " + convertBg(min_bg, profile));
+            // if 5m or 30m avg BG is rising faster than expected delta
+            if (minDelta > expectedDelta && minDelta > 0 && !truthy(carbsReq)) {
+                // if naive_eventualBG < 40, set a 30m zero temp (oref0-pump-loop will let any longer SMB zero temp run)
+                if (naive_eventualBG < 40) {
+                    addReason(rT, ", naive_eventualBG < 40. ");
+                    return setTempBasal(0, 30, profile, rT, currenttemp);
+                }
+                if (num(glucose_status, "delta") > minDelta) {
+                    addReason(rT, ", but Delta " + convertBg(tickValue, profile) + " > expectedDelta " + convertBg(expectedDelta, profile));
+                } else {
+                    addReason(rT, ", but Min. Delta " + toFixed(minDelta, 2) + " > Exp. Delta " + convertBg(expectedDelta, profile));
+                }
+                return keepOrSetCurrentBasal(basal, profile, rT, currenttemp);
+            }
+
+            // calculate 30m low-temp required to get projected BG up to target
+            // multiply by 2 to low-temp faster for increased hypo safety
+            double insulinReq = 2 * Math.min(0, (eventualBG - target_bg) / sens);
+            insulinReq = round(insulinReq, 2);
+            // calculate naiveInsulinReq based on naive_eventualBG
+            double naiveInsulinReq = Math.min(0, (naive_eventualBG - target_bg) / sens);
+            naiveInsulinReq = round(naiveInsulinReq, 2);
+            if (minDelta < 0 && minDelta > expectedDelta) {
+                // if we're barely falling, newinsulinReq should be barely negative
+                insulinReq = round((insulinReq * (minDelta / expectedDelta)), 2);
+            }
+            // rate required to deliver insulinReq less insulin over 30m:
+            double rate = basal + (2 * insulinReq);
+            // if required temp < existing temp basal
+            double insulinScheduled = currentTempDuration * (currentTempRate - basal) / 60;
+            // if current temp would deliver a lot (30% of basal) less than the required insulin,
+            // by both normal and naive calculations, then raise the rate
+            double minInsulinReq = Math.min(insulinReq, naiveInsulinReq);
+            if (insulinScheduled < minInsulinReq - basal * 0.3) {
+                addReason(rT, ", " + str(currenttemp.opt("duration")) + "m@" + toFixed(currentTempRate, 2) + " is a lot less than needed. ");
+                return setTempBasal(rate, 30, profile, rT, currenttemp);
+            }
+            if (currenttemp.has("rate") && (currentTempDuration > 5 && rate >= currentTempRate * 0.8)) {
+                addReason(rT, ", temp " + str(currenttemp.opt("rate")) + " ~< req " + str(rate) + "U/hr. ");
+                return rT;
+            } else {
+                // calculate a long enough zero temp to eventually correct back up to target
+                if (rate <= 0) {
+                    bgUndershoot = target_bg - naive_eventualBG;
+                    double worstCaseInsulinReq = bgUndershoot / sens;
+                    double durationReq = round(60 * worstCaseInsulinReq / profile_current_basal);
+                    if (durationReq < 0) {
+                        durationReq = 0;
+                        // don't set an SMB zero temp longer than 60 minutess
+                    } else {
+                        durationReq = round(durationReq / 30) * 30;
+                        durationReq = Math.min(60, Math.max(0, durationReq));
+                    }
+                    if (durationReq > 0) {
+                        addReason(rT, ", setting " + str(durationReq) + "m zero temp. ");
+                        return setTempBasal(rate, durationReq, profile, rT, currenttemp);
+                    }
+                } else {
+                    addReason(rT, ", setting " + str(rate) + "U/hr. ");
+                }
+                return setTempBasal(rate, 30, profile, rT, currenttemp);
+            }
+        }
+
+        // if eventual BG is above min but BG is falling faster than expected Delta
+        if (minDelta < expectedDelta) {
+            // if in SMB mode, don't cancel SMB zero temp
+            if (!(microBolusAllowed && enableSMB)) {
+                if (num(glucose_status, "delta") < minDelta) {
+                    addReason(rT, "Eventual BG " + convertBg(eventualBG, profile) + " > " + convertBg(min_bg, profile) + " but Delta " + convertBg(tickValue, profile) + " < Exp. Delta " + convertBg(expectedDelta, profile));
+                } else {
+                    addReason(rT, "Eventual BG " + convertBg(eventualBG, profile) + " > " + convertBg(min_bg, profile) + " but Min. Delta " + toFixed(minDelta, 2) + " < Exp. Delta " + convertBg(expectedDelta, profile));
+                }
+                return keepOrSetCurrentBasal(basal, profile, rT, currenttemp);
+            }
+        }
+        // eventualBG or minPredBG is below max_bg
+        if (Math.min(eventualBG, minPredBG) < max_bg) {
+            // if in SMB mode, don't cancel SMB zero temp
+            if (!(microBolusAllowed && enableSMB)) {
+                addReason(rT, convertBg(eventualBG, profile) + "-" + convertBg(minPredBG, profile) + " in range: no temp required");
+                return keepOrSetCurrentBasal(basal, profile, rT, currenttemp);
+            }
+        }
+
+        // eventual BG is at/above target
+        // if iob is over max, just cancel any temps
+        // if we're not here because of SMB, eventual BG is at/above target
+        if (!(microBolusAllowed && truthy(mealCOB))) {
+            addReason(rT, "Eventual BG " + convertBg(eventualBG, profile) + " >= " + convertBg(max_bg, profile) + ", ");
+        }
+        double iob = num(iob_data, "iob");
+        if (iob > max_iob) {
+            addReason(rT, "IOB " + str(round(iob, 2)) + " > max_iob " + str(profile.opt("max_iob")));
+            return keepOrSetCurrentBasal(basal, profile, rT, currenttemp);
+        } else { // otherwise, calculate 30m high-temp required to get projected BG down to target
+
+            // insulinReq is the additional insulin required to get minPredBG down to target_bg
+            double insulinReq = round((Math.min(minPredBG, eventualBG) - target_bg) / sens, 2);
+            // if that would put us over max_iob, then reduce accordingly
+            if (insulinReq > max_iob - iob) {
+                addReason(rT, "max_iob " + str(profile.opt("max_iob")) + ", ");
+                insulinReq = max_iob - iob;
+            }
+
+            // rate required to deliver insulinReq more insulin over 30m:
+            double rate = basal + (2 * insulinReq);
+            insulinReq = round(insulinReq, 3);
+            putNumber(rT, "insulinReq", insulinReq);
+            // minutes since last bolus
+            double lastBolusAge = round((now - num(iob_data, "lastBolusTime")) / 60000, 1);
+            // only allow microboluses with COB or low temp targets, or within DIA hours of a bolus
+            if (microBolusAllowed && enableSMB && bg > threshold) {
+                // never bolus more than maxSMBBasalMinutes worth of basal
+                double mealInsulinReq = round(mealCOB / num(profile, "carb_ratio"), 3);
+                double maxBolus;
+                if (!profile.has("maxSMBBasalMinutes")) {
+                    maxBolus = round(profile_current_basal * 30 / 60, 1);
+                    consoleError("profile.maxSMBBasalMinutes undefined: defaulting to 30m");
+                    // if IOB covers more than COB, limit maxBolus to 30m of basal
+                } else if (iob > mealInsulinReq && iob > 0) {
+                    consoleError("IOB", iob_data.opt("iob"), "> COB", str(meal_data.opt("mealCOB")) + "; mealInsulinReq =", mealInsulinReq);
+                    maxBolus = round(profile_current_basal * 30 / 60, 1);
+                } else {
+                    consoleError("profile.maxSMBBasalMinutes:", profile.opt("maxSMBBasalMinutes"), "profile.current_basal:", profile.opt("current_basal"));
+                    maxBolus = round(profile_current_basal * num(profile, "maxSMBBasalMinutes") / 60, 1);
+                }
+                // bolus 1/2 the insulinReq, up to maxBolus, rounding down to nearest 0.1U
+                double microBolus = Math.floor(Math.min(insulinReq / 2, maxBolus) * 10) / 10;
+                // calculate a long enough zero temp to eventually correct back up to target
+                double smbTarget = target_bg;
+                double worstCaseInsulinReq = (smbTarget - (naive_eventualBG + minIOBPredBG) / 2) / sens;
+                double durationReq = round(60 * worstCaseInsulinReq / profile_current_basal);
+
+                // if insulinReq > 0 but not enough for a microBolus, don't set an SMB zero temp
+                if (insulinReq > 0 && microBolus < 0.1) {
+                    durationReq = 0;
+                }
+
+                double smbLowTempReq = 0;
+                if (durationReq <= 0) {
+                    durationReq = 0;
+                    // don't set a temp longer than 120 minutes
+                } else if (durationReq >= 30) {
+                    durationReq = round(durationReq / 30) * 30;
+                    durationReq = Math.min(120, Math.max(0, durationReq));
+                } else {
+                    // if SMB durationReq is less than 30m, set a nonzero low temp
+                    smbLowTempReq = round(basal * durationReq / 30, 2);
+                    durationReq = 30;
+                }
+                addReason(rT, " insulinReq " + str(insulinReq));
+                if (microBolus >= maxBolus) {
+                    addReason(rT, "; maxBolus " + str(maxBolus));
+                }
+                if (durationReq > 0) {
+                    addReason(rT, "; setting " + str(durationReq) + "m low temp of " + str(smbLowTempReq) + "U/h");
+                }
+                addReason(rT, ". ");
+
+                //allow SMBs every 3 minutes
+                double nextBolusMins = round(3 - lastBolusAge, 1);
+                consoleError("naive_eventualBG", str(naive_eventualBG) + ",", str(durationReq) + "m " + str(smbLowTempReq) + "U/h temp needed; last bolus", str(lastBolusAge) + "m ago; maxBolus: " + str(maxBolus));
+                if (lastBolusAge > 3) {
+                    if (microBolus > 0) {
+                        putNumber(rT, "units", microBolus);
+                        addReason(rT, "Microbolusing " + str(microBolus) + "U. ");
+                    }
+                } else {
+                    addReason(rT, "Waiting " + str(nextBolusMins) + "m to microbolus again. ");
+                }
+
+                // if no zero temp is required, don't return yet; allow later code to set a high temp
+                if (durationReq > 0) {
+                    putNumber(rT, "rate", smbLowTempReq);
+                    putNumber(rT, "duration", durationReq);
+                    return rT;
+                }
+            }
+
+            double maxSafeBasal = getMaxSafeBasal(profile);
+
+            if (rate > maxSafeBasal) {
+                addReason(rT, "adj. req. rate: " + str(rate) + " to maxSafeBasal: " + str(maxSafeBasal) + ", ");
+                rate = maxSafeBasal;
+            }
+
+            double insulinScheduled = currentTempDuration * (currentTempRate - basal) / 60;
+            if (insulinScheduled >= insulinReq * 2) { // if current temp would deliver >2x more than the required insulin, lower the rate
+                addReason(rT, str(currenttemp.opt("duration")) + "m@" + toFixed(currentTempRate, 2) + " > 2 * insulinReq. Setting temp basal of " + str(rate) + "U/hr. ");
+                return setTempBasal(rate, 30, profile, rT, currenttemp);
+            }
+
+            if (!currenttemp.has("duration") || currentTempDuration == 0) { // no temp is set
+                addReason(rT, "no temp, setting " + str(rate) + "U/hr. ");
+                return setTempBasal(rate, 30, profile, rT, currenttemp);
+            }
+
+            if (currentTempDuration > 5 && (rate <= currentTempRate)) { // if required temp <~ existing temp basal
+                addReason(rT, "temp " + str(currenttemp.opt("rate")) + " >~ req " + str(rate) + "U/hr. ");
+                return rT;
+            }
+
+            // required temp > existing temp basal
+            addReason(rT, "temp " + str(currenttemp.opt("rate")) + "<" + str(rate) + "U/hr. ");
+            return setTempBasal(rate, 30, profile, rT, currenttemp);
+        }
+    }
+
+    // same temp is running or set current basal as temp, repeated in many branches of determine-basal.js
+    private JSONObject keepOrSetCurrentBasal(double basal, JSONObject profile, JSONObject rT, JSONObject currenttemp) throws JSONException {
+        if (num(currenttemp, "duration") > 15 && basal == num(currenttemp, "rate")) {
+            addReason(rT, ", temp " + str(currenttemp.opt("rate")) + " ~ req " + str(basal) + "U/hr. ");
+            return rT;
+        } else {
+            addReason(rT, "; setting current basal of " + str(basal) + " as temp. ");
+            return setTempBasal(basal, 30, profile, rT, currenttemp);
+        }
+    }
+
+    // we expect BG to rise or fall at the rate of BGI,
+    // adjusted by the rate at which BG would need to rise /
+    // fall to get eventualBG to target over 2 hours
+    private static double calculateExpectedDelta(double target_bg, double eventual_bg, double bgi) {
+        // (hours * mins_per_hour) / 5 = how many 5 minute periods in 2h = 24
+        double five_min_blocks = (2d * 60) / 5;
+        double target_delta = target_bg - eventual_bg;
+        return round(bgi + (target_delta / five_min_blocks), 1);
+    }
+
+    // basal-set-temp.js
+
+    static double getMaxSafeBasal(JSONObject profile) {
+        double max_daily_safety_multiplier = num(profile, "max_daily_safety_multiplier");
+        if (Double.isNaN(max_daily_safety_multiplier) || profile.isNull("max_daily_safety_multiplier"))
+            max_daily_safety_multiplier = 3;
+        double current_basal_safety_multiplier = num(profile, "current_basal_safety_multiplier");
+        if (Double.isNaN(current_basal_safety_multiplier) || profile.isNull("current_basal_safety_multiplier"))
+            current_basal_safety_multiplier = 4;
+
+        return Math.min(num(profile, "max_basal"), Math.min(max_daily_safety_multiplier * num(profile, "max_daily_basal"), current_basal_safety_multiplier * num(profile, "current_basal")));
+    }
+
+    private JSONObject setTempBasal(double rate, double duration, JSONObject profile, JSONObject rT, JSONObject currenttemp) throws JSONException {
+        double maxSafeBasal = getMaxSafeBasal(profile);
+
+        if (rate < 0) {
+            rate = 0;
+        } else if (rate > maxSafeBasal) {
+            rate = maxSafeBasal;
+        }
+
+        double suggestedRate = rate;
+        double currentTempDuration = num(currenttemp, "duration");
+        double currentTempRate = num(currenttemp, "rate");
+        if (currenttemp.has("duration") && currenttemp.has("rate") && currentTempDuration > (duration - 10) && currentTempDuration <= 120 && suggestedRate <= currentTempRate * 1.2 && suggestedRate >= currentTempRate * 0.8 && duration > 0) {
+            addReason(rT, " " + str(currenttemp.opt("duration")) + "m left and " + str(currenttemp.opt("rate")) + " ~ req " + str(suggestedRate) + "U/hr: no temp required");
+            return rT;
+        }
+
+        if (suggestedRate == num(profile, "current_basal")) {
+            if (isTrue(profile, "skip_neutral_temps")) {
+                if (currenttemp.has("duration") && currentTempDuration > 0) {
+                    reason(rT, "Suggested rate is same as profile rate, a temp basal is active, canceling current temp");
+                    rT.put("duration", 0);
+                    rT.put("rate", 0);
+                    return rT;
+                } else {
+                    reason(rT, "Suggested rate is same as profile rate, no temp basal is active, doing nothing");
+                    return rT;
+                }
+            } else {
+                reason(rT, "Setting neutral temp basal of " + str(profile.opt("current_basal")) + "U/hr");
+                putNumber(rT, "duration", duration);
+                putNumber(rT, "rate", suggestedRate);
+                return rT;
+            }
+        } else {
+            putNumber(rT, "duration", duration);
+            putNumber(rT, "rate", suggestedRate);
+            return rT;
+        }
+    }
+
+    private void reason(JSONObject rT, String msg) throws JSONException {
+        String reason = rT.optString("reason");
+        rT.put("reason", (reason.length() > 0 ? reason + ". " : "") + msg);
+        consoleError(msg);
+    }
+
+    // rT.reason += msg
+    private static void addReason(JSONObject rT, String msg) throws JSONException {
+        rT.put("reason", str(rT.opt("reason")) + msg);
+    }
+
+    // loggerhelper.js: arguments joined by space, objects as JSON
+    private void consoleError(Object... args) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) s.append(' ');
+            Object arg = args[i];
+            if (arg instanceof JSONObject || arg instanceof JSONArray || arg == JSONObject.NULL)
+                s.append(stringify(arg));
+            else
+                s.append(str(arg));
+        }
+        s.append('\n');
+        if (L.isEnabled(L.APS))
+            log.debug(s.toString().trim());
+        console.append(s);
+    }
+
+    private static String convertBg(double value, JSONObject profile) {
+        if ("mmol/L".equals(profile.optString("out_units"))) {
+            return toFixed(round(value / 18, 1), 1);
+        } else {
+            return str(round(value));
+        }
+    }
+
+    private static void clamp(double[] predictions, int length) {
+        for (int i = 0; i < length; i++)
+            predictions[i] = round(Math.min(401, Math.max(39, predictions[i])));
+    }
+
+    // remove flat predictions at the end, keep at least 13 values
+    private static int trimFlatTail(double[] predictions, int length) {
+        for (int i = length - 1; i > 12; i--) {
+            if (predictions[i - 1] != predictions[i]) break;
+            else length--;
+        }
+        return length;
+    }
+
+    private static JSONArray toJSONArray(double[] values, int length) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < length; i++)
+            array.put(Double.isNaN(values[i]) ? JSONObject.NULL : values[i]);
+        return array;
+    }
+
+    // JSON.stringify converts NaN and Infinity to null
+    private static void putNumber(JSONObject o, String key, double value) throws JSONException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) o.put(key, JSONObject.NULL);
+        else o.put(key, value);
+    }
+
+    // JS helpers
+
+    // undefined is NaN, null is 0
+    private static double num(JSONObject o, String key) {
+        Object value = o.opt(key);
+        if (value == null) return Double.NaN;
+        if (value == JSONObject.NULL) return 0;
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        if (value instanceof Boolean) return (Boolean) value ? 1 : 0;
+        try {
+            return Double.parseDouble(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean truthy(double value) {
+        return value != 0 && !Double.isNaN(value);
+    }
+
+    private static boolean truthy(JSONObject o, String key) {
+        Object value = o.opt(key);
+        if (value == null || value == JSONObject.NULL) return false;
+        if (value instanceof Boolean) return (Boolean) value;
+        if (value instanceof Number) return truthy(((Number) value).doubleValue());
+        if (value instanceof String) return ((String) value).length() > 0;
+        return true;
+    }
+
+    // === true
+    private static boolean isTrue(JSONObject o, String key) {
+        return Boolean.TRUE.equals(o.opt(key));
+    }
+
+    // Math.round of JS rounds half up
+    static double round(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return value;
+        return (double) Math.round(value);
+    }
+
+    // Rounds value to 'digits' decimal places
+    static double round(double value, int digits) {
+        double scale = Math.pow(10, digits);
+        return round(value * scale) / scale;
+    }
+
+    // String(value) of JS
+    static String str(@Nullable Object value) {
+        if (value == null) return "undefined";
+        if (value == JSONObject.NULL) return "null";
+        if (value instanceof Number) return ScriptRuntime.numberToString(((Number) value).doubleValue(), 10);
+        return value.toString();
+    }
+
+    // Number.prototype.toFixed, exact value rounded half up
+    static String toFixed(double value, int digits) {
+        if (Double.isNaN(value)) return "NaN";
+        if (Double.isInfinite(value) || Math.abs(value) >= 1e21) return str(value);
+        String fixed = new BigDecimal(value).abs().setScale(digits, RoundingMode.HALF_UP).toPlainString();
+        return value < 0 ? "-" + fixed : fixed;
+    }
+
+    // JSON.stringify
+    private static String stringify(Object value) {
+        if (value == null || value == JSONObject.NULL) return "null";
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            return Double.isNaN(d) || Double.isInfinite(d) ? "null" : str(d);
+        }
+        if (value instanceof Boolean) return value.toString();
+        if (value instanceof JSONObject) {
+            JSONObject o = (JSONObject) value;
+            StringBuilder s = new StringBuilder("{");
+            Iterator<String> keys = o.keys();
+            boolean first = true;
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!first) s.append(',');
+                first = false;
+                s.append(quote(key)).append(':').append(stringify(o.opt(key)));
+            }
+            return s.append('}').toString();
+        }
+        if (value instanceof JSONArray) {
+            JSONArray a = (JSONArray) value;
+            StringBuilder s = new StringBuilder("[");
+            for (int i = 0; i < a.length(); i++) {
+                if (i > 0) s.append(',');
+                s.append(stringify(a.opt(i)));
+            }
+            return s.append(']').toString();
+        }
+        return quote(value.toString());
+    }
+
+    private static String quote(String string) {
+        StringBuilder s = new StringBuilder("\"");
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"':
+                    s.append("\\\"");
+                    break;
+                case '\\':
+                    s.append("\\\\");
+                    break;
+                case '\b':
+                    s.append("\\b");
+                    break;
+                case '\f':
+                    s.append("\\f");
+                    break;
+                case '\n':
+                    s.append("\\n");
+                    break;
+                case '\r':
+                    s.append("\\r");
+                    break;
+                case '\t':
+                    s.append("\\t");
+                    break;
+                default:
+                    if (c < ' ') s.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    else s.append(c);
+            }
+        }
+        return s.append('"').toString();
+    }
+
+    // Date.prototype.toJSON
+    private static String isoString(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    private static final String[] WEEKDAYS = {"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    // Date.prototype.toString of Rhino, ie. "Tue Oct 31 2000 09:41:40 GMT-0800 (PST)"
+    static String dateString(double time) {
+        if (Double.isNaN(time)) return "Invalid Date";
+        long t = (long) time;
+        TimeZone tz = TimeZone.getDefault();
+        Date date = new Date(t);
+        int offset = tz.getRawOffset() + (tz.inDaylightTime(date) ? 3600000 : 0);
+        Calendar local = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.US);
+        local.setTimeInMillis(t + offset);
+        int minutes = (int) Math.floor(offset / 60000d);
+        int hhmm = (minutes / 60) * 100 + minutes % 60;
+        SimpleDateFormat zone = new SimpleDateFormat("zzz");
+        return WEEKDAYS[local.get(Calendar.DAY_OF_WEEK) - 1] + " " +
+                MONTHS[local.get(Calendar.MONTH)] + " " +
+                String.format(Locale.US, "%02d %04d %02d:%02d:%02d",
+                        local.get(Calendar.DAY_OF_MONTH), local.get(Calendar.YEAR),
+                        local.get(Calendar.HOUR_OF_DAY), local.get(Calendar.MINUTE), local.get(Calendar.SECOND)) +
+                (hhmm > 0 ? " GMT+" : " GMT-") + String.format(Locale.US, "%04d", Math.abs(hhmm)) +
+                " (" + zone.format(date) + ")";
+    }
+}
@@ -36,6 +36,7 @@ import info.nightscout.androidaps.utils.FabricPrivacy;
 import info.nightscout.androidaps.utils.HardLimits;
 import info.nightscout.androidaps.utils.Profiler;
 import info.nightscout.androidaps.utils.Round;
+import info.nightscout.androidaps.utils.SP;
 import info.nightscout.androidaps.utils.ToastUtils;
 
 /**
@@ -231,7 +232,7 @@ public class OpenAPSSMBPlugin extends PluginBase implements APSInterface, Constr
 
         long now = System.currentTimeMillis();
 
-        DetermineBasalResultSMB determineBasalResultSMB = determineBasalAdapterSMBJS.invoke();
+        DetermineBasalResultSMB determineBasalResultSMB = determineBasalAdapterSMBJS.invoke(SP.getBoolean(R.string.key_openapssmb_native_engine, false));
         if (L.isEnabled(L.APS))
             Profiler.log(log, "SMB calculation", start);
         if (determineBasalResultSMB == null) {
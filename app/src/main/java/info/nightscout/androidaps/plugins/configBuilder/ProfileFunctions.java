@@ -4,6 +4,7 @@ import android.content.Intent;
 import android.os.Bundle;
 
 import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
 
 import com.google.firebase.analytics.FirebaseAnalytics;
 
@@ -18,8 +19,11 @@ import info.nightscout.androidaps.data.Profile;
 import info.nightscout.androidaps.data.ProfileStore;
 import info.nightscout.androidaps.db.ProfileSwitch;
 import info.nightscout.androidaps.db.Source;
+import info.nightscout.androidaps.events.EventConfigBuilderChange;
 import info.nightscout.androidaps.events.EventNewBasalProfile;
 import info.nightscout.androidaps.events.EventProfileNeedsUpdate;
+import info.nightscout.androidaps.events.EventProfileStoreChanged;
+import info.nightscout.androidaps.events.EventReloadProfileSwitchData;
 import info.nightscout.androidaps.interfaces.ProfileInterface;
 import info.nightscout.androidaps.interfaces.TreatmentsInterface;
 import info.nightscout.androidaps.logging.L;
@@ -39,6 +43,21 @@ public class ProfileFunctions {
 
     private static ProfileFunctions profileFunctions = null;
 
+    // effective profile per profile switch, keyed by switch start
+    // entry is valid only for the same ProfileSwitch instance (it's recreated on every reload from DB)
+    private final LongSparseArray<CachedProfile> cache = new LongSparseArray<>();
+    private long cacheGeneration = 0;
+
+    private static class CachedProfile {
+        final ProfileSwitch profileSwitch;
+        final Profile profile;
+
+        CachedProfile(ProfileSwitch profileSwitch, Profile profile) {
+            this.profileSwitch = profileSwitch;
+            this.profile = profile;
+        }
+    }
+
     public static ProfileFunctions getInstance() {
         if (profileFunctions == null)
             profileFunctions = new ProfileFunctions();
@@ -50,12 +69,26 @@ public class ProfileFunctions {
     }
 
     private ProfileFunctions() {
+        // invalidate before any io thread can ask for the new profile
+        disposable.add(RxBus.INSTANCE
+                .toObservable(EventReloadProfileSwitchData.class)
+                .subscribe(event -> resetCache("profile switch data changed"), FabricPrivacy::logException)
+        );
+        disposable.add(RxBus.INSTANCE
+                .toObservable(EventProfileStoreChanged.class)
+                .subscribe(event -> resetCache("profile store changed"), FabricPrivacy::logException)
+        );
+        disposable.add(RxBus.INSTANCE
+                .toObservable(EventConfigBuilderChange.class)
+                .subscribe(event -> resetCache("config builder change"), FabricPrivacy::logException)
+        );
         disposable.add(RxBus.INSTANCE
                 .toObservable(EventProfileNeedsUpdate.class)
                 .observeOn(Schedulers.io())
                 .subscribe(event -> {
                     if (L.isEnabled(L.PROFILE))
                         log.debug("onProfileSwitch");
+                    resetCache("profile needs update");
                     ConfigBuilderPlugin.getPlugin().getCommandQueue().setProfile(getProfile(), new Callback() {
                         @Override
                         public void run() {
@@ -131,18 +164,13 @@ public class ProfileFunctions {
     @Nullable
     public Profile getProfile(long time) {
         TreatmentsInterface activeTreatments = TreatmentsPlugin.getPlugin();
-        ProfileInterface activeProfile = ConfigBuilderPlugin.getPlugin().getActiveProfileInterface();
 
         //log.debug("Profile for: " + new Date(time).toLocaleString() + " : " + getProfileName(time));
         ProfileSwitch profileSwitch = activeTreatments.getProfileSwitchFromHistory(time);
         if (profileSwitch != null) {
-            if (profileSwitch.profileJson != null) {
-                return profileSwitch.getProfileObject();
-            } else if (activeProfile.getProfile() != null) {
-                Profile profile = activeProfile.getProfile().getSpecificProfile(profileSwitch.profileName);
-                if (profile != null)
-                    return profile;
-            }
+            Profile profile = getProfile(profileSwitch);
+            if (profile != null)
+                return profile;
         }
         if (activeTreatments.getProfileSwitchesFromHistory().size() > 0) {
             Bundle bundle = new Bundle();
@@ -156,6 +184,44 @@ public class ProfileFunctions {
         return null;
     }
 
+    @Nullable
+    private Profile getProfile(ProfileSwitch profileSwitch) {
+        long generation;
+        synchronized (cache) {
+            CachedProfile cached = cache.get(profileSwitch.date);
+            if (cached != null && cached.profileSwitch == profileSwitch)
+                return cached.profile;
+            generation = cacheGeneration;
+        }
+
+        Profile profile = null;
+        if (profileSwitch.profileJson != null) {
+            profile = profileSwitch.getProfileObject();
+        } else {
+            ProfileStore profileStore = ConfigBuilderPlugin.getPlugin().getActiveProfileInterface().getProfile();
+            if (profileStore != null)
+                profile = profileStore.getSpecificProfile(profileSwitch.profileName);
+        }
+
+        if (profile != null) {
+            synchronized (cache) {
+                // do not store result computed from data invalidated in the meantime
+                if (generation == cacheGeneration)
+                    cache.put(profileSwitch.date, new CachedProfile(profileSwitch, profile));
+            }
+        }
+        return profile;
+    }
+
+    void resetCache(String reason) {
+        synchronized (cache) {
+            cache.clear();
+            cacheGeneration++;
+        }
+        if (L.isEnabled(L.PROFILE))
+            log.debug("Profile cache reset: " + reason);
+    }
+
     public static ProfileSwitch prepareProfileSwitch(final ProfileStore profileStore, final String profileName, final int duration, final int percentage, final int timeshift, long date) {
         ProfileSwitch profileSwitch = new ProfileSwitch();
         profileSwitch.date = date;
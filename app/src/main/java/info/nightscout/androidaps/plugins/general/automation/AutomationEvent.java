@@ -5,6 +5,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 
 import info.nightscout.androidaps.plugins.general.automation.actions.Action;
@@ -54,6 +55,12 @@ public class AutomationEvent {
         return trigger;
     }
 
+    public EnumSet<Trigger.Dependency> getDependencies() {
+        EnumSet<Trigger.Dependency> dependencies = trigger.dependencies();
+        dependencies.addAll(getPreconditions().dependencies());
+        return dependencies;
+    }
+
     public void addAction(Action action) {
         actions.add(action);
     }
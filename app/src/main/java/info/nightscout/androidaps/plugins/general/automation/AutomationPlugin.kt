@@ -5,7 +5,6 @@ import android.os.Build
 import android.os.Handler
 import info.nightscout.androidaps.MainApp
 import info.nightscout.androidaps.R
-import info.nightscout.androidaps.events.EventChargingState
 import info.nightscout.androidaps.events.EventLocationChange
 import info.nightscout.androidaps.events.EventNetworkChange
 import info.nightscout.androidaps.events.EventPreferenceChange
@@ -47,12 +46,26 @@ object AutomationPlugin : PluginBase(PluginDescription()
     val automationEvents = ArrayList<AutomationEvent>()
     var executionLog: MutableList<String> = ArrayList()
 
+    // dependency -> events whose triggers or preconditions read it
+    private val dependencyIndex = EnumMap<Trigger.Dependency, MutableList<AutomationEvent>>(Trigger.Dependency::class.java)
+
+    // data changed when new BG is processed by IobCobCalculator
+    private val calculationDependencies = EnumSet.of(
+            Trigger.Dependency.BG,
+            Trigger.Dependency.IOB,
+            Trigger.Dependency.COB,
+            Trigger.Dependency.AUTOSENS,
+            Trigger.Dependency.TREATMENTS,
+            Trigger.Dependency.PROFILE,
+            Trigger.Dependency.TEMP_TARGET,
+            Trigger.Dependency.PUMP)
+
     private val loopHandler = Handler()
     private lateinit var refreshLoop: Runnable
 
     init {
         refreshLoop = Runnable {
-            processActions()
+            processActions(null)
             loopHandler.postDelayed(refreshLoop, T.mins(1).msecs())
         }
     }
@@ -85,7 +98,10 @@ object AutomationPlugin : PluginBase(PluginDescription()
         disposable += RxBus
                 .toObservable(EventAutomationDataChanged::class.java)
                 .observeOn(Schedulers.io())
-                .subscribe({ storeToSP() }, {
+                .subscribe({
+                    storeToSP()
+                    buildDependencyIndex()
+                }, {
                     FabricPrivacy.logException(it)
                 })
         disposable += RxBus
@@ -94,27 +110,21 @@ object AutomationPlugin : PluginBase(PluginDescription()
                 .subscribe({ e ->
                     e?.let {
                         log.debug("Grabbed location: $it.location.latitude $it.location.longitude Provider: $it.location.provider")
-                        processActions()
+                        processActions(EnumSet.of(Trigger.Dependency.LOCATION))
                     }
                 }, {
                     FabricPrivacy.logException(it)
                 })
-        disposable += RxBus
-                .toObservable(EventChargingState::class.java)
-                .observeOn(Schedulers.io())
-                .subscribe({ processActions() }, {
-                    FabricPrivacy.logException(it)
-                })
         disposable += RxBus
                 .toObservable(EventNetworkChange::class.java)
                 .observeOn(Schedulers.io())
-                .subscribe({ processActions() }, {
+                .subscribe({ processActions(EnumSet.of(Trigger.Dependency.NETWORK)) }, {
                     FabricPrivacy.logException(it)
                 })
         disposable += RxBus
                 .toObservable(EventAutosensCalculationFinished::class.java)
                 .observeOn(Schedulers.io())
-                .subscribe({ processActions() }, {
+                .subscribe({ processActions(calculationDependencies) }, {
                     FabricPrivacy.logException(it)
                 })
     }
@@ -155,10 +165,32 @@ object AutomationPlugin : PluginBase(PluginDescription()
                 e.printStackTrace()
             }
         }
+        buildDependencyIndex()
     }
 
     @Synchronized
-    private fun processActions() {
+    private fun buildDependencyIndex() {
+        dependencyIndex.clear()
+        for (event in automationEvents)
+            for (dependency in event.dependencies)
+                dependencyIndex.getOrPut(dependency) { ArrayList() }.add(event)
+    }
+
+    @Synchronized
+    private fun eventsDependingOn(changed: EnumSet<Trigger.Dependency>?): List<AutomationEvent> {
+        if (changed == null) return ArrayList(automationEvents)
+        val affected = Collections.newSetFromMap(IdentityHashMap<AutomationEvent, Boolean>())
+        for (dependency in changed)
+            dependencyIndex[dependency]?.let { affected.addAll(it) }
+        // keep order of rules
+        return automationEvents.filter { affected.contains(it) }
+    }
+
+    /**
+     * @param changed data that changed, null to evaluate all rules
+     */
+    @Synchronized
+    private fun processActions(changed: EnumSet<Trigger.Dependency>?) {
         if (!isEnabled(PluginType.GENERAL))
             return
         if (LoopPlugin.getPlugin().isSuspended || !LoopPlugin.getPlugin().isEnabled(PluginType.LOOP)) {
@@ -167,35 +199,45 @@ object AutomationPlugin : PluginBase(PluginDescription()
             return
         }
 
+        val events = eventsDependingOn(changed)
         if (L.isEnabled(L.AUTOMATION))
-            log.debug("processActions")
-        for (event in automationEvents) {
-            if (event.isEnabled && event.trigger.shouldRun() && event.preconditions.shouldRun()) {
-                val actions = event.actions
-                for (action in actions) {
-                    action.doAction(object : Callback() {
-                        override fun run() {
-                            val sb = StringBuilder()
-                            sb.append(DateUtil.timeString(DateUtil.now()))
-                            sb.append(" ")
-                            sb.append(if (result.success) "☺" else "▼")
-                            sb.append(" <b>")
-                            sb.append(event.title)
-                            sb.append(":</b> ")
-                            sb.append(action.shortDescription())
-                            sb.append(": ")
-                            sb.append(result.comment)
-                            executionLog.add(sb.toString())
-                            if (L.isEnabled(L.AUTOMATION))
-                                log.debug("Executed: $sb")
-                            RxBus.send(EventAutomationUpdateGui())
-                        }
-                    })
+            log.debug("processActions changed: " + (changed ?: "all") + " rules: " + events.size)
+        if (events.isEmpty()) return
+        var executed = false
+        EvaluationContext.begin()
+        try {
+            for (event in events) {
+                if (event.isEnabled && event.trigger.shouldRun() && event.preconditions.shouldRun()) {
+                    val actions = event.actions
+                    for (action in actions) {
+                        action.doAction(object : Callback() {
+                            override fun run() {
+                                val sb = StringBuilder()
+                                sb.append(DateUtil.timeString(DateUtil.now()))
+                                sb.append(" ")
+                                sb.append(if (result.success) "☺" else "▼")
+                                sb.append(" <b>")
+                                sb.append(event.title)
+                                sb.append(":</b> ")
+                                sb.append(action.shortDescription())
+                                sb.append(": ")
+                                sb.append(result.comment)
+                                executionLog.add(sb.toString())
+                                if (L.isEnabled(L.AUTOMATION))
+                                    log.debug("Executed: $sb")
+                                RxBus.send(EventAutomationUpdateGui())
+                            }
+                        })
+                    }
+                    event.trigger.executed(DateUtil.now())
+                    executed = true
                 }
-                event.trigger.executed(DateUtil.now())
             }
+        } finally {
+            EvaluationContext.end()
         }
-        storeToSP() // save last run time
+        if (executed)
+            storeToSP() // save last run time
     }
 
     fun getActionDummyObjects(): List<Action> {
@@ -0,0 +1,78 @@
+package info.nightscout.androidaps.plugins.general.automation.triggers;
+
+import info.nightscout.androidaps.data.IobTotal;
+import info.nightscout.androidaps.data.Profile;
+import info.nightscout.androidaps.plugins.configBuilder.ProfileFunctions;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.AutosensData;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.CobInfo;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.GlucoseStatus;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.IobCobCalculatorPlugin;
+import info.nightscout.androidaps.utils.DateUtil;
+
+/**
+ * Data shared by all triggers evaluated in one automation cycle.
+ * Every value is calculated on first use and then reused by other triggers.
+ * Outside of a cycle each call of current() gets fresh data.
+ */
+public class EvaluationContext {
+    private static final ThreadLocal<EvaluationContext> cycle = new ThreadLocal<>();
+
+    private boolean glucoseStatusLoaded = false;
+    private GlucoseStatus glucoseStatus;
+    private boolean iobLoaded = false;
+    private IobTotal iob;
+    private boolean cobInfoLoaded = false;
+    private CobInfo cobInfo;
+    private boolean autosensDataLoaded = false;
+    private AutosensData autosensData;
+
+    public static void begin() {
+        cycle.set(new EvaluationContext());
+    }
+
+    public static void end() {
+        cycle.remove();
+    }
+
+    public static EvaluationContext current() {
+        EvaluationContext context = cycle.get();
+        return context != null ? context : new EvaluationContext();
+    }
+
+    public GlucoseStatus glucoseStatus() {
+        if (!glucoseStatusLoaded) {
+            glucoseStatus = GlucoseStatus.getGlucoseStatusData();
+            glucoseStatusLoaded = true;
+        }
+        return glucoseStatus;
+    }
+
+    /**
+     * @return null if there is no profile
+     */
+    public IobTotal iob() {
+        if (!iobLoaded) {
+            Profile profile = ProfileFunctions.getInstance().getProfile();
+            if (profile != null)
+                iob = IobCobCalculatorPlugin.getPlugin().calculateFromTreatmentsAndTempsSynchronized(DateUtil.now(), profile);
+            iobLoaded = true;
+        }
+        return iob;
+    }
+
+    public CobInfo cobInfo() {
+        if (!cobInfoLoaded) {
+            cobInfo = IobCobCalculatorPlugin.getPlugin().getCobInfo(false, "AutomationTriggerCOB");
+            cobInfoLoaded = true;
+        }
+        return cobInfo;
+    }
+
+    public AutosensData lastAutosensData() {
+        if (!autosensDataLoaded) {
+            autosensData = IobCobCalculatorPlugin.getPlugin().getLastAutosensData("Automation trigger");
+            autosensDataLoaded = true;
+        }
+        return autosensData;
+    }
+}
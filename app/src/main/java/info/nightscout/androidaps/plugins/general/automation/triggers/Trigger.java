@@ -16,11 +16,28 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.EnumSet;
+
 import javax.annotation.Nullable;
 
 public abstract class Trigger {
     private static final Logger log = LoggerFactory.getLogger(Trigger.class);
 
+    // data a trigger result can change with
+    public enum Dependency {
+        TIME,
+        BG,
+        IOB,
+        COB,
+        AUTOSENS,
+        TREATMENTS,
+        PROFILE,
+        TEMP_TARGET,
+        PUMP,
+        LOCATION,
+        NETWORK
+    }
+
     TriggerConnector connector = null;
     long lastRun;
 
@@ -33,6 +50,12 @@ public abstract class Trigger {
 
     public abstract boolean shouldRun();
 
+    /**
+     * Trigger is evaluated only when some of these changed (or on periodic check)
+     */
+    public EnumSet<Dependency> dependencies() {
+        return EnumSet.allOf(Dependency.class);
+    }
 
     public abstract String toJSON();
 
@@ -11,6 +11,8 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.EnumSet;
+
 import info.nightscout.androidaps.Constants;
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
@@ -61,7 +63,7 @@ public class TriggerBg extends Trigger {
 
     @Override
     public synchronized boolean shouldRun() {
-        GlucoseStatus glucoseStatus = GlucoseStatus.getGlucoseStatusData();
+        GlucoseStatus glucoseStatus = EvaluationContext.current().glucoseStatus();
 
         if (lastRun > DateUtil.now() - T.mins(5).msecs()) {
             if (L.isEnabled(L.AUTOMATION))
@@ -92,6 +94,11 @@ public class TriggerBg extends Trigger {
         return false;
     }
 
+    @Override
+    public EnumSet<Dependency> dependencies() {
+        return EnumSet.of(Dependency.BG);
+    }
+
     @Override
     public synchronized String toJSON() {
         JSONObject o = new JSONObject();
@@ -11,6 +11,8 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.EnumSet;
+
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
 import info.nightscout.androidaps.logging.L;
@@ -75,6 +77,11 @@ public class TriggerBolusAgo extends Trigger {
         return false;
     }
 
+    @Override
+    public EnumSet<Dependency> dependencies() {
+        return EnumSet.of(Dependency.TREATMENTS);
+    }
+
     @Override
     public synchronized String toJSON() {
         JSONObject o = new JSONObject();
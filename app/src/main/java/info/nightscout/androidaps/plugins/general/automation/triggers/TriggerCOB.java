@@ -13,6 +13,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.text.DecimalFormat;
+import java.util.EnumSet;
 
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
@@ -23,7 +24,6 @@ import info.nightscout.androidaps.plugins.general.automation.elements.LabelWithE
 import info.nightscout.androidaps.plugins.general.automation.elements.LayoutBuilder;
 import info.nightscout.androidaps.plugins.general.automation.elements.StaticLabel;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.CobInfo;
-import info.nightscout.androidaps.plugins.iob.iobCobCalculator.IobCobCalculatorPlugin;
 import info.nightscout.androidaps.utils.DateUtil;
 import info.nightscout.androidaps.utils.JsonHelper;
 import info.nightscout.androidaps.utils.SP;
@@ -57,7 +57,7 @@ public class TriggerCOB extends Trigger {
 
     @Override
     public synchronized boolean shouldRun() {
-        CobInfo cobInfo = IobCobCalculatorPlugin.getPlugin().getCobInfo(false, "AutomationTriggerCOB");
+        CobInfo cobInfo = EvaluationContext.current().cobInfo();
         if (cobInfo == null)
             if (comparator.getValue() == Comparator.Compare.IS_NOT_AVAILABLE)
                 return true;
@@ -76,6 +76,11 @@ public class TriggerCOB extends Trigger {
         return false;
     }
 
+    @Override
+    public EnumSet<Dependency> dependencies() {
+        return EnumSet.of(Dependency.COB);
+    }
+
     @Override
     public synchronized String toJSON() {
         JSONObject o = new JSONObject();
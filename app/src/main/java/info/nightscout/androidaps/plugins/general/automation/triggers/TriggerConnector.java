@@ -16,6 +16,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 
@@ -148,6 +149,14 @@ public class TriggerConnector extends Trigger {
         return result;
     }
 
+    @Override
+    public synchronized EnumSet<Dependency> dependencies() {
+        EnumSet<Dependency> dependencies = EnumSet.noneOf(Dependency.class);
+        for (Trigger t : list)
+            dependencies.addAll(t.dependencies());
+        return dependencies;
+    }
+
     @Override
     public synchronized String toJSON() {
         JSONObject o = new JSONObject();
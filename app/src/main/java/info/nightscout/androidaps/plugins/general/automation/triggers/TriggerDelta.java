@@ -13,6 +13,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.text.DecimalFormat;
+import java.util.EnumSet;
 
 import info.nightscout.androidaps.Constants;
 import info.nightscout.androidaps.MainApp;
@@ -87,7 +88,7 @@ public class TriggerDelta extends Trigger {
 
     @Override
     public synchronized boolean shouldRun() {
-        GlucoseStatus glucoseStatus = GlucoseStatus.getGlucoseStatusData();
+        GlucoseStatus glucoseStatus = EvaluationContext.current().glucoseStatus();
         if (glucoseStatus == null)
             if (comparator.getValue() == Comparator.Compare.IS_NOT_AVAILABLE)
                 return true;
@@ -116,6 +117,11 @@ public class TriggerDelta extends Trigger {
         return false;
     }
 
+    @Override
+    public EnumSet<Dependency> dependencies() {
+        return EnumSet.of(Dependency.BG);
+    }
+
     @Override
     public synchronized String toJSON() {
         JSONObject o = new JSONObject();
@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.EnumSet;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Objects;
@@ -148,6 +149,11 @@ public class TriggerRecurringTime extends Trigger {
         return false;
     }
 
+    @Override
+    public EnumSet<Dependency> dependencies() {
+        return EnumSet.of(Dependency.TIME);
+    }
+
     @Override
     public String toJSON() {
         JSONObject object = new JSONObject();
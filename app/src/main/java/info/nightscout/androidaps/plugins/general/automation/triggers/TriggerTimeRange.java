@@ -18,6 +18,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Calendar;
+import java.util.EnumSet;
 import java.util.GregorianCalendar;
 
 import info.nightscout.androidaps.MainApp;
@@ -74,6 +75,11 @@ public class TriggerTimeRange extends Trigger {
         return false;
     }
 
+    @Override
+    public EnumSet<Dependency> dependencies() {
+        return EnumSet.of(Dependency.TIME);
+    }
+
     @Override
     public String toJSON() {
         JSONObject object = new JSONObject();
@@ -1,7 +1,6 @@
 package info.nightscout.androidaps.plugins.general.food;
 
 import android.content.Intent;
-import android.os.Bundle;
 import android.os.IBinder;
 
 import androidx.annotation.Nullable;
@@ -58,27 +57,12 @@ public class FoodService extends OrmLiteBaseService<DatabaseHelper> {
                 .observeOn(Schedulers.io())
                 .subscribe(event -> {
                     int mode = event.getMode();
-                    Bundle payload = event.getPayload();
-
-                    try {
-                        if (payload.containsKey("food")) {
-                            JSONObject json = new JSONObject(payload.getString("food"));
-                            if (mode == EventNsFood.Companion.getADD() || mode == EventNsFood.Companion.getUPDATE())
-                                this.createFoodFromJsonIfNotExists(json);
-                            else
-                                this.deleteNS(json);
-                        }
-
-                        if (payload.containsKey("foods")) {
-                            JSONArray array = new JSONArray(payload.getString("foods"));
-                            if (mode == EventNsFood.Companion.getADD() || mode == EventNsFood.Companion.getUPDATE())
-                                this.createFoodFromJsonIfNotExists(array);
-                            else
-                                this.deleteNS(array);
-                        }
-                    } catch (JSONException e) {
-                        log.error("Unhandled Exception", e);
-                    }
+                    JSONArray array = event.getPayload();
+
+                    if (mode == EventNsFood.Companion.getADD() || mode == EventNsFood.Companion.getUPDATE())
+                        this.createFoodFromJsonIfNotExists(array);
+                    else
+                        this.deleteNS(array);
                 }, FabricPrivacy::logException)
         );
     }
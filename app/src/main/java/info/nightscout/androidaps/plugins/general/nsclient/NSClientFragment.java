@@ -147,7 +147,8 @@ public class NSClientFragment extends Fragment implements View.OnClickListener,
             logScrollview.fullScroll(ScrollView.FOCUS_DOWN);
         }
         urlTextView.setText(NSClientPlugin.getPlugin().url());
-        Spanned queuetext = Html.fromHtml(MainApp.gs(R.string.queue) + " <b>" + UploadQueue.size() + "</b>");
+        Spanned queuetext = Html.fromHtml(MainApp.gs(R.string.queue) + " <b>" + UploadQueue.size() + "</b> "
+                + MainApp.gs(R.string.nsclientinternal_queue_stats, UploadQueue.inFlight(), UploadQueue.drainRate()));
         queueTextView.setText(queuetext);
         statusTextView.setText(NSClientPlugin.getPlugin().status);
     }
@@ -12,6 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
+import java.util.LinkedList;
 
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
@@ -19,7 +20,9 @@ import info.nightscout.androidaps.db.DatabaseHelper;
 import info.nightscout.androidaps.db.DbRequest;
 import info.nightscout.androidaps.logging.L;
 import info.nightscout.androidaps.plugins.general.nsclient.services.NSClientService;
+import info.nightscout.androidaps.utils.DateUtil;
 import info.nightscout.androidaps.utils.SP;
+import info.nightscout.androidaps.utils.T;
 
 /**
  * Created by mike on 21.02.2016.
@@ -27,6 +30,11 @@ import info.nightscout.androidaps.utils.SP;
 public class UploadQueue {
     private static Logger log = LoggerFactory.getLogger(L.NSCLIENT);
 
+    private static final long RATE_PERIOD = T.mins(5).msecs();
+    // time and count of deleted acknowledged requests in RATE_PERIOD
+    private static final LinkedList<long[]> drained = new LinkedList<>();
+    private static volatile int inFlight = 0;
+
     public static String status() {
         return "QUEUE: " + MainApp.getDbHelper().size(DatabaseHelper.DATABASE_DBREQUESTS);
     }
@@ -35,6 +43,31 @@ public class UploadQueue {
         return MainApp.getDbHelper().size(DatabaseHelper.DATABASE_DBREQUESTS);
     }
 
+    public static int inFlight() {
+        return inFlight;
+    }
+
+    public static void setInFlight(int count) {
+        inFlight = count;
+    }
+
+    public static synchronized void drained(int count) {
+        drained.add(new long[]{DateUtil.now(), count});
+    }
+
+    /**
+     * @return acknowledged requests per minute in last 5 minutes
+     */
+    public static synchronized long drainRate() {
+        long from = DateUtil.now() - RATE_PERIOD;
+        while (!drained.isEmpty() && drained.getFirst()[0] < from)
+            drained.removeFirst();
+        long count = 0;
+        for (long[] record : drained)
+            count += record[1];
+        return count * T.mins(1).msecs() / RATE_PERIOD;
+    }
+
     private static void startService() {
         if (NSClientService.handler == null) {
             Context context = MainApp.instance();
@@ -18,6 +18,7 @@ public class NSUpdateAck extends Event implements Ack {
     public boolean result = false;
     public String _id;
     public String action;
+    public String nsClientID = null;
     public void call(Object...args) {
         JSONObject response = (JSONObject)args[0];
         if (response.has("result"))
@@ -39,4 +40,9 @@ public class NSUpdateAck extends Event implements Ack {
         this.action = action;
         this._id = _id;
     }
+
+    public NSUpdateAck(String action, String _id, String nsClientID) {
+        this(action, _id);
+        this.nsClientID = nsClientID;
+    }
 }
@@ -3,13 +3,11 @@ package info.nightscout.androidaps.plugins.general.nsclient.broadcasts;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import org.json.JSONArray;
 
 import java.util.List;
 
-import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
 import info.nightscout.androidaps.services.Intents;
 import info.nightscout.androidaps.utils.SP;
@@ -18,20 +16,11 @@ import info.nightscout.androidaps.utils.SP;
  * Created by mike on 20.02.2016.
  */
 public class BroadcastFood {
+    // foods are processed by NSClientService directly, broadcasts are sent only to other apps
     public static void handleNewFood(JSONArray foods, Context context, boolean isDelta) {
 
-        List<JSONArray> splitted = BroadcastTreatment.splitArray(foods);
-        for (JSONArray part : splitted) {
-            Bundle bundle = new Bundle();
-            bundle.putString("foods", part.toString());
-            bundle.putBoolean("delta", isDelta);
-            Intent intent = new Intent(Intents.ACTION_NEW_FOOD);
-            intent.putExtras(bundle);
-            intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-            LocalBroadcastManager.getInstance(MainApp.instance()).sendBroadcast(intent);
-        }
-
         if (SP.getBoolean(R.string.key_nsclient_localbroadcasts, false)) {
+            List<JSONArray> splitted = BroadcastTreatment.splitArray(foods);
             for (JSONArray part : splitted) {
                 Bundle bundle = new Bundle();
                 bundle.putString("foods", part.toString());
@@ -46,18 +35,8 @@ public class BroadcastFood {
 
     public static void handleChangedFood(JSONArray foods, Context context, boolean isDelta) {
 
-        List<JSONArray> splitted = BroadcastTreatment.splitArray(foods);
-        for (JSONArray part : splitted) {
-            Bundle bundle = new Bundle();
-            bundle.putString("foods", part.toString());
-            bundle.putBoolean("delta", isDelta);
-            Intent intent = new Intent(Intents.ACTION_CHANGED_FOOD);
-            intent.putExtras(bundle);
-            intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-            LocalBroadcastManager.getInstance(MainApp.instance()).sendBroadcast(intent);
-        }
-
         if (SP.getBoolean(R.string.key_nsclient_localbroadcasts, false)) {
+            List<JSONArray> splitted = BroadcastTreatment.splitArray(foods);
             for (JSONArray part : splitted) {
                 Bundle bundle = new Bundle();
                 bundle.putString("foods", part.toString());
@@ -72,20 +51,11 @@ public class BroadcastFood {
 
     public static void handleRemovedFood(JSONArray foods, Context context, boolean isDelta) {
 
-        Bundle bundle = new Bundle();
-        bundle.putString("foods", foods.toString());
-        bundle.putBoolean("delta", isDelta);
-        Intent intent = new Intent(Intents.ACTION_REMOVED_FOOD);
-        intent.putExtras(bundle);
-        intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-        LocalBroadcastManager.getInstance(MainApp.instance()).sendBroadcast(intent);
-
-
         if (SP.getBoolean(R.string.key_nsclient_localbroadcasts, false)) {
-            bundle = new Bundle();
+            Bundle bundle = new Bundle();
             bundle.putString("foods", foods.toString());
             bundle.putBoolean("delta", isDelta);
-            intent = new Intent(Intents.ACTION_REMOVED_FOOD);
+            Intent intent = new Intent(Intents.ACTION_REMOVED_FOOD);
             intent.putExtras(bundle);
             intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
             context.sendBroadcast(intent);
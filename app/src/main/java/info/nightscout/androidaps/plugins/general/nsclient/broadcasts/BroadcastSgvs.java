@@ -3,13 +3,11 @@ package info.nightscout.androidaps.plugins.general.nsclient.broadcasts;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import org.json.JSONArray;
 
 import java.util.List;
 
-import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
 import info.nightscout.androidaps.services.Intents;
 import info.nightscout.androidaps.utils.SP;
@@ -18,20 +16,11 @@ import info.nightscout.androidaps.utils.SP;
  * Created by mike on 22.02.2016.
  */
 public class BroadcastSgvs {
+    // sgvs are stored by NSClientService directly, broadcast is sent only to other apps
     public static void handleNewSgv(JSONArray sgvs, Context context, boolean isDelta) {
 
-        List<JSONArray> splitted = BroadcastTreatment.splitArray(sgvs);
-        for (JSONArray part : splitted) {
-            Bundle bundle = new Bundle();
-            bundle.putString("sgvs", part.toString());
-            bundle.putBoolean("delta", isDelta);
-            Intent intent = new Intent(Intents.ACTION_NEW_SGV);
-            intent.putExtras(bundle);
-            intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-            LocalBroadcastManager.getInstance(MainApp.instance()).sendBroadcast(intent);
-        }
-
         if(SP.getBoolean(R.string.key_nsclient_localbroadcasts, false)) {
+            List<JSONArray> splitted = BroadcastTreatment.splitArray(sgvs);
             for (JSONArray part : splitted) {
                 Bundle bundle = new Bundle();
                 bundle.putString("sgvs", part.toString());
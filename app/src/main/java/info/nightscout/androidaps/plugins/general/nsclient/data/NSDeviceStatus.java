@@ -1,7 +1,5 @@
 package info.nightscout.androidaps.plugins.general.nsclient.data;
 
-import android.content.Intent;
-import android.os.Bundle;
 import android.text.Html;
 import android.text.Spanned;
 
@@ -17,7 +15,6 @@ import java.util.Map;
 
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
-import info.nightscout.androidaps.logging.BundleLogger;
 import info.nightscout.androidaps.logging.L;
 import info.nightscout.androidaps.plugins.aps.loop.APSResult;
 import info.nightscout.androidaps.utils.DateUtil;
@@ -94,34 +91,19 @@ public class NSDeviceStatus {
     public NSDeviceStatus() {
     }
 
-    public void handleNewData(Intent intent) {
-        Bundle bundle = intent.getExtras();
-        if (bundle == null) return;
-
+    public void handleNewData(JSONArray devicestatuses) {
         if (L.isEnabled(L.NSCLIENT))
-            log.debug("Got NS devicestatus: " + BundleLogger.log(bundle));
+            log.debug("Got NS devicestatus: " + devicestatuses.length());
 
         try {
-            if (bundle.containsKey("devicestatus")) {
-                JSONObject devicestatusJson = new JSONObject(bundle.getString("devicestatus"));
+            for (int i = 0; i < devicestatuses.length(); i++) {
+                JSONObject devicestatusJson = devicestatuses.getJSONObject(i);
                 setData(devicestatusJson);
                 if (devicestatusJson.has("pump")) {
                     // Objectives 0
                     SP.putBoolean(R.string.key_ObjectivespumpStatusIsAvailableInNS, true);
                 }
             }
-            if (bundle.containsKey("devicestatuses")) {
-                String devicestatusesstring = bundle.getString("devicestatuses");
-                JSONArray jsonArray = new JSONArray(devicestatusesstring);
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    JSONObject devicestatusJson = jsonArray.getJSONObject(i);
-                    setData(devicestatusJson);
-                    if (devicestatusJson.has("pump")) {
-                        // Objectives 0
-                        SP.putBoolean(R.string.key_ObjectivespumpStatusIsAvailableInNS, true);
-                    }
-                }
-            }
         } catch (Exception e) {
             log.error("Unhandled exception", e);
         }
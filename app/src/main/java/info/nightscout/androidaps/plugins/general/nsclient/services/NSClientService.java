@@ -23,6 +23,10 @@ import org.slf4j.LoggerFactory;
 import java.net.URISyntaxException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import info.nightscout.androidaps.Config;
 import info.nightscout.androidaps.MainApp;
@@ -31,6 +35,8 @@ import info.nightscout.androidaps.data.ProfileStore;
 import info.nightscout.androidaps.db.DbRequest;
 import info.nightscout.androidaps.events.EventAppExit;
 import info.nightscout.androidaps.events.EventConfigBuilderChange;
+import info.nightscout.androidaps.events.EventNsFood;
+import info.nightscout.androidaps.events.EventNsTreatment;
 import info.nightscout.androidaps.events.EventPreferenceChange;
 import info.nightscout.androidaps.interfaces.PluginType;
 import info.nightscout.androidaps.logging.L;
@@ -53,6 +59,7 @@ import info.nightscout.androidaps.plugins.general.nsclient.broadcasts.BroadcastS
 import info.nightscout.androidaps.plugins.general.nsclient.broadcasts.BroadcastTreatment;
 import info.nightscout.androidaps.plugins.general.nsclient.broadcasts.BroadcastUrgentAlarm;
 import info.nightscout.androidaps.plugins.general.nsclient.data.AlarmAck;
+import info.nightscout.androidaps.plugins.general.nsclient.data.NSDeviceStatus;
 import info.nightscout.androidaps.plugins.general.nsclient.data.NSSettingsStatus;
 import info.nightscout.androidaps.plugins.general.nsclient.data.NSSgv;
 import info.nightscout.androidaps.plugins.general.nsclient.data.NSTreatment;
@@ -63,6 +70,8 @@ import info.nightscout.androidaps.plugins.general.nsclient.events.EventNSClientU
 import info.nightscout.androidaps.plugins.general.overview.events.EventDismissNotification;
 import info.nightscout.androidaps.plugins.general.overview.events.EventNewNotification;
 import info.nightscout.androidaps.plugins.general.overview.notifications.Notification;
+import info.nightscout.androidaps.plugins.source.SourceNSClientPlugin;
+import info.nightscout.androidaps.services.DataService;
 import info.nightscout.androidaps.utils.DateUtil;
 import info.nightscout.androidaps.utils.FabricPrivacy;
 import info.nightscout.androidaps.utils.JsonHelper;
@@ -101,7 +110,11 @@ public class NSClientService extends Service {
     private String nsDevice = "";
     private Integer nsHours = 48;
 
-    public long lastResendTime = 0;
+    // upload pipeline, accessed only on handler thread
+    private static final int UPLOAD_WINDOW = 50; // max requests waiting for ack
+    private static final long ACK_TIMEOUT = T.mins(1).msecs();
+    private final HashMap<String, Long> inFlight = new HashMap<>(); // nsClientID, sent time
+    private final ArrayList<String> acked = new ArrayList<>(); // nsClientID waiting for delete
 
     public long latestDateInReceivedData = 0;
 
@@ -199,7 +212,7 @@ public class NSClientService extends Service {
 
     public void processAddAck(NSAddAck ack) {
         if (ack.nsClientID != null) {
-            uploadQueue.removeID(ack.json);
+            handler.post(() -> acknowledged(ack.nsClientID));
             RxBus.INSTANCE.send(new EventNSClientNewLog("DBADD", "Acked " + ack.nsClientID));
         } else {
             RxBus.INSTANCE.send(new EventNSClientNewLog("ERROR", "DBADD Unknown response"));
@@ -208,7 +221,10 @@ public class NSClientService extends Service {
 
     public void processUpdateAck(NSUpdateAck ack) {
         if (ack.result) {
-            uploadQueue.removeID(ack.action, ack._id);
+            if (ack.nsClientID != null)
+                handler.post(() -> acknowledged(ack.nsClientID));
+            else
+                uploadQueue.removeID(ack.action, ack._id);
             RxBus.INSTANCE.send(new EventNSClientNewLog("DBUPDATE/DBREMOVE", "Acked " + ack._id));
         } else {
             RxBus.INSTANCE.send(new EventNSClientNewLog("ERROR", "DBUPDATE/DBREMOVE Unknown response"));
@@ -236,6 +252,7 @@ public class NSClientService extends Service {
             RxBus.INSTANCE.send(new EventNewNotification(noperm));
         } else {
             RxBus.INSTANCE.send(new EventDismissNotification(Notification.NSCLIENT_NO_WRITE_PERMISSION));
+            resend("Authenticated");
         }
     }
 
@@ -351,6 +368,8 @@ public class NSClientService extends Service {
             if (L.isEnabled(L.NSCLIENT))
                 log.debug("disconnect reason: {}", args);
             RxBus.INSTANCE.send(new EventNSClientNewLog("NSCLIENT", "disconnect event"));
+            // acks of sent requests will never come
+            handler.post(() -> clearInFlight());
         }
     };
 
@@ -370,6 +389,7 @@ public class NSClientService extends Service {
             hasWriteAuth = false;
             mSocket.disconnect();
             mSocket = null;
+            handler.post(() -> clearInFlight());
         }
     }
 
@@ -638,12 +658,15 @@ public class NSClientService extends Service {
                                     }
                                 }
                                 if (removedTreatments.length() > 0) {
+                                    DataService.handleRemovedTreatmentsFromNS(removedTreatments);
                                     BroadcastTreatment.handleRemovedTreatment(removedTreatments, isDelta);
                                 }
                                 if (updatedTreatments.length() > 0) {
+                                    DataService.handleTreatmentsFromNS(updatedTreatments, EventNsTreatment.Companion.getUPDATE());
                                     BroadcastTreatment.handleChangedTreatment(updatedTreatments, isDelta);
                                 }
                                 if (addedTreatments.length() > 0) {
+                                    DataService.handleTreatmentsFromNS(addedTreatments, EventNsTreatment.Companion.getADD());
                                     BroadcastTreatment.handleNewTreatment(addedTreatments, isDelta);
                                 }
                             }
@@ -656,6 +679,7 @@ public class NSClientService extends Service {
                                         // remove from upload queue if Ack is failing
                                         UploadQueue.removeID(jsonStatus);
                                     }
+                                    NSDeviceStatus.getInstance().handleNewData(devicestatuses);
                                     BroadcastDeviceStatus.handleNewDeviceStatus(devicestatuses, MainApp.instance().getApplicationContext(), isDelta);
                                 }
                             }
@@ -683,12 +707,15 @@ public class NSClientService extends Service {
                                     }
                                 }
                                 if (removedFoods.length() > 0) {
+                                    RxBus.INSTANCE.send(new EventNsFood(EventNsFood.Companion.getREMOVE(), removedFoods));
                                     BroadcastFood.handleRemovedFood(removedFoods, MainApp.instance().getApplicationContext(), isDelta);
                                 }
                                 if (updatedFoods.length() > 0) {
+                                    RxBus.INSTANCE.send(new EventNsFood(EventNsFood.Companion.getUPDATE(), updatedFoods));
                                     BroadcastFood.handleChangedFood(updatedFoods, MainApp.instance().getApplicationContext(), isDelta);
                                 }
                                 if (addedFoods.length() > 0) {
+                                    RxBus.INSTANCE.send(new EventNsFood(EventNsFood.Companion.getADD(), addedFoods));
                                     BroadcastFood.handleNewFood(addedFoods, MainApp.instance().getApplicationContext(), isDelta);
                                 }
                             }
@@ -718,11 +745,12 @@ public class NSClientService extends Service {
                                 JSONArray sgvs = data.getJSONArray("sgvs");
                                 if (sgvs.length() > 0)
                                     RxBus.INSTANCE.send(new EventNSClientNewLog("DATA", "received " + sgvs.length() + " sgvs"));
+                                List<NSSgv> nsSgvs = new ArrayList<>(sgvs.length());
                                 for (Integer index = 0; index < sgvs.length(); index++) {
                                     JSONObject jsonSgv = sgvs.getJSONObject(index);
                                     // RxBus.INSTANCE.send(new EventNSClientNewLog("DATA", "svg " + sgvs.getJSONObject(index).toString());
                                     NSSgv sgv = new NSSgv(jsonSgv);
-                                    // Handle new sgv here
+                                    nsSgvs.add(sgv);
                                     // remove from upload queue if Ack is failing
                                     UploadQueue.removeID(jsonSgv);
                                     //Find latest date in sgv
@@ -737,6 +765,7 @@ public class NSClientService extends Service {
                                 if (Notification.isAlarmForStaleData() && lessThan15MinAgo) {
                                     RxBus.INSTANCE.send(new EventDismissNotification(Notification.NSALARM));
                                 }
+                                SourceNSClientPlugin.getPlugin().handleNewSgvs(nsSgvs);
                                 BroadcastSgvs.handleNewSgv(sgvs, MainApp.instance().getApplicationContext(), isDelta);
                             }
                             RxBus.INSTANCE.send(new EventNSClientNewLog("LAST", DateUtil.dateAndTimeString(latestDateInReceivedData)));
@@ -813,58 +842,98 @@ public class NSClientService extends Service {
         RxBus.INSTANCE.send(new EventNSClientNewLog("ALARMACK ", alarmAck.level + " " + alarmAck.group + " " + alarmAck.silenceTime));
     }
 
+    /**
+     * Send waiting requests without waiting for acks up to UPLOAD_WINDOW requests in flight.
+     * Called again when half of the window is acked or on next ping.
+     */
     public void resend(final String reason) {
         if (UploadQueue.size() == 0)
             return;
 
         if (!isConnected || !hasWriteAuth) return;
 
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                if (mSocket == null || !mSocket.connected()) return;
+        handler.post(() -> sendWindow(reason));
+    }
 
-                if (lastResendTime > System.currentTimeMillis() - 10 * 1000L) {
-                    if (L.isEnabled(L.NSCLIENT))
-                        log.debug("Skipping resend by lastResendTime: " + ((System.currentTimeMillis() - lastResendTime) / 1000L) + " sec");
-                    return;
-                }
-                lastResendTime = System.currentTimeMillis();
+    private void sendWindow(String reason) {
+        if (mSocket == null || !mSocket.connected()) return;
+        if (!isConnected || !hasWriteAuth) return;
 
-                RxBus.INSTANCE.send(new EventNSClientNewLog("QUEUE", "Resend started: " + reason));
+        deleteAcked();
+        long now = DateUtil.now();
+        Iterator<Map.Entry<String, Long>> expired = inFlight.entrySet().iterator();
+        while (expired.hasNext()) {
+            if (expired.next().getValue() < now - ACK_TIMEOUT) {
+                expired.remove();
+            }
+        }
+        if (inFlight.size() >= UPLOAD_WINDOW) {
+            if (L.isEnabled(L.NSCLIENT))
+                log.debug("Skipping resend, requests waiting for ack: " + inFlight.size());
+            return;
+        }
 
-                CloseableIterator<DbRequest> iterator = null;
-                int maxcount = 30;
-                try {
-                    iterator = MainApp.getDbHelper().getDbRequestInterator();
-                    try {
-                        while (iterator.hasNext() && maxcount > 0) {
-                            DbRequest dbr = iterator.next();
-                            if (dbr.action.equals("dbAdd")) {
-                                NSAddAck addAck = new NSAddAck();
-                                dbAdd(dbr, addAck);
-                            } else if (dbr.action.equals("dbRemove")) {
-                                NSUpdateAck removeAck = new NSUpdateAck(dbr.action, dbr._id);
-                                dbRemove(dbr, removeAck);
-                            } else if (dbr.action.equals("dbUpdate")) {
-                                NSUpdateAck updateAck = new NSUpdateAck(dbr.action, dbr._id);
-                                dbUpdate(dbr, updateAck);
-                            } else if (dbr.action.equals("dbUpdateUnset")) {
-                                NSUpdateAck updateUnsetAck = new NSUpdateAck(dbr.action, dbr._id);
-                                dbUpdateUnset(dbr, updateUnsetAck);
-                            }
-                            maxcount--;
-                        }
-                    } finally {
-                        iterator.close();
+        int sent = 0;
+        CloseableIterator<DbRequest> iterator = null;
+        try {
+            iterator = MainApp.getDbHelper().getDbRequestInterator();
+            try {
+                while (iterator.hasNext() && inFlight.size() < UPLOAD_WINDOW) {
+                    DbRequest dbr = iterator.next();
+                    if (inFlight.containsKey(dbr.nsClientID))
+                        continue;
+                    if (dbr.action.equals("dbAdd")) {
+                        NSAddAck addAck = new NSAddAck();
+                        dbAdd(dbr, addAck);
+                    } else if (dbr.action.equals("dbRemove")) {
+                        NSUpdateAck removeAck = new NSUpdateAck(dbr.action, dbr._id, dbr.nsClientID);
+                        dbRemove(dbr, removeAck);
+                    } else if (dbr.action.equals("dbUpdate")) {
+                        NSUpdateAck updateAck = new NSUpdateAck(dbr.action, dbr._id, dbr.nsClientID);
+                        dbUpdate(dbr, updateAck);
+                    } else if (dbr.action.equals("dbUpdateUnset")) {
+                        NSUpdateAck updateUnsetAck = new NSUpdateAck(dbr.action, dbr._id, dbr.nsClientID);
+                        dbUpdateUnset(dbr, updateUnsetAck);
                     }
-                } catch (SQLException e) {
-                    log.error("Unhandled exception", e);
+                    inFlight.put(dbr.nsClientID, now);
+                    sent++;
                 }
-
-                RxBus.INSTANCE.send(new EventNSClientNewLog("QUEUE", "Resend ended: " + reason));
+            } finally {
+                iterator.close();
             }
-        });
+        } catch (SQLException e) {
+            log.error("Unhandled exception", e);
+        }
+        UploadQueue.setInFlight(inFlight.size());
+
+        if (sent > 0)
+            RxBus.INSTANCE.send(new EventNSClientNewLog("QUEUE", "Sent " + sent + " waiting for ack " + inFlight.size() + ": " + reason));
+    }
+
+    // handler thread
+    private void acknowledged(String nsClientID) {
+        inFlight.remove(nsClientID);
+        acked.add(nsClientID);
+        if (inFlight.size() <= UPLOAD_WINDOW / 2) {
+            deleteAcked();
+            sendWindow("acked");
+        }
+        UploadQueue.setInFlight(inFlight.size());
+    }
+
+    private void deleteAcked() {
+        if (acked.isEmpty()) return;
+        int deleted = MainApp.getDbHelper().deleteDbRequests(acked);
+        UploadQueue.drained(deleted);
+        if (L.isEnabled(L.NSCLIENT))
+            log.debug("Removed " + deleted + " acked items from UploadQueue. " + UploadQueue.status());
+        acked.clear();
+    }
+
+    private void clearInFlight() {
+        deleteAcked();
+        inFlight.clear();
+        UploadQueue.setInFlight(0);
     }
 
     public void restart() {
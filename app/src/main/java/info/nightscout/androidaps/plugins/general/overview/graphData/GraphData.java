@@ -4,6 +4,8 @@ import android.graphics.Color;
 import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 
+import androidx.collection.LongSparseArray;
+
 import com.jjoe64.graphview.GraphView;
 import com.jjoe64.graphview.ValueDependentColor;
 import com.jjoe64.graphview.series.BarGraphSeries;
@@ -17,6 +19,7 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.TreeSet;
 
 import info.nightscout.androidaps.Constants;
 import info.nightscout.androidaps.MainApp;
@@ -28,6 +31,7 @@ import info.nightscout.androidaps.db.CareportalEvent;
 import info.nightscout.androidaps.db.ExtendedBolus;
 import info.nightscout.androidaps.db.ProfileSwitch;
 import info.nightscout.androidaps.db.TempTarget;
+import info.nightscout.androidaps.interfaces.Interval;
 import info.nightscout.androidaps.logging.L;
 import info.nightscout.androidaps.plugins.aps.loop.APSResult;
 import info.nightscout.androidaps.plugins.aps.loop.LoopPlugin;
@@ -49,8 +53,10 @@ import info.nightscout.androidaps.plugins.iob.iobCobCalculator.IobCobCalculatorP
 import info.nightscout.androidaps.plugins.treatments.Treatment;
 import info.nightscout.androidaps.plugins.treatments.TreatmentsPlugin;
 import info.nightscout.androidaps.utils.DecimalFormatter;
+import info.nightscout.androidaps.utils.MidnightTime;
 import info.nightscout.androidaps.utils.Round;
 import info.nightscout.androidaps.utils.SP;
+import info.nightscout.androidaps.utils.T;
 
 /**
  * Created by mike on 18.10.2017.
@@ -151,7 +157,7 @@ public class GraphData {
         double lastAbsoluteLineBasal = -1;
         double lastBaseBasal = 0;
         double lastTempBasal = 0;
-        for (long time = fromTime; time < toTime; time += 60 * 1000L) {
+        for (long time : basalChangeTimes(fromTime, toTime)) {
             Profile profile = ProfileFunctions.getInstance().getProfile(time);
             if (profile == null) continue;
             BasalData basalData = iobCobCalculatorPlugin.getBasalData(profile, time);
@@ -243,6 +249,39 @@ public class GraphData {
         addSeries(absoluteBasalsLineSeries);
     }
 
+    // basal can change only at these times so evaluating them is enough to draw exact steps
+    private List<Long> basalChangeTimes(long fromTime, long toTime) {
+        TreeSet<Long> times = new TreeSet<>();
+        times.add(fromTime);
+        addBoundaries(times, fromTime, toTime, TreatmentsPlugin.getPlugin().getProfileSwitchesFromHistory().getList());
+
+        // schedule boundaries of every profile active in window
+        List<Profile> profiles = new ArrayList<>();
+        for (long time : times) {
+            Profile profile = ProfileFunctions.getInstance().getProfile(time);
+            if (profile != null) profiles.add(profile);
+        }
+        for (long midnight = MidnightTime.calc(fromTime); midnight < toTime; midnight = MidnightTime.calc(midnight + T.hours(25).msecs())) {
+            for (Profile profile : profiles)
+                for (Profile.ProfileValue value : profile.getBasalValues()) {
+                    long time = midnight + T.secs(value.timeAsSeconds).msecs();
+                    if (time > fromTime && time < toTime) times.add(time);
+                }
+        }
+
+        addBoundaries(times, fromTime, toTime, TreatmentsPlugin.getPlugin().getTemporaryBasalsFromHistory().getList());
+        if (ConfigBuilderPlugin.getPlugin().getActivePump().isFakingTempsByExtendedBoluses())
+            addBoundaries(times, fromTime, toTime, TreatmentsPlugin.getPlugin().getExtendedBolusesFromHistory().getList());
+        return new ArrayList<>(times);
+    }
+
+    private void addBoundaries(TreeSet<Long> times, long fromTime, long toTime, List<? extends Interval> intervals) {
+        for (Interval interval : intervals) {
+            if (interval.start() > fromTime && interval.start() < toTime) times.add(interval.start());
+            if (interval.end() > fromTime && interval.end() < toTime) times.add(interval.end());
+        }
+    }
+
     public void addTargetLine(long fromTime, long toTime, Profile profile) {
         LineGraphSeries<DataPoint> targetsSeries;
 
@@ -357,15 +396,12 @@ public class GraphData {
 
         double now = System.currentTimeMillis();
         Scale actScale = new Scale();
-        IobTotal total;
         double maxIAValue = 0;
 
-        for (long time = fromTime; time <= toTime; time += 5 * 60 * 1000L) {
-            Profile profile = ProfileFunctions.getInstance().getProfile(time);
-            double act = 0d;
-            if (profile == null) continue;
-            total = iobCobCalculatorPlugin.calculateFromTreatmentsAndTempsSynchronized(time, profile);
-            act = total.activity;
+        LongSparseArray<IobTotal> totals = iobCobCalculatorPlugin.calculateFromTreatmentsAndTempsSynchronized(fromTime, toTime, 5 * 60 * 1000L);
+        for (int i = 0; i < totals.size(); i++) {
+            long time = totals.keyAt(i);
+            double act = totals.valueAt(i).activity;
 
             if (time <= now)
                 actArrayHist.add(new ScaledDataPoint(time, act, actScale));
@@ -412,11 +448,10 @@ public class GraphData {
         double lastIob = 0;
         Scale iobScale = new Scale();
 
+        LongSparseArray<IobTotal> totals = iobCobCalculatorPlugin.calculateFromTreatmentsAndTempsSynchronized(fromTime, toTime, 5 * 60 * 1000L);
         for (long time = fromTime; time <= toTime; time += 5 * 60 * 1000L) {
-            Profile profile = ProfileFunctions.getInstance().getProfile(time);
-            double iob = 0d;
-            if (profile != null)
-                iob = iobCobCalculatorPlugin.calculateFromTreatmentsAndTempsSynchronized(time, profile).iob;
+            IobTotal total = totals.get(time);
+            double iob = total != null ? total.iob : 0d;
             if (Math.abs(lastIob - iob) > 0.02) {
                 if (Math.abs(lastIob - iob) > 0.2)
                     iobArray.add(new ScaledDataPoint(time, lastIob, iobScale));
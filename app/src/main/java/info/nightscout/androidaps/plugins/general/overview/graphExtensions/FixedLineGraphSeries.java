@@ -189,6 +189,12 @@ public class FixedLineGraphSeries<E extends DataPointInterface> extends BaseSeri
         lastEndX = 0;
         double lastUsedEndX = 0;
         float firstX = 0;
+        // whole line is one path, segments shorter than a pixel (wide ranges) are merged
+        mPath.reset();
+        float pathX = Float.NaN;
+        float pathY = Float.NaN;
+        float prevEndX = Float.NaN;
+        float prevEndY = Float.NaN;
         int i=0;
         while (values.hasNext()) {
             E value = values.next();
@@ -249,10 +255,18 @@ public class FixedLineGraphSeries<E extends DataPointInterface> extends BaseSeri
                 }
                 registerDataPoint(endX, endY, value);
 
-                mPath.reset();
-                mPath.moveTo(startX, startY);
-                mPath.lineTo(endX, endY);
-                canvas.drawPath(mPath, paint);
+                if (startX != prevEndX || startY != prevEndY) {
+                    mPath.moveTo(startX, startY);
+                    pathX = startX;
+                    pathY = startY;
+                }
+                if (Math.abs(endX - pathX) >= 1 || Math.abs(endY - pathY) >= 1 || !values.hasNext()) {
+                    mPath.lineTo(endX, endY);
+                    pathX = endX;
+                    pathY = endY;
+                }
+                prevEndX = endX;
+                prevEndY = endY;
                 if (mStyles.drawBackground) {
                     if (i==1) {
                         firstX = startX;
@@ -271,6 +285,7 @@ public class FixedLineGraphSeries<E extends DataPointInterface> extends BaseSeri
             lastEndX = orgX;
             i++;
         }
+        canvas.drawPath(mPath, paint);
 
         if (mStyles.drawBackground) {
             // end / close path
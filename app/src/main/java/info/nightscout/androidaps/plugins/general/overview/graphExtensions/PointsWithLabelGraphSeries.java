@@ -154,6 +154,11 @@ public class PointsWithLabelGraphSeries<E extends DataPointWithLabelInterface> e
 
         float scaleX = (float) (graphWidth / diffX);
 
+        // last drawn BG, on wide ranges neighbour BGs overlap and almost hidden ones are not drawn
+        float lastBgX = Float.NaN;
+        float lastBgY = Float.NaN;
+        int lastBgColor = 0;
+
         int i = 0;
         while (values.hasNext()) {
             E value = values.next();
@@ -201,8 +206,19 @@ public class PointsWithLabelGraphSeries<E extends DataPointWithLabelInterface> e
                 xpluslength = Math.min(endWithDuration, graphLeft + graphWidth);
             }
 
+            boolean covered = false;
+            if (value.getShape() == Shape.BG && !overdraw) {
+                float tolerance = value.getSize() * scaledPxSize / 2;
+                covered = value.getColor() == lastBgColor && Math.abs(endX - lastBgX) < tolerance && Math.abs(endY - lastBgY) < tolerance;
+                if (!covered) {
+                    lastBgX = endX;
+                    lastBgY = endY;
+                    lastBgColor = value.getColor();
+                }
+            }
+
             // draw data point
-            if (!overdraw) {
+            if (!overdraw && !covered) {
                 if (value.getShape() == Shape.BG || value.getShape() == Shape.COBFAILOVER) {
                     mPaint.setStyle(Paint.Style.FILL);
                     mPaint.setStrokeWidth(0);
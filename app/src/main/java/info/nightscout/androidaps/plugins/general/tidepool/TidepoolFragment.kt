@@ -13,7 +13,6 @@ import info.nightscout.androidaps.plugins.general.tidepool.events.EventTidepoolD
 import info.nightscout.androidaps.plugins.general.tidepool.events.EventTidepoolResetData
 import info.nightscout.androidaps.plugins.general.tidepool.events.EventTidepoolUpdateGUI
 import info.nightscout.androidaps.utils.FabricPrivacy
-import info.nightscout.androidaps.utils.SP
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.disposables.CompositeDisposable
 import kotlinx.android.synthetic.main.tidepool_fragment.*
@@ -31,7 +30,7 @@ class TidepoolFragment : Fragment() {
         tidepool_login.setOnClickListener { TidepoolUploader.doLogin(false) }
         tidepool_uploadnow.setOnClickListener { RxBus.send(EventTidepoolDoUpload()) }
         tidepool_removeall.setOnClickListener { RxBus.send(EventTidepoolResetData()) }
-        tidepool_resertstart.setOnClickListener { SP.putLong(R.string.key_tidepool_last_end, 0) }
+        tidepool_resertstart.setOnClickListener { TidepoolUploader.resetLastEnd() }
     }
 
     @Synchronized
@@ -57,7 +57,7 @@ object TidepoolPlugin : PluginBase(PluginDescription()
                         log.debug("Not connected for delete Dataset")
                     } else {
                         TidepoolUploader.deleteDataSet()
-                        SP.putLong(R.string.key_tidepool_last_end, 0)
+                        TidepoolUploader.resetLastEnd()
                         TidepoolUploader.doLogin()
                     }
                 }, {
@@ -11,8 +11,6 @@ class Session(val authHeader: String?,
     internal var token: String? = null
     internal var authReply: AuthReplyMessage? = null
     internal var datasetReply: DatasetReplyMessage? = null
-    internal var start: Long = 0
-    internal var end: Long = 0
     @Volatile
     internal var iterations: Int = 0
 
@@ -2,7 +2,6 @@ package info.nightscout.androidaps.plugins.general.tidepool.comm
 
 import android.content.Context
 import android.os.PowerManager
-import android.os.SystemClock
 import info.nightscout.androidaps.BuildConfig
 import info.nightscout.androidaps.MainApp
 import info.nightscout.androidaps.R
@@ -21,6 +20,7 @@ import okhttp3.logging.HttpLoggingInterceptor
 import org.slf4j.LoggerFactory
 import retrofit2.Retrofit
 import retrofit2.converter.gson.GsonConverterFactory
+import java.util.concurrent.Executors
 
 object TidepoolUploader {
 
@@ -37,6 +37,12 @@ object TidepoolUploader {
 
     private var session: Session? = null
 
+    // chunks read from DB or being uploaded at once
+    private const val MAX_CHUNKS_IN_FLIGHT = 3
+    private val uploadExecutor = Executors.newSingleThreadExecutor()
+    @Volatile
+    private var uploadRunning = false
+
     enum class ConnectionStatus {
         DISCONNECTED, CONNECTING, CONNECTED, FAILED
     }
@@ -180,52 +186,61 @@ object TidepoolUploader {
                 releaseWakeLock()
                 return
             }
+            if (session.service == null || session.token == null || session.datasetReply?.getUploadId() == null) {
+                log.error("Session is not open, cannot proceed")
+                releaseWakeLock()
+                return
+            }
+            if (uploadRunning) {
+                if (L.isEnabled(L.TIDEPOOL)) log.debug("Upload already running")
+                return
+            }
+            uploadRunning = true
             extendWakeLock(60000)
             session.iterations++
-            val chunk = UploadChunk.getNext(session)
-            when {
-                chunk == null -> {
-                    log.error("Upload chunk is null, cannot proceed")
-                    releaseWakeLock()
-                }
-
-                chunk.length == 2 -> {
-                    if (L.isEnabled(L.TIDEPOOL)) log.debug("Empty dataset - marking as succeeded")
-                    RxBus.send(EventTidepoolStatus(("No data to upload")))
-                    releaseWakeLock()
-                    unploadNext()
-                }
-
-                else -> {
-                    val body = chunk.toRequestBody("application/json".toMediaTypeOrNull())
-
-                    RxBus.send(EventTidepoolStatus(("Uploading")))
-                    if (session.service != null && session.token != null && session.datasetReply != null) {
-                        val call = session.service.doUpload(session.token!!, session.datasetReply!!.getUploadId()!!, body)
-                        call.enqueue(TidepoolCallback<UploadReplyMessage>(session, "Data Upload", {
-                            setLastEnd(session.end)
-                            RxBus.send(EventTidepoolStatus(("Upload completed OK")))
-                            releaseWakeLock()
-                            unploadNext()
-                        }, {
-                            RxBus.send(EventTidepoolStatus(("Upload FAILED")))
-                            releaseWakeLock()
-                        }))
-                    }
+            RxBus.send(EventTidepoolStatus(("Uploading")))
+            uploadExecutor.execute {
+                val pipeline = UploadPipeline(loadCheckpoint(), UploadChunk.MAX_UPLOAD_SIZE, MAX_CHUNKS_IN_FLIGHT,
+                        { start, end ->
+                            extendWakeLock(60000)
+                            UploadChunk[start, end]
+                        },
+                        { body, onSuccess, onFail -> uploadChunk(session, body, onSuccess, onFail) })
+                val success = try {
+                    pipeline.run(DateUtil.now())
+                } catch (e: Exception) {
+                    log.error("Unhandled exception", e)
+                    false
                 }
+                uploadRunning = false
+                RxBus.send(EventTidepoolStatus((if (success) "Upload completed OK" else "Upload FAILED")))
+                releaseWakeLock()
             }
         }
     }
 
-    private fun unploadNext() {
-        if (getLastEnd() < DateUtil.now() - T.mins(1).msecs()) {
-            SystemClock.sleep(3000)
-            if (L.isEnabled(L.TIDEPOOL))
-                log.debug("Restarting doUpload. Last: " + DateUtil.dateAndTimeString(getLastEnd()))
-            doUpload()
+    private fun uploadChunk(session: Session, chunk: String, onSuccess: () -> Unit, onFail: () -> Unit) {
+        val body = chunk.toRequestBody("application/json".toMediaTypeOrNull())
+        val call = session.service!!.doUpload(session.token!!, session.datasetReply!!.getUploadId()!!, body)
+        call.enqueue(TidepoolCallback<UploadReplyMessage>(session, "Data Upload", onSuccess, onFail))
+    }
+
+    // resumes upload where previous one stopped
+    private fun loadCheckpoint(): UploadCheckpoint {
+        val lastEnd = getLastEnd()
+        // keep windows aligned when start is moved by the time limit
+        SP.putLong(R.string.key_tidepool_last_end, lastEnd)
+        return UploadCheckpoint(lastEnd, SP.getString(R.string.key_tidepool_completed_chunks, "")) { end, completed ->
+            if (end > getLastEnd()) setLastEnd(end)
+            SP.putString(R.string.key_tidepool_completed_chunks, completed)
         }
     }
 
+    fun resetLastEnd() {
+        SP.putLong(R.string.key_tidepool_last_end, 0)
+        SP.putString(R.string.key_tidepool_completed_chunks, "")
+    }
+
     fun deleteDataSet() {
         if (session?.datasetReply?.id != null) {
             extendWakeLock(60000)
@@ -0,0 +1,50 @@
+package info.nightscout.androidaps.plugins.general.tidepool.comm
+
+import java.util.*
+
+/**
+ * Upload progress: everything before lastEnd is uploaded, completed holds
+ * windows uploaded after lastEnd while some earlier window was still in flight.
+ * Persisted after every chunk so interrupted upload can continue from there.
+ */
+internal class UploadCheckpoint(lastEnd: Long, completedWindows: String, private val persist: (lastEnd: Long, completed: String) -> Unit) {
+
+    @Volatile
+    var lastEnd: Long = lastEnd
+        private set
+
+    // window start -> window end
+    private val completed = TreeMap<Long, Long>()
+
+    init {
+        for (window in completedWindows.split(",")) {
+            val bounds = window.split(":")
+            if (bounds.size != 2) continue
+            val start = bounds[0].toLongOrNull() ?: continue
+            val end = bounds[1].toLongOrNull() ?: continue
+            if (start >= lastEnd && end > start) completed[start] = end
+        }
+        advance()
+    }
+
+    /**
+     * @return end of completed window starting at start or null
+     */
+    @Synchronized
+    fun completedEnd(start: Long): Long? = completed[start]
+
+    @Synchronized
+    fun complete(start: Long, end: Long) {
+        if (start < lastEnd) return
+        completed[start] = end
+        advance()
+        persist(lastEnd, serialize())
+    }
+
+    @Synchronized
+    fun serialize(): String = completed.entries.joinToString(",") { "${it.key}:${it.value}" }
+
+    private fun advance() {
+        while (true) lastEnd = completed.remove(lastEnd) ?: return
+    }
+}
@@ -16,25 +16,10 @@ import java.util.*
 
 object UploadChunk {
 
-    private val MAX_UPLOAD_SIZE = T.days(7).msecs() // don't change this
+    internal val MAX_UPLOAD_SIZE = T.days(7).msecs() // don't change this
 
     private val log = LoggerFactory.getLogger(L.TIDEPOOL)
 
-    fun getNext(session: Session?): String? {
-        if (session == null)
-            return null
-
-        session.start = TidepoolUploader.getLastEnd()
-        session.end = Math.min(session.start + MAX_UPLOAD_SIZE, DateUtil.now())
-
-        val result = get(session.start, session.end)
-        if (result.length < 3) {
-            if (L.isEnabled(L.TIDEPOOL)) log.debug("No records in this time period, setting start to best end time")
-            TidepoolUploader.setLastEnd(Math.max(session.end, getOldestRecordTimeStamp()))
-        }
-        return result
-    }
-
     operator fun get(start: Long, end: Long): String {
 
         if (L.isEnabled(L.TIDEPOOL)) log.debug("Syncing data between: " + DateUtil.dateAndTimeString(start) + " -> " + DateUtil.dateAndTimeString(end))
@@ -63,20 +48,6 @@ object UploadChunk {
         return GsonInstance.defaultGsonInstance().toJson(records)
     }
 
-    // numeric limits must match max time windows
-
-    private fun getOldestRecordTimeStamp(): Long {
-        // TODO we could make sure we include records older than the first bg record for completeness
-
-        val start: Long = 0
-        val end = DateUtil.now()
-
-        val bgReadingList = MainApp.getDbHelper().getBgreadingsDataFromTime(start, end, true)
-        return if (bgReadingList.size > 0)
-            bgReadingList[0].date
-        else -1
-    }
-
     private fun getTreatments(start: Long, end: Long): List<BaseElement> {
         val result = LinkedList<BaseElement>()
         val treatments = TreatmentsPlugin.getPlugin().service.getTreatmentDataFromTime(start, end, true)
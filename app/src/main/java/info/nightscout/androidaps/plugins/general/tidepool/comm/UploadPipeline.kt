@@ -0,0 +1,67 @@
+package info.nightscout.androidaps.plugins.general.tidepool.comm
+
+import info.nightscout.androidaps.logging.L
+import info.nightscout.androidaps.utils.DateUtil
+import org.slf4j.LoggerFactory
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Uploads time windows from checkpoint up to given time.
+ * Next chunks are read from DB and serialized on calling thread while previous ones are uploaded,
+ * at most maxInFlight chunks are held at once.
+ */
+internal class UploadPipeline(private val checkpoint: UploadCheckpoint,
+                              private val windowSize: Long,
+                              private val maxInFlight: Int,
+                              private val build: (start: Long, end: Long) -> String,
+                              private val upload: (body: String, onSuccess: () -> Unit, onFail: () -> Unit) -> Unit) {
+
+    private val log = LoggerFactory.getLogger(L.TIDEPOOL)
+
+    private val slots = Semaphore(maxInFlight)
+    private val failed = AtomicBoolean(false)
+
+    /**
+     * Blocks until all chunks are uploaded or some upload failed
+     *
+     * @return true if everything up to until is uploaded
+     */
+    fun run(until: Long): Boolean {
+        var start = checkpoint.lastEnd
+        while (start < until) {
+            val completedEnd = checkpoint.completedEnd(start)
+            if (completedEnd != null) {
+                // uploaded before interruption
+                start = completedEnd
+                continue
+            }
+            val end = Math.min(start + windowSize, until)
+            slots.acquire()
+            if (failed.get()) {
+                slots.release()
+                break
+            }
+            val body = build(start, end)
+            if (body.length < 3) {
+                if (L.isEnabled(L.TIDEPOOL)) log.debug("No records between " + DateUtil.dateAndTimeString(start) + " -> " + DateUtil.dateAndTimeString(end))
+                checkpoint.complete(start, end)
+                slots.release()
+            } else {
+                val windowStart = start
+                upload(body, {
+                    checkpoint.complete(windowStart, end)
+                    slots.release()
+                }, {
+                    failed.set(true)
+                    slots.release()
+                })
+            }
+            start = end
+        }
+        // wait for chunks in flight
+        slots.acquire(maxInFlight)
+        slots.release(maxInFlight)
+        return !failed.get() && checkpoint.lastEnd >= until
+    }
+}
@@ -30,7 +30,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import info.nightscout.androidaps.Config;
@@ -57,6 +59,7 @@ import info.nightscout.androidaps.plugins.treatments.Treatment;
 import info.nightscout.androidaps.plugins.treatments.TreatmentsPlugin;
 import info.nightscout.androidaps.utils.DecimalFormatter;
 import info.nightscout.androidaps.utils.SP;
+import info.nightscout.androidaps.utils.SafeParse;
 import info.nightscout.androidaps.utils.ToastUtils;
 
 public class WatchUpdaterService extends WearableListenerService implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
@@ -85,6 +88,8 @@ public class WatchUpdaterService extends WearableListenerService implements Goog
     public static final String ACTION_CONFIRMATION_REQUEST_PATH = "/nightscout_watch_actionconfirmationrequest";
     public static final String ACTION_CHANGECONFIRMATION_REQUEST_PATH = "/nightscout_watch_changeconfirmationrequest";
     public static final String ACTION_CANCELNOTIFICATION_REQUEST_PATH = "/nightscout_watch_cancelnotificationrequest";
+    public static final String BASAL_DATA_ACK_PATH = "/nightscout_watch_basal_ack";
+    public static final String BASAL_DATA_RESEND_PATH = "/nightscout_watch_basal_resend";
 
 
     boolean wear_integration = false;
@@ -92,6 +97,12 @@ public class WatchUpdaterService extends WearableListenerService implements Goog
 
     private static Logger log = LoggerFactory.getLogger(WatchUpdaterService.class);
 
+    private static final WearDeltaEncoder basalsEncoder = new WearDeltaEncoder(System.currentTimeMillis());
+    private static int basalsMessages = 0;
+    private static int basalsFullMessages = 0;
+    private static long basalsBytes = 0;
+    private static long lastBasalsSent = 0;
+
     private Handler handler;
 
     // Phone
@@ -254,6 +265,18 @@ public class WatchUpdaterService extends WearableListenerService implements Goog
                 resendData();
             }
 
+            if (event != null && event.getPath().equals(BASAL_DATA_ACK_PATH)) {
+                String[] ack = new String(event.getData()).split(" ");
+                if (ack.length == 2)
+                    basalsEncoder.ack(SafeParse.stringToLong(ack[0]), SafeParse.stringToInt(ack[1]));
+            }
+
+            if (event != null && event.getPath().equals(BASAL_DATA_RESEND_PATH)) {
+                // watch doesn't hold base of sent delta, only basals state is needed
+                basalsEncoder.reset();
+                sendBasals();
+            }
+
             if (event != null && event.getPath().equals(WEARABLE_CANCELBOLUS_PATH)) {
                 cancelBolus();
             }
@@ -421,6 +444,8 @@ public class WatchUpdaterService extends WearableListenerService implements Goog
             executeTask(new SendToDataLayerThread(WEARABLE_DATA_PATH, googleApiClient), entries);
         }
         sendPreferences();
+        // watch asked for everything, its basals state is unknown
+        basalsEncoder.reset();
         sendBasals();
         sendStatus();
     }
@@ -434,10 +459,10 @@ public class WatchUpdaterService extends WearableListenerService implements Goog
         final long startTimeWindow = now - (long) (60000 * 60 * 5.5);
 
 
-        ArrayList<DataMap> basals = new ArrayList<>();
-        ArrayList<DataMap> temps = new ArrayList<>();
-        ArrayList<DataMap> boluses = new ArrayList<>();
-        ArrayList<DataMap> predictions = new ArrayList<>();
+        List<long[]> basals = new ArrayList<>();
+        List<long[]> temps = new ArrayList<>();
+        List<long[]> boluses = new ArrayList<>();
+        List<long[]> predictions = new ArrayList<>();
 
 
         Profile profile = ProfileFunctions.getInstance().getProfile();
@@ -476,7 +501,7 @@ public class WatchUpdaterService extends WearableListenerService implements Goog
             endBasalValue = profile.getBasal(runningTime);
             if (endBasalValue != beginBasalValue) {
                 //push the segment we recently left
-                basals.add(basalMap(beginBasalSegmentTime, runningTime, beginBasalValue));
+                basals.add(basalEntry(beginBasalSegmentTime, runningTime, beginBasalValue));
 
                 //begin new Basal segment
                 beginBasalSegmentTime = runningTime;
@@ -491,7 +516,7 @@ public class WatchUpdaterService extends WearableListenerService implements Goog
 
             } else if (tb1 != null && tb2 == null) {
                 //temp is over -> push it
-                temps.add(tempDatamap(tb_start, tb_before, runningTime, endBasalValue, tb_amount));
+                temps.add(tempEntry(tb_start, tb_before, runningTime, endBasalValue, tb_amount));
                 tb1 = null;
 
             } else if (tb1 == null && tb2 != null) {
@@ -504,7 +529,7 @@ public class WatchUpdaterService extends WearableListenerService implements Goog
             } else if (tb1 != null && tb2 != null) {
                 double currentAmount = tb2.tempBasalConvertedToAbsolute(runningTime, profileTB);
                 if (currentAmount != tb_amount) {
-                    temps.add(tempDatamap(tb_start, tb_before, runningTime, currentAmount, tb_amount));
+                    temps.add(tempEntry(tb_start, tb_before, runningTime, currentAmount, tb_amount));
                     tb_start = runningTime;
                     tb_before = tb_amount;
                     tb_amount = currentAmount;
@@ -514,22 +539,22 @@ public class WatchUpdaterService extends WearableListenerService implements Goog
         }
         if (beginBasalSegmentTime != runningTime) {
             //push the remaining segment
-            basals.add(basalMap(beginBasalSegmentTime, runningTime, beginBasalValue));
+            basals.add(basalEntry(beginBasalSegmentTime, runningTime, beginBasalValue));
         }
         if (tb1 != null) {
             tb2 = TreatmentsPlugin.getPlugin().getTempBasalFromHistory(now); //use "now" to express current situation
             if (tb2 == null) {
                 //express the cancelled temp by painting it down one minute early
-                temps.add(tempDatamap(tb_start, tb_before, now - 1 * 60 * 1000, endBasalValue, tb_amount));
+                temps.add(tempEntry(tb_start, tb_before, now - 1 * 60 * 1000, endBasalValue, tb_amount));
             } else {
                 //express currently running temp by painting it a bit into the future
                 Profile profileNow = ProfileFunctions.getInstance().getProfile(now);
                 double currentAmount = tb2.tempBasalConvertedToAbsolute(now, profileNow);
                 if (currentAmount != tb_amount) {
-                    temps.add(tempDatamap(tb_start, tb_before, now, tb_amount, tb_amount));
-                    temps.add(tempDatamap(now, tb_amount, runningTime + 5 * 60 * 1000, currentAmount, currentAmount));
+                    temps.add(tempEntry(tb_start, tb_before, now, tb_amount, tb_amount));
+                    temps.add(tempEntry(now, tb_amount, runningTime + 5 * 60 * 1000, currentAmount, currentAmount));
                 } else {
-                    temps.add(tempDatamap(tb_start, tb_before, runningTime + 5 * 60 * 1000, tb_amount, tb_amount));
+                    temps.add(tempEntry(tb_start, tb_before, runningTime + 5 * 60 * 1000, tb_amount, tb_amount));
                 }
             }
         } else {
@@ -538,14 +563,14 @@ public class WatchUpdaterService extends WearableListenerService implements Goog
                 //onset at the end
                 Profile profileTB = ProfileFunctions.getInstance().getProfile(runningTime);
                 double currentAmount = tb2.tempBasalConvertedToAbsolute(runningTime, profileTB);
-                temps.add(tempDatamap(now - 1 * 60 * 1000, endBasalValue, runningTime + 5 * 60 * 1000, currentAmount, currentAmount));
+                temps.add(tempEntry(now - 1 * 60 * 1000, endBasalValue, runningTime + 5 * 60 * 1000, currentAmount, currentAmount));
             }
         }
 
         List<Treatment> treatments = TreatmentsPlugin.getPlugin().getTreatmentsFromHistory();
         for (Treatment treatment : treatments) {
             if (treatment.date > startTimeWindow) {
-                boluses.add(treatmentMap(treatment.date, treatment.insulin, treatment.carbs, treatment.isSMB, treatment.isValid));
+                boluses.add(treatmentEntry(treatment.date, treatment.insulin, treatment.carbs, treatment.isSMB, treatment.isValid));
             }
 
         }
@@ -557,55 +582,64 @@ public class WatchUpdaterService extends WearableListenerService implements Goog
             if (!predArray.isEmpty()) {
                 for (BgReading bg : predArray) {
                     if (bg.value < 40) continue;
-                    predictions.add(predictionMap(bg.date, bg.value, bg.getPredectionColor()));
+                    predictions.add(predictionEntry(bg.date, bg.value, bg.getPredectionColor()));
                 }
             }
         }
 
 
+        Map<String, List<long[]>> state = new HashMap<>();
+        state.put("basals", basals);
+        state.put("temps", temps);
+        state.put("boluses", boluses);
+        state.put("predictions", predictions);
+
+        // only entries changed since state acknowledged by watch are sent
+        WearDeltaEncoder.Delta delta = basalsEncoder.encode(state);
         DataMap dm = new DataMap();
-        dm.putDataMapArrayList("basals", basals);
-        dm.putDataMapArrayList("temps", temps);
-        dm.putDataMapArrayList("boluses", boluses);
-        dm.putDataMapArrayList("predictions", predictions);
+        dm.putLong("version", delta.version);
+        dm.putInt("seq", delta.seq);
+        dm.putInt("baseSeq", delta.baseSeq);
+        for (Map.Entry<String, long[]> upserts : delta.upserts.entrySet()) {
+            dm.putLongArray(upserts.getKey(), upserts.getValue());
+            dm.putLongArray(upserts.getKey() + "_removed", delta.removed.get(upserts.getKey()));
+        }
+        updateBasalsStatistics(delta, dm);
 
         executeTask(new SendToDataLayerThread(BASAL_DATA_PATH, googleApiClient), dm);
     }
 
-    private DataMap tempDatamap(long startTime, double startBasal, long to, double toBasal, double amount) {
-        DataMap dm = new DataMap();
-        dm.putLong("starttime", startTime);
-        dm.putDouble("startBasal", startBasal);
-        dm.putLong("endtime", to);
-        dm.putDouble("endbasal", toBasal);
-        dm.putDouble("amount", amount);
-        return dm;
+    private void updateBasalsStatistics(WearDeltaEncoder.Delta delta, DataMap dm) {
+        long now = System.currentTimeMillis();
+        int size = dm.toByteArray().length;
+        basalsMessages++;
+        if (delta.isFull()) basalsFullMessages++;
+        basalsBytes += size;
+        log.debug(logPrefix + "Basals sync seq: " + delta.seq + " base: " + delta.baseSeq + " bytes: " + size
+                + (lastBasalsSent != 0 ? " since last: " + (now - lastBasalsSent) / 1000 + "s" : "")
+                + " total messages: " + basalsMessages + " full: " + basalsFullMessages + " bytes: " + basalsBytes);
+        lastBasalsSent = now;
     }
 
-    private DataMap basalMap(long startTime, long endTime, double amount) {
-        DataMap dm = new DataMap();
-        dm.putLong("starttime", startTime);
-        dm.putLong("endtime", endTime);
-        dm.putDouble("amount", amount);
-        return dm;
+    // amounts are sent as thousandths in long arrays
+    private static long scaled(double value) {
+        return Math.round(value * 1000);
     }
 
-    private DataMap treatmentMap(long date, double bolus, double carbs, boolean isSMB, boolean isValid) {
-        DataMap dm = new DataMap();
-        dm.putLong("date", date);
-        dm.putDouble("bolus", bolus);
-        dm.putDouble("carbs", carbs);
-        dm.putBoolean("isSMB", isSMB);
-        dm.putBoolean("isValid", isValid);
-        return dm;
+    private long[] tempEntry(long startTime, double startBasal, long to, double toBasal, double amount) {
+        return new long[]{startTime, scaled(startBasal), to, scaled(toBasal), scaled(amount)};
     }
 
-    private DataMap predictionMap(long timestamp, double sgv, int color) {
-        DataMap dm = new DataMap();
-        dm.putLong("timestamp", timestamp);
-        dm.putDouble("sgv", sgv);
-        dm.putInt("color", color);
-        return dm;
+    private long[] basalEntry(long startTime, long endTime, double amount) {
+        return new long[]{startTime, endTime, scaled(amount)};
+    }
+
+    private long[] treatmentEntry(long date, double bolus, double carbs, boolean isSMB, boolean isValid) {
+        return new long[]{date, scaled(bolus), scaled(carbs), isSMB ? 1 : 0, isValid ? 1 : 0};
+    }
+
+    private long[] predictionEntry(long timestamp, double sgv, int color) {
+        return new long[]{timestamp, scaled(sgv), color};
     }
 
 
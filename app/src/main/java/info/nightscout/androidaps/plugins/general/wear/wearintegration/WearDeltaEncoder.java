@@ -0,0 +1,143 @@
+package info.nightscout.androidaps.plugins.general.wear.wearintegration;
+
+import androidx.collection.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps states sent to watch and produces deltas against the last state acknowledged by watch.
+ * <p>
+ * Every entry is flattened to long[] of fixed size per category with time key at index 0.
+ * Several entries may share the same time (prediction curves, bolus and carbs), so entries are
+ * grouped by key and a changed group is always sent whole, replacing the group on watch.
+ * Several deltas can be sent before acknowledge comes back, or merged by data layer, so they may
+ * share the same base. Watch keeps its recent states by seq and applies delta on top of baseSeq.
+ * When it doesn't hold that state it asks for basals resend and full state (baseSeq == FULL) is sent.
+ */
+class WearDeltaEncoder {
+    static final int FULL = -1;
+    // states kept when watch doesn't acknowledge
+    private static final int MAX_UNACKED = 10;
+
+    static class Delta {
+        final long version;
+        final int seq;
+        final int baseSeq;
+        // category -> flattened new or changed entries
+        final Map<String, long[]> upserts = new HashMap<>();
+        // category -> keys of removed entries
+        final Map<String, long[]> removed = new HashMap<>();
+
+        Delta(long version, int seq, int baseSeq) {
+            this.version = version;
+            this.seq = seq;
+            this.baseSeq = baseSeq;
+        }
+
+        boolean isFull() {
+            return baseSeq == FULL;
+        }
+    }
+
+    private final long version;
+    private int seq = 0;
+    private int ackedSeq = FULL;
+    private final TreeMap<Integer, Map<String, LongSparseArray<List<long[]>>>> sent = new TreeMap<>();
+
+    WearDeltaEncoder(long version) {
+        this.version = version;
+    }
+
+    /**
+     * @param state category -> entries, each entry has time key at index 0
+     */
+    synchronized Delta encode(Map<String, List<long[]>> state) {
+        Map<String, LongSparseArray<List<long[]>>> current = new HashMap<>();
+        for (Map.Entry<String, List<long[]>> category : state.entrySet()) {
+            LongSparseArray<List<long[]>> byKey = new LongSparseArray<>();
+            for (long[] entry : category.getValue()) {
+                List<long[]> group = byKey.get(entry[0]);
+                if (group == null) {
+                    group = new ArrayList<>(1);
+                    byKey.put(entry[0], group);
+                }
+                group.add(entry);
+            }
+            current.put(category.getKey(), byKey);
+        }
+
+        Map<String, LongSparseArray<List<long[]>>> base = ackedSeq != FULL ? sent.get(ackedSeq) : null;
+        Delta delta = new Delta(version, ++seq, base != null ? ackedSeq : FULL);
+        for (Map.Entry<String, LongSparseArray<List<long[]>>> category : current.entrySet()) {
+            LongSparseArray<List<long[]>> entries = category.getValue();
+            LongSparseArray<List<long[]>> baseEntries = base != null ? base.get(category.getKey()) : null;
+
+            List<long[]> upserts = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                List<long[]> group = entries.valueAt(i);
+                if (baseEntries == null || !equals(baseEntries.get(entries.keyAt(i)), group))
+                    upserts.addAll(group);
+            }
+            List<Long> removed = new ArrayList<>();
+            if (baseEntries != null)
+                for (int i = 0; i < baseEntries.size(); i++)
+                    if (entries.get(baseEntries.keyAt(i)) == null)
+                        removed.add(baseEntries.keyAt(i));
+
+            delta.upserts.put(category.getKey(), flatten(upserts));
+            long[] removedKeys = new long[removed.size()];
+            for (int i = 0; i < removedKeys.length; i++)
+                removedKeys[i] = removed.get(i);
+            delta.removed.put(category.getKey(), removedKeys);
+        }
+
+        sent.put(seq, current);
+        while (sent.size() > MAX_UNACKED) {
+            Integer oldest = sent.firstKey();
+            if (oldest == ackedSeq) oldest = sent.higherKey(oldest);
+            sent.remove(oldest);
+        }
+        return delta;
+    }
+
+    /**
+     * Watch holds state seq now, next delta is calculated against it
+     */
+    synchronized void ack(long version, int seq) {
+        if (version != this.version || seq <= ackedSeq || !sent.containsKey(seq)) return;
+        ackedSeq = seq;
+        sent.headMap(seq).clear();
+    }
+
+    /**
+     * Watch state is unknown, next delta is full
+     */
+    synchronized void reset() {
+        ackedSeq = FULL;
+        sent.clear();
+    }
+
+    private static boolean equals(List<long[]> a, List<long[]> b) {
+        if (a == null || b == null || a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++)
+            if (!Arrays.equals(a.get(i), b.get(i))) return false;
+        return true;
+    }
+
+    private static long[] flatten(List<long[]> entries) {
+        int length = 0;
+        for (long[] entry : entries) length += entry.length;
+        long[] result = new long[length];
+        int position = 0;
+        for (long[] entry : entries) {
+            System.arraycopy(entry, 0, result, position, entry.length);
+            position += entry.length;
+        }
+        return result;
+    }
+}
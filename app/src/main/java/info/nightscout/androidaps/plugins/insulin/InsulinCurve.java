@@ -0,0 +1,85 @@
+package info.nightscout.androidaps.plugins.insulin;
+
+/**
+ * Oref exponential insulin action curve for 1U precomputed in 1 minute steps.
+ * Values between steps are cubic Hermite interpolated from stored values and slopes
+ * (IOB slope is -activity) so no exp/pow is needed per treatment.
+ * Instances are immutable, new one is built when peak or DIA changes.
+ */
+public class InsulinCurve {
+    private final int peak;
+    private final double dia;
+    private final double td; // DIA in minutes
+    private final double tau;
+    private final double a;
+    private final double S;
+    private final double[] iob;
+    private final double[] activity;
+    private final double[] activitySlope;
+
+    InsulinCurve(int peak, double dia) {
+        this.peak = peak;
+        this.dia = dia;
+        this.td = dia * 60;
+
+        double tp = peak;
+        tau = tp * (1 - tp / td) / (1 - 2 * tp / td);
+        a = 2 * tau / td;
+        S = 1 / (1 - a + (1 + a) * Math.exp(-td / tau));
+
+        int size = (int) Math.ceil(td) + 1;
+        iob = new double[size];
+        activity = new double[size];
+        activitySlope = new double[size];
+        for (int i = 0; i < size; i++) {
+            iob[i] = iobContrib(i, td, tau, a, S);
+            activity[i] = activityContrib(i, td, tau, S);
+            activitySlope[i] = (S / Math.pow(tau, 2)) * Math.exp(-i / tau) * ((1 - 2 * i / td) - i * (1 - i / td) / tau);
+        }
+    }
+
+    boolean isFor(int peak, double dia) {
+        return this.peak == peak && this.dia == dia;
+    }
+
+    /**
+     * @param t minutes since bolus
+     * @return IOB of 1U bolus
+     */
+    public double iob(double t) {
+        if (t >= td) return 0d;
+        if (t < 0) return iobContrib(t, td, tau, a, S); // not in table
+        int index = (int) t;
+        double fraction = t - index;
+        if (fraction == 0d) return iob[index];
+        return hermite(iob[index], -activity[index], iob[index + 1], -activity[index + 1], fraction);
+    }
+
+    /**
+     * @param t minutes since bolus
+     * @return activity of 1U bolus
+     */
+    public double activity(double t) {
+        if (t >= td) return 0d;
+        if (t < 0) return activityContrib(t, td, tau, S); // not in table
+        int index = (int) t;
+        double fraction = t - index;
+        if (fraction == 0d) return activity[index];
+        return hermite(activity[index], activitySlope[index], activity[index + 1], activitySlope[index + 1], fraction);
+    }
+
+    // values and slopes at both ends of 1 minute interval, x in <0, 1)
+    private static double hermite(double y0, double m0, double y1, double m1, double x) {
+        double x2 = x * x;
+        double x3 = x2 * x;
+        return (2 * x3 - 3 * x2 + 1) * y0 + (x3 - 2 * x2 + x) * m0 + (-2 * x3 + 3 * x2) * y1 + (x3 - x2) * m1;
+    }
+
+    static double iobContrib(double t, double td, double tau, double a, double S) {
+        return 1 - S * (1 - a) * ((Math.pow(t, 2) / (tau * td * (1 - a)) - t / tau - 1) * Math.exp(-t / tau) + 1);
+    }
+
+    static double activityContrib(double t, double td, double tau, double S) {
+        return (S / Math.pow(tau, 2)) * t * (1 - t / td) * Math.exp(-t / tau);
+    }
+}
@@ -24,6 +24,8 @@ public abstract class InsulinOrefBasePlugin extends PluginBase implements Insuli
 
     long lastWarned = 0;
 
+    private volatile InsulinCurve curve = null;
+
     public InsulinOrefBasePlugin() {
         super(new PluginDescription()
                 .mainType(PluginType.INSULIN)
@@ -70,28 +72,42 @@ public abstract class InsulinOrefBasePlugin extends PluginBase implements Insuli
     public Iob iobCalcForTreatment(Treatment treatment, long time, double dia) {
         Iob result = new Iob();
 
-        int peak = getPeak();
-
         if (treatment.insulin != 0d) {
 
             long bolusTime = treatment.date;
             double t = (time - bolusTime) / 1000d / 60d;
 
-            double td = getDia() * 60; //getDIA() always >= MIN_DIA
-            double tp = peak;
-
-            // force the IOB to 0 if over DIA hours have passed
-            if (t < td) {
-                double tau = tp * (1 - tp / td) / (1 - 2 * tp / td);
-                double a = 2 * tau / td;
-                double S = 1 / (1 - a + (1 + a) * Math.exp(-td / tau));
-                result.activityContrib = treatment.insulin * (S / Math.pow(tau, 2)) * t * (1 - t / td) * Math.exp(-t / tau);
-                result.iobContrib = treatment.insulin * (1 - S * (1 - a) * ((Math.pow(t, 2) / (tau * td * (1 - a)) - t / tau - 1) * Math.exp(-t / tau) + 1));
-            }
+            // curve forces the IOB to 0 if over DIA hours have passed
+            InsulinCurve curve = getCurve();
+            result.activityContrib = treatment.insulin * curve.activity(t);
+            result.iobContrib = treatment.insulin * curve.iob(t);
         }
         return result;
     }
 
+    @Override
+    public void addIobContrib(double insulin, long bolusTime, long time, double dia, Iob accumulator) {
+        if (insulin == 0d) return;
+        double t = (time - bolusTime) / 1000d / 60d;
+        InsulinCurve curve = getCurve();
+        accumulator.activityContrib += insulin * curve.activity(t);
+        accumulator.iobContrib += insulin * curve.iob(t);
+    }
+
+    /**
+     * @return precomputed curve for current peak and DIA (getDIA() always >= MIN_DIA)
+     */
+    public InsulinCurve getCurve() {
+        int peak = getPeak();
+        double dia = getDia();
+        InsulinCurve current = curve;
+        if (current == null || !current.isFor(peak, dia)) {
+            current = new InsulinCurve(peak, dia);
+            curve = current;
+        }
+        return current;
+    }
+
     @Override
     public String getComment() {
         String comment = commentStandardText();
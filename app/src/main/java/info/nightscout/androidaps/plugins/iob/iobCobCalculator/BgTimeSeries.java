@@ -0,0 +1,177 @@
+package info.nightscout.androidaps.plugins.iob.iobCobCalculator;
+
+import java.util.List;
+
+import info.nightscout.androidaps.db.BgReading;
+import info.nightscout.androidaps.utils.DateUtil;
+
+/**
+ * BG values and times in primitive arrays
+ * <p>
+ * Indexed newest first (index 0 is the newest value) the same way as lists loaded from database.
+ * Internally stored oldest first so new readings are appended in place and the oldest
+ * are dropped only by moving start offset. Space of dropped values is reused when the arrays
+ * are full, they grow only when values take more than half of them.
+ * Not thread safe, modified only by calculation thread and readers get a copy.
+ */
+public class BgTimeSeries {
+    private long[] dates;
+    private double[] values;
+    private int start; // position of the oldest value
+    private int end; // position after the newest value
+
+    public BgTimeSeries() {
+        this(16);
+    }
+
+    public BgTimeSeries(int capacity) {
+        capacity = Math.max(capacity, 4);
+        dates = new long[capacity];
+        values = new double[capacity];
+        start = capacity;
+        end = capacity;
+    }
+
+    /**
+     * @param readings sorted newest first
+     */
+    public static BgTimeSeries fromReadings(List<BgReading> readings) {
+        BgTimeSeries series = new BgTimeSeries(readings.size());
+        for (int i = 0; i < readings.size(); i++) {
+            BgReading reading = readings.get(i);
+            series.addOldest(reading.date, reading.value);
+        }
+        return series;
+    }
+
+    public BgTimeSeries copy() {
+        BgTimeSeries copy = new BgTimeSeries(size());
+        copy.start = copy.dates.length - size();
+        System.arraycopy(dates, start, copy.dates, copy.start, size());
+        System.arraycopy(values, start, copy.values, copy.start, size());
+        return copy;
+    }
+
+    public int size() {
+        return end - start;
+    }
+
+    /**
+     * @return number of values that fit into allocated arrays
+     */
+    public int capacity() {
+        return dates.length;
+    }
+
+    public long getDate(int index) {
+        return dates[end - 1 - index];
+    }
+
+    public double getValue(int index) {
+        return values[end - 1 - index];
+    }
+
+    void setDate(int index, long date) {
+        dates[end - 1 - index] = date;
+    }
+
+    void setValue(int index, double value) {
+        values[end - 1 - index] = value;
+    }
+
+    /**
+     * Append value newer than all stored
+     */
+    public void addNewest(long date, double value) {
+        if (end == dates.length) makeRoom(false);
+        dates[end] = date;
+        values[end] = value;
+        end++;
+    }
+
+    /**
+     * Append value older than all stored
+     */
+    public void addOldest(long date, double value) {
+        if (start == 0) makeRoom(true);
+        start--;
+        dates[start] = date;
+        values[start] = value;
+    }
+
+    /**
+     * Drop values older than time
+     *
+     * @return number of removed values
+     */
+    public int removeOlderThan(long time) {
+        int removed = 0;
+        while (start < end && dates[start] < time) {
+            start++;
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * @return index of the oldest value with date >= time or -1 if all values are older
+     */
+    public int indexOfNewer(long time) {
+        // first position with date >= time
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dates[mid] < time) low = mid + 1;
+            else high = mid;
+        }
+        if (low == end) return -1;
+        return end - 1 - low;
+    }
+
+    /**
+     * @return index of the newest value with date <= time or -1 if all values are newer
+     */
+    public int indexOfOlder(long time) {
+        // last position with date <= time
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dates[mid] <= time) low = mid + 1;
+            else high = mid;
+        }
+        if (low == start) return -1;
+        return end - low;
+    }
+
+    /**
+     * Moves values to the other end of arrays, allocating twice as big arrays
+     * if values take more than half of current ones
+     *
+     * @param front make room before the oldest value, otherwise after the newest
+     */
+    private void makeRoom(boolean front) {
+        int size = size();
+        int capacity = size * 2 > dates.length ? dates.length * 2 : dates.length;
+        int newStart = front ? capacity - size : 0;
+        long[] newDates = capacity == dates.length ? dates : new long[capacity];
+        double[] newValues = capacity == values.length ? values : new double[capacity];
+        System.arraycopy(dates, start, newDates, newStart, size);
+        System.arraycopy(values, start, newValues, newStart, size);
+        dates = newDates;
+        values = newValues;
+        start = newStart;
+        end = newStart + size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i < size(); i++) {
+            if (i > 0) s.append(", ");
+            s.append(DateUtil.toISOString(getDate(i))).append(' ').append(getValue(i));
+        }
+        return s.append(']').toString();
+    }
+}
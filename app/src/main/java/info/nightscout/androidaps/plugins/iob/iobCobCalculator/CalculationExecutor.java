@@ -0,0 +1,199 @@
+package info.nightscout.androidaps.plugins.iob.iobCobCalculator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import info.nightscout.androidaps.events.Event;
+import info.nightscout.androidaps.events.EventNewBG;
+import info.nightscout.androidaps.logging.L;
+import info.nightscout.androidaps.utils.DateUtil;
+import info.nightscout.androidaps.utils.FabricPrivacy;
+
+/**
+ * Single thread running autosens calculations of one IobCobCalculatorPlugin
+ * <p>
+ * Only this thread writes calculated data. Requests arriving while another one is waiting
+ * are merged into it and the running calculation is cancelled, so there is always
+ * at most one calculation running and one waiting.
+ * <p>
+ * Requests invalidating calculated data are numbered, readers which must not use invalidated
+ * data wait until calculation of all invalidations submitted so far is finished.
+ */
+class CalculationExecutor {
+    private static Logger log = LoggerFactory.getLogger(L.AUTOSENS);
+
+    static class Request {
+        String from;
+        long end;
+        boolean bgDataReload;
+        boolean limitDataToOldestAvailable;
+        Event cause;
+        // earliest time cached data must be recalculated from, Long.MAX_VALUE if nothing
+        long invalidateFrom = Long.MAX_VALUE;
+        String invalidateReason = "";
+        // earliest new BG reading time, Long.MAX_VALUE if no new BG
+        long newBgTime = Long.MAX_VALUE;
+        // number of the last invalidation included in this request, 0 if none
+        long invalidation = 0;
+
+        private volatile boolean cancelled = false;
+
+        Request(String from, long end, boolean bgDataReload, boolean limitDataToOldestAvailable, Event cause) {
+            this.from = from;
+            this.end = end;
+            this.bgDataReload = bgDataReload;
+            this.limitDataToOldestAvailable = limitDataToOldestAvailable;
+            this.cause = cause;
+        }
+
+        Request invalidateFrom(long time, String reason) {
+            if (time < invalidateFrom) {
+                invalidateFrom = time;
+                invalidateReason = reason;
+            }
+            return this;
+        }
+
+        Request newBg(long time) {
+            newBgTime = Math.min(newBgTime, time);
+            return this;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        void merge(Request other) {
+            from = from + "," + other.from;
+            end = Math.max(end, other.end);
+            bgDataReload |= other.bgDataReload;
+            limitDataToOldestAvailable &= other.limitDataToOldestAvailable;
+            invalidateFrom(other.invalidateFrom, other.invalidateReason);
+            invalidation = Math.max(invalidation, other.invalidation);
+            newBg(other.newBgTime);
+            mergeCause(other.cause);
+        }
+
+        // loop is triggered only by calculation caused by new BG, do not lose it
+        void mergeCause(Event other) {
+            if (other instanceof EventNewBG || !(cause instanceof EventNewBG))
+                cause = other;
+        }
+    }
+
+    private final IobCobCalculatorPlugin plugin;
+    private final ThreadPoolExecutor executor;
+
+    private Request pending = null;
+    private Request running = null;
+    private volatile Thread thread = null;
+
+    private long invalidations = 0;
+    private long finishedInvalidations = 0;
+
+    CalculationExecutor(IobCobCalculatorPlugin plugin) {
+        this.plugin = plugin;
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> thread = new Thread(r, "IobCobCalculation"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    synchronized void submit(Request request) {
+        if (request.invalidateFrom != Long.MAX_VALUE)
+            request.invalidation = ++invalidations;
+        if (running != null && !running.isCancelled()) {
+            if (L.isEnabled(L.AUTOSENS))
+                log.debug("Cancelling calculation: " + running.from + " because of: " + request.from);
+            running.cancel();
+            request.mergeCause(running.cause);
+            // cancelled calculation already dropped its invalidated data, this one finishes it
+            request.invalidation = Math.max(request.invalidation, running.invalidation);
+        }
+        if (pending != null) {
+            pending.merge(request);
+            if (L.isEnabled(L.AUTOSENS))
+                log.debug("Calculation request merged: " + pending.from + " to " + DateUtil.dateAndTimeString(pending.end));
+        } else {
+            pending = request;
+            executor.execute(this::process);
+        }
+    }
+
+    /**
+     * Drop waiting request and wait for running calculation to finish
+     */
+    synchronized void cancel(String from) {
+        pending = null;
+        // nothing more will be calculated, do not let readers wait for it
+        finishedInvalidations = invalidations;
+        notifyAll();
+        if (running == null) return;
+        if (L.isEnabled(L.AUTOSENS))
+            log.debug("Stopping calculation: " + from);
+        running.cancel();
+        while (running != null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (L.isEnabled(L.AUTOSENS))
+            log.debug("Calculation stopped: " + from);
+    }
+
+    /**
+     * Wait until all requests invalidating calculated data submitted so far are calculated.
+     * Returns immediately when called from calculation thread.
+     *
+     * @return false if calculation didn't finish in time
+     */
+    synchronized boolean awaitInvalidations(long timeout) {
+        if (Thread.currentThread() == thread) return true;
+        long target = invalidations;
+        long deadline = System.currentTimeMillis() + timeout;
+        while (finishedInvalidations < target) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void process() {
+        Request request;
+        synchronized (this) {
+            request = pending;
+            pending = null;
+            running = request;
+        }
+        if (request == null) return; // cancelled before start
+        try {
+            plugin.calculate(request);
+        } catch (Exception e) {
+            log.error("Unhandled exception", e);
+            FabricPrivacy.logException(e);
+        } finally {
+            synchronized (this) {
+                running = null;
+                // failed calculation counts as finished too, invalidated data is not published anyway
+                if (!request.isCancelled())
+                    finishedInvalidations = Math.max(finishedInvalidations, request.invalidation);
+                notifyAll();
+            }
+        }
+    }
+}
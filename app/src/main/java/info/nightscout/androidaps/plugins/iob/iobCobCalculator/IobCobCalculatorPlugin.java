@@ -1,7 +1,5 @@
 package info.nightscout.androidaps.plugins.iob.iobCobCalculator;
 
-import android.os.SystemClock;
-
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.collection.LongSparseArray;
@@ -63,17 +61,46 @@ public class IobCobCalculatorPlugin extends PluginBase {
         return plugin;
     }
 
+    // caches shared with readers, guarded by dataLock
     private LongSparseArray<IobTotal> iobTable = new LongSparseArray<>(); // oldest at index 0
-    private LongSparseArray<AutosensData> autosensDataTable = new LongSparseArray<>(); // oldest at index 0
     private LongSparseArray<BasalData> basalDataTable = new LongSparseArray<>(); // oldest at index 0
 
+    // data being calculated, modified only by calculation thread
+    private LongSparseArray<AutosensData> autosensDataTable = new LongSparseArray<>(); // oldest at index 0
     private volatile List<BgReading> bgReadings = null; // newest at index 0
-    private volatile List<BgReading> bucketed_data = null;
+    private volatile BgTimeSeries bgData = null; // bgReadings as primitive series, newest at index 0
+    private volatile BgTimeSeries bucketed_data = null;
+
+    // last finished calculation for readers
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
 
     private final Object dataLock = new Object();
 
-    boolean stopCalculationTrigger = false;
-    private Thread thread = null;
+    private final CalculationExecutor executor = new CalculationExecutor(this);
+
+    /**
+     * Immutable copy of calculated data. Readers use it without locking
+     * while calculation thread continues on its own tables.
+     */
+    private static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(null, null, null, new LongSparseArray<>());
+
+        // list is never modified, calculation thread replaces it
+        @Nullable
+        final List<BgReading> bgReadings;
+        @Nullable
+        final BgTimeSeries bgData;
+        @Nullable
+        final BgTimeSeries bucketedData;
+        final LongSparseArray<AutosensData> autosensDataTable;
+
+        Snapshot(@Nullable List<BgReading> bgReadings, @Nullable BgTimeSeries bgData, @Nullable BgTimeSeries bucketedData, LongSparseArray<AutosensData> autosensDataTable) {
+            this.bgReadings = bgReadings;
+            this.bgData = bgData;
+            this.bucketedData = bucketedData;
+            this.autosensDataTable = autosensDataTable;
+        }
+    }
 
     public IobCobCalculatorPlugin() {
         super(new PluginDescription()
@@ -98,14 +125,8 @@ public class IobCobCalculatorPlugin extends PluginBase {
                             log.debug("Ignoring event for non default instance");
                         return;
                     }
-                    stopCalculation("onEventConfigBuilderChange");
-                    synchronized (dataLock) {
-                        if (L.isEnabled(L.AUTOSENS))
-                            log.debug("Invalidating cached data because of configuration change. IOB: " + iobTable.size() + " Autosens: " + autosensDataTable.size() + " records");
-                        iobTable = new LongSparseArray<>();
-                        autosensDataTable = new LongSparseArray<>();
-                    }
-                    runCalculation("onEventConfigBuilderChange", System.currentTimeMillis(), false, true, event);
+                    executor.submit(new CalculationExecutor.Request("onEventConfigBuilderChange", System.currentTimeMillis(), false, true, event)
+                            .invalidateFrom(0, "configuration change"));
                 }, FabricPrivacy::logException)
         );
         // EventNewBasalProfile
@@ -123,15 +144,10 @@ public class IobCobCalculatorPlugin extends PluginBase {
                     if (event == null) { // on init no need of reset
                         return;
                     }
-                    stopCalculation("onNewProfile");
-                    synchronized (dataLock) {
-                        if (L.isEnabled(L.AUTOSENS))
-                            log.debug("Invalidating cached data because of new profile. IOB: " + iobTable.size() + " Autosens: " + autosensDataTable.size() + " records");
-                        iobTable = new LongSparseArray<>();
-                        autosensDataTable = new LongSparseArray<>();
-                        basalDataTable = new LongSparseArray<>();
-                    }
-                    runCalculation("onNewProfile", System.currentTimeMillis(), false, true, event);
+                    // profile switch changes are reported by EventNewHistoryData with their own time
+                    // so only data from now is affected by newly enacted profile
+                    executor.submit(new CalculationExecutor.Request("onNewProfile", System.currentTimeMillis(), false, true, event)
+                            .invalidateFrom(now(), "new profile"));
                 }, FabricPrivacy::logException)
         );
         // EventNewBG
@@ -144,8 +160,11 @@ public class IobCobCalculatorPlugin extends PluginBase {
                             log.debug("Ignoring event for non default instance");
                         return;
                     }
-                    stopCalculation("onEventNewBG");
-                    runCalculation("onEventNewBG", System.currentTimeMillis(), true, true, event);
+                    BgReading bgReading = event.getBgReading();
+                    CalculationExecutor.Request request = new CalculationExecutor.Request("onEventNewBG", System.currentTimeMillis(), bgReading == null, true, event);
+                    if (bgReading != null)
+                        request.newBg(bgReading.date);
+                    executor.submit(request);
                 }, FabricPrivacy::logException)
         );
         // EventPreferenceChange
@@ -167,15 +186,8 @@ public class IobCobCalculatorPlugin extends PluginBase {
                             event.isChanged(R.string.key_openapsama_autosens_min) ||
                             event.isChanged(R.string.key_insulin_oref_peak)
                     ) {
-                        stopCalculation("onEventPreferenceChange");
-                        synchronized (dataLock) {
-                            if (L.isEnabled(L.AUTOSENS))
-                                log.debug("Invalidating cached data because of preference change. IOB: " + iobTable.size() + " Autosens: " + autosensDataTable.size() + " records" + " BasalData: " + basalDataTable.size() + " records");
-                            iobTable = new LongSparseArray<>();
-                            autosensDataTable = new LongSparseArray<>();
-                            basalDataTable = new LongSparseArray<>();
-                        }
-                        runCalculation("onEventPreferenceChange", System.currentTimeMillis(), false, true, event);
+                        executor.submit(new CalculationExecutor.Request("onEventPreferenceChange", System.currentTimeMillis(), false, true, event)
+                                .invalidateFrom(0, "preference change"));
                     }
                 }, FabricPrivacy::logException)
         );
@@ -206,19 +218,55 @@ public class IobCobCalculatorPlugin extends PluginBase {
         super.onStop();
     }
 
+    /**
+     * Table being calculated, use only from calculation thread (sensitivity plugins)
+     */
     public LongSparseArray<AutosensData> getAutosensDataTable() {
         return autosensDataTable;
     }
 
+    /**
+     * @return BG readings of last finished calculation
+     */
+    @Nullable
     public List<BgReading> getBgReadings() {
+        return snapshot.bgReadings;
+    }
+
+    /**
+     * Readings being calculated, use only from calculation thread
+     */
+    @Nullable
+    List<BgReading> getBgReadingsFromCalculation() {
         return bgReadings;
     }
 
     public void setBgReadings(List<BgReading> bgReadings) {
         this.bgReadings = bgReadings;
+        this.bgData = bgReadings != null ? BgTimeSeries.fromReadings(bgReadings) : null;
     }
 
-    public List<BgReading> getBucketedData() {
+    /**
+     * @return BG data of last finished calculation
+     */
+    @Nullable
+    public BgTimeSeries getBgData() {
+        return snapshot.bgData;
+    }
+
+    /**
+     * @return bucketed data of last finished calculation
+     */
+    @Nullable
+    public BgTimeSeries getBucketedData() {
+        return snapshot.bucketedData;
+    }
+
+    /**
+     * Bucketed data being calculated, use only from calculation thread
+     */
+    @Nullable
+    BgTimeSeries getBucketedDataFromCalculation() {
         return bucketed_data;
     }
 
@@ -234,33 +282,66 @@ public class IobCobCalculatorPlugin extends PluginBase {
         return rounded;
     }
 
-    void loadBgData(long to) {
+    private long bgDataStart(long to) {
         Profile profile = ProfileFunctions.getInstance().getProfile(to);
         double dia = Constants.defaultDIA;
         if (profile != null) dia = profile.getDia();
-        long start = to - T.hours((long) (24 + dia)).msecs();
+        return to - T.hours((long) (24 + dia)).msecs();
+    }
+
+    void loadBgData(long to) {
+        long start = bgDataStart(to);
         if (DateUtil.isCloseToNow(to)) {
             // if close to now expect there can be some readings with time in close future (caused by wrong time setting)
             // so read all records
-            bgReadings = MainApp.getDbHelper().getBgreadingsDataFromTime(start, false);
+            setBgReadings(MainApp.getDbHelper().getBgreadingsDataFromTime(start, false));
             if (L.isEnabled(L.AUTOSENS))
                 log.debug("BG data loaded. Size: " + bgReadings.size() + " Start date: " + DateUtil.dateAndTimeString(start));
         } else {
-            bgReadings = MainApp.getDbHelper().getBgreadingsDataFromTime(start, to, false);
+            setBgReadings(MainApp.getDbHelper().getBgreadingsDataFromTime(start, to, false));
             if (L.isEnabled(L.AUTOSENS))
                 log.debug("BG data loaded. Size: " + bgReadings.size() + " Start date: " + DateUtil.dateAndTimeString(start) + " End date: " + DateUtil.dateAndTimeString(to));
         }
     }
 
+    /**
+     * Load only readings newer than the last loaded one and drop the ones out of time window.
+     * Used when newer reading than loaded data arrives, everything else needs full reload.
+     *
+     * @return false if data must be reloaded
+     */
+    boolean appendBgData(long bgTime, long to) {
+        List<BgReading> readings = bgReadings;
+        BgTimeSeries data = bgData;
+        if (readings == null || data == null || readings.size() == 0) return false;
+        long lastLoaded = readings.get(0).date;
+        if (bgTime <= lastLoaded) return false; // update of loaded record
+        long start = bgDataStart(to);
+        List<BgReading> newer = MainApp.getDbHelper().getBgreadingsDataFromTime(lastLoaded + 1, true);
+        int removed = data.removeOlderThan(start);
+        for (BgReading reading : newer)
+            data.addNewest(reading.date, reading.value);
+        // list is read without lock, replace it by new one
+        List<BgReading> updated = new ArrayList<>(newer.size() + readings.size() - removed);
+        for (int i = newer.size() - 1; i >= 0; i--)
+            updated.add(newer.get(i));
+        updated.addAll(readings.subList(0, readings.size() - removed));
+        bgReadings = updated;
+        if (L.isEnabled(L.AUTOSENS))
+            log.debug("BG data appended. New: " + newer.size() + " Removed: " + removed + " Size: " + updated.size());
+        return true;
+    }
+
     public boolean isAbout5minData() {
         synchronized (dataLock) {
-            if (bgReadings == null || bgReadings.size() < 3) {
+            BgTimeSeries bgData = this.bgData;
+            if (bgData == null || bgData.size() < 3) {
                 return true;
             }
             long totalDiff = 0;
-            for (int i = 1; i < bgReadings.size(); ++i) {
-                long bgTime = bgReadings.get(i).date;
-                long lastbgTime = bgReadings.get(i - 1).date;
+            for (int i = 1; i < bgData.size(); ++i) {
+                long bgTime = bgData.getDate(i);
+                long lastbgTime = bgData.getDate(i - 1);
                 long diff = lastbgTime - bgTime;
                 diff %= T.mins(5).msecs();
                 if (diff > T.mins(2).plus(T.secs(30)).msecs())
@@ -269,14 +350,14 @@ public class IobCobCalculatorPlugin extends PluginBase {
                 diff = Math.abs(diff);
                 if (diff > T.secs(30).msecs()) {
                     if (L.isEnabled(L.AUTOSENS))
-                        log.debug("Interval detection: values: " + bgReadings.size() + " diff: " + (diff / 1000) + "[s] is5minData: " + false);
+                        log.debug("Interval detection: values: " + bgData.size() + " diff: " + (diff / 1000) + "[s] is5minData: " + false);
                     return false;
                 }
             }
-            long averageDiff = totalDiff / bgReadings.size() / 1000;
+            long averageDiff = totalDiff / bgData.size() / 1000;
             boolean is5mindata = averageDiff < 1;
             if (L.isEnabled(L.AUTOSENS))
-                log.debug("Interval detection: values: " + bgReadings.size() + " averageDiff: " + averageDiff + "[s] is5minData: " + is5mindata);
+                log.debug("Interval detection: values: " + bgData.size() + " averageDiff: " + averageDiff + "[s] is5minData: " + is5mindata);
             return is5mindata;
         }
     }
@@ -290,139 +371,119 @@ public class IobCobCalculatorPlugin extends PluginBase {
 
     @Nullable
     public BgReading findNewer(long time) {
-        BgReading lastFound = bgReadings.get(0);
-        if (lastFound.date < time) return null;
-        for (int i = 1; i < bgReadings.size(); ++i) {
-            if (bgReadings.get(i).date == time) return bgReadings.get(i);
-            if (bgReadings.get(i).date > time) continue;
-            lastFound = bgReadings.get(i - 1);
-            if (bgReadings.get(i).date < time) break;
-        }
-        return lastFound;
+        Snapshot snapshot = this.snapshot;
+        if (snapshot.bgData == null || snapshot.bgReadings == null) return null;
+        int index = snapshot.bgData.indexOfNewer(time);
+        return index != -1 ? snapshot.bgReadings.get(index) : null;
     }
 
     @Nullable
     public BgReading findOlder(long time) {
-        BgReading lastFound = bgReadings.get(bgReadings.size() - 1);
-        if (lastFound.date > time) return null;
-        for (int i = bgReadings.size() - 2; i >= 0; --i) {
-            if (bgReadings.get(i).date == time) return bgReadings.get(i);
-            if (bgReadings.get(i).date < time) continue;
-            lastFound = bgReadings.get(i + 1);
-            if (bgReadings.get(i).date > time) break;
-        }
-        return lastFound;
+        Snapshot snapshot = this.snapshot;
+        if (snapshot.bgData == null || snapshot.bgReadings == null) return null;
+        int index = snapshot.bgData.indexOfOlder(time);
+        return index != -1 ? snapshot.bgReadings.get(index) : null;
     }
 
     private void createBucketedDataRecalculated() {
-        if (bgReadings == null || bgReadings.size() < 3) {
+        BgTimeSeries bgData = this.bgData;
+        if (bgData == null || bgData.size() < 3) {
             bucketed_data = null;
             return;
         }
 
-        bucketed_data = new ArrayList<>();
-        long currentTime = bgReadings.get(0).date - bgReadings.get(0).date % T.mins(5).msecs();
+        BgTimeSeries bucketed = new BgTimeSeries(bgData.size());
+        long currentTime = bgData.getDate(0) - bgData.getDate(0) % T.mins(5).msecs();
         //log.debug("First reading: " + new Date(currentTime).toLocaleString());
 
         while (true) {
             // test if current value is older than current time
-            BgReading newer = findNewer(currentTime);
-            BgReading older = findOlder(currentTime);
-            if (newer == null || older == null)
+            int newer = bgData.indexOfNewer(currentTime);
+            int older = bgData.indexOfOlder(currentTime);
+            if (newer == -1 || older == -1)
                 break;
 
-            if (older.date == newer.date) { // direct hit
-                bucketed_data.add(newer);
+            if (older == newer) { // direct hit
+                bucketed.addOldest(bgData.getDate(newer), bgData.getValue(newer));
             } else {
-                double bgDelta = newer.value - older.value;
-                long timeDiffToNew = newer.date - currentTime;
-
-                double currentBg = newer.value - (double) timeDiffToNew / (newer.date - older.date) * bgDelta;
-                BgReading newBgreading = new BgReading();
-                newBgreading.date = currentTime;
-                newBgreading.value = Math.round(currentBg);
-                bucketed_data.add(newBgreading);
-                //log.debug("BG: " + newBgreading.value + " (" + new Date(newBgreading.date).toLocaleString() + ") Prev: " + older.value + " (" + new Date(older.date).toLocaleString() + ") Newer: " + newer.value + " (" + new Date(newer.date).toLocaleString() + ")");
+                double bgDelta = bgData.getValue(newer) - bgData.getValue(older);
+                long timeDiffToNew = bgData.getDate(newer) - currentTime;
+
+                double currentBg = bgData.getValue(newer) - (double) timeDiffToNew / (bgData.getDate(newer) - bgData.getDate(older)) * bgDelta;
+                bucketed.addOldest(currentTime, Math.round(currentBg));
             }
             currentTime -= T.mins(5).msecs();
 
         }
+        bucketed_data = bucketed;
     }
 
 
     private void createBucketedData5min() {
-        if (bgReadings == null || bgReadings.size() < 3) {
+        BgTimeSeries bgData = this.bgData;
+        if (bgData == null || bgData.size() < 3) {
             bucketed_data = null;
             return;
         }
 
-        bucketed_data = new ArrayList<>();
-        bucketed_data.add(bgReadings.get(0));
+        BgTimeSeries bucketed = new BgTimeSeries(bgData.size());
+        bucketed.addOldest(bgData.getDate(0), bgData.getValue(0));
         if (L.isEnabled(L.AUTOSENS))
-            log.debug("Adding. bgTime: " + DateUtil.toISOString(bgReadings.get(0).date) + " lastbgTime: " + "none-first-value" + " " + bgReadings.get(0).toString());
+            log.debug("Adding. bgTime: " + DateUtil.toISOString(bgData.getDate(0)) + " lastbgTime: " + "none-first-value" + " " + bgData.getValue(0));
         int j = 0;
-        for (int i = 1; i < bgReadings.size(); ++i) {
-            long bgTime = bgReadings.get(i).date;
-            long lastbgTime = bgReadings.get(i - 1).date;
+        for (int i = 1; i < bgData.size(); ++i) {
+            long bgTime = bgData.getDate(i);
+            long lastbgTime = bgData.getDate(i - 1);
             //log.error("Processing " + i + ": " + new Date(bgTime).toString() + " " + bgReadings.get(i).value + "   Previous: " + new Date(lastbgTime).toString() + " " + bgReadings.get(i - 1).value);
-            if (bgReadings.get(i).value < 39 || bgReadings.get(i - 1).value < 39) {
+            if (bgData.getValue(i) < 39 || bgData.getValue(i - 1) < 39) {
                 throw new IllegalStateException("<39");
             }
 
             long elapsed_minutes = (bgTime - lastbgTime) / (60 * 1000);
             if (Math.abs(elapsed_minutes) > 8) {
                 // interpolate missing data points
-                double lastbg = bgReadings.get(i - 1).value;
+                double lastbg = bgData.getValue(i - 1);
                 elapsed_minutes = Math.abs(elapsed_minutes);
                 //console.error(elapsed_minutes);
                 long nextbgTime;
                 while (elapsed_minutes > 5) {
                     nextbgTime = lastbgTime - 5 * 60 * 1000;
                     j++;
-                    BgReading newBgreading = new BgReading();
-                    newBgreading.date = nextbgTime;
-                    double gapDelta = bgReadings.get(i).value - lastbg;
+                    double gapDelta = bgData.getValue(i) - lastbg;
                     //console.error(gapDelta, lastbg, elapsed_minutes);
                     double nextbg = lastbg + (5d / elapsed_minutes * gapDelta);
-                    newBgreading.value = Math.round(nextbg);
+                    bucketed.addOldest(nextbgTime, Math.round(nextbg));
                     //console.error("Interpolated", bucketed_data[j]);
-                    bucketed_data.add(newBgreading);
                     if (L.isEnabled(L.AUTOSENS))
-                        log.debug("Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " " + newBgreading.toString());
+                        log.debug("Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " " + Math.round(nextbg));
 
                     elapsed_minutes = elapsed_minutes - 5;
                     lastbg = nextbg;
                     lastbgTime = nextbgTime;
                 }
                 j++;
-                BgReading newBgreading = new BgReading();
-                newBgreading.value = bgReadings.get(i).value;
-                newBgreading.date = bgTime;
-                bucketed_data.add(newBgreading);
+                bucketed.addOldest(bgTime, bgData.getValue(i));
                 if (L.isEnabled(L.AUTOSENS))
-                    log.debug("Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " " + newBgreading.toString());
+                    log.debug("Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " " + bgData.getValue(i));
             } else if (Math.abs(elapsed_minutes) > 2) {
                 j++;
-                BgReading newBgreading = new BgReading();
-                newBgreading.value = bgReadings.get(i).value;
-                newBgreading.date = bgTime;
-                bucketed_data.add(newBgreading);
+                bucketed.addOldest(bgTime, bgData.getValue(i));
                 if (L.isEnabled(L.AUTOSENS))
-                    log.debug("Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " " + newBgreading.toString());
+                    log.debug("Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " " + bgData.getValue(i));
             } else {
-                bucketed_data.get(j).value = (bucketed_data.get(j).value + bgReadings.get(i).value) / 2;
+                bucketed.setValue(j, (bucketed.getValue(j) + bgData.getValue(i)) / 2);
                 //log.error("***** Average");
             }
         }
 
         // Normalize bucketed data
-        for (int i = bucketed_data.size() - 2; i >= 0; i--) {
-            BgReading current = bucketed_data.get(i);
-            BgReading previous = bucketed_data.get(i + 1);
-            long msecDiff = current.date - previous.date;
+        for (int i = bucketed.size() - 2; i >= 0; i--) {
+            long current = bucketed.getDate(i);
+            long previous = bucketed.getDate(i + 1);
+            long msecDiff = current - previous;
             long adjusted = (msecDiff - T.mins(5).msecs()) / 1000;
             if (L.isEnabled(L.AUTOSENS))
-                log.debug("Adjusting bucketed data time. Current: " + DateUtil.toISOString(current.date) + " to: " + DateUtil.toISOString(previous.date + T.mins(5).msecs()) + " by " + adjusted + " sec");
+                log.debug("Adjusting bucketed data time. Current: " + DateUtil.toISOString(current) + " to: " + DateUtil.toISOString(previous + T.mins(5).msecs()) + " by " + adjusted + " sec");
             if (Math.abs(adjusted) > 90) {
                 // too big adjustment, fallback to non 5 min data
                 if (L.isEnabled(L.AUTOSENS))
@@ -430,11 +491,12 @@ public class IobCobCalculatorPlugin extends PluginBase {
                 createBucketedDataRecalculated();
                 return;
             }
-            current.date = previous.date + T.mins(5).msecs();
+            bucketed.setDate(i, previous + T.mins(5).msecs());
         }
 
+        bucketed_data = bucketed;
         if (L.isEnabled(L.AUTOSENS))
-            log.debug("Bucketed data created. Size: " + bucketed_data.size());
+            log.debug("Bucketed data created. Size: " + bucketed.size());
     }
 
     public long calculateDetectionStart(long from, boolean limitDataToOldestAvailable) {
@@ -460,6 +522,26 @@ public class IobCobCalculatorPlugin extends PluginBase {
         }
     }
 
+    /**
+     * IOB in steps for graphs. Lock is taken once for whole range,
+     * past values are served from cache so only new buckets are calculated.
+     *
+     * @return values keyed by time, times without profile are missing
+     */
+    public LongSparseArray<IobTotal> calculateFromTreatmentsAndTempsSynchronized(long fromTime, long toTime, long step) {
+        LongSparseArray<IobTotal> result = new LongSparseArray<>();
+        LongSparseArray<Profile> profiles = new LongSparseArray<>();
+        for (long time = fromTime; time <= toTime; time += step) {
+            Profile profile = ProfileFunctions.getInstance().getProfile(time);
+            if (profile != null) profiles.append(time, profile);
+        }
+        synchronized (dataLock) {
+            for (int i = 0; i < profiles.size(); i++)
+                result.append(profiles.keyAt(i), calculateFromTreatmentsAndTemps(profiles.keyAt(i), profiles.valueAt(i)));
+        }
+        return result;
+    }
+
     public IobTotal calculateFromTreatmentsAndTempsSynchronized(long time, AutosensResult lastAutosensResult, boolean exercise_mode, int half_basal_exercise_target, boolean isTempTarget) {
         synchronized (dataLock) {
             return calculateFromTreatmentsAndTemps(time, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget);
@@ -527,13 +609,15 @@ public class IobCobCalculatorPlugin extends PluginBase {
 
     @Nullable
     public Long findPreviousTimeFromBucketedData(long time) {
+        return findPreviousTimeFromBucketedData(snapshot.bucketedData, time);
+    }
+
+    @Nullable
+    private static Long findPreviousTimeFromBucketedData(@Nullable BgTimeSeries bucketed_data, long time) {
         if (bucketed_data == null)
             return null;
-        for (int index = 0; index < bucketed_data.size(); index++) {
-            if (bucketed_data.get(index).date <= time)
-                return bucketed_data.get(index).date;
-        }
-        return null;
+        int index = bucketed_data.indexOfOlder(time);
+        return index != -1 ? bucketed_data.getDate(index) : null;
     }
 
     public BasalData getBasalData(Profile profile, long time) {
@@ -563,46 +647,55 @@ public class IobCobCalculatorPlugin extends PluginBase {
         }
     }
 
+    /**
+     * @return data of last finished calculation
+     */
     @Nullable
     public AutosensData getAutosensData(long time) {
-        synchronized (dataLock) {
-            long now = System.currentTimeMillis();
-            if (time > now) {
-                return null;
-            }
-            Long previous = findPreviousTimeFromBucketedData(time);
-            if (previous == null) {
-                return null;
-            }
-            time = roundUpTime(previous);
-            AutosensData data = autosensDataTable.get(time);
-            if (data != null) {
-                //log.debug(">>> AUTOSENSDATA Cache hit " + data.toString());
-                return data;
-            } else {
-                //log.debug(">>> AUTOSENSDATA Cache miss " + new Date(time).toLocaleString());
-                return null;
-            }
-        }
+        Snapshot snapshot = this.snapshot;
+        return getAutosensData(snapshot.bucketedData, snapshot.autosensDataTable, time);
     }
 
+    /**
+     * @return data being calculated, use only from calculation thread (sensitivity plugins)
+     */
     @Nullable
-    public AutosensData getLastAutosensDataSynchronized(String reason) {
-        if (thread != null && thread.isAlive()) {
-            if (L.isEnabled(L.AUTOSENS))
-                log.debug("AUTOSENSDATA is waiting for calculation thread: " + reason);
-            try {
-                thread.join(5000);
-            } catch (InterruptedException ignored) {
-            }
-            if (L.isEnabled(L.AUTOSENS))
-                log.debug("AUTOSENSDATA finished waiting for calculation thread: " + reason);
+    public AutosensData getAutosensDataFromTable(long time) {
+        return getAutosensData(bucketed_data, autosensDataTable, time);
+    }
+
+    @Nullable
+    private static AutosensData getAutosensData(@Nullable BgTimeSeries bucketed_data, LongSparseArray<AutosensData> autosensDataTable, long time) {
+        long now = System.currentTimeMillis();
+        if (time > now) {
+            return null;
         }
-        synchronized (dataLock) {
-            return getLastAutosensData(reason);
+        Long previous = findPreviousTimeFromBucketedData(bucketed_data, time);
+        if (previous == null) {
+            return null;
+        }
+        time = roundUpTime(previous);
+        AutosensData data = autosensDataTable.get(time);
+        if (data != null) {
+            //log.debug(">>> AUTOSENSDATA Cache hit " + data.toString());
+            return data;
+        } else {
+            //log.debug(">>> AUTOSENSDATA Cache miss " + new Date(time).toLocaleString());
+            return null;
         }
     }
 
+    /**
+     * Waits for calculation of invalidated data (new history, profile or preference change),
+     * so that values calculated from outdated treatments are not used for dosing
+     */
+    @Nullable
+    public AutosensData getLastAutosensDataSynchronized(String reason) {
+        if (!executor.awaitInvalidations(5000))
+            log.error("AUTOSENSDATA calculation not finished in time: " + reason);
+        return getLastAutosensData(reason);
+    }
+
 
     @NonNull
     public CobInfo getCobInfo(boolean _synchronized, String reason) {
@@ -635,33 +728,24 @@ public class IobCobCalculatorPlugin extends PluginBase {
         double sum = 0;
         int count = 0;
         int valuesToProcess = timeInMinutes / 5;
-        synchronized (dataLock) {
-            for (int i = autosensDataTable.size() - 1; i >= 0 && count < valuesToProcess; i--) {
-                if (autosensDataTable.valueAt(i).failoverToMinAbsorbtionRate)
-                    sum++;
-                count++;
-            }
+        LongSparseArray<AutosensData> autosensDataTable = snapshot.autosensDataTable;
+        for (int i = autosensDataTable.size() - 1; i >= 0 && count < valuesToProcess; i--) {
+            if (autosensDataTable.valueAt(i).failoverToMinAbsorbtionRate)
+                sum++;
+            count++;
         }
         return sum / count;
     }
 
     @Nullable
     public AutosensData getLastAutosensData(String reason) {
+        LongSparseArray<AutosensData> autosensDataTable = snapshot.autosensDataTable;
         if (autosensDataTable.size() < 1) {
             if (L.isEnabled(L.AUTOSENS))
                 log.debug("AUTOSENSDATA null: autosensDataTable empty (" + reason + ")");
             return null;
         }
-        AutosensData data;
-        try {
-            data = autosensDataTable.valueAt(autosensDataTable.size() - 1);
-        } catch (Exception e) {
-            // data can be processed on the background
-            // in this rare case better return null and do not block UI
-            // APS plugin should use getLastAutosensDataSynchronized where the blocking is not an issue
-            log.debug("AUTOSENSDATA null: Exception catched (" + reason + ")");
-            return null;
-        }
+        AutosensData data = autosensDataTable.valueAt(autosensDataTable.size() - 1);
         if (data == null) {
             log.debug("AUTOSENSDATA null: data==null");
             return null;
@@ -726,10 +810,9 @@ public class IobCobCalculatorPlugin extends PluginBase {
         return sb.toString();
     }
 
-    public AutosensResult detectSensitivityWithLock(long fromTime, long toTime) {
-        synchronized (dataLock) {
-            return ConfigBuilderPlugin.getPlugin().getActiveSensitivity().detectSensitivity(this, fromTime, toTime);
-        }
+    // called from calculation thread, sensitivity plugins read table being calculated
+    public AutosensResult detectSensitivity(long fromTime, long toTime) {
+        return ConfigBuilderPlugin.getPlugin().getActiveSensitivity().detectSensitivity(this, fromTime, toTime);
     }
 
     public static JSONArray convertToJSONArray(IobTotal[] iobArray) {
@@ -741,28 +824,51 @@ public class IobCobCalculatorPlugin extends PluginBase {
     }
 
     public void stopCalculation(String from) {
-        if (thread != null && thread.getState() != Thread.State.TERMINATED) {
-            stopCalculationTrigger = true;
-            if (L.isEnabled(L.AUTOSENS))
-                log.debug("Stopping calculation thread: " + from);
-            while (thread.getState() != Thread.State.TERMINATED) {
-                SystemClock.sleep(100);
-            }
-            if (L.isEnabled(L.AUTOSENS))
-                log.debug("Calculation thread stopped: " + from);
-        }
+        executor.cancel(from);
     }
 
     public void runCalculation(String from, long end, boolean bgDataReload, boolean limitDataToOldestAvailable, Event cause) {
         if (L.isEnabled(L.AUTOSENS))
             log.debug("Starting calculation thread: " + from + " to " + DateUtil.dateAndTimeString(end));
-        if (thread == null || thread.getState() == Thread.State.TERMINATED) {
-            if (SensitivityOref1Plugin.getPlugin().isEnabled(PluginType.SENSITIVITY))
-                thread = new IobCobOref1Thread(this, from, end, bgDataReload, limitDataToOldestAvailable, cause);
-            else
-                thread = new IobCobThread(this, from, end, bgDataReload, limitDataToOldestAvailable, cause);
-            thread.start();
+        executor.submit(new CalculationExecutor.Request(from, end, bgDataReload, limitDataToOldestAvailable, cause));
+    }
+
+    /**
+     * Executed on calculation thread, the only place where calculated data is modified
+     */
+    void calculate(CalculationExecutor.Request request) {
+        if (request.newBgTime != Long.MAX_VALUE) {
+            if (request.newBgTime < lastCalculatedTime()) {
+                // backfilled reading, calculated data based on old bucketed data must be dropped
+                request.invalidateFrom(request.newBgTime - T.mins(5).msecs(), "backfilled BG");
+                request.bgDataReload = true;
+            } else if (!request.bgDataReload && appendBgData(request.newBgTime, System.currentTimeMillis())) {
+                // new reading appended to loaded data, no need to reload everything
+                createBucketedData();
+            } else {
+                request.bgDataReload = true;
+            }
         }
+        if (request.invalidateFrom != Long.MAX_VALUE) {
+            synchronized (dataLock) {
+                invalidateFrom(request.invalidateFrom, request.invalidateReason);
+            }
+            // readers must not see invalidated data, even if calculation fails or is cancelled
+            publishSnapshot();
+        }
+        if (SensitivityOref1Plugin.getPlugin().isEnabled(PluginType.SENSITIVITY))
+            new IobCobOref1Thread(this, request).run();
+        else
+            new IobCobThread(this, request).run();
+    }
+
+    /**
+     * Make current state of calculation visible for readers.
+     * Called from calculation thread when calculation is finished or cached data is invalidated.
+     */
+    public void publishSnapshot() {
+        BgTimeSeries bgData = this.bgData;
+        snapshot = new Snapshot(bgReadings, bgData != null ? bgData.copy() : null, bucketed_data, autosensDataTable.clone());
     }
 
     // When historical data is changed (comming from NS etc) finished calculations after this date must be invalidated
@@ -772,45 +878,48 @@ public class IobCobCalculatorPlugin extends PluginBase {
                 log.debug("Ignoring event for non default instance");
             return;
         }
-        //log.debug("Locking onNewHistoryData");
-        stopCalculation("onEventNewHistoryData");
-        synchronized (dataLock) {
-            // clear up 5 min back for proper COB calculation
-            long time = ev.getTime() - 5 * 60 * 1000L;
-            if (L.isEnabled(L.AUTOSENS))
-                log.debug("Invalidating cached data to: " + DateUtil.dateAndTimeFullString(time));
-            for (int index = iobTable.size() - 1; index >= 0; index--) {
-                if (iobTable.keyAt(index) > time) {
-                    if (L.isEnabled(L.AUTOSENS))
-                        log.debug("Removing from iobTable: " + DateUtil.dateAndTimeFullString(iobTable.keyAt(index)));
-                    iobTable.removeAt(index);
-                } else {
-                    break;
-                }
-            }
-            for (int index = autosensDataTable.size() - 1; index >= 0; index--) {
-                if (autosensDataTable.keyAt(index) > time) {
-                    if (L.isEnabled(L.AUTOSENS))
-                        log.debug("Removing from autosensDataTable: " + DateUtil.dateAndTimeFullString(autosensDataTable.keyAt(index)));
-                    autosensDataTable.removeAt(index);
-                } else {
-                    break;
-                }
-            }
-            for (int index = basalDataTable.size() - 1; index >= 0; index--) {
-                if (basalDataTable.keyAt(index) > time) {
-                    if (L.isEnabled(L.AUTOSENS))
-                        log.debug("Removing from basalDataTable: " + DateUtil.dateAndTimeFullString(basalDataTable.keyAt(index)));
-                    basalDataTable.removeAt(index);
-                } else {
-                    break;
-                }
-            }
+        // clear up 5 min back for proper COB calculation
+        executor.submit(new CalculationExecutor.Request("onEventNewHistoryData", System.currentTimeMillis(), false, true, ev)
+                .invalidateFrom(ev.getTime() - 5 * 60 * 1000L, "new history data"));
+    }
+
+    /**
+     * Drop cached values newer than time. Every AutosensData depends only on older buckets
+     * (COB carried from previous, deviations from last hour) so everything older is kept
+     * and calculation thread continues from the first missing bucket.
+     * Must be called from calculation thread with dataLock held.
+     */
+    void invalidateFrom(long time, String reason) {
+        if (L.isEnabled(L.AUTOSENS))
+            log.debug("Invalidating cached data because of " + reason + " to: " + DateUtil.dateAndTimeFullString(time));
+        int iobRemoved = removeNewer(iobTable, time);
+        int autosensRemoved = removeNewer(autosensDataTable, time);
+        int basalRemoved = removeNewer(basalDataTable, time);
+        if (L.isEnabled(L.AUTOSENS))
+            log.debug("Removed records. IOB: " + iobRemoved + " Autosens: " + autosensRemoved + " BasalData: " + basalRemoved + " Kept autosens records: " + autosensDataTable.size());
+    }
+
+    // tables are sorted by time, binary search first record to remove and cut the tail
+    public static <V> int removeNewer(LongSparseArray<V> table, long time) {
+        int size = table.size();
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (table.keyAt(mid) > time) high = mid;
+            else low = mid + 1;
         }
-        runCalculation("onEventNewHistoryData", System.currentTimeMillis(), false, true, ev);
-        //log.debug("Releasing onNewHistoryData");
+        for (int index = size - 1; index >= low; index--)
+            table.removeAt(index);
+        return size - low;
+    }
+
+    long lastCalculatedTime() {
+        if (autosensDataTable.size() == 0) return 0;
+        return autosensDataTable.keyAt(autosensDataTable.size() - 1);
     }
 
+    // calculation must be stopped before
     public void clearCache() {
         synchronized (dataLock) {
             if (L.isEnabled(L.AUTOSENS))
@@ -819,6 +928,7 @@ public class IobCobCalculatorPlugin extends PluginBase {
             autosensDataTable = new LongSparseArray<>();
             basalDataTable = new LongSparseArray<>();
         }
+        snapshot = Snapshot.EMPTY;
     }
 
     // From https://gist.github.com/IceCreamYou/6ffa1b18c4c8f6aeaad2
@@ -20,7 +20,6 @@ import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
 import info.nightscout.androidaps.data.IobTotal;
 import info.nightscout.androidaps.data.Profile;
-import info.nightscout.androidaps.db.BgReading;
 import info.nightscout.androidaps.db.TempTarget;
 import info.nightscout.androidaps.events.Event;
 import info.nightscout.androidaps.logging.L;
@@ -49,11 +48,12 @@ import static java.util.Calendar.MINUTE;
  * Created by mike on 23.01.2018.
  */
 
-public class IobCobOref1Thread extends Thread {
+public class IobCobOref1Thread implements Runnable {
     private static Logger log = LoggerFactory.getLogger(L.AUTOSENS);
     private final Event cause;
 
     private IobCobCalculatorPlugin iobCobCalculatorPlugin;
+    private CalculationExecutor.Request request;
     private boolean bgDataReload;
     private boolean limitDataToOldestAvailable;
     private String from;
@@ -61,15 +61,14 @@ public class IobCobOref1Thread extends Thread {
 
     private PowerManager.WakeLock mWakeLock;
 
-    IobCobOref1Thread(IobCobCalculatorPlugin plugin, String from, long end, boolean bgDataReload, boolean limitDataToOldestAvailable, Event cause) {
-        super();
-
+    IobCobOref1Thread(IobCobCalculatorPlugin plugin, CalculationExecutor.Request request) {
         this.iobCobCalculatorPlugin = plugin;
-        this.bgDataReload = bgDataReload;
-        this.limitDataToOldestAvailable = limitDataToOldestAvailable;
-        this.from = from;
-        this.cause = cause;
-        this.end = end;
+        this.request = request;
+        this.bgDataReload = request.bgDataReload;
+        this.limitDataToOldestAvailable = request.limitDataToOldestAvailable;
+        this.from = request.from;
+        this.cause = request.cause;
+        this.end = request.end;
 
         PowerManager powerManager = (PowerManager) MainApp.instance().getApplicationContext().getSystemService(Context.POWER_SERVICE);
         if (powerManager != null)
@@ -98,293 +97,296 @@ public class IobCobOref1Thread extends Thread {
 
             long oldestTimeWithData = iobCobCalculatorPlugin.calculateDetectionStart(end, limitDataToOldestAvailable);
 
-            synchronized (iobCobCalculatorPlugin.getDataLock()) {
-                if (bgDataReload) {
-                    iobCobCalculatorPlugin.loadBgData(end);
-                    iobCobCalculatorPlugin.createBucketedData();
-                }
-                List<BgReading> bucketed_data = iobCobCalculatorPlugin.getBucketedData();
-                LongSparseArray<AutosensData> autosensDataTable = iobCobCalculatorPlugin.getAutosensDataTable();
+            if (bgDataReload) {
+                iobCobCalculatorPlugin.loadBgData(end);
+                iobCobCalculatorPlugin.createBucketedData();
+            }
+            BgTimeSeries bucketed_data = iobCobCalculatorPlugin.getBucketedDataFromCalculation();
+            LongSparseArray<AutosensData> autosensDataTable = iobCobCalculatorPlugin.getAutosensDataTable();
 
-                if (bucketed_data == null || bucketed_data.size() < 3) {
+            if (bucketed_data == null || bucketed_data.size() < 3) {
+                if (L.isEnabled(L.AUTOSENS))
+                    log.debug("Aborting calculation thread (No bucketed data available): " + from);
+                return;
+            }
+
+            long prevDataTime = IobCobCalculatorPlugin.roundUpTime(bucketed_data.getDate(bucketed_data.size() - 3));
+            if (L.isEnabled(L.AUTOSENS))
+                log.debug("Prev data time: " + new Date(prevDataTime).toLocaleString());
+            AutosensData previous = autosensDataTable.get(prevDataTime);
+            // start from oldest to be able sub cob
+            int reused = 0;
+            for (int i = bucketed_data.size() - 4; i >= 0; i--) {
+                if (request.isCancelled()) {
                     if (L.isEnabled(L.AUTOSENS))
-                        log.debug("Aborting calculation thread (No bucketed data available): " + from);
+                        log.debug("Aborting calculation thread (trigger): " + from);
                     return;
                 }
+                // check if data already exists
+                long bgTime = bucketed_data.getDate(i);
+                bgTime = IobCobCalculatorPlugin.roundUpTime(bgTime);
+                if (bgTime > IobCobCalculatorPlugin.roundUpTime(now()))
+                    continue;
+
+                AutosensData existing;
+                if ((existing = autosensDataTable.get(bgTime)) != null) {
+                    // kept from previous run, only buckets after the invalidated time are recalculated
+                    previous = existing;
+                    reused++;
+                    continue;
+                }
 
-                long prevDataTime = IobCobCalculatorPlugin.roundUpTime(bucketed_data.get(bucketed_data.size() - 3).date);
-                if (L.isEnabled(L.AUTOSENS))
-                    log.debug("Prev data time: " + new Date(prevDataTime).toLocaleString());
-                AutosensData previous = autosensDataTable.get(prevDataTime);
-                // start from oldest to be able sub cob
-                for (int i = bucketed_data.size() - 4; i >= 0; i--) {
-                    String progress = i + (MainApp.isDev() ? " (" + from + ")" : "");
-                    RxBus.INSTANCE.send(new EventIobCalculationProgress(progress));
-
-                    if (iobCobCalculatorPlugin.stopCalculationTrigger) {
-                        iobCobCalculatorPlugin.stopCalculationTrigger = false;
-                        if (L.isEnabled(L.AUTOSENS))
-                            log.debug("Aborting calculation thread (trigger): " + from);
-                        return;
-                    }
-                    // check if data already exists
-                    long bgTime = bucketed_data.get(i).date;
-                    bgTime = IobCobCalculatorPlugin.roundUpTime(bgTime);
-                    if (bgTime > IobCobCalculatorPlugin.roundUpTime(now()))
-                        continue;
-
-                    AutosensData existing;
-                    if ((existing = autosensDataTable.get(bgTime)) != null) {
-                        previous = existing;
-                        continue;
-                    }
-
-                    Profile profile = ProfileFunctions.getInstance().getProfile(bgTime);
-                    if (profile == null) {
-                        if (L.isEnabled(L.AUTOSENS))
-                            log.debug("Aborting calculation thread (no profile): " + from);
-                        return; // profile not set yet
-                    }
+                String progress = i + (MainApp.isDev() ? " (" + from + ")" : "");
+                RxBus.INSTANCE.send(new EventIobCalculationProgress(progress));
 
+                Profile profile = ProfileFunctions.getInstance().getProfile(bgTime);
+                if (profile == null) {
                     if (L.isEnabled(L.AUTOSENS))
-                        log.debug("Processing calculation thread: " + from + " (" + i + "/" + bucketed_data.size() + ")");
-
-                    double sens = profile.getIsfMgdl(bgTime);
+                        log.debug("Aborting calculation thread (no profile): " + from);
+                    return; // profile not set yet
+                }
 
-                    AutosensData autosensData = new AutosensData();
-                    autosensData.time = bgTime;
-                    if (previous != null)
-                        autosensData.activeCarbsList = previous.cloneCarbsList();
-                    else
-                        autosensData.activeCarbsList = new ArrayList<>();
-
-                    //console.error(bgTime , bucketed_data[i].glucose);
-                    double bg;
-                    double avgDelta;
-                    double delta;
-                    bg = bucketed_data.get(i).value;
-                    if (bg < 39 || bucketed_data.get(i + 3).value < 39) {
-                        log.error("! value < 39");
-                        continue;
-                    }
-                    autosensData.bg = bg;
-                    delta = (bg - bucketed_data.get(i + 1).value);
-                    avgDelta = (bg - bucketed_data.get(i + 3).value) / 3;
-
-                    IobTotal iob = iobCobCalculatorPlugin.calculateFromTreatmentsAndTemps(bgTime, profile);
-
-                    double bgi = -iob.activity * sens * 5;
-                    double deviation = delta - bgi;
-                    double avgDeviation = Math.round((avgDelta - bgi) * 1000) / 1000d;
-
-                    double slopeFromMaxDeviation = 0;
-                    double slopeFromMinDeviation = 999;
-                    double maxDeviation = 0;
-                    double minDeviation = 999;
-
-                    // https://github.com/openaps/oref0/blob/master/lib/determine-basal/cob-autosens.js#L169
-                    if (i < bucketed_data.size() - 16) { // we need 1h of data to calculate minDeviationSlope
-                        long hourago = bgTime + 10 * 1000 - 60 * 60 * 1000L;
-                        AutosensData hourAgoData = iobCobCalculatorPlugin.getAutosensData(hourago);
-                        if (hourAgoData != null) {
-                            int initialIndex = autosensDataTable.indexOfKey(hourAgoData.time);
-                            if (L.isEnabled(L.AUTOSENS))
-                                log.debug(">>>>> bucketed_data.size()=" + bucketed_data.size() + " i=" + i + " hourAgoData=" + hourAgoData.toString());
-                            int past = 1;
-                            try {
-                                for (; past < 12; past++) {
-                                    AutosensData ad = autosensDataTable.valueAt(initialIndex + past);
-                                    if (L.isEnabled(L.AUTOSENS)) {
-                                        log.debug(">>>>> past=" + past + " ad=" + (ad != null ? ad.toString() : null));
-                                        if (ad == null) {
-                                            log.debug(autosensDataTable.toString());
-                                            log.debug(bucketed_data.toString());
-                                            log.debug(IobCobCalculatorPlugin.getPlugin().getBgReadings().toString());
-                                            Notification notification = new Notification(Notification.SENDLOGFILES, MainApp.gs(R.string.sendlogfiles), Notification.LOW);
-                                            RxBus.INSTANCE.send(new EventNewNotification(notification));
-                                            SP.putBoolean("log_AUTOSENS", true);
-                                            break;
-                                        }
-                                    }
-                                    // let it here crash on NPE to get more data as i cannot reproduce this bug
-                                    double deviationSlope = (ad.avgDeviation - avgDeviation) / (ad.time - bgTime) * 1000 * 60 * 5;
-                                    if (ad.avgDeviation > maxDeviation) {
-                                        slopeFromMaxDeviation = Math.min(0, deviationSlope);
-                                        maxDeviation = ad.avgDeviation;
-                                    }
-                                    if (ad.avgDeviation < minDeviation) {
-                                        slopeFromMinDeviation = Math.max(0, deviationSlope);
-                                        minDeviation = ad.avgDeviation;
+                if (L.isEnabled(L.AUTOSENS))
+                    log.debug("Processing calculation thread: " + from + " (" + i + "/" + bucketed_data.size() + ")");
+
+                double sens = profile.getIsfMgdl(bgTime);
+
+                AutosensData autosensData = new AutosensData();
+                autosensData.time = bgTime;
+                if (previous != null)
+                    autosensData.activeCarbsList = previous.cloneCarbsList();
+                else
+                    autosensData.activeCarbsList = new ArrayList<>();
+
+                //console.error(bgTime , bucketed_data[i].glucose);
+                double bg;
+                double avgDelta;
+                double delta;
+                bg = bucketed_data.getValue(i);
+                if (bg < 39 || bucketed_data.getValue(i + 3) < 39) {
+                    log.error("! value < 39");
+                    continue;
+                }
+                autosensData.bg = bg;
+                delta = (bg - bucketed_data.getValue(i + 1));
+                avgDelta = (bg - bucketed_data.getValue(i + 3)) / 3;
+
+                IobTotal iob = iobCobCalculatorPlugin.calculateFromTreatmentsAndTempsSynchronized(bgTime, profile);
+
+                double bgi = -iob.activity * sens * 5;
+                double deviation = delta - bgi;
+                double avgDeviation = Math.round((avgDelta - bgi) * 1000) / 1000d;
+
+                double slopeFromMaxDeviation = 0;
+                double slopeFromMinDeviation = 999;
+                double maxDeviation = 0;
+                double minDeviation = 999;
+
+                // https://github.com/openaps/oref0/blob/master/lib/determine-basal/cob-autosens.js#L169
+                if (i < bucketed_data.size() - 16) { // we need 1h of data to calculate minDeviationSlope
+                    long hourago = bgTime + 10 * 1000 - 60 * 60 * 1000L;
+                    AutosensData hourAgoData = iobCobCalculatorPlugin.getAutosensDataFromTable(hourago);
+                    if (hourAgoData != null) {
+                        int initialIndex = autosensDataTable.indexOfKey(hourAgoData.time);
+                        if (L.isEnabled(L.AUTOSENS))
+                            log.debug(">>>>> bucketed_data.size()=" + bucketed_data.size() + " i=" + i + " hourAgoData=" + hourAgoData.toString());
+                        int past = 1;
+                        try {
+                            for (; past < 12; past++) {
+                                AutosensData ad = autosensDataTable.valueAt(initialIndex + past);
+                                if (L.isEnabled(L.AUTOSENS)) {
+                                    log.debug(">>>>> past=" + past + " ad=" + (ad != null ? ad.toString() : null));
+                                    if (ad == null) {
+                                        log.debug(autosensDataTable.toString());
+                                        log.debug(bucketed_data.toString());
+                                        log.debug(iobCobCalculatorPlugin.getBgReadingsFromCalculation().toString());
+                                        Notification notification = new Notification(Notification.SENDLOGFILES, MainApp.gs(R.string.sendlogfiles), Notification.LOW);
+                                        RxBus.INSTANCE.send(new EventNewNotification(notification));
+                                        SP.putBoolean("log_AUTOSENS", true);
+                                        break;
                                     }
-
-                                    //if (Config.isEnabled(L.AUTOSENS))
-                                    //    log.debug("Deviations: " + new Date(bgTime) + new Date(ad.time) + " avgDeviation=" + avgDeviation + " deviationSlope=" + deviationSlope + " slopeFromMaxDeviation=" + slopeFromMaxDeviation + " slopeFromMinDeviation=" + slopeFromMinDeviation);
                                 }
-                            } catch (Exception e) {
-                                log.error("Unhandled exception", e);
-                                FabricPrivacy.logException(e);
-                                log.debug(autosensDataTable.toString());
-                                log.debug(bucketed_data.toString());
-                                log.debug(IobCobCalculatorPlugin.getPlugin().getBgReadings().toString());
-                                Notification notification = new Notification(Notification.SENDLOGFILES, MainApp.gs(R.string.sendlogfiles), Notification.LOW);
-                                RxBus.INSTANCE.send(new EventNewNotification(notification));
-                                SP.putBoolean("log_AUTOSENS", true);
-                                break;
+                                // let it here crash on NPE to get more data as i cannot reproduce this bug
+                                double deviationSlope = (ad.avgDeviation - avgDeviation) / (ad.time - bgTime) * 1000 * 60 * 5;
+                                if (ad.avgDeviation > maxDeviation) {
+                                    slopeFromMaxDeviation = Math.min(0, deviationSlope);
+                                    maxDeviation = ad.avgDeviation;
+                                }
+                                if (ad.avgDeviation < minDeviation) {
+                                    slopeFromMinDeviation = Math.max(0, deviationSlope);
+                                    minDeviation = ad.avgDeviation;
+                                }
+
+                                //if (Config.isEnabled(L.AUTOSENS))
+                                //    log.debug("Deviations: " + new Date(bgTime) + new Date(ad.time) + " avgDeviation=" + avgDeviation + " deviationSlope=" + deviationSlope + " slopeFromMaxDeviation=" + slopeFromMaxDeviation + " slopeFromMinDeviation=" + slopeFromMinDeviation);
                             }
-                        } else {
-                            if (L.isEnabled(L.AUTOSENS))
-                                log.debug(">>>>> bucketed_data.size()=" + bucketed_data.size() + " i=" + i + " hourAgoData=" + "null");
+                        } catch (Exception e) {
+                            log.error("Unhandled exception", e);
+                            FabricPrivacy.logException(e);
+                            log.debug(autosensDataTable.toString());
+                            log.debug(bucketed_data.toString());
+                            log.debug(iobCobCalculatorPlugin.getBgReadingsFromCalculation().toString());
+                            Notification notification = new Notification(Notification.SENDLOGFILES, MainApp.gs(R.string.sendlogfiles), Notification.LOW);
+                            RxBus.INSTANCE.send(new EventNewNotification(notification));
+                            SP.putBoolean("log_AUTOSENS", true);
+                            break;
                         }
+                    } else {
+                        if (L.isEnabled(L.AUTOSENS))
+                            log.debug(">>>>> bucketed_data.size()=" + bucketed_data.size() + " i=" + i + " hourAgoData=" + "null");
                     }
+                }
 
-                    List<Treatment> recentCarbTreatments = TreatmentsPlugin.getPlugin().getCarbTreatments5MinBackFromHistory(bgTime);
-                    for (Treatment recentCarbTreatment : recentCarbTreatments) {
-                        autosensData.carbsFromBolus += recentCarbTreatment.carbs;
-                        autosensData.activeCarbsList.add(new AutosensData.CarbsInPast(recentCarbTreatment));
-                        autosensData.pastSensitivity += "[" + DecimalFormatter.to0Decimal(recentCarbTreatment.carbs) + "g]";
-                    }
+                List<Treatment> recentCarbTreatments = TreatmentsPlugin.getPlugin().getCarbTreatments5MinBackFromHistory(bgTime);
+                for (Treatment recentCarbTreatment : recentCarbTreatments) {
+                    autosensData.carbsFromBolus += recentCarbTreatment.carbs;
+                    autosensData.activeCarbsList.add(new AutosensData.CarbsInPast(recentCarbTreatment));
+                    autosensData.pastSensitivity += "[" + DecimalFormatter.to0Decimal(recentCarbTreatment.carbs) + "g]";
+                }
 
 
-                    // if we are absorbing carbs
-                    if (previous != null && previous.cob > 0) {
-                        // calculate sum of min carb impact from all active treatments
-                        double totalMinCarbsImpact = 0d;
+                // if we are absorbing carbs
+                if (previous != null && previous.cob > 0) {
+                    // calculate sum of min carb impact from all active treatments
+                    double totalMinCarbsImpact = 0d;
 //                        if (SensitivityAAPSPlugin.getPlugin().isEnabled(PluginType.SENSITIVITY) || SensitivityWeightedAveragePlugin.getPlugin().isEnabled(PluginType.SENSITIVITY)) {
-                        //when the impact depends on a max time, sum them up as smaller carb sizes make them smaller
+                    //when the impact depends on a max time, sum them up as smaller carb sizes make them smaller
 //                            for (int ii = 0; ii < autosensData.activeCarbsList.size(); ++ii) {
 //                                AutosensData.CarbsInPast c = autosensData.activeCarbsList.get(ii);
 //                                totalMinCarbsImpact += c.min5minCarbImpact;
 //                            }
 //                        } else {
-                        //Oref sensitivity
-                        totalMinCarbsImpact = SP.getDouble(R.string.key_openapsama_min_5m_carbimpact, SMBDefaults.min_5m_carbimpact);
+                    //Oref sensitivity
+                    totalMinCarbsImpact = SP.getDouble(R.string.key_openapsama_min_5m_carbimpact, SMBDefaults.min_5m_carbimpact);
 //                        }
 
-                        // figure out how many carbs that represents
-                        // but always assume at least 3mg/dL/5m (default) absorption per active treatment
-                        double ci = Math.max(deviation, totalMinCarbsImpact);
-                        if (ci != deviation)
-                            autosensData.failoverToMinAbsorbtionRate = true;
-                        autosensData.absorbed = ci * profile.getIc(bgTime) / sens;
-                        // and add that to the running total carbsAbsorbed
-                        autosensData.cob = Math.max(previous.cob - autosensData.absorbed, 0d);
-                        autosensData.mealCarbs = previous.mealCarbs;
-                        autosensData.substractAbosorbedCarbs();
-                        autosensData.usedMinCarbsImpact = totalMinCarbsImpact;
-                        autosensData.absorbing = previous.absorbing;
-                        autosensData.mealStartCounter = previous.mealStartCounter;
-                        autosensData.type = previous.type;
-                        autosensData.uam = previous.uam;
-                    }
-
-                    autosensData.removeOldCarbs(bgTime);
-                    autosensData.cob += autosensData.carbsFromBolus;
-                    autosensData.mealCarbs += autosensData.carbsFromBolus;
-                    autosensData.deviation = deviation;
-                    autosensData.bgi = bgi;
-                    autosensData.delta = delta;
-                    autosensData.avgDelta = avgDelta;
-                    autosensData.avgDeviation = avgDeviation;
-                    autosensData.slopeFromMaxDeviation = slopeFromMaxDeviation;
-                    autosensData.slopeFromMinDeviation = slopeFromMinDeviation;
+                    // figure out how many carbs that represents
+                    // but always assume at least 3mg/dL/5m (default) absorption per active treatment
+                    double ci = Math.max(deviation, totalMinCarbsImpact);
+                    if (ci != deviation)
+                        autosensData.failoverToMinAbsorbtionRate = true;
+                    autosensData.absorbed = ci * profile.getIc(bgTime) / sens;
+                    // and add that to the running total carbsAbsorbed
+                    autosensData.cob = Math.max(previous.cob - autosensData.absorbed, 0d);
+                    autosensData.mealCarbs = previous.mealCarbs;
+                    autosensData.substractAbosorbedCarbs();
+                    autosensData.usedMinCarbsImpact = totalMinCarbsImpact;
+                    autosensData.absorbing = previous.absorbing;
+                    autosensData.mealStartCounter = previous.mealStartCounter;
+                    autosensData.type = previous.type;
+                    autosensData.uam = previous.uam;
+                }
 
+                autosensData.removeOldCarbs(bgTime);
+                autosensData.cob += autosensData.carbsFromBolus;
+                autosensData.mealCarbs += autosensData.carbsFromBolus;
+                autosensData.deviation = deviation;
+                autosensData.bgi = bgi;
+                autosensData.delta = delta;
+                autosensData.avgDelta = avgDelta;
+                autosensData.avgDeviation = avgDeviation;
+                autosensData.slopeFromMaxDeviation = slopeFromMaxDeviation;
+                autosensData.slopeFromMinDeviation = slopeFromMinDeviation;
+
+
+                // If mealCOB is zero but all deviations since hitting COB=0 are positive, exclude from autosens
+                if (autosensData.cob > 0 || autosensData.absorbing || autosensData.mealCarbs > 0) {
+                    if (deviation > 0)
+                        autosensData.absorbing = true;
+                    else
+                        autosensData.absorbing = false;
+                    // stop excluding positive deviations as soon as mealCOB=0 if meal has been absorbing for >5h
+                    if (autosensData.mealStartCounter > 60 && autosensData.cob < 0.5) {
+                        autosensData.absorbing = false;
+                    }
+                    if (!autosensData.absorbing && autosensData.cob < 0.5) {
+                        autosensData.mealCarbs = 0;
+                    }
+                    // check previous "type" value, and if it wasn't csf, set a mealAbsorption start flag
+                    if (!autosensData.type.equals("csf")) {
+//                                process.stderr.write("(");
+                        autosensData.mealStartCounter = 0;
+                    }
+                    autosensData.mealStartCounter++;
+                    autosensData.type = "csf";
+                } else {
+                    // check previous "type" value, and if it was csf, set a mealAbsorption end flag
+                    if (autosensData.type.equals("csf")) {
+//                                process.stderr.write(")");
+                    }
 
-                    // If mealCOB is zero but all deviations since hitting COB=0 are positive, exclude from autosens
-                    if (autosensData.cob > 0 || autosensData.absorbing || autosensData.mealCarbs > 0) {
+                    double currentBasal = profile.getBasal(bgTime);
+                    // always exclude the first 45m after each carb entry
+                    //if (iob.iob > currentBasal || uam ) {
+                    if (iob.iob > 2 * currentBasal || autosensData.uam || autosensData.mealStartCounter < 9) {
+                        autosensData.mealStartCounter++;
                         if (deviation > 0)
-                            autosensData.absorbing = true;
+                            autosensData.uam = true;
                         else
-                            autosensData.absorbing = false;
-                        // stop excluding positive deviations as soon as mealCOB=0 if meal has been absorbing for >5h
-                        if (autosensData.mealStartCounter > 60 && autosensData.cob < 0.5) {
-                            autosensData.absorbing = false;
-                        }
-                        if (!autosensData.absorbing && autosensData.cob < 0.5) {
-                            autosensData.mealCarbs = 0;
-                        }
-                        // check previous "type" value, and if it wasn't csf, set a mealAbsorption start flag
-                        if (!autosensData.type.equals("csf")) {
-//                                process.stderr.write("(");
-                            autosensData.mealStartCounter = 0;
+                            autosensData.uam = false;
+                        if (!autosensData.type.equals("uam")) {
+//                                    process.stderr.write("u(");
                         }
-                        autosensData.mealStartCounter++;
-                        autosensData.type = "csf";
+                        autosensData.type = "uam";
                     } else {
-                        // check previous "type" value, and if it was csf, set a mealAbsorption end flag
-                        if (autosensData.type.equals("csf")) {
-//                                process.stderr.write(")");
-                        }
-
-                        double currentBasal = profile.getBasal(bgTime);
-                        // always exclude the first 45m after each carb entry
-                        //if (iob.iob > currentBasal || uam ) {
-                        if (iob.iob > 2 * currentBasal || autosensData.uam || autosensData.mealStartCounter < 9) {
-                            autosensData.mealStartCounter++;
-                            if (deviation > 0)
-                                autosensData.uam = true;
-                            else
-                                autosensData.uam = false;
-                            if (!autosensData.type.equals("uam")) {
-//                                    process.stderr.write("u(");
-                            }
-                            autosensData.type = "uam";
-                        } else {
-                            if (autosensData.type.equals("uam")) {
+                        if (autosensData.type.equals("uam")) {
 //                                    process.stderr.write(")");
-                            }
-                            autosensData.type = "non-meal";
                         }
+                        autosensData.type = "non-meal";
                     }
+                }
 
-                    // Exclude meal-related deviations (carb absorption) from autosens
-                    if (autosensData.type.equals("non-meal")) {
-                        if (Math.abs(deviation) < Constants.DEVIATION_TO_BE_EQUAL) {
-                            autosensData.pastSensitivity += "=";
-                            autosensData.validDeviation = true;
-                        } else if (deviation > 0) {
-                            autosensData.pastSensitivity += "+";
-                            autosensData.validDeviation = true;
-                        } else {
-                            autosensData.pastSensitivity += "-";
-                            autosensData.validDeviation = true;
-                        }
-                    } else if (autosensData.type.equals("uam")) {
-                        autosensData.pastSensitivity += "u";
+                // Exclude meal-related deviations (carb absorption) from autosens
+                if (autosensData.type.equals("non-meal")) {
+                    if (Math.abs(deviation) < Constants.DEVIATION_TO_BE_EQUAL) {
+                        autosensData.pastSensitivity += "=";
+                        autosensData.validDeviation = true;
+                    } else if (deviation > 0) {
+                        autosensData.pastSensitivity += "+";
+                        autosensData.validDeviation = true;
                     } else {
-                        autosensData.pastSensitivity += "x";
+                        autosensData.pastSensitivity += "-";
+                        autosensData.validDeviation = true;
                     }
-                    //log.debug("TIME: " + new Date(bgTime).toString() + " BG: " + bg + " SENS: " + sens + " DELTA: " + delta + " AVGDELTA: " + avgDelta + " IOB: " + iob.iob + " ACTIVITY: " + iob.activity + " BGI: " + bgi + " DEVIATION: " + deviation);
-
-                    // add an extra negative deviation if a high temptarget is running and exercise mode is set
-                    // TODO AS-FIX
-                    if (false && SP.getBoolean(R.string.key_high_temptarget_raises_sensitivity, SMBDefaults.high_temptarget_raises_sensitivity)) {
-                        TempTarget tempTarget = TreatmentsPlugin.getPlugin().getTempTargetFromHistory(bgTime);
-                        if (tempTarget != null && tempTarget.target() >= 100) {
-                            autosensData.extraDeviation.add(-(tempTarget.target() - 100) / 20);
-                        }
+                } else if (autosensData.type.equals("uam")) {
+                    autosensData.pastSensitivity += "u";
+                } else {
+                    autosensData.pastSensitivity += "x";
+                }
+                //log.debug("TIME: " + new Date(bgTime).toString() + " BG: " + bg + " SENS: " + sens + " DELTA: " + delta + " AVGDELTA: " + avgDelta + " IOB: " + iob.iob + " ACTIVITY: " + iob.activity + " BGI: " + bgi + " DEVIATION: " + deviation);
+
+                // add an extra negative deviation if a high temptarget is running and exercise mode is set
+                // TODO AS-FIX
+                if (false && SP.getBoolean(R.string.key_high_temptarget_raises_sensitivity, SMBDefaults.high_temptarget_raises_sensitivity)) {
+                    TempTarget tempTarget = TreatmentsPlugin.getPlugin().getTempTargetFromHistory(bgTime);
+                    if (tempTarget != null && tempTarget.target() >= 100) {
+                        autosensData.extraDeviation.add(-(tempTarget.target() - 100) / 20);
                     }
-
-                    // add one neutral deviation every 2 hours to help decay over long exclusion periods
-                    GregorianCalendar calendar = new GregorianCalendar();
-                    calendar.setTimeInMillis(bgTime);
-                    int min = calendar.get(MINUTE);
-                    int hours = calendar.get(Calendar.HOUR_OF_DAY);
-                    if (min >= 0 && min < 5 && hours % 2 == 0)
-                        autosensData.extraDeviation.add(0d);
-
-                    previous = autosensData;
-                    if (bgTime < now())
-                        autosensDataTable.put(bgTime, autosensData);
-                    if (L.isEnabled(L.AUTOSENS))
-                        log.debug("Running detectSensitivity from: " + DateUtil.dateAndTimeString(oldestTimeWithData) + " to: " + DateUtil.dateAndTimeString(bgTime) + " lastDataTime:" + iobCobCalculatorPlugin.lastDataTime());
-                    AutosensResult sensitivity = iobCobCalculatorPlugin.detectSensitivityWithLock(oldestTimeWithData, bgTime);
-                    if (L.isEnabled(L.AUTOSENS))
-                        log.debug("Sensitivity result: " + sensitivity.toString());
-                    autosensData.autosensResult = sensitivity;
-                    if (L.isEnabled(L.AUTOSENS))
-                        log.debug(autosensData.toString());
                 }
+
+                // add one neutral deviation every 2 hours to help decay over long exclusion periods
+                GregorianCalendar calendar = new GregorianCalendar();
+                calendar.setTimeInMillis(bgTime);
+                int min = calendar.get(MINUTE);
+                int hours = calendar.get(Calendar.HOUR_OF_DAY);
+                if (min >= 0 && min < 5 && hours % 2 == 0)
+                    autosensData.extraDeviation.add(0d);
+
+                previous = autosensData;
+                if (bgTime < now())
+                    autosensDataTable.put(bgTime, autosensData);
+                if (L.isEnabled(L.AUTOSENS))
+                    log.debug("Running detectSensitivity from: " + DateUtil.dateAndTimeString(oldestTimeWithData) + " to: " + DateUtil.dateAndTimeString(bgTime) + " lastDataTime:" + iobCobCalculatorPlugin.lastDataTime());
+                AutosensResult sensitivity = iobCobCalculatorPlugin.detectSensitivity(oldestTimeWithData, bgTime);
+                if (L.isEnabled(L.AUTOSENS))
+                    log.debug("Sensitivity result: " + sensitivity.toString());
+                autosensData.autosensResult = sensitivity;
+                if (L.isEnabled(L.AUTOSENS))
+                    log.debug(autosensData.toString());
             }
+            if (L.isEnabled(L.AUTOSENS))
+                log.debug("Reused autosens records: " + reused + " of " + (bucketed_data.size() - 3));
+            iobCobCalculatorPlugin.publishSnapshot();
             new Thread(() -> {
                 SystemClock.sleep(1000);
                 RxBus.INSTANCE.send(new EventAutosensCalculationFinished(cause));
@@ -1153,7 +1153,7 @@ public class ComboPlugin extends PluginBase implements PumpInterface, Constraint
      * Return value indicates whether a new record was created.
      */
     private boolean updateDbFromPumpHistory(@NonNull PumpHistory history) {
-        boolean updated = false;
+        List<DetailedBolusInfo> boluses = new ArrayList<>();
         for (Bolus pumpBolus : history.bolusHistory) {
             DetailedBolusInfo dbi = new DetailedBolusInfo();
             dbi.date = calculateFakeBolusDate(pumpBolus);
@@ -1161,11 +1161,9 @@ public class ComboPlugin extends PluginBase implements PumpInterface, Constraint
             dbi.source = Source.PUMP;
             dbi.insulin = pumpBolus.amount;
             dbi.eventType = CareportalEvent.CORRECTIONBOLUS;
-            if (TreatmentsPlugin.getPlugin().addToHistoryTreatment(dbi, true)) {
-                updated = true;
-            }
+            boluses.add(dbi);
         }
-        return updated;
+        return TreatmentsPlugin.getPlugin().addToHistoryTreatments(boluses) > 0;
     }
 
     /**
@@ -20,6 +20,7 @@ import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.command.U
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.data.GattAttributes;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.data.RFSpyResponse;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.data.RadioPacket;
+import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.data.RoundTripStatistics;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.defs.CC111XRegister;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.defs.RXFilterMode;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.defs.RileyLinkCommandType;
@@ -29,7 +30,6 @@ import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.defs.Rile
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.operations.BLECommOperationResult;
 import info.nightscout.androidaps.plugins.pump.common.utils.ByteUtil;
 import info.nightscout.androidaps.plugins.pump.common.utils.StringUtil;
-import info.nightscout.androidaps.plugins.pump.common.utils.ThreadUtil;
 import info.nightscout.androidaps.plugins.pump.medtronic.util.MedtronicConst;
 import info.nightscout.androidaps.utils.SP;
 
@@ -70,16 +70,15 @@ public class RFSpy {
     }
 
 
+    public RoundTripStatistics getRoundTripStatistics() {
+        return reader.getRoundTripStatistics();
+    }
+
+
     // Call this after the RL services are discovered.
     // Starts an async task to read when data is available
     public void startReader() {
-        rileyLinkBle.registerRadioResponseCountNotification(new Runnable() {
-
-            @Override
-            public void run() {
-                newDataIsAvailable();
-            }
-        });
+        rileyLinkBle.registerRadioResponseCountNotification(this::newDataIsAvailable);
         reader.start();
     }
 
@@ -94,9 +93,9 @@ public class RFSpy {
 
 
     // Call this from the "response count" notification handler.
-    public void newDataIsAvailable() {
+    public void newDataIsAvailable(byte[] responseCount) {
         // pass the message to the reader (which should be internal to RFSpy)
-        reader.newDataIsAvailable();
+        reader.newDataIsAvailable(responseCount);
     }
 
 
@@ -159,15 +158,8 @@ public class RFSpy {
 
 
     private byte[] writeToDataRaw(byte[] bytes, int responseTimeout_ms) {
-        SystemClock.sleep(100);
-        // FIXME drain read queue?
-        byte[] junkInBuffer = reader.poll(0);
-
-        while (junkInBuffer != null) {
-            LOG.warn(ThreadUtil.sig() + "writeToData: draining read queue, found this: "
-                    + ByteUtil.shortHexString(junkInBuffer));
-            junkInBuffer = reader.poll(0);
-        }
+        // responses still in read queue belong to previous requests and are dropped
+        long requestId = reader.startRequest();
 
         // prepend length, and send it.
         byte[] prepended = ByteUtil.concat(new byte[]{(byte) (bytes.length)}, bytes);
@@ -180,9 +172,8 @@ public class RFSpy {
             LOG.error("BLE Write operation failed, code=" + writeCheck.resultCode);
             return null; // will be a null (invalid) response
         }
-        SystemClock.sleep(100);
         // Log.i(TAG,ThreadUtil.sig()+String.format(" writeToData:(timeout %d) %s",(responseTimeout_ms),ByteUtil.shortHexString(prepended)));
-        byte[] rawResponse = reader.poll(responseTimeout_ms);
+        byte[] rawResponse = reader.poll(requestId, responseTimeout_ms);
         return rawResponse;
 
     }
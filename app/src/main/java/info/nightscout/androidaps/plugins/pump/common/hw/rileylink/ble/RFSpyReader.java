@@ -1,19 +1,16 @@
 package info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble;
 
+import java.util.ArrayDeque;
 import java.util.UUID;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import android.os.AsyncTask;
-import android.os.SystemClock;
-
 import info.nightscout.androidaps.logging.L;
-import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.RileyLinkUtil;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.data.GattAttributes;
+import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.data.RoundTripStatistics;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.defs.RileyLinkEncodingType;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.operations.BLECommOperationResult;
 import info.nightscout.androidaps.plugins.pump.common.utils.ByteUtil;
@@ -21,19 +18,53 @@ import info.nightscout.androidaps.plugins.pump.common.utils.ThreadUtil;
 
 /**
  * Created by geoff on 5/26/16.
+ * <p>
+ * Radio data is read as soon as RileyLink notifies that response is available. Every response is
+ * tagged with request that was active when notification came, so responses to previous requests
+ * are never returned as response to current one.
+ * <p>
+ * RileyLink answers requests in order, so when request times out on our side its response is
+ * usually still on the way and belongs to the next notification, even if it comes after the next
+ * request was started. Value of response count notification tells how many responses were
+ * produced since the previous one, when it's more than expected late responses, the last one
+ * belongs to current request. Response that never comes (request lost by RileyLink) is not
+ * expected anymore after the timeout of its request passes again.
  */
 public class RFSpyReader {
 
     private static final Logger LOG = LoggerFactory.getLogger(L.PUMPBTCOMM);
-    private static AsyncTask<Void, Void, Void> readerTask;
+    private volatile Thread readerThread;
     private RileyLinkBLE rileyLinkBle;
-    private Semaphore waitForRadioData = new Semaphore(0, true);
-    private LinkedBlockingQueue<byte[]> mDataQueue = new LinkedBlockingQueue<>();
-    private int acquireCount = 0;
-    private int releaseCount = 0;
+    // one element (active request id) for each response count notification
+    private volatile LinkedBlockingQueue<Long> notifications = new LinkedBlockingQueue<>();
+    private LinkedBlockingQueue<Response> mDataQueue = new LinkedBlockingQueue<>();
+    private volatile long currentRequestId = 0;
+    // id of request the last notification was tagged with
+    private long notifiedRequestId = 0;
+    // expiration (nanoTime) of expected responses of timed out requests, oldest first
+    private final ArrayDeque<Long> timedOutRequests = new ArrayDeque<>();
+    // last value of response count characteristic, -1 if unknown
+    private int lastResponseCount = -1;
+    private volatile long requestStartNanos = 0;
+    private RoundTripStatistics roundTripStatistics = new RoundTripStatistics();
     private boolean stopAtNull = true;
 
 
+    private static class Response {
+        final long requestId;
+        final byte[] data;
+
+
+        static final long STALE = 0;
+
+
+        Response(long requestId, byte[] data) {
+            this.requestId = requestId;
+            this.data = data;
+        }
+    }
+
+
     public RFSpyReader(RileyLinkBLE rileyLinkBle) {
         this.rileyLinkBle = rileyLinkBle;
     }
@@ -45,9 +76,7 @@ public class RFSpyReader {
 
 
     public void setRileyLinkBle(RileyLinkBLE rileyLinkBle) {
-        if (readerTask != null) {
-            readerTask.cancel(true);
-        }
+        stop();
         this.rileyLinkBle = rileyLinkBle;
     }
 
@@ -57,92 +86,185 @@ public class RFSpyReader {
     }
 
 
+    public RoundTripStatistics getRoundTripStatistics() {
+        return roundTripStatistics;
+    }
+
+
+    /**
+     * Must be called before request is written to RileyLink. Responses left from previous requests
+     * are dropped.
+     *
+     * @return id of request, used to poll for its response
+     */
+    public synchronized long startRequest() {
+        Response junk;
+        while ((junk = mDataQueue.poll()) != null) {
+            LOG.warn(ThreadUtil.sig() + "startRequest: dropping response of previous request: "
+                    + ByteUtil.shortHexString(junk.data));
+        }
+
+        requestStartNanos = System.nanoTime();
+        currentRequestId++;
+        return currentRequestId;
+    }
+
+
     // This timeout must be coordinated with the length of the RFSpy radio operation or Bad Things Happen.
-    public byte[] poll(int timeout_ms) {
+    public byte[] poll(long requestId, int timeout_ms) {
         if (isLogEnabled())
-            LOG.trace(ThreadUtil.sig() + "Entering poll at t==" + SystemClock.uptimeMillis() + ", timeout is " + timeout_ms
-                + " mDataQueue size is " + mDataQueue.size());
+            LOG.trace(ThreadUtil.sig() + "Entering poll for request " + requestId + ", timeout is " + timeout_ms
+                    + " mDataQueue size is " + mDataQueue.size());
 
-        if (mDataQueue.isEmpty())
-            try {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms);
+
+        try {
+            while (true) {
                 // block until timeout or data available.
                 // returns null if timeout.
-                byte[] dataFromQueue = mDataQueue.poll(timeout_ms, TimeUnit.MILLISECONDS);
-                if (dataFromQueue != null) {
-                    if (isLogEnabled())
-                        LOG.debug("Got data [" + ByteUtil.shortHexString(dataFromQueue) + "] at t=="
-                            + SystemClock.uptimeMillis());
-                } else {
+                Response response = mDataQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+                if (response == null) {
                     if (isLogEnabled())
-                        LOG.debug("Got data [null] at t==" + SystemClock.uptimeMillis());
+                        LOG.debug("Got data [null] for request " + requestId);
+                    requestTimedOut(requestId, timeout_ms);
+                    return null;
                 }
-                return dataFromQueue;
-            } catch (InterruptedException e) {
-                LOG.error("poll: Interrupted waiting for data");
+
+                if (response.requestId != requestId) {
+                    LOG.warn("Dropping response of request " + response.requestId + " while waiting for " + requestId
+                            + ": " + ByteUtil.shortHexString(response.data));
+                    continue;
+                }
+
+                long roundTripMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestStartNanos);
+                roundTripStatistics.add(roundTripMs);
+
+                if (isLogEnabled())
+                    LOG.debug("Got data [" + ByteUtil.shortHexString(response.data) + "] for request " + requestId
+                            + " after " + roundTripMs + " ms");
+                return response.data;
             }
+        } catch (InterruptedException e) {
+            LOG.error("poll: Interrupted waiting for data");
+            requestTimedOut(requestId, timeout_ms);
+        }
         return null;
     }
 
 
+    private synchronized void requestTimedOut(long requestId, int timeout_ms) {
+        // notification came in the meantime, its response is tagged and will be dropped by id
+        if (notifiedRequestId == requestId)
+            return;
+        timedOutRequests.addLast(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms));
+    }
+
+
     // Call this from the "response count" notification handler.
     public void newDataIsAvailable() {
-        releaseCount++;
+        newDataIsAvailable(null);
+    }
 
-        if (isLogEnabled())
-            LOG.trace(ThreadUtil.sig() + "waitForRadioData released(count=" + releaseCount + ") at t="
-                + SystemClock.uptimeMillis());
-        waitForRadioData.release();
+
+    /**
+     * @param responseCount value of response count characteristic, null if not known
+     */
+    public synchronized void newDataIsAvailable(byte[] responseCount) {
+        int responses = 1;
+        if (responseCount != null && responseCount.length > 0) {
+            int count = responseCount[0] & 0xFF;
+            // notifications may be lost, count tells how many responses came since the last one
+            if (lastResponseCount != -1 && count != lastResponseCount)
+                responses = (count - lastResponseCount) & 0xFF;
+            lastResponseCount = count;
+        }
+
+        long now = System.nanoTime();
+        while (!timedOutRequests.isEmpty() && timedOutRequests.peekFirst() - now < 0) {
+            timedOutRequests.removeFirst();
+            LOG.warn("Response of timed out request didn't come, not expected anymore");
+        }
+        int late = Math.min(responses, timedOutRequests.size());
+        for (int i = 0; i < late; i++)
+            timedOutRequests.removeFirst();
+
+        long requestId;
+        if (responses == late) {
+            // only responses of timed out requests
+            requestId = Response.STALE;
+            if (isLogEnabled())
+                LOG.debug("Response available for timed out request, " + timedOutRequests.size() + " more expected");
+        } else {
+            requestId = currentRequestId;
+            notifiedRequestId = requestId;
+            if (isLogEnabled())
+                LOG.trace(ThreadUtil.sig() + "Response available for request " + requestId);
+        }
+        notifications.add(requestId);
     }
 
 
-    public void start() {
-        readerTask = new AsyncTask<Void, Void, Void>() {
-
-            @Override
-            protected Void doInBackground(Void... voids) {
-                UUID serviceUUID = UUID.fromString(GattAttributes.SERVICE_RADIO);
-                UUID radioDataUUID = UUID.fromString(GattAttributes.CHARA_RADIO_DATA);
-                BLECommOperationResult result;
-                while (true) {
-                    try {
-                        acquireCount++;
-                        waitForRadioData.acquire();
-                        if (isLogEnabled())
-                            LOG.trace(ThreadUtil.sig() + "waitForRadioData acquired (count=" + acquireCount + ") at t="
-                                + SystemClock.uptimeMillis());
-                        SystemClock.sleep(100);
-                        SystemClock.sleep(1);
-                        result = rileyLinkBle.readCharacteristic_blocking(serviceUUID, radioDataUUID);
-                        SystemClock.sleep(100);
-
-                        if (result.resultCode == BLECommOperationResult.RESULT_SUCCESS) {
-                            if (stopAtNull) {
-                                // only data up to the first null is valid
-                                for (int i = 0; i < result.value.length; i++) {
-                                    if (result.value[i] == 0) {
-                                        result.value = ByteUtil.substring(result.value, 0, i);
-                                        break;
-                                    }
-                                }
+    public synchronized void start() {
+        stop();
+
+        final LinkedBlockingQueue<Long> threadNotifications = new LinkedBlockingQueue<>();
+        notifications = threadNotifications;
+        // responses of requests sent over previous connection won't come
+        timedOutRequests.clear();
+        lastResponseCount = -1;
+
+        readerThread = new Thread(() -> {
+            UUID serviceUUID = UUID.fromString(GattAttributes.SERVICE_RADIO);
+            UUID radioDataUUID = UUID.fromString(GattAttributes.CHARA_RADIO_DATA);
+            BLECommOperationResult result;
+            while (readerThread == Thread.currentThread()) {
+                long requestId;
+                try {
+                    requestId = threadNotifications.take();
+                } catch (InterruptedException e) {
+                    if (isLogEnabled())
+                        LOG.debug("Reader stopped");
+                    return;
+                }
+
+                result = rileyLinkBle.readCharacteristic_blocking(serviceUUID, radioDataUUID);
+
+                if (result.resultCode == BLECommOperationResult.RESULT_SUCCESS) {
+                    if (stopAtNull) {
+                        // only data up to the first null is valid
+                        for (int i = 0; i < result.value.length; i++) {
+                            if (result.value[i] == 0) {
+                                result.value = ByteUtil.substring(result.value, 0, i);
+                                break;
                             }
-                            mDataQueue.add(result.value);
-                        } else if (result.resultCode == BLECommOperationResult.RESULT_INTERRUPTED) {
-                            LOG.error("Read operation was interrupted");
-                        } else if (result.resultCode == BLECommOperationResult.RESULT_TIMEOUT) {
-                            LOG.error("Read operation on Radio Data timed out");
-                        } else if (result.resultCode == BLECommOperationResult.RESULT_BUSY) {
-                            LOG.error("FAIL: RileyLinkBLE reports operation already in progress");
-                        } else if (result.resultCode == BLECommOperationResult.RESULT_NONE) {
-                            LOG.error("FAIL: got invalid result code: " + result.resultCode);
                         }
-                    } catch (InterruptedException e) {
-                        LOG.error("Interrupted while waiting for data");
                     }
+                    mDataQueue.add(new Response(requestId, result.value));
+                } else if (result.resultCode == BLECommOperationResult.RESULT_INTERRUPTED) {
+                    LOG.error("Read operation was interrupted");
+                } else if (result.resultCode == BLECommOperationResult.RESULT_TIMEOUT) {
+                    LOG.error("Read operation on Radio Data timed out");
+                } else if (result.resultCode == BLECommOperationResult.RESULT_BUSY) {
+                    LOG.error("FAIL: RileyLinkBLE reports operation already in progress");
+                } else if (result.resultCode == BLECommOperationResult.RESULT_NONE) {
+                    LOG.error("FAIL: got invalid result code: " + result.resultCode);
                 }
             }
-        }.execute();
+        }, "RFSpyReader");
+        readerThread.start();
+    }
+
+
+    public synchronized void stop() {
+        Thread thread = readerThread;
+        readerThread = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
     }
 
+
     private boolean isLogEnabled() {
         return L.isEnabled(L.PUMPBTCOMM);
     }
@@ -50,7 +50,7 @@ public class RileyLinkBLE {
     private BluetoothGatt bluetoothConnectionGatt = null;
     private BLECommOperation mCurrentOperation;
     private Semaphore gattOperationSema = new Semaphore(1, true);
-    private Runnable radioResponseCountNotified;
+    private RadioResponseCountListener radioResponseCountNotified;
     private boolean mIsConnected = false;
 
 
@@ -75,7 +75,7 @@ public class RileyLinkBLE {
                     }
                 }
                 if (radioResponseCountNotified != null) {
-                    radioResponseCountNotified.run();
+                    radioResponseCountNotified.onResponseCount(characteristic.getValue());
                 }
             }
 
@@ -323,11 +323,20 @@ public class RileyLinkBLE {
     }
 
 
-    public void registerRadioResponseCountNotification(Runnable notifier) {
+    public void registerRadioResponseCountNotification(RadioResponseCountListener notifier) {
         radioResponseCountNotified = notifier;
     }
 
 
+    public interface RadioResponseCountListener {
+
+        /**
+         * @param responseCount value of response count characteristic, number of responses modulo 256
+         */
+        void onResponseCount(byte[] responseCount);
+    }
+
+
     public boolean isConnected() {
         return mIsConnected;
     }
@@ -425,7 +434,6 @@ public class RileyLinkBLE {
 
             try {
                 gattOperationSema.acquire();
-                SystemClock.sleep(1); // attempting to yield thread, to make sequence of events easier to follow
             } catch (InterruptedException e) {
                 LOG.error("setNotification_blocking: interrupted waiting for gattOperationSema");
                 return rval;
@@ -481,7 +489,6 @@ public class RileyLinkBLE {
             rval.value = value;
             try {
                 gattOperationSema.acquire();
-                SystemClock.sleep(1); // attempting to yield thread, to make sequence of events easier to follow
             } catch (InterruptedException e) {
                 LOG.error("writeCharacteristic_blocking: interrupted waiting for gattOperationSema");
                 return rval;
@@ -527,7 +534,6 @@ public class RileyLinkBLE {
         if (bluetoothConnectionGatt != null) {
             try {
                 gattOperationSema.acquire();
-                SystemClock.sleep(1); // attempting to yield thread, to make sequence of events easier to follow
             } catch (InterruptedException e) {
                 LOG.error("readCharacteristic_blocking: Interrupted waiting for gattOperationSema");
                 return rval;
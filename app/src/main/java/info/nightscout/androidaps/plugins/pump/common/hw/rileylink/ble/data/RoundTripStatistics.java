@@ -0,0 +1,61 @@
+package info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.data;
+
+import java.util.Locale;
+
+/**
+ * Time between writing request to RileyLink and receiving its response (one radio frame).
+ */
+public class RoundTripStatistics {
+
+    private int count;
+    private long lastMs;
+    private long minMs;
+    private long maxMs;
+    private long totalMs;
+
+
+    public synchronized void add(long roundTripMs) {
+        if (count == 0 || roundTripMs < minMs)
+            minMs = roundTripMs;
+        if (roundTripMs > maxMs)
+            maxMs = roundTripMs;
+        lastMs = roundTripMs;
+        totalMs += roundTripMs;
+        count++;
+    }
+
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+
+    public synchronized long getLastMs() {
+        return lastMs;
+    }
+
+
+    public synchronized long getAverageMs() {
+        return count == 0 ? 0 : totalMs / count;
+    }
+
+
+    public synchronized long getMinMs() {
+        return minMs;
+    }
+
+
+    public synchronized long getMaxMs() {
+        return maxMs;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        if (count == 0)
+            return "-";
+
+        return String.format(Locale.ENGLISH, "%d ms (avg %d, min %d, max %d, n=%d)", lastMs, getAverageMs(), minMs,
+                maxMs, count);
+    }
+}
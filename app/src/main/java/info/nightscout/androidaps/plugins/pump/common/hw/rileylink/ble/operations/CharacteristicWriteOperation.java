@@ -8,7 +8,6 @@ import org.slf4j.LoggerFactory;
 
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.os.SystemClock;
 
 import info.nightscout.androidaps.logging.L;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.RileyLinkBLE;
@@ -40,8 +39,6 @@ public class CharacteristicWriteOperation extends BLECommOperation {
         try {
             boolean didAcquire = operationComplete.tryAcquire(getGattOperationTimeout_ms(), TimeUnit.MILLISECONDS);
             if (didAcquire) {
-                SystemClock.sleep(1); // This is to allow the IBinder thread to exit before we continue, allowing easier
-                                      // understanding of the sequence of events.
                 // success
             } else {
                 LOG.error("Timeout waiting for gatt write operation to complete");
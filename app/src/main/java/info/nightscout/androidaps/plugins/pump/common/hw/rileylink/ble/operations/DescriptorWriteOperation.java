@@ -8,7 +8,6 @@ import org.slf4j.LoggerFactory;
 
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattDescriptor;
-import android.os.SystemClock;
 
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.RileyLinkBLE;
 
@@ -44,8 +43,6 @@ public class DescriptorWriteOperation extends BLECommOperation {
         try {
             boolean didAcquire = operationComplete.tryAcquire(getGattOperationTimeout_ms(), TimeUnit.MILLISECONDS);
             if (didAcquire) {
-                SystemClock.sleep(1); // This is to allow the IBinder thread to exit before we continue, allowing easier
-                                      // understanding of the sequence of events.
                 // success
             } else {
                 LOG.error("Timeout waiting for descriptor write operation to complete");
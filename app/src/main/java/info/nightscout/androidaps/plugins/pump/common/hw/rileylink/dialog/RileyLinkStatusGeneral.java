@@ -40,6 +40,7 @@ public class RileyLinkStatusGeneral extends Fragment implements RefreshableInter
     TextView lastUsedFrequency;
     TextView lastDeviceContact;
     TextView firmwareVersion;
+    TextView frameRoundTrip;
 
     RileyLinkServiceData rileyLinkServiceData;
 
@@ -71,12 +72,14 @@ public class RileyLinkStatusGeneral extends Fragment implements RefreshableInter
         this.lastUsedFrequency = getActivity().findViewById(R.id.rls_t1_last_used_frequency);
         this.lastDeviceContact = getActivity().findViewById(R.id.rls_t1_last_device_contact);
         this.firmwareVersion = getActivity().findViewById(R.id.rls_t1_firmware_version);
+        this.frameRoundTrip = getActivity().findViewById(R.id.rls_t1_frame_round_trip);
 
         if (!first) {
 
             // 7-12
             int[] ids = {R.id.rls_t1_tv02, R.id.rls_t1_tv03, R.id.rls_t1_tv04, R.id.rls_t1_tv05, R.id.rls_t1_tv07, //
-                    R.id.rls_t1_tv08, R.id.rls_t1_tv09, R.id.rls_t1_tv10, R.id.rls_t1_tv11, R.id.rls_t1_tv12, R.id.rls_t1_tv13};
+                    R.id.rls_t1_tv08, R.id.rls_t1_tv09, R.id.rls_t1_tv10, R.id.rls_t1_tv11, R.id.rls_t1_tv12, R.id.rls_t1_tv13, //
+                    R.id.rls_t1_tv14};
 
             for (int id : ids) {
 
@@ -116,6 +119,9 @@ public class RileyLinkStatusGeneral extends Fragment implements RefreshableInter
                         "\nCC110: " + firmwareVersion.toString());
             }
 
+            this.frameRoundTrip.setText(rileyLinkServiceData.roundTripStatistics == null ? "-"
+                    : rileyLinkServiceData.roundTripStatistics.toString());
+
         }
 
         // TODO add handling for Omnipod pump status
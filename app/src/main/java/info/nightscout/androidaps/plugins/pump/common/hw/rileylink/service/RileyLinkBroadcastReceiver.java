@@ -164,6 +164,7 @@ public class RileyLinkBroadcastReceiver extends BroadcastReceiver {
 //            if (isLoggingEnabled())
             LOG.debug("RfSpy Radio version (CC110): " + rlVersion.name());
             this.serviceInstance.rileyLinkServiceData.versionCC110 = rlVersion;
+            this.serviceInstance.rileyLinkServiceData.roundTripStatistics = this.serviceInstance.rfspy.getRoundTripStatistics();
 
             ServiceTask task = new InitializePumpManagerTask(RileyLinkUtil.getTargetDevice());
             ServiceTaskExecutor.startTask(task);
@@ -1,5 +1,6 @@
 package info.nightscout.androidaps.plugins.pump.common.hw.rileylink.service;
 
+import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.data.RoundTripStatistics;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.defs.RileyLinkFirmwareVersion;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.defs.RileyLinkError;
 import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.defs.RileyLinkServiceState;
@@ -22,6 +23,8 @@ public class RileyLinkServiceData {
     public String versionBLE113;
     // radio version
     public RileyLinkFirmwareVersion versionCC110;
+    // request/response times of radio frames
+    public RoundTripStatistics roundTripStatistics;
 
     public RileyLinkTargetDevice targetDevice;
 
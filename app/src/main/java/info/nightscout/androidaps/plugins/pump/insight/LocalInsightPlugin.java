@@ -107,6 +107,7 @@ import info.nightscout.androidaps.plugins.pump.insight.app_layer.status.GetTotal
 import info.nightscout.androidaps.plugins.pump.insight.app_layer.status.ResetPumpStatusRegisterMessage;
 import info.nightscout.androidaps.plugins.pump.insight.connection_service.InsightConnectionService;
 import info.nightscout.androidaps.plugins.pump.insight.database.InsightBolusID;
+import info.nightscout.androidaps.plugins.pump.insight.database.InsightHistoryIndex;
 import info.nightscout.androidaps.plugins.pump.insight.database.InsightHistoryOffset;
 import info.nightscout.androidaps.plugins.pump.insight.database.InsightPumpID;
 import info.nightscout.androidaps.plugins.pump.insight.descriptors.ActiveBasalRate;
@@ -136,6 +137,8 @@ import info.nightscout.androidaps.utils.SP;
 public class LocalInsightPlugin extends PluginBase implements PumpInterface, ConstraintsInterface, InsightConnectionService.StateCallback {
 
     public static final String ALERT_CHANNEL_ID = "AndroidAPS-InsightAlert";
+    // history events stored per db transaction
+    private static final int HISTORY_BATCH_SIZE = 100;
 
     private static LocalInsightPlugin instance = null;
 
@@ -1196,15 +1199,28 @@ public class LocalInsightPlugin extends PluginBase implements PumpInterface, Con
         new Handler(Looper.getMainLooper()).post(() -> RxBus.INSTANCE.send(new EventRefreshOverview("LocalInsightPlugin::readHistory")));
     }
 
-    private void processHistoryEvents(String serial, List<HistoryEvent> historyEvents) {
+    private void processHistoryEvents(String serial, List<HistoryEvent> historyEvents) throws Exception {
+        // events are processed from newest, older events than default date time are not valid
+        int count = 0;
+        while (count < historyEvents.size() && !(historyEvents.get(count) instanceof DefaultDateTimeSetEvent))
+            count++;
+        if (count == 0) return;
+        List<HistoryEvent> validEvents = historyEvents.subList(0, count);
+
+        InsightHistoryIndex historyIndex = createHistoryIndex(serial, validEvents);
         List<TemporaryBasal> temporaryBasals = new ArrayList<>();
+        List<DetailedBolusInfo> detailedBolusInfos = new ArrayList<>();
         List<InsightPumpID> pumpStartedEvents = new ArrayList<>();
-        for (HistoryEvent historyEvent : historyEvents)
-            if (!processHistoryEvent(serial, temporaryBasals, pumpStartedEvents, historyEvent))
-                break;
+        for (int start = 0; start < validEvents.size(); start += HISTORY_BATCH_SIZE) {
+            List<HistoryEvent> batch = validEvents.subList(start, Math.min(start + HISTORY_BATCH_SIZE, validEvents.size()));
+            MainApp.getDbHelper().runInInsightHistoryBatch(() -> {
+                for (HistoryEvent historyEvent : batch)
+                    processHistoryEvent(serial, historyIndex, temporaryBasals, detailedBolusInfos, pumpStartedEvents, historyEvent);
+            });
+        }
         Collections.reverse(temporaryBasals);
         for (InsightPumpID pumpID : pumpStartedEvents) {
-            InsightPumpID stoppedEvent = MainApp.getDbHelper().getPumpStoppedEvent(pumpID.pumpSerial, pumpID.timestamp);
+            InsightPumpID stoppedEvent = historyIndex.getPumpStoppedEvent(pumpID.timestamp);
             if (stoppedEvent == null || stoppedEvent.eventType.equals("PumpPaused")) continue;
             long tbrStart = stoppedEvent.timestamp + 10000;
             TemporaryBasal temporaryBasal = new TemporaryBasal();
@@ -1217,13 +1233,38 @@ public class LocalInsightPlugin extends PluginBase implements PumpInterface, Con
             temporaryBasals.add(temporaryBasal);
         }
         Collections.sort(temporaryBasals, (o1, o2) -> (int) (o1.date - o2.date));
-        for (TemporaryBasal temporaryBasal : temporaryBasals)
-            TreatmentsPlugin.getPlugin().addToHistoryTempBasal(temporaryBasal);
-    }
-
-    private boolean processHistoryEvent(String serial, List<TemporaryBasal> temporaryBasals, List<InsightPumpID> pumpStartedEvents, HistoryEvent event) {
-        if (event instanceof DefaultDateTimeSetEvent) return false;
-        else if (event instanceof DateTimeChangedEvent)
+        TreatmentsPlugin.getPlugin().addToHistoryTreatments(detailedBolusInfos);
+        TreatmentsPlugin.getPlugin().addToHistoryTempBasals(temporaryBasals);
+    }
+
+    /**
+     * Loads IDs that events can be paired with by two queries, range is given by event timestamps
+     * computed the same way as in processing (time changes are applied from newest event)
+     */
+    private InsightHistoryIndex createHistoryIndex(String serial, List<HistoryEvent> historyEvents) {
+        long offset = timeOffset;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (HistoryEvent event : historyEvents) {
+            long timestamp = parseDate(event.getEventYear(), event.getEventMonth(), event.getEventDay(),
+                    event.getEventHour(), event.getEventMinute(), event.getEventSecond()) + offset;
+            first = Math.min(first, timestamp);
+            last = Math.max(last, timestamp);
+            if (event instanceof DateTimeChangedEvent)
+                offset -= getTimeChange((DateTimeChangedEvent) event);
+        }
+        List<InsightPumpID> pumpStoppedEvents = new ArrayList<>();
+        InsightPumpID lastBefore = MainApp.getDbHelper().getPumpStoppedEvent(serial, first);
+        if (lastBefore != null) pumpStoppedEvents.add(lastBefore);
+        pumpStoppedEvents.addAll(MainApp.getDbHelper().getPumpStoppedEvents(serial, first, last));
+        List<InsightBolusID> bolusIDs = MainApp.getDbHelper().getInsightBolusIDs(serial,
+                first - InsightHistoryIndex.BOLUS_ID_WINDOW, last + InsightHistoryIndex.BOLUS_ID_WINDOW);
+        return new InsightHistoryIndex(bolusIDs, pumpStoppedEvents);
+    }
+
+    private void processHistoryEvent(String serial, InsightHistoryIndex historyIndex, List<TemporaryBasal> temporaryBasals,
+                                     List<DetailedBolusInfo> detailedBolusInfos, List<InsightPumpID> pumpStartedEvents, HistoryEvent event) {
+        if (event instanceof DateTimeChangedEvent)
             processDateTimeChangedEvent((DateTimeChangedEvent) event);
         else if (event instanceof CannulaFilledEvent)
             processCannulaFilledEvent((CannulaFilledEvent) event);
@@ -1234,24 +1275,27 @@ public class LocalInsightPlugin extends PluginBase implements PumpInterface, Con
             processSniffingDoneEvent((SniffingDoneEvent) event);
         else if (event instanceof PowerUpEvent) processPowerUpEvent((PowerUpEvent) event);
         else if (event instanceof OperatingModeChangedEvent)
-            processOperatingModeChangedEvent(serial, pumpStartedEvents, (OperatingModeChangedEvent) event);
+            processOperatingModeChangedEvent(serial, historyIndex, pumpStartedEvents, (OperatingModeChangedEvent) event);
         else if (event instanceof StartOfTBREvent)
             processStartOfTBREvent(serial, temporaryBasals, (StartOfTBREvent) event);
         else if (event instanceof EndOfTBREvent)
             processEndOfTBREvent(serial, temporaryBasals, (EndOfTBREvent) event);
         else if (event instanceof BolusProgrammedEvent)
-            processBolusProgrammedEvent(serial, (BolusProgrammedEvent) event);
+            processBolusProgrammedEvent(serial, historyIndex, detailedBolusInfos, (BolusProgrammedEvent) event);
         else if (event instanceof BolusDeliveredEvent)
-            processBolusDeliveredEvent(serial, (BolusDeliveredEvent) event);
+            processBolusDeliveredEvent(serial, historyIndex, detailedBolusInfos, (BolusDeliveredEvent) event);
         else if (event instanceof OccurrenceOfAlertEvent)
             processOccurrenceOfAlertEvent((OccurrenceOfAlertEvent) event);
-        return true;
     }
 
-    private void processDateTimeChangedEvent(DateTimeChangedEvent event) {
+    private long getTimeChange(DateTimeChangedEvent event) {
         long timeAfter = parseDate(event.getEventYear(), event.getEventMonth(), event.getEventDay(), event.getEventHour(), event.getEventMinute(), event.getEventSecond());
         long timeBefore = parseDate(event.getBeforeYear(), event.getBeforeMonth(), event.getBeforeDay(), event.getBeforeHour(), event.getBeforeMinute(), event.getBeforeSecond());
-        timeOffset -= timeAfter - timeBefore;
+        return timeAfter - timeBefore;
+    }
+
+    private void processDateTimeChangedEvent(DateTimeChangedEvent event) {
+        timeOffset -= getTimeChange(event);
     }
 
     private void processCannulaFilledEvent(CannulaFilledEvent event) {
@@ -1296,7 +1340,7 @@ public class LocalInsightPlugin extends PluginBase implements PumpInterface, Con
         uploadCareportalEvent(timestamp, CareportalEvent.PUMPBATTERYCHANGE);
     }
 
-    private void processOperatingModeChangedEvent(String serial, List<InsightPumpID> pumpStartedEvents, OperatingModeChangedEvent event) {
+    private void processOperatingModeChangedEvent(String serial, InsightHistoryIndex historyIndex, List<InsightPumpID> pumpStartedEvents, OperatingModeChangedEvent event) {
         long timestamp = parseDate(event.getEventYear(), event.getEventMonth(), event.getEventDay(),
                 event.getEventHour(), event.getEventMinute(), event.getEventSecond()) + timeOffset;
         InsightPumpID pumpID = new InsightPumpID();
@@ -1322,6 +1366,7 @@ public class LocalInsightPlugin extends PluginBase implements PumpInterface, Con
                 break;
         }
         MainApp.getDbHelper().createOrUpdate(pumpID);
+        historyIndex.add(pumpID);
     }
 
     private void processStartOfTBREvent(String serial, List<TemporaryBasal> temporaryBasals, StartOfTBREvent event) {
@@ -1360,10 +1405,10 @@ public class LocalInsightPlugin extends PluginBase implements PumpInterface, Con
         temporaryBasals.add(temporaryBasal);
     }
 
-    private void processBolusProgrammedEvent(String serial, BolusProgrammedEvent event) {
+    private void processBolusProgrammedEvent(String serial, InsightHistoryIndex historyIndex, List<DetailedBolusInfo> detailedBolusInfos, BolusProgrammedEvent event) {
         long timestamp = parseDate(event.getEventYear(), event.getEventMonth(), event.getEventDay(),
                 event.getEventHour(), event.getEventMinute(), event.getEventSecond()) + timeOffset;
-        InsightBolusID bolusID = MainApp.getDbHelper().getInsightBolusID(serial, event.getBolusID(), timestamp);
+        InsightBolusID bolusID = historyIndex.getInsightBolusID(event.getBolusID(), timestamp);
         if (bolusID != null && bolusID.endID != null) {
             bolusID.startID = event.getEventPosition();
             MainApp.getDbHelper().createOrUpdate(bolusID);
@@ -1377,13 +1422,14 @@ public class LocalInsightPlugin extends PluginBase implements PumpInterface, Con
         }
         bolusID.startID = event.getEventPosition();
         MainApp.getDbHelper().createOrUpdate(bolusID);
+        historyIndex.add(bolusID);
         if (event.getBolusType() == BolusType.STANDARD || event.getBolusType() == BolusType.MULTIWAVE) {
             DetailedBolusInfo detailedBolusInfo = new DetailedBolusInfo();
             detailedBolusInfo.date = bolusID.timestamp;
             detailedBolusInfo.source = Source.PUMP;
             detailedBolusInfo.pumpId = bolusID.id;
             detailedBolusInfo.insulin = event.getImmediateAmount();
-            TreatmentsPlugin.getPlugin().addToHistoryTreatment(detailedBolusInfo, true);
+            detailedBolusInfos.add(detailedBolusInfo);
         }
         if ((event.getBolusType() == BolusType.EXTENDED || event.getBolusType() == BolusType.MULTIWAVE)) {
             ExtendedBolus extendedBolus = new ExtendedBolus();
@@ -1397,12 +1443,12 @@ public class LocalInsightPlugin extends PluginBase implements PumpInterface, Con
         }
     }
 
-    private void processBolusDeliveredEvent(String serial, BolusDeliveredEvent event) {
+    private void processBolusDeliveredEvent(String serial, InsightHistoryIndex historyIndex, List<DetailedBolusInfo> detailedBolusInfos, BolusDeliveredEvent event) {
         long timestamp = parseDate(event.getEventYear(), event.getEventMonth(), event.getEventDay(),
                 event.getEventHour(), event.getEventMinute(), event.getEventSecond()) + timeOffset;
         long startTimestamp = parseRelativeDate(event.getEventYear(), event.getEventMonth(), event.getEventDay(), event.getEventHour(),
                 event.getEventMinute(), event.getEventSecond(), event.getStartHour(), event.getStartMinute(), event.getStartSecond()) + timeOffset;
-        InsightBolusID bolusID = MainApp.getDbHelper().getInsightBolusID(serial, event.getBolusID(), timestamp);
+        InsightBolusID bolusID = historyIndex.getInsightBolusID(event.getBolusID(), timestamp);
         if (bolusID == null || bolusID.endID != null) {
             bolusID = new InsightBolusID();
             bolusID.timestamp = startTimestamp;
@@ -1411,13 +1457,14 @@ public class LocalInsightPlugin extends PluginBase implements PumpInterface, Con
         }
         bolusID.endID = event.getEventPosition();
         MainApp.getDbHelper().createOrUpdate(bolusID);
+        historyIndex.add(bolusID);
         if (event.getBolusType() == BolusType.STANDARD || event.getBolusType() == BolusType.MULTIWAVE) {
             DetailedBolusInfo detailedBolusInfo = new DetailedBolusInfo();
             detailedBolusInfo.date = bolusID.timestamp;
             detailedBolusInfo.source = Source.PUMP;
             detailedBolusInfo.pumpId = bolusID.id;
             detailedBolusInfo.insulin = event.getImmediateAmount();
-            TreatmentsPlugin.getPlugin().addToHistoryTreatment(detailedBolusInfo, true);
+            detailedBolusInfos.add(detailedBolusInfo);
         }
         if (event.getBolusType() == BolusType.EXTENDED || event.getBolusType() == BolusType.MULTIWAVE) {
             if (event.getDuration() == 0) {
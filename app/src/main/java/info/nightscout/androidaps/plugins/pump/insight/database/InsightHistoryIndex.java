@@ -0,0 +1,72 @@
+package info.nightscout.androidaps.plugins.pump.insight.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory copy of InsightBolusIDs and pump stopped/paused InsightPumpIDs that are needed while
+ * processing one history download, so that each event doesn't need its own db query. IDs created
+ * during processing must be added to keep the index in sync with db.
+ */
+public class InsightHistoryIndex {
+
+    // same window as DatabaseHelper.getInsightBolusID
+    public static final long BOLUS_ID_WINDOW = 259200000;
+
+    private final Map<Integer, List<InsightBolusID>> bolusIDs = new HashMap<>();
+    private final TreeMap<Long, InsightPumpID> pumpStoppedEvents = new TreeMap<>();
+
+
+    public InsightHistoryIndex(List<InsightBolusID> bolusIDs, List<InsightPumpID> pumpStoppedEvents) {
+        for (InsightBolusID bolusID : bolusIDs) add(bolusID);
+        for (InsightPumpID pumpID : pumpStoppedEvents) add(pumpID);
+    }
+
+
+    public void add(InsightBolusID bolusID) {
+        if (bolusID.bolusID == null || bolusID.timestamp == null) return;
+        List<InsightBolusID> list = bolusIDs.get(bolusID.bolusID);
+        if (list == null) {
+            list = new ArrayList<>();
+            bolusIDs.put(bolusID.bolusID, list);
+        }
+        if (!list.contains(bolusID)) list.add(bolusID);
+    }
+
+
+    /**
+     * Only PumpStopped and PumpPaused events are kept
+     */
+    public void add(InsightPumpID pumpID) {
+        if ("PumpStopped".equals(pumpID.eventType) || "PumpPaused".equals(pumpID.eventType))
+            pumpStoppedEvents.put(pumpID.timestamp, pumpID);
+    }
+
+
+    /**
+     * @return first bolus ID with bolusID within BOLUS_ID_WINDOW around timestamp, as
+     * DatabaseHelper.getInsightBolusID
+     */
+    public InsightBolusID getInsightBolusID(int bolusID, long timestamp) {
+        List<InsightBolusID> list = bolusIDs.get(bolusID);
+        if (list == null) return null;
+        for (InsightBolusID insightBolusID : list) {
+            if (insightBolusID.timestamp >= timestamp - BOLUS_ID_WINDOW && insightBolusID.timestamp <= timestamp + BOLUS_ID_WINDOW)
+                return insightBolusID;
+        }
+        return null;
+    }
+
+
+    /**
+     * @return last stopped or paused event before given time, as DatabaseHelper.getPumpStoppedEvent
+     */
+    public InsightPumpID getPumpStoppedEvent(long before) {
+        Map.Entry<Long, InsightPumpID> entry = pumpStoppedEvents.lowerEntry(before);
+        return entry == null ? null : entry.getValue();
+    }
+
+}
@@ -59,19 +59,23 @@ public abstract class SatlMessage {
 
     private ByteBuf serializeCTR(ByteBuf nonce, byte[] key, byte commandId) {
         ByteBuf data = getData();
-        ByteBuf encryptedData = ByteBuf.from(Cryptograph.encryptDataCTR(data.getBytes(), key, nonce.getBytes()));
-        int length = 29 + encryptedData.getSize();
+        int dataLength = data.getSize();
+        int length = 29 + dataLength;
         ByteBuf byteBuf = new ByteBuf(length + 8);
         byteBuf.putUInt32LE(PREAMBLE);
         byteBuf.putUInt16LE(length);
         byteBuf.putUInt16LE(~length);
         byteBuf.putByte(VERSION);
         byteBuf.putByte(commandId);
-        byteBuf.putUInt16LE(encryptedData.getSize());
+        byteBuf.putUInt16LE(dataLength);
         byteBuf.putUInt32LE(commID);
         byteBuf.putByteBuf(nonce);
-        byteBuf.putByteBuf(encryptedData);
-        byteBuf.putBytes(Cryptograph.produceCCMTag(byteBuf.getBytes(16, 13), data.getBytes(), byteBuf.getBytes(8, 21), key));
+        byteBuf.putByteBuf(data);
+        // tag is computed over plain data, then data is encrypted in place
+        byte[] nonceBytes = byteBuf.getBytes(16, 13);
+        byte[] tag = Cryptograph.produceCCMTag(nonceBytes, byteBuf.array(), 29, dataLength, byteBuf.getBytes(8, 21), key);
+        Cryptograph.encryptDataCTR(byteBuf.array(), 29, dataLength, key, nonceBytes);
+        byteBuf.putBytes(tag);
         return byteBuf;
     }
 
@@ -98,7 +102,7 @@ public abstract class SatlMessage {
         byte[] payload = data.readBytes(dataLength);
         byte[] trailer = data.readBytes(8);
         Nonce parsedNonce = Nonce.fromProductionalBytes(nonce);
-        payload = Cryptograph.encryptDataCTR(payload, key, nonce);
+        Cryptograph.encryptDataCTR(payload, 0, payload.length, key, nonce);
         if (!Arrays.equals(trailer, Cryptograph.produceCCMTag(nonce, payload, header, key))) throw new InvalidMacTrailerException();
         if (!lastNonce.isSmallerThan(parsedNonce)) throw new InvalidNonceException();
         if (preamble != PREAMBLE) throw new InvalidPreambleException();
@@ -20,8 +20,16 @@ public class ByteBuf {
         return bytes;
     }
 
+    /**
+     * Backing array, valid data is at 0 until getSize(). Used to process data in place.
+     */
+    public byte[] array() {
+        return bytes;
+    }
+
     public void shift(int offset) {
-        System.arraycopy(bytes, offset, bytes, 0, bytes.length - offset);
+        // only valid data is moved, not whole capacity
+        System.arraycopy(bytes, offset, bytes, 0, Math.max(0, size - offset));
         size -= offset;
     }
 
@@ -109,7 +117,7 @@ public class ByteBuf {
 
 
     public void putByteBuf(ByteBuf byteBuf) {
-        putBytes(byteBuf.getBytes(), byteBuf.getSize());
+        putBytes(byteBuf.bytes, byteBuf.getSize());
     }
 
 
@@ -0,0 +1,84 @@
+package info.nightscout.androidaps.plugins.pump.insight.utils.crypto;
+
+import org.spongycastle.crypto.engines.TwofishEngine;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.util.Arrays;
+
+/**
+ * Twofish engine keyed with one SATL key. Key schedule is computed once and scratch blocks are
+ * reused, so CTR encryption and CCM tag work on the caller's buffer without padded copies.
+ */
+class CipherContext {
+
+    private static final int BLOCK_SIZE = 16;
+
+    private final byte[] key;
+    private final TwofishEngine engine = new TwofishEngine();
+    private final byte[] primitive = new byte[BLOCK_SIZE];
+    private final byte[] keyStream = new byte[BLOCK_SIZE];
+    private final byte[] mac = new byte[BLOCK_SIZE];
+    private int macPosition;
+
+    CipherContext(byte[] key) {
+        this.key = key.clone();
+        engine.init(true, new KeyParameter(this.key));
+    }
+
+    boolean hasKey(byte[] key) {
+        return Arrays.equals(this.key, key);
+    }
+
+    synchronized void encryptCTR(byte[] nonce, byte[] data, int offset, int length) {
+        for (int position = 0, counter = 1; position < length; position += BLOCK_SIZE, counter++) {
+            produceCCMPrimitive((byte) 0x01, nonce, (short) counter);
+            engine.processBlock(primitive, 0, keyStream, 0);
+            int blockLength = Math.min(BLOCK_SIZE, length - position);
+            for (int i = 0; i < blockLength; i++) {
+                data[offset + position + i] ^= keyStream[i];
+            }
+        }
+    }
+
+    synchronized byte[] produceCCMTag(byte[] nonce, byte[] payload, int offset, int length, byte[] header) {
+        produceCCMPrimitive((byte) 0x59, nonce, (short) length);
+        engine.processBlock(primitive, 0, mac, 0);
+        macPosition = 0;
+
+        macUpdate((byte) (header.length >> 8));
+        macUpdate((byte) header.length);
+        for (byte b : header) macUpdate(b);
+        macFinishBlock();
+        for (int i = 0; i < length; i++) macUpdate(payload[offset + i]);
+        macFinishBlock();
+
+        produceCCMPrimitive((byte) 0x01, nonce, (short) 0);
+        engine.processBlock(primitive, 0, keyStream, 0);
+        byte[] tag = new byte[8];
+        for (int i = 0; i < tag.length; i++) {
+            tag[i] = (byte) (mac[i] ^ keyStream[i]);
+        }
+        return tag;
+    }
+
+    private void produceCCMPrimitive(byte headerByte, byte[] nonce, short number) {
+        Arrays.fill(primitive, (byte) 0x00);
+        primitive[0] = headerByte;
+        System.arraycopy(nonce, 0, primitive, 1, nonce.length);
+        primitive[nonce.length + 1] = (byte) (number >> 8);
+        primitive[nonce.length + 2] = (byte) number;
+    }
+
+    // CBC-MAC over zero padded blocks, chaining value is kept in mac
+    private void macUpdate(byte b) {
+        mac[macPosition++] ^= b;
+        if (macPosition == BLOCK_SIZE) macFinishBlock();
+    }
+
+    private void macFinishBlock() {
+        if (macPosition == 0) return;
+        engine.processBlock(mac, 0, keyStream, 0);
+        System.arraycopy(keyStream, 0, mac, 0, BLOCK_SIZE);
+        macPosition = 0;
+    }
+}
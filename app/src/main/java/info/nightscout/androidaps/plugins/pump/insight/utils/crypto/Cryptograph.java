@@ -7,13 +7,10 @@ import org.spongycastle.crypto.digests.MD5Digest;
 import org.spongycastle.crypto.digests.SHA1Digest;
 import org.spongycastle.crypto.encodings.OAEPEncoding;
 import org.spongycastle.crypto.engines.RSAEngine;
-import org.spongycastle.crypto.engines.TwofishEngine;
 import org.spongycastle.crypto.generators.RSAKeyPairGenerator;
 import org.spongycastle.crypto.macs.HMac;
-import org.spongycastle.crypto.modes.CBCBlockCipher;
 import org.spongycastle.crypto.params.AsymmetricKeyParameter;
 import org.spongycastle.crypto.params.KeyParameter;
-import org.spongycastle.crypto.params.ParametersWithIV;
 import org.spongycastle.crypto.params.RSAKeyGenerationParameters;
 import org.spongycastle.crypto.params.RSAKeyParameters;
 import org.spongycastle.crypto.params.RSAPrivateCrtKeyParameters;
@@ -21,13 +18,14 @@ import org.spongycastle.crypto.params.RSAPrivateCrtKeyParameters;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 
-import info.nightscout.androidaps.plugins.pump.insight.utils.ByteBuf;
-
 public class Cryptograph {
 
     private static final String keySeed = "master secret";
     private static final String verificationSeed = "finished";
 
+    // keyed contexts of current connection (incoming and outgoing key), most recently used first
+    private static final CipherContext[] cipherContexts = new CipherContext[2];
+
     private static byte[] getHmac(byte[] secret, byte[] data, Digest algorithm) {
         HMac hmac = new HMac(algorithm);
         hmac.init(new KeyParameter(secret));
@@ -136,73 +134,43 @@ public class Cryptograph {
         return combined;
     }
 
-    private static byte[] produceCCMPrimitive(byte headerByte, byte[] nonce, short number) {
-        ByteBuf byteBuf = new ByteBuf(16);
-        byteBuf.putByte(headerByte);
-        byteBuf.putBytes(nonce);
-        byteBuf.putShort(number);
-        return byteBuf.getBytes();
-    }
-
-    private static byte[] produceIV(byte[] nonce, short payloadSize) {
-        return produceCCMPrimitive((byte) 0x59, nonce, payloadSize);
-    }
-
-    private static byte[] produceCTRBlock(byte[] nonce, short counter) {
-        return produceCCMPrimitive((byte) 0x01, nonce, counter);
-    }
-
-    private static byte[] blockCipherZeroPad(byte[] input) {
-        int modulus = input.length % 16;
-        if (modulus == 0) return input;
-        byte[] append = new byte[16 - modulus];
-        for (int i = 0; i < 16 - modulus; i++) {
-            append[i] = 0x00;
+    private static CipherContext getCipherContext(byte[] key) {
+        synchronized (cipherContexts) {
+            for (int i = 0; i < cipherContexts.length; i++) {
+                CipherContext context = cipherContexts[i];
+                if (context != null && context.hasKey(key)) {
+                    if (i != 0) {
+                        cipherContexts[i] = cipherContexts[0];
+                        cipherContexts[0] = context;
+                    }
+                    return context;
+                }
+            }
+            System.arraycopy(cipherContexts, 0, cipherContexts, 1, cipherContexts.length - 1);
+            cipherContexts[0] = new CipherContext(key);
+            return cipherContexts[0];
         }
-        return combine(input, append);
     }
 
     public static byte[] encryptDataCTR(byte[] data, byte[] key, byte[] nonce) {
-        byte[] padded = blockCipherZeroPad(data);
-        int length = padded.length >> 4;
-        byte[] result = new byte[length * 16];
-        TwofishEngine engine = new TwofishEngine();
-        engine.init(true, new KeyParameter(key));
-        for (int i = 0; i < length; i++) {
-            engine.processBlock(produceCTRBlock(nonce, (short) (i + 1)), 0, result, i * 16);
-        }
-        byte[] xor = byteArrayXOR(padded, result);
-        byte[] copy = new byte[Math.min(data.length, xor.length)];
-        System.arraycopy(xor, 0, copy, 0, copy.length);
+        byte[] copy = data.clone();
+        encryptDataCTR(copy, 0, copy.length, key, nonce);
         return copy;
     }
 
-    private static byte[] processHeader(byte[] header) {
-        ByteBuf byteBuf;
-        byteBuf = new ByteBuf(2 + header.length);
-        byteBuf.putShort((short) header.length);
-        byteBuf.putBytes(header);
-        return byteBuf.getBytes();
+    /**
+     * Encrypts (or decrypts) data in place
+     */
+    public static void encryptDataCTR(byte[] data, int offset, int length, byte[] key, byte[] nonce) {
+        getCipherContext(key).encryptCTR(nonce, data, offset, length);
     }
 
     public static byte[] produceCCMTag(byte[] nonce, byte[] payload, byte[] header, byte[] key) {
-        TwofishEngine engine = new TwofishEngine();
-        engine.init(true, new KeyParameter(key));
-        byte[] initializationVector = new byte[engine.getBlockSize()];
-        engine.processBlock(produceIV(nonce, (short) payload.length), 0, initializationVector, 0);
-        CBCBlockCipher cbc = new CBCBlockCipher(new TwofishEngine());
-        cbc.init(true, new ParametersWithIV(new KeyParameter(key), initializationVector));
-        byte[] processedHeader = blockCipherZeroPad(processHeader(header));
-        byte[] processedPayload = blockCipherZeroPad(payload);
-        byte[] combine = combine(processedHeader, blockCipherZeroPad(processedPayload));
-        byte[] result = new byte[combine.length];
-        for (int i = 0; i < combine.length / 16; i++)
-            cbc.processBlock(combine, i * 16, result, i * 16);
-        byte[] result2 = new byte[8];
-        System.arraycopy(result, result.length - 16, result2, 0, 8);
-        byte[] ctr = new byte[engine.getBlockSize()];
-        engine.processBlock(produceCTRBlock(nonce, (short) 0), 0, ctr, 0);
-        return byteArrayXOR(result2, ctr);
+        return produceCCMTag(nonce, payload, 0, payload.length, header, key);
+    }
+
+    public static byte[] produceCCMTag(byte[] nonce, byte[] payload, int offset, int length, byte[] header, byte[] key) {
+        return getCipherContext(key).produceCCMTag(nonce, payload, offset, length, header);
     }
 
     public static int calculateCRC(byte[] bytes) {
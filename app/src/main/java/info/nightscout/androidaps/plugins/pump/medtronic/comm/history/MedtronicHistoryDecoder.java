@@ -4,7 +4,6 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -51,27 +50,32 @@ public abstract class MedtronicHistoryDecoder<T extends MedtronicHistoryEntry> i
 
 
     // TODO_ extend this to also use bigger pages (for now we support only 1024 pages)
-    private List<Byte> checkPage(RawHistoryPage page, boolean partial) throws RuntimeException {
-        List<Byte> byteList = new ArrayList<Byte>();
+    /**
+     * @return number of bytes from start of page data that should be decoded (page data is used
+     * directly, without copy), 0 if page can't be decoded
+     */
+    private int checkPage(RawHistoryPage page, boolean partial) throws RuntimeException {
 
         // if (!partial && page.getData().length != 1024 /* page.commandType.getRecordLength() */) {
         // LOG.error("Page size is not correct. Size should be {}, but it was {} instead.", 1024,
         // page.getData().length);
         // // throw exception perhaps
-        // return byteList;
+        // return 0;
         // }
 
         if (MedtronicUtil.getMedtronicPumpModel() == null) {
             LOG.error("Device Type is not defined.");
-            return byteList;
+            return 0;
         }
 
         if (page.getData().length != 1024) {
-            return ByteUtil.getListFromByteArray(page.getData());
+            return page.getData().length;
         } else if (page.isChecksumOK()) {
-            return ByteUtil.getListFromByteArray(page.getOnlyData());
+            // without CRC
+            return 1022;
         } else {
-            return null;
+            LOG.error("Page checksum is not correct, page is ignored.");
+            return 0;
         }
     }
 
@@ -172,12 +176,9 @@ public abstract class MedtronicHistoryDecoder<T extends MedtronicHistoryEntry> i
 
 
     private List<T> processPageAndCreateRecords(RawHistoryPage rawHistoryPage, boolean partial) {
-        List<Byte> dataClear = checkPage(rawHistoryPage, partial);
-        List<T> records = createRecords(dataClear);
-
-        for (T record : records) {
-            decodeRecord(record);
-        }
+        int length = checkPage(rawHistoryPage, partial);
+        // records are decoded while created
+        List<T> records = createRecords(rawHistoryPage.getData(), length);
 
         runPostDecodeTasks();
 
@@ -22,7 +22,12 @@ import info.nightscout.androidaps.plugins.pump.common.utils.StringUtil;
 
 public abstract class MedtronicHistoryEntry implements MedtronicHistoryEntryInterface {
 
-    protected List<Byte> rawData;
+    /**
+     * Record is a view into decoded page, page buffer is shared by all records from it
+     */
+    protected byte[] rawData;
+    protected int rawOffset;
+    protected int rawLength;
 
     public static final Logger LOG = LoggerFactory.getLogger(MedtronicHistoryEntry.class);
 
@@ -72,7 +77,15 @@ public abstract class MedtronicHistoryEntry implements MedtronicHistoryEntryInte
 
 
     public void setData(List<Byte> listRawData, boolean doNotProcess) {
-        this.rawData = listRawData;
+        byte[] data = ByteUtil.getByteArrayFromList(listRawData);
+        setData(data, 0, data.length, doNotProcess);
+    }
+
+
+    public void setData(byte[] data, int offset, int length, boolean doNotProcess) {
+        this.rawData = data;
+        this.rawOffset = offset;
+        this.rawLength = length;
 
         // System.out.println("Head: " + sizes[0] + ", dates: " + sizes[1] +
         // ", body=" + sizes[2]);
@@ -81,25 +94,16 @@ public abstract class MedtronicHistoryEntry implements MedtronicHistoryEntryInte
             return;
 
         head = new byte[getHeadLength() - 1];
-        for (int i = 1; i < (getHeadLength()); i++) {
-            head[i - 1] = listRawData.get(i);
-        }
+        System.arraycopy(data, offset + 1, head, 0, head.length);
 
         if (getDateTimeLength() > 0) {
             datetime = new byte[getDateTimeLength()];
-
-            for (int i = getHeadLength(), j = 0; j < getDateTimeLength(); i++, j++) {
-                datetime[j] = listRawData.get(i);
-            }
+            System.arraycopy(data, offset + getHeadLength(), datetime, 0, datetime.length);
         }
 
         if (getBodyLength() > 0) {
             body = new byte[getBodyLength()];
-
-            for (int i = (getHeadLength() + getDateTimeLength()), j = 0; j < getBodyLength(); i++, j++) {
-                body[j] = listRawData.get(i);
-            }
-
+            System.arraycopy(data, offset + getHeadLength() + getDateTimeLength(), body, 0, body.length);
         }
 
     }
@@ -171,7 +175,7 @@ public abstract class MedtronicHistoryEntry implements MedtronicHistoryEntryInte
         StringBuilder sb = new StringBuilder();
 
         if (this.DT == null) {
-            LOG.error("DT is null. RawData={}", ByteUtil.getHex(this.rawData));
+            LOG.error("DT is null. RawData={}", ByteUtil.getHex(getRawData()));
         }
 
         sb.append(getToStringStart());
@@ -213,7 +217,7 @@ public abstract class MedtronicHistoryEntry implements MedtronicHistoryEntryInte
         }
 
         sb.append(", rawData=");
-        sb.append(ByteUtil.shortHexString(this.rawData));
+        sb.append(ByteUtil.shortHexString(getRawData()));
         sb.append("]");
 
         // sb.append(" DT: ");
@@ -231,23 +235,31 @@ public abstract class MedtronicHistoryEntry implements MedtronicHistoryEntryInte
     public abstract String getToStringStart();
 
 
-    public List<Byte> getRawData() {
-        return rawData;
+    /**
+     * @return copy of record bytes
+     */
+    public byte[] getRawData() {
+        byte[] data = new byte[rawLength];
+        if (rawData != null)
+            System.arraycopy(rawData, rawOffset, data, 0, rawLength);
+        return data;
     }
 
 
-    public byte getRawDataByIndex(int index) {
-        return rawData.get(index);
+    public int getRawDataLength() {
+        return rawLength;
     }
 
 
-    public int getUnsignedRawDataByIndex(int index) {
-        return ByteUtil.convertUnsignedByteToInt(rawData.get(index));
+    public byte getRawDataByIndex(int index) {
+        if (index >= rawLength)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + rawLength);
+        return rawData[rawOffset + index];
     }
 
 
-    public void setRawData(List<Byte> rawData) {
-        this.rawData = rawData;
+    public int getUnsignedRawDataByIndex(int index) {
+        return ByteUtil.convertUnsignedByteToInt(getRawDataByIndex(index));
     }
 
 
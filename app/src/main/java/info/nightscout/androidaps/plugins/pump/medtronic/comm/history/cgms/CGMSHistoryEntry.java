@@ -3,8 +3,6 @@ package info.nightscout.androidaps.plugins.pump.medtronic.comm.history.cgms;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.LocalDateTime;
 
-import java.util.List;
-
 import info.nightscout.androidaps.plugins.pump.common.utils.ByteUtil;
 import info.nightscout.androidaps.plugins.pump.common.utils.DateTimeUtil;
 import info.nightscout.androidaps.plugins.pump.medtronic.comm.history.MedtronicHistoryEntry;
@@ -42,11 +40,14 @@ public class CGMSHistoryEntry extends MedtronicHistoryEntry {
     }
 
 
-    public void setData(List<Byte> listRawData, boolean doNotProcess) {
+    @Override
+    public void setData(byte[] data, int offset, int length, boolean doNotProcess) {
         if (this.entryType.schemaSet) {
-            super.setData(listRawData, doNotProcess);
+            super.setData(data, offset, length, doNotProcess);
         } else {
-            this.rawData = listRawData;
+            this.rawData = data;
+            this.rawOffset = offset;
+            this.rawLength = length;
         }
     }
 
@@ -5,7 +5,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import info.nightscout.androidaps.logging.L;
@@ -120,9 +119,9 @@ public class MedtronicCGMSHistoryDecoder extends MedtronicHistoryDecoder<CGMSHis
     }
 
 
-    public List<CGMSHistoryEntry> createRecords(List<Byte> dataClearInput) {
+    public List<CGMSHistoryEntry> createRecords(byte[] dataClearInput, int length) {
 
-        List<Byte> dataClear = reverseList(dataClearInput, Byte.class);
+        byte[] dataClear = reverseData(dataClearInput, length);
 
         prepareStatistics();
 
@@ -131,8 +130,9 @@ public class MedtronicCGMSHistoryDecoder extends MedtronicHistoryDecoder<CGMSHis
         List<CGMSHistoryEntry> outList = new ArrayList<CGMSHistoryEntry>();
 
         // create CGMS entries (without dates)
-        do {
-            int opCode = getUnsignedInt(dataClear.get(counter));
+        while (counter < dataClear.length) {
+            int opCode = getUnsignedInt(dataClear[counter]);
+            int recordStart = counter;
             counter++;
 
             CGMSHistoryEntryType entryType;
@@ -150,25 +150,26 @@ public class MedtronicCGMSHistoryDecoder extends MedtronicHistoryDecoder<CGMSHis
                     pe.setEntryType(CGMSHistoryEntryType.None);
                     pe.setOpCode(opCode);
 
-                    pe.setData(Arrays.asList((byte) opCode), false);
+                    pe.setData(dataClear, recordStart, 1, false);
 
                     outList.add(pe);
                 } else {
                     // System.out.println("OpCode: " + opCode);
 
-                    List<Byte> listRawData = new ArrayList<Byte>();
-                    listRawData.add((byte) opCode);
+                    int recordLength = entryType.getTotalLength();
 
-                    for (int j = 0; j < (entryType.getTotalLength() - 1); j++) {
-                        listRawData.add(dataClear.get(counter));
-                        counter++;
+                    if (recordStart + recordLength > dataClear.length) {
+                        LOG.error("OpCode: " + opCode + ", incomplete record at the end of page.");
+                        break;
                     }
 
+                    counter = recordStart + recordLength;
+
                     CGMSHistoryEntry pe = new CGMSHistoryEntry();
                     pe.setEntryType(entryType);
 
                     pe.setOpCode(opCode);
-                    pe.setData(listRawData, false);
+                    pe.setData(dataClear, recordStart, recordLength, false);
 
                     // System.out.println("Record: " + pe);
 
@@ -178,12 +179,12 @@ public class MedtronicCGMSHistoryDecoder extends MedtronicHistoryDecoder<CGMSHis
                 CGMSHistoryEntry pe = new CGMSHistoryEntry();
                 pe.setEntryType(CGMSHistoryEntryType.GlucoseSensorData);
 
-                pe.setData(Arrays.asList((byte) opCode), false);
+                pe.setData(dataClear, recordStart, 1, false);
 
                 outList.add(pe);
             }
 
-        } while (counter < dataClear.size());
+        }
 
         List<CGMSHistoryEntry> reversedOutList = reverseList(outList, CGMSHistoryEntry.class);
 
@@ -217,6 +218,21 @@ public class MedtronicCGMSHistoryDecoder extends MedtronicHistoryDecoder<CGMSHis
     }
 
 
+    /**
+     * Page is read from the end, as with reverseList the first byte of page is not included.
+     */
+    private byte[] reverseData(byte[] dataClearInput, int length) {
+
+        byte[] outData = new byte[Math.max(length - 1, 0)];
+
+        for (int i = length - 1, j = 0; i > 0; i--, j++) {
+            outData[j] = dataClearInput[i];
+        }
+
+        return outData;
+    }
+
+
     private <E> List<E> reverseList(List<E> dataClearInput, Class<E> clazz) {
 
         List<E> outList = new ArrayList<E>();
@@ -44,27 +44,24 @@ public class MedtronicPumpHistoryDecoder extends MedtronicHistoryDecoder<PumpHis
     }
 
 
-    public List<PumpHistoryEntry> createRecords(List<Byte> dataClear) {
+    public List<PumpHistoryEntry> createRecords(byte[] dataClear, int length) {
         prepareStatistics();
 
         int counter = 0;
         int record = 0;
-        boolean incompletePacket = false;
         deviceType = MedtronicUtil.getMedtronicPumpModel();
 
         List<PumpHistoryEntry> outList = new ArrayList<PumpHistoryEntry>();
         String skipped = null;
-        int elementStart = 0;
 
-        if (dataClear.size() == 0) {
+        if (length == 0) {
             Log.e(TAG, "Empty page.");
             return outList;
         }
 
         do {
-            int opCode = dataClear.get(counter);
+            int opCode = dataClear[counter];
             boolean special = false;
-            incompletePacket = false;
 
             if (opCode == 0) {
                 counter++;
@@ -86,51 +83,33 @@ public class MedtronicPumpHistoryDecoder extends MedtronicHistoryDecoder<PumpHis
             pe.setEntryType(entryType);
             pe.setOffset(counter);
 
+            int recordStart = counter;
+            int recordLength;
+
             counter++;
 
-            if (counter >= 1022) {
+            if (counter >= length) {
                 break;
             }
 
-            List<Byte> listRawData = new ArrayList<Byte>();
-            listRawData.add((byte) opCode);
-
             if (entryType == PumpHistoryEntryType.UnabsorbedInsulin
                 || entryType == PumpHistoryEntryType.UnabsorbedInsulin512) {
-                int elements = dataClear.get(counter);
-                listRawData.add((byte) elements);
-                counter++;
-
-                int els = getUnsignedInt(elements);
-
-                for (int k = 0; k < (els - 2); k++) {
-                    listRawData.add((byte) dataClear.get(counter));
-                    counter++;
-                }
+                int els = getUnsignedInt(dataClear[counter]);
 
+                recordLength = Math.max(els, 2);
                 special = true;
             } else {
+                recordLength = entryType.getTotalLength();
+            }
 
-                for (int j = 0; j < (entryType.getTotalLength() - 1); j++) {
-
-                    try {
-                        listRawData.add(dataClear.get(counter));
-                        counter++;
-                    } catch (Exception ex) {
-                        LOG.error("OpCode: " + ByteUtil.shortHexString((byte) opCode) + ", Invalid package: "
-                                + ByteUtil.getHex(listRawData));
-                        // throw ex;
-                        incompletePacket = true;
-                        break;
-                    }
-
-                }
-
-                if (incompletePacket)
-                    break;
-
+            if (recordStart + recordLength > length) {
+                LOG.error("OpCode: " + ByteUtil.shortHexString((byte) opCode) + ", Invalid package: "
+                        + ByteUtil.getHex(ByteUtil.substring(dataClear, recordStart, length - recordStart)));
+                break;
             }
 
+            counter = recordStart + recordLength;
+
             if (entryType == PumpHistoryEntryType.None) {
                 LOG.error("Error in code. We should have not come into this branch.");
             } else {
@@ -142,7 +121,7 @@ public class MedtronicPumpHistoryDecoder extends MedtronicHistoryDecoder<PumpHis
                 if (entryType.getHeadLength() == 0)
                     special = true;
 
-                pe.setData(listRawData, special);
+                pe.setData(dataClear, recordStart, recordLength, special);
 
                 RecordDecodeStatus decoded = decodeRecord(pe);
 
@@ -162,7 +141,7 @@ public class MedtronicPumpHistoryDecoder extends MedtronicHistoryDecoder<PumpHis
                 }
             }
 
-        } while (counter < dataClear.size());
+        } while (counter < length);
 
         return outList;
     }
@@ -117,14 +117,14 @@ public class PumpHistoryEntry extends MedtronicHistoryEntry {
         PumpHistoryEntry that = (PumpHistoryEntry) o;
 
         return entryType == that.entryType && //
-                this.atechDateTime == that.atechDateTime; // && //
+                Objects.equals(this.atechDateTime, that.atechDateTime); // && //
         // Objects.equals(this.decodedData, that.decodedData);
     }
 
 
     @Override
     public int hashCode() {
-        return Objects.hash(entryType, opCode, offset);
+        return Objects.hash(entryType, atechDateTime);
     }
 
 
@@ -0,0 +1,88 @@
+package info.nightscout.androidaps.plugins.pump.medtronic.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import info.nightscout.androidaps.db.DbObjectBase;
+
+/**
+ * Index of AAPS db entries (treatments, TBRs) that pump history entries are paired with. Entries
+ * are looked up by pumpId or by time window around pump entry (binary search over entries sorted by
+ * date), so that pairing doesn't need to go through all entries for each pump entry.
+ * <p>
+ * Created for one processing run, later changes of db entries are not reflected.
+ */
+public class DbEntryIndex<E extends DbObjectBase> {
+
+    private final List<E> entries;
+    private final long[] dates;
+    private final Map<Long, E> entriesByPumpId = new HashMap<>();
+
+
+    public DbEntryIndex(List<? extends E> entriesFromHistory) {
+        this.entries = new ArrayList<>(entriesFromHistory);
+
+        // first entry with pumpId wins, same as with search over list
+        for (E entry : this.entries) {
+            if (entry.getPumpId() != 0 && !entriesByPumpId.containsKey(entry.getPumpId())) {
+                entriesByPumpId.put(entry.getPumpId(), entry);
+            }
+        }
+
+        Collections.sort(this.entries, (o1, o2) -> Long.compare(o1.getDate(), o2.getDate()));
+
+        this.dates = new long[this.entries.size()];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = this.entries.get(i).getDate();
+        }
+    }
+
+
+    public int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * @return entries sorted by date
+     */
+    public List<E> getEntries() {
+        return entries;
+    }
+
+
+    public E findByPumpId(long pumpId) {
+        return entriesByPumpId.get(pumpId);
+    }
+
+
+    /**
+     * @return entries with date within (time - diff, time + diff), both limits excluded
+     */
+    public List<E> getWithin(long time, long diff) {
+        int from = firstIndexAfter(time - diff, false);
+        int to = firstIndexAfter(time + diff, true);
+        return entries.subList(from, Math.max(from, to));
+    }
+
+
+    private int firstIndexAfter(long date, boolean inclusive) {
+        int low = 0;
+        int high = dates.length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dates[mid] < date || (!inclusive && dates[mid] == date)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+}
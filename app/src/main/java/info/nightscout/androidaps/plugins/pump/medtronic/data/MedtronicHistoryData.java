@@ -11,14 +11,20 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.data.DetailedBolusInfo;
@@ -72,6 +78,7 @@ public class MedtronicHistoryData {
     private static final Logger LOG = LoggerFactory.getLogger(L.PUMP);
 
     private List<PumpHistoryEntry> allHistory = null;
+    private Set<PumpHistoryEntry> allHistoryIndex = null;
     private List<PumpHistoryEntry> newHistory = null;
 
     private Long lastHistoryRecordTime;
@@ -95,6 +102,7 @@ public class MedtronicHistoryData {
 
     public MedtronicHistoryData() {
         this.allHistory = new ArrayList<>();
+        this.allHistoryIndex = new HashSet<>();
         this.gson = MedtronicUtil.gsonInstance;
         this.gsonCore = MedtronicUtil.getGsonInstanceCore();
 
@@ -121,18 +129,21 @@ public class MedtronicHistoryData {
 
         for (PumpHistoryEntry validEntry : validEntries) {
 
-            if (!this.allHistory.contains(validEntry)) {
+            if (!this.allHistoryIndex.contains(validEntry)) {
                 newEntries.add(validEntry);
             }
         }
 
         this.newHistory = newEntries;
 
-        showLogs("List of history (before filtering): [" + this.newHistory.size() + "]", gson.toJson(this.newHistory));
+        showLogs("List of history (before filtering): [" + this.newHistory.size() + "]", this.newHistory);
     }
 
 
-    private static void showLogs(String header, String data) {
+    /**
+     * Items are serialized only when logging is enabled, pages of history are expensive to convert
+     */
+    private static void showLogs(String header, List<PumpHistoryEntry> items) {
 
         if (!isLogEnabled())
             return;
@@ -141,6 +152,8 @@ public class MedtronicHistoryData {
             LOG.debug(header);
         }
 
+        String data = MedtronicUtil.gsonInstance.toJson(items);
+
         if (StringUtils.isNotBlank(data)) {
             for (final String token : StringUtil.splitString(data, 3500)) {
                 LOG.debug("{}", token);
@@ -169,7 +182,7 @@ public class MedtronicHistoryData {
 
             for (PumpHistoryEntry pumpHistoryEntry : newHistory) {
 
-                if (!this.allHistory.contains(pumpHistoryEntry)) {
+                if (!this.allHistoryIndex.contains(pumpHistoryEntry)) {
 
                     PumpHistoryEntryType type = pumpHistoryEntry.getEntryType();
 
@@ -207,7 +220,7 @@ public class MedtronicHistoryData {
         if (isLogEnabled())
             LOG.debug("New History entries found: {}", this.newHistory.size());
 
-        showLogs("List of history (after filtering): [" + this.newHistory.size() + "]", gson.toJson(this.newHistory));
+        showLogs("List of history (after filtering): [" + this.newHistory.size() + "]", this.newHistory);
 
     }
 
@@ -244,10 +257,11 @@ public class MedtronicHistoryData {
 
         for (PumpHistoryEntry pumpHistoryEntry : newHistory) {
 
-            if (!this.allHistory.contains(pumpHistoryEntry)) {
+            if (!this.allHistoryIndex.contains(pumpHistoryEntry)) {
                 lastIdUsed++;
                 pumpHistoryEntry.id = lastIdUsed;
                 this.allHistory.add(pumpHistoryEntry);
+                this.allHistoryIndex.add(pumpHistoryEntry);
             }
 
         }
@@ -273,22 +287,23 @@ public class MedtronicHistoryData {
 
             long dtRemove = DateTimeUtil.toATechDate(dt);
 
-            List<PumpHistoryEntry> removeList = new ArrayList<>();
+            int removedCount = 0;
 
-            for (PumpHistoryEntry pumpHistoryEntry : allHistory) {
+            for (Iterator<PumpHistoryEntry> iterator = allHistory.iterator(); iterator.hasNext(); ) {
+                PumpHistoryEntry pumpHistoryEntry = iterator.next();
 
                 if (!pumpHistoryEntry.isAfter(dtRemove)) {
-                    removeList.add(pumpHistoryEntry);
+                    iterator.remove();
+                    allHistoryIndex.remove(pumpHistoryEntry);
+                    removedCount++;
                 }
             }
 
-            this.allHistory.removeAll(removeList);
-
             this.sort(this.allHistory);
 
             if (isLogEnabled())
                 LOG.debug("All History records [afterFilterCount={}, removedItemsCount={}, newItemsCount={}]",
-                        allHistory.size(), removeList.size(), newHistory.size());
+                        allHistory.size(), removedCount, newHistory.size());
         } else {
             LOG.error("Since we couldn't determine date, we don't clean full history. This is just workaround.");
         }
@@ -321,7 +336,7 @@ public class MedtronicHistoryData {
 
         List<PumpHistoryEntry> items = getDataForPumpSuspends();
 
-        showLogs("isPumpSuspended: ", MedtronicUtil.gsonInstance.toJson(items));
+        showLogs("isPumpSuspended: ", items);
 
         if (isCollectionNotEmpty(items)) {
 
@@ -636,8 +651,10 @@ public class MedtronicHistoryData {
                 addBolus(treatment, null);
             }
         } else {
+            DbEntryIndex<DbObjectBase> entriesIndex = new DbEntryIndex<>(entriesFromHistory);
+
             for (PumpHistoryEntry treatment : entryList) {
-                DbObjectBase treatmentDb = findDbEntry(treatment, entriesFromHistory);
+                DbObjectBase treatmentDb = findDbEntry(treatment, entriesIndex);
                 if (isLogEnabled())
                     LOG.debug("Add Bolus {} - (entryFromDb={}) ", treatment, treatmentDb);
                 if (doubleBolusDebug)
@@ -651,18 +668,14 @@ public class MedtronicHistoryData {
 
     private void filterOutNonInsulinEntries(List<? extends DbObjectBase> entriesFromHistory) {
         // when we try to pair PumpHistory with AAPS treatments, we need to ignore all non-insulin entries
-        List<DbObjectBase> removeList = new ArrayList<>();
-
-        for (DbObjectBase dbObjectBase : entriesFromHistory) {
+        for (Iterator<? extends DbObjectBase> iterator = entriesFromHistory.iterator(); iterator.hasNext(); ) {
 
-            Treatment treatment = (Treatment)dbObjectBase;
+            Treatment treatment = (Treatment) iterator.next();
 
             if (RileyLinkUtil.isSame(treatment.insulin, 0d)) {
-                removeList.add(dbObjectBase);
+                iterator.remove();
             }
         }
-
-        entriesFromHistory.removeAll(removeList);
     }
 
 
@@ -694,6 +707,8 @@ public class MedtronicHistoryData {
                     gson.toJson(entriesFromHistory));
 
 
+        DbEntryIndex<DbObjectBase> entriesIndex = new DbEntryIndex<>(entriesFromHistory);
+
         TempBasalProcessDTO processDTO = null;
         List<TempBasalProcessDTO> processList = new ArrayList<>();
 
@@ -735,7 +750,7 @@ public class MedtronicHistoryData {
 
                 if (tempBasalProcessDTO.processOperation == TempBasalProcessDTO.Operation.Edit) {
                     // edit
-                    TemporaryBasal tempBasal = findTempBasalWithPumpId(tempBasalProcessDTO.itemOne.getPumpId(), entriesFromHistory);
+                    TemporaryBasal tempBasal = findTempBasalWithPumpId(tempBasalProcessDTO.itemOne.getPumpId(), entriesIndex);
 
                     if (tempBasal != null) {
 
@@ -757,10 +772,10 @@ public class MedtronicHistoryData {
                     TempBasalPair tbr2 = (TempBasalPair) treatment.getDecodedData().get("Object");
                     tbr2.setDurationMinutes(tempBasalProcessDTO.getDuration());
 
-                    TemporaryBasal tempBasal = findTempBasalWithPumpId(tempBasalProcessDTO.itemOne.getPumpId(), entriesFromHistory);
+                    TemporaryBasal tempBasal = findTempBasalWithPumpId(tempBasalProcessDTO.itemOne.getPumpId(), entriesIndex);
 
                     if (tempBasal == null) {
-                        DbObjectBase treatmentDb = findDbEntry(treatment, entriesFromHistory);
+                        DbObjectBase treatmentDb = findDbEntry(treatment, entriesIndex);
 
                         if (isLogEnabled())
                             LOG.debug("Add " + ProcessHistoryRecord.TBR.getDescription() + " {} - (entryFromDb={}) ", treatment, treatmentDb);
@@ -781,14 +796,12 @@ public class MedtronicHistoryData {
     }
 
 
-    private TemporaryBasal findTempBasalWithPumpId(long pumpId, List<? extends DbObjectBase> entriesFromHistory) {
+    private TemporaryBasal findTempBasalWithPumpId(long pumpId, DbEntryIndex<DbObjectBase> entriesIndex) {
 
-        for (DbObjectBase dbObjectBase : entriesFromHistory) {
-            TemporaryBasal tbr = (TemporaryBasal) dbObjectBase;
+        TemporaryBasal tbr = (TemporaryBasal) entriesIndex.findByPumpId(pumpId);
 
-            if (tbr.pumpId == pumpId) {
-                return tbr;
-            }
+        if (tbr != null) {
+            return tbr;
         }
 
         TemporaryBasal tempBasal = databaseHelper.findTempBasalByPumpId(pumpId);
@@ -802,10 +815,12 @@ public class MedtronicHistoryData {
      * is no treatment at all. For now we look fro tratment that was from 0s - 1m59s within pump entry.
      *
      * @param treatment          Pump Entry
-     * @param entriesFromHistory entries from history
+     * @param entriesIndex       entries from history
      * @return DbObject from AAPS (if found)
      */
-    private DbObjectBase findDbEntry(PumpHistoryEntry treatment, List<? extends DbObjectBase> entriesFromHistory) {
+    private DbObjectBase findDbEntry(PumpHistoryEntry treatment, DbEntryIndex<DbObjectBase> entriesIndex) {
+
+        List<DbObjectBase> entriesFromHistory = entriesIndex.getEntries();
 
         long proposedTime = DateTimeUtil.toMillisFromATD(treatment.atechDateTime);
 
@@ -848,14 +863,7 @@ public class MedtronicHistoryData {
 
                 int diff = (sec * 1000);
 
-                List<DbObjectBase> outList = new ArrayList<>();
-
-                for (DbObjectBase treatment1 : entriesFromHistory) {
-
-                    if ((treatment1.getDate() > proposedTime - diff) && (treatment1.getDate() < proposedTime + diff)) {
-                        outList.add(treatment1);
-                    }
-                }
+                List<DbObjectBase> outList = entriesIndex.getWithin(proposedTime, diff);
 
                 if (outList.size() == 1) {
                     if (doubleBolusDebug)
@@ -893,31 +901,36 @@ public class MedtronicHistoryData {
         if (isCollectionEmpty(treatmentsFromHistory))
             return;
 
-        List<DbObjectBase> removeTreatmentsFromHistory = new ArrayList<>();
-        List<PumpHistoryEntry> removeTreatmentsFromPH = new ArrayList<>();
+        Map<Long, Deque<PumpHistoryEntry>> entriesByPumpId = new HashMap<>();
+
+        for (PumpHistoryEntry bolus : entryList) {
+            Deque<PumpHistoryEntry> entries = entriesByPumpId.get(bolus.getPumpId());
+            if (entries == null) {
+                entries = new ArrayDeque<>();
+                entriesByPumpId.put(bolus.getPumpId(), entries);
+            }
+            entries.add(bolus);
+        }
+
+        Set<DbObjectBase> removeTreatmentsFromHistory = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<PumpHistoryEntry> removeTreatmentsFromPH = Collections.newSetFromMap(new IdentityHashMap<>());
 
         for (DbObjectBase treatment : treatmentsFromHistory) {
 
             if (treatment.getPumpId() != 0) {
 
-                PumpHistoryEntry selectedBolus = null;
-
-                for (PumpHistoryEntry bolus : entryList) {
-                    if (bolus.getPumpId() == treatment.getPumpId()) {
-                        selectedBolus = bolus;
-                        break;
-                    }
-                }
+                Deque<PumpHistoryEntry> entries = entriesByPumpId.get(treatment.getPumpId());
+                PumpHistoryEntry selectedBolus = entries == null ? null : entries.poll();
 
                 if (selectedBolus != null) {
-                    entryList.remove(selectedBolus);
-
                     removeTreatmentsFromPH.add(selectedBolus);
                     removeTreatmentsFromHistory.add(treatment);
                 }
             }
         }
 
+        entryList.removeAll(removeTreatmentsFromPH);
+
         if (doubleBolusDebug)
             LOG.debug("DoubleBolusDebug: filterOutAlreadyAddedEntries: PumpHistory={}, Treatments={}",
                     gson.toJson(removeTreatmentsFromPH),
@@ -1224,11 +1237,11 @@ public class MedtronicHistoryData {
 
 
         if (!finishedItems) {
-            showLogs("NoDeliveryRewindPrimeRecords: Not finished Items: ", gson.toJson(tempData));
+            showLogs("NoDeliveryRewindPrimeRecords: Not finished Items: ", tempData);
             return outList;
         }
 
-        showLogs("NoDeliveryRewindPrimeRecords: Records to evaluate: ", gson.toJson(tempData));
+        showLogs("NoDeliveryRewindPrimeRecords: Records to evaluate: ", tempData);
 
         List<PumpHistoryEntry> items = getFilteredItems(tempData, //
                 PumpHistoryEntryType.Prime
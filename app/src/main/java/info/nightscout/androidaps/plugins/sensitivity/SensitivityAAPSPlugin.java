@@ -74,7 +74,7 @@ public class SensitivityAAPSPlugin extends AbstractSensitivityPlugin {
             return new AutosensResult();
         }
 
-        AutosensData current = iobCobCalculatorPlugin.getAutosensData(toTime); // this is running inside lock already
+        AutosensData current = iobCobCalculatorPlugin.getAutosensDataFromTable(toTime); // this is running on calculation thread
         if (current == null) {
             if (L.isEnabled(L.AUTOSENS))
                 log.debug("No autosens data available. toTime: " + DateUtil.dateAndTimeString(toTime) + " lastDataTime: " + iobCobCalculatorPlugin.lastDataTime());
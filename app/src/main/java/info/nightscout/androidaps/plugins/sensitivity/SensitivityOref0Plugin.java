@@ -69,7 +69,7 @@ public class SensitivityOref0Plugin extends AbstractSensitivityPlugin {
             return new AutosensResult();
         }
 
-        AutosensData current = iobCobCalculatorPlugin.getAutosensData(toTime); // this is running inside lock already
+        AutosensData current = iobCobCalculatorPlugin.getAutosensDataFromTable(toTime); // this is running on calculation thread
         if (current == null) {
             if (L.isEnabled(L.AUTOSENS))
                 log.debug("No autosens data available. toTime: " + DateUtil.dateAndTimeString(toTime) + " lastDataTime: " + iobCobCalculatorPlugin.lastDataTime());
@@ -66,6 +66,7 @@ object SourceDexcomPlugin : PluginBase(PluginDescription()
         try {
             val sensorType = intent.getStringExtra("sensorType") ?: ""
             val glucoseValues = intent.getBundleExtra("glucoseValues")
+            val bgReadings = ArrayList<BgReading>()
             for (i in 0 until glucoseValues.size()) {
                 glucoseValues.getBundle(i.toString())?.let { glucoseValue ->
                     val bgReading = BgReading()
@@ -73,14 +74,15 @@ object SourceDexcomPlugin : PluginBase(PluginDescription()
                     bgReading.direction = glucoseValue.getString("trendArrow")
                     bgReading.date = glucoseValue.getLong("timestamp") * 1000
                     bgReading.raw = 0.0
-                    if (MainApp.getDbHelper().createIfNotExists(bgReading, "Dexcom$sensorType")) {
-                        if (SP.getBoolean(R.string.key_dexcomg5_nsupload, false)) {
-                            NSUpload.uploadBg(bgReading, "AndroidAPS-Dexcom$sensorType")
-                        }
-                        if (SP.getBoolean(R.string.key_dexcomg5_xdripupload, false)) {
-                            NSUpload.sendToXdrip(bgReading)
-                        }
-                    }
+                    bgReadings.add(bgReading)
+                }
+            }
+            for (bgReading in MainApp.getDbHelper().createIfNotExists(bgReadings, "Dexcom$sensorType")) {
+                if (SP.getBoolean(R.string.key_dexcomg5_nsupload, false)) {
+                    NSUpload.uploadBg(bgReading, "AndroidAPS-Dexcom$sensorType")
+                }
+                if (SP.getBoolean(R.string.key_dexcomg5_xdripupload, false)) {
+                    NSUpload.sendToXdrip(bgReading)
                 }
             }
             val meters = intent.getBundleExtra("meters")
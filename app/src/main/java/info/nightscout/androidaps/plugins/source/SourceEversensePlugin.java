@@ -8,7 +8,9 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import info.nightscout.androidaps.Constants;
 import info.nightscout.androidaps.MainApp;
@@ -108,16 +110,19 @@ public class SourceEversensePlugin extends PluginBase implements BgSourceInterfa
                 log.debug("glucoseTimestamps", Arrays.toString(glucoseTimestamps));
             }
 
+            List<BgReading> bgReadings = new ArrayList<>(glucoseLevels.length);
             for (int i = 0; i < glucoseLevels.length; i++) {
                 BgReading bgReading = new BgReading();
                 bgReading.value = glucoseLevels[i];
                 bgReading.date = glucoseTimestamps[i];
                 bgReading.raw = 0;
-                boolean isNew = MainApp.getDbHelper().createIfNotExists(bgReading, "Eversense");
-                if (isNew && SP.getBoolean(R.string.key_dexcomg5_nsupload, false)) {
+                bgReadings.add(bgReading);
+            }
+            for (BgReading bgReading : MainApp.getDbHelper().createIfNotExists(bgReadings, "Eversense")) {
+                if (SP.getBoolean(R.string.key_dexcomg5_nsupload, false)) {
                     NSUpload.uploadBg(bgReading, "AndroidAPS-Eversense");
                 }
-                if (isNew && SP.getBoolean(R.string.key_dexcomg5_xdripupload, false)) {
+                if (SP.getBoolean(R.string.key_dexcomg5_xdripupload, false)) {
                     NSUpload.sendToXdrip(bgReading);
                 }
             }
@@ -9,6 +9,9 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
 import info.nightscout.androidaps.db.BgReading;
@@ -65,6 +68,7 @@ public class SourceMM640gPlugin extends PluginBase implements BgSourceInterface
             if ((data != null) && (data.length() > 0)) {
                 try {
                     final JSONArray json_array = new JSONArray(data);
+                    final List<BgReading> bgReadings = new ArrayList<>(json_array.length());
                     for (int i = 0; i < json_array.length(); i++) {
                         final JSONObject json_object = json_array.getJSONObject(i);
                         final String type = json_object.getString("type");
@@ -77,13 +81,14 @@ public class SourceMM640gPlugin extends PluginBase implements BgSourceInterface
                                 bgReading.date = json_object.getLong("date");
                                 bgReading.raw = json_object.getDouble("sgv");
 
-                                MainApp.getDbHelper().createIfNotExists(bgReading, "MM640g");
+                                bgReadings.add(bgReading);
                                 break;
                             default:
                                 if (L.isEnabled(L.BGSOURCE))
                                     log.debug("Unknown entries type: " + type);
                         }
                     }
+                    MainApp.getDbHelper().createIfNotExists(bgReadings, "MM640g");
                 } catch (JSONException e) {
                     log.error("Exception: ", e);
                 }
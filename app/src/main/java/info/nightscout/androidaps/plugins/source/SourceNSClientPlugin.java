@@ -8,6 +8,9 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
 import info.nightscout.androidaps.db.BgReading;
@@ -17,7 +20,6 @@ import info.nightscout.androidaps.interfaces.PluginDescription;
 import info.nightscout.androidaps.interfaces.PluginType;
 import info.nightscout.androidaps.logging.L;
 import info.nightscout.androidaps.plugins.general.nsclient.data.NSSgv;
-import info.nightscout.androidaps.utils.JsonHelper;
 import info.nightscout.androidaps.utils.SP;
 
 /**
@@ -66,7 +68,7 @@ public class SourceNSClientPlugin extends PluginBase implements BgSourceInterfac
                     log.debug("Received NS Data: " + sgvstring);
 
                 JSONObject sgvJson = new JSONObject(sgvstring);
-                storeSgv(sgvJson);
+                storeSgv(new NSSgv(sgvJson));
             }
 
             if (bundles.containsKey("sgvs")) {
@@ -74,10 +76,12 @@ public class SourceNSClientPlugin extends PluginBase implements BgSourceInterfac
                 if (L.isEnabled(L.BGSOURCE))
                     log.debug("Received NS Data: " + sgvstring);
                 JSONArray jsonArray = new JSONArray(sgvstring);
+                List<NSSgv> sgvs = new ArrayList<>(jsonArray.length());
                 for (int i = 0; i < jsonArray.length(); i++) {
                     JSONObject sgvJson = jsonArray.getJSONObject(i);
-                    storeSgv(sgvJson);
+                    sgvs.add(new NSSgv(sgvJson));
                 }
+                storeSgvs(sgvs);
             }
         } catch (Exception e) {
             log.error("Unhandled exception", e);
@@ -87,11 +91,45 @@ public class SourceNSClientPlugin extends PluginBase implements BgSourceInterfac
         SP.putBoolean(R.string.key_ObjectivesbgIsAvailableInNS, true);
     }
 
-    private void storeSgv(JSONObject sgvJson) {
-        NSSgv nsSgv = new NSSgv(sgvJson);
+    /**
+     * Store sgvs received by NSClientService, no need to pass them through Bundle
+     */
+    public void handleNewSgvs(List<NSSgv> sgvs) {
+
+        if (!isEnabled(PluginType.BGSOURCE) && !SP.getBoolean(R.string.key_ns_autobackfill, true))
+            return;
+
+        if (L.isEnabled(L.BGSOURCE))
+            log.debug("Received NS Data: " + sgvs.size() + " sgvs");
+        storeSgvs(sgvs);
+
+        // Objectives 0
+        SP.putBoolean(R.string.key_ObjectivesbgIsAvailableInNS, true);
+    }
+
+    private void storeSgv(NSSgv nsSgv) {
         BgReading bgReading = new BgReading(nsSgv);
         MainApp.getDbHelper().createIfNotExists(bgReading, "NS");
-        SourceNSClientPlugin.getPlugin().detectSource(JsonHelper.safeGetString(sgvJson, "device", "none"), JsonHelper.safeGetLong(sgvJson, "mills"));
+        detectSource(nsSgv);
+    }
+
+    private void storeSgvs(List<NSSgv> sgvs) {
+        List<BgReading> bgReadings = new ArrayList<>(sgvs.size());
+        for (NSSgv nsSgv : sgvs) {
+            try {
+                bgReadings.add(new BgReading(nsSgv));
+                detectSource(nsSgv);
+            } catch (Exception e) {
+                log.error("Unhandled exception", e);
+            }
+        }
+        MainApp.getDbHelper().createIfNotExists(bgReadings, "NS");
+    }
+
+    private void detectSource(NSSgv nsSgv) {
+        String device = nsSgv.getDevice();
+        Long mills = nsSgv.getMills();
+        detectSource(device != null ? device : "none", mills != null ? mills : 0);
     }
 
     public void detectSource(String source, long timeStamp) {
@@ -9,6 +9,9 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import info.nightscout.androidaps.Constants;
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
@@ -59,8 +62,6 @@ public class SourcePoctechPlugin extends PluginBase implements BgSourceInterface
         Bundle bundle = intent.getExtras();
         if (bundle == null) return;
 
-        BgReading bgReading = new BgReading();
-
         String data = bundle.getString("data");
         if (L.isEnabled(L.BGSOURCE))
             log.debug("Received Poctech Data", data);
@@ -69,19 +70,23 @@ public class SourcePoctechPlugin extends PluginBase implements BgSourceInterface
             JSONArray jsonArray = new JSONArray(data);
             if (L.isEnabled(L.BGSOURCE))
                 log.debug("Received Poctech Data size:" + jsonArray.length());
+            List<BgReading> bgReadings = new ArrayList<>(jsonArray.length());
             for (int i = 0; i < jsonArray.length(); i++) {
                 JSONObject json = jsonArray.getJSONObject(i);
+                BgReading bgReading = new BgReading();
                 bgReading.value = json.getDouble("current");
                 bgReading.direction = json.getString("direction");
                 bgReading.date = json.getLong("date");
                 bgReading.raw = json.getDouble("raw");
                 if (JsonHelper.safeGetString(json, "units", Constants.MGDL).equals("mmol/L"))
                     bgReading.value = bgReading.value * Constants.MMOLL_TO_MGDL;
-                boolean isNew = MainApp.getDbHelper().createIfNotExists(bgReading, "Poctech");
-                if (isNew && SP.getBoolean(R.string.key_dexcomg5_nsupload, false)) {
+                bgReadings.add(bgReading);
+            }
+            for (BgReading bgReading : MainApp.getDbHelper().createIfNotExists(bgReadings, "Poctech")) {
+                if (SP.getBoolean(R.string.key_dexcomg5_nsupload, false)) {
                     NSUpload.uploadBg(bgReading, "AndroidAPS-Poctech");
                 }
-                if (isNew && SP.getBoolean(R.string.key_dexcomg5_xdripupload, false)) {
+                if (SP.getBoolean(R.string.key_dexcomg5_xdripupload, false)) {
                     NSUpload.sendToXdrip(bgReading);
                 }
             }
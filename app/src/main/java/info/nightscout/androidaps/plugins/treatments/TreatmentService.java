@@ -9,6 +9,7 @@ import com.j256.ormlite.android.apptools.OpenHelperManager;
 import com.j256.ormlite.android.apptools.OrmLiteBaseService;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.misc.TransactionManager;
 import com.j256.ormlite.stmt.PreparedQuery;
 import com.j256.ormlite.stmt.QueryBuilder;
 import com.j256.ormlite.stmt.Where;
@@ -58,6 +59,10 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
     private static final ScheduledExecutorService treatmentEventWorker = Executors.newSingleThreadScheduledExecutor();
     private static ScheduledFuture<?> scheduledTreatmentEventPost = null;
 
+    // while batch is stored changes are only marked and posted once after the batch
+    private volatile boolean batchInProgress = false;
+    private volatile boolean batchChanged = false;
+
     public TreatmentService() {
         onCreate();
         dbInitialize();
@@ -209,6 +214,10 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
      * Schedule a foodChange Event.
      */
     public void scheduleTreatmentChange(@Nullable final Treatment treatment, boolean runImmediately) {
+        if (batchInProgress) {
+            batchChanged = true;
+            return;
+        }
         if (runImmediately) {
             if (L.isEnabled(L.DATATREATMENTS))
                 log.debug("Firing EventReloadTreatmentData");
@@ -234,6 +243,27 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
         }
     }
 
+    /**
+     * Run many createOrUpdate calls (pump history) in one transaction.
+     * Reload and history change events are posted only once after whole batch is stored.
+     */
+    public synchronized void runInBatch(Runnable batch) {
+        batchInProgress = true;
+        batchChanged = false;
+        try {
+            TransactionManager.callInTransaction(getConnectionSource(), () -> {
+                batch.run();
+                return null;
+            });
+        } catch (SQLException e) {
+            log.error("Unhandled exception", e);
+        } finally {
+            batchInProgress = false;
+        }
+        if (batchChanged)
+            scheduleTreatmentChange(null, true);
+    }
+
     public List<Treatment> getTreatmentData() {
         try {
             return this.getDao().queryForAll();
@@ -577,6 +607,23 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
     }
 
 
+    /**
+     * Returns stored records with given pump ids using one query for whole batch
+     */
+    public List<Treatment> getPumpRecordsById(List<Long> pumpIds) {
+        if (pumpIds.isEmpty()) return new ArrayList<>();
+        try {
+            QueryBuilder<Treatment, Long> queryBuilder = getDao().queryBuilder();
+            Where where = queryBuilder.where();
+            where.in("pumpId", pumpIds);
+            PreparedQuery<Treatment> preparedQuery = queryBuilder.prepare();
+            return getDao().query(preparedQuery);
+        } catch (SQLException e) {
+            log.error("Unhandled exception", e);
+        }
+        return new ArrayList<>();
+    }
+
     public Treatment getRecord(long pumpId, long date) {
 
         Treatment record = null;
@@ -4,6 +4,7 @@ import android.content.Intent;
 import android.os.Bundle;
 
 import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
 
 import com.google.firebase.analytics.FirebaseAnalytics;
 
@@ -12,7 +13,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import info.nightscout.androidaps.Constants;
 import info.nightscout.androidaps.MainApp;
@@ -26,8 +29,10 @@ import info.nightscout.androidaps.data.NonOverlappingIntervals;
 import info.nightscout.androidaps.data.OverlappingIntervals;
 import info.nightscout.androidaps.data.Profile;
 import info.nightscout.androidaps.data.ProfileIntervals;
+import info.nightscout.androidaps.db.DatabaseHelper;
 import info.nightscout.androidaps.db.ExtendedBolus;
 import info.nightscout.androidaps.db.ProfileSwitch;
+import info.nightscout.androidaps.db.Source;
 import info.nightscout.androidaps.db.TempTarget;
 import info.nightscout.androidaps.db.TemporaryBasal;
 import info.nightscout.androidaps.events.EventReloadProfileSwitchData;
@@ -57,6 +62,7 @@ import info.nightscout.androidaps.plugins.sensitivity.SensitivityAAPSPlugin;
 import info.nightscout.androidaps.plugins.sensitivity.SensitivityWeightedAveragePlugin;
 import info.nightscout.androidaps.utils.DateUtil;
 import info.nightscout.androidaps.utils.FabricPrivacy;
+import info.nightscout.androidaps.utils.HardLimits;
 import info.nightscout.androidaps.utils.SP;
 import info.nightscout.androidaps.utils.T;
 import io.reactivex.disposables.CompositeDisposable;
@@ -233,12 +239,16 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
             return total;
 
         double dia = profile.getDia();
+        // older treatments don't contribute to IOB
+        long diaAgo = diaAgo(time, dia, insulinInterface);
+        double bolusSnoozeDivisor = SP.getDouble(R.string.key_openapsama_bolussnooze_dia_divisor, 2.0);
 
         synchronized (treatments) {
-            for (Integer pos = 0; pos < treatments.size(); pos++) {
+            int pos = firstIndexNotNewerThan(treatments, time);
+            for (; pos < treatments.size(); pos++) {
                 Treatment t = treatments.get(pos);
+                if (t.date <= diaAgo) break;
                 if (!t.isValid) continue;
-                if (t.date > time) continue;
                 Iob tIOB = t.iobCalc(time, dia);
                 total.iob += tIOB.iobContrib;
                 total.activity += tIOB.activityContrib;
@@ -248,25 +258,54 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
                     // instead of dividing the DIA that only worked on the bilinear curves,
                     // multiply the time the treatment is seen active.
                     long timeSinceTreatment = time - t.date;
-                    long snoozeTime = t.date + (long) (timeSinceTreatment * SP.getDouble(R.string.key_openapsama_bolussnooze_dia_divisor, 2.0));
+                    long snoozeTime = t.date + (long) (timeSinceTreatment * bolusSnoozeDivisor);
                     Iob bIOB = t.iobCalc(snoozeTime, dia);
                     total.bolussnooze += bIOB.iobContrib;
                 }
             }
+            // last bolus may be older than DIA, list is sorted newest first
+            for (; total.lastBolusTime == 0 && pos < treatments.size(); pos++) {
+                Treatment t = treatments.get(pos);
+                if (t.isValid && t.insulin > 0)
+                    total.lastBolusTime = t.date;
+            }
         }
 
-        if (!pumpInterface.isFakingTempsByExtendedBoluses())
+        if (!pumpInterface.isFakingTempsByExtendedBoluses()) {
+            Iob accumulator = new Iob();
+            long maxDiaAgo = diaAgo(time, HardLimits.MAXDIA, insulinInterface);
             synchronized (extendedBoluses) {
-                for (int pos = 0; pos < extendedBoluses.size(); pos++) {
+                for (int pos = extendedBoluses.lastIndexStartingBefore(time); pos >= 0; pos--) {
                     ExtendedBolus e = extendedBoluses.get(pos);
-                    if (e.date > time) continue;
-                    IobTotal calc = e.iobCalc(time);
-                    total.plus(calc);
+                    // intervals don't overlap, all older ended before DIA too
+                    if (e.end() <= maxDiaAgo) break;
+                    e.addIobCalc(total, accumulator, time, e.end(), null, 1d);
                 }
             }
+        }
         return total;
     }
 
+    // start of IOB window, curve of insulin plugin may use longer DIA than profile
+    private static long diaAgo(long time, double dia, InsulinInterface insulinInterface) {
+        return time - (long) (Math.max(dia, insulinInterface.getDia()) * T.hours(1).msecs());
+    }
+
+    /**
+     * @param list treatments sorted by date, newest first
+     * @return index of the first (newest) treatment not newer than time, list.size() if none
+     */
+    static int firstIndexNotNewerThan(List<Treatment> list, long time) {
+        int lo = 0;
+        int hi = list.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (list.get(mid).date > time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
     @Override
     public void updateTotalIOBTreatments() {
         lastTreatmentCalculation = getCalculationToTimeTreatments(System.currentTimeMillis());
@@ -440,105 +479,52 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
     }
 
     public IobTotal getCalculationToTimeTempBasals(long time, boolean truncate, long truncateTime) {
-        IobTotal total = new IobTotal(time);
-
-        InsulinInterface insulinInterface = ConfigBuilderPlugin.getPlugin().getActiveInsulin();
-        if (insulinInterface == null)
-            return total;
-
-        synchronized (tempBasals) {
-            for (Integer pos = 0; pos < tempBasals.size(); pos++) {
-                TemporaryBasal t = tempBasals.get(pos);
-                if (t.date > time) continue;
-                IobTotal calc;
-                Profile profile = ProfileFunctions.getInstance().getProfile(t.date);
-                if (profile == null) continue;
-                if (truncate && t.end() > truncateTime) {
-                    TemporaryBasal dummyTemp = new TemporaryBasal();
-                    dummyTemp.copyFrom(t);
-                    dummyTemp.cutEndTo(truncateTime);
-                    calc = dummyTemp.iobCalc(time, profile);
-                } else {
-                    calc = t.iobCalc(time, profile);
-                }
-                //log.debug("BasalIOB " + new Date(time) + " >>> " + calc.basaliob);
-                total.plus(calc);
-            }
-        }
-        if (ConfigBuilderPlugin.getPlugin().getActivePump().isFakingTempsByExtendedBoluses()) {
-            IobTotal totalExt = new IobTotal(time);
-            synchronized (extendedBoluses) {
-                for (Integer pos = 0; pos < extendedBoluses.size(); pos++) {
-                    ExtendedBolus e = extendedBoluses.get(pos);
-                    if (e.date > time) continue;
-                    IobTotal calc;
-                    Profile profile = ProfileFunctions.getInstance().getProfile(e.date);
-                    if (profile == null) continue;
-                    if (truncate && e.end() > truncateTime) {
-                        ExtendedBolus dummyExt = new ExtendedBolus();
-                        dummyExt.copyFrom(e);
-                        dummyExt.cutEndTo(truncateTime);
-                        calc = dummyExt.iobCalc(time);
-                    } else {
-                        calc = e.iobCalc(time);
-                    }
-                    totalExt.plus(calc);
-                }
-            }
-            // Convert to basal iob
-            totalExt.basaliob = totalExt.iob;
-            totalExt.iob = 0d;
-            totalExt.netbasalinsulin = totalExt.extendedBolusInsulin;
-            totalExt.hightempinsulin = totalExt.extendedBolusInsulin;
-            total.plus(totalExt);
-        }
-        return total;
+        return calculateToTimeTempBasals(time, truncate, truncateTime, null, false, 0, false);
     }
 
     public IobTotal getCalculationToTimeTempBasals(long time, long truncateTime, AutosensResult lastAutosensResult, boolean exercise_mode, int half_basal_exercise_target, boolean isTempTarget) {
+        return calculateToTimeTempBasals(time, true, truncateTime, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget);
+    }
+
+    // lastAutosensResult == null means no autosens adjustment
+    private IobTotal calculateToTimeTempBasals(long time, boolean truncate, long truncateTime, @Nullable AutosensResult lastAutosensResult, boolean exercise_mode, int half_basal_exercise_target, boolean isTempTarget) {
         IobTotal total = new IobTotal(time);
 
         InsulinInterface insulinInterface = ConfigBuilderPlugin.getPlugin().getActiveInsulin();
         if (insulinInterface == null)
             return total;
 
+        // one scratch accumulator for all slices of all temps
+        Iob accumulator = new Iob();
+        // DIA of profile valid at temp start is not known before lookup, use the longest allowed
+        long maxDiaAgo = diaAgo(time, HardLimits.MAXDIA, insulinInterface);
+
         synchronized (tempBasals) {
-            for (int pos = 0; pos < tempBasals.size(); pos++) {
+            for (int pos = tempBasals.lastIndexStartingBefore(time); pos >= 0; pos--) {
                 TemporaryBasal t = tempBasals.get(pos);
-                if (t.date > time) continue;
-                IobTotal calc;
+                // intervals don't overlap so when this one ended before DIA all older did too
+                if (t.end() <= maxDiaAgo) break;
                 Profile profile = ProfileFunctions.getInstance().getProfile(t.date);
                 if (profile == null) continue;
-                if (t.end() > truncateTime) {
-                    TemporaryBasal dummyTemp = new TemporaryBasal();
-                    dummyTemp.copyFrom(t);
-                    dummyTemp.cutEndTo(truncateTime);
-                    calc = dummyTemp.iobCalc(time, profile, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget);
-                } else {
-                    calc = t.iobCalc(time, profile, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget);
-                }
-                //log.debug("BasalIOB " + new Date(time) + " >>> " + calc.basaliob);
-                total.plus(calc);
+                long end = truncate ? Math.min(t.end(), truncateTime) : t.end();
+                double sensitivityRatio = lastAutosensResult != null ? TemporaryBasal.sensitivityRatio(profile, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget) : 1d;
+                t.addIobCalc(total, accumulator, time, end, profile, sensitivityRatio);
+                //log.debug("BasalIOB " + new Date(time) + " >>> " + total.basaliob);
             }
         }
         if (ConfigBuilderPlugin.getPlugin().getActivePump().isFakingTempsByExtendedBoluses()) {
             IobTotal totalExt = new IobTotal(time);
             synchronized (extendedBoluses) {
-                for (int pos = 0; pos < extendedBoluses.size(); pos++) {
+                for (int pos = extendedBoluses.lastIndexStartingBefore(time); pos >= 0; pos--) {
                     ExtendedBolus e = extendedBoluses.get(pos);
-                    if (e.date > time) continue;
-                    IobTotal calc;
+                    if (e.end() <= maxDiaAgo && e.end() <= diaAgo(time, e.dia, insulinInterface)) break;
                     Profile profile = ProfileFunctions.getInstance().getProfile(e.date);
                     if (profile == null) continue;
-                    if (e.end() > truncateTime) {
-                        ExtendedBolus dummyExt = new ExtendedBolus();
-                        dummyExt.copyFrom(e);
-                        dummyExt.cutEndTo(truncateTime);
-                        calc = dummyExt.iobCalc(time, profile, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget);
-                    } else {
-                        calc = e.iobCalc(time, profile, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget);
-                    }
-                    totalExt.plus(calc);
+                    long end = truncate ? Math.min(e.end(), truncateTime) : e.end();
+                    if (lastAutosensResult != null)
+                        e.addIobCalc(totalExt, accumulator, time, end, profile, TemporaryBasal.sensitivityRatio(profile, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget));
+                    else
+                        e.addIobCalc(totalExt, accumulator, time, end, null, 1d);
                 }
             }
             // Convert to basal iob
@@ -622,14 +608,65 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
         return newRecordCreated;
     }
 
-    // return true if new record is created
     @Override
-    public boolean addToHistoryTreatment(DetailedBolusInfo detailedBolusInfo, boolean allowUpdate) {
-        boolean medtronicPump = MedtronicUtil.isMedtronicPump();
+    public int addToHistoryTempBasals(List<TemporaryBasal> tempBasals) {
+        // pump history is read repeatedly, find already stored records by one query
+        List<Long> pumpIds = new ArrayList<>();
+        for (TemporaryBasal tempBasal : tempBasals)
+            if (tempBasal.source == Source.PUMP && tempBasal.pumpId != 0)
+                pumpIds.add(tempBasal.pumpId);
+        Set<Long> storedPumpIds = new HashSet<>();
+        for (TemporaryBasal stored : MainApp.getDbHelper().findTempBasalsByPumpIds(pumpIds))
+            storedPumpIds.add(stored.pumpId);
 
-        if (MedtronicHistoryData.doubleBolusDebug)
-            log.debug("DoubleBolusDebug: addToHistoryTreatment::isMedtronicPump={}", medtronicPump);
+        List<TemporaryBasal> created = new ArrayList<>();
+        getService().runInBatch(() -> {
+            for (TemporaryBasal tempBasal : tempBasals) {
+                // pump record cannot be changed, skip stored ones and duplicates in batch
+                if (tempBasal.source == Source.PUMP && tempBasal.pumpId != 0 && !storedPumpIds.add(tempBasal.pumpId))
+                    continue;
+                if (addToHistoryTempBasal(tempBasal))
+                    created.add(tempBasal);
+            }
+        });
+        if (L.isEnabled(L.DATATREATMENTS))
+            log.debug("Stored batch of " + tempBasals.size() + " temp basals, new: " + created.size());
+        return created.size();
+    }
 
+    @Override
+    public int addToHistoryTreatments(List<DetailedBolusInfo> detailedBolusInfos) {
+        boolean medtronicPump = MedtronicUtil.isMedtronicPump();
+        // pump history is read repeatedly, find already stored records by one query
+        List<Long> pumpIds = new ArrayList<>();
+        for (DetailedBolusInfo detailedBolusInfo : detailedBolusInfos)
+            if (detailedBolusInfo.source == Source.PUMP && detailedBolusInfo.pumpId != 0)
+                pumpIds.add(detailedBolusInfo.pumpId);
+        LongSparseArray<Treatment> stored = new LongSparseArray<>();
+        for (Treatment treatment : getService().getPumpRecordsById(pumpIds))
+            stored.put(treatment.pumpId, treatment);
+
+        List<DetailedBolusInfo> created = new ArrayList<>();
+        getService().runInBatch(() -> {
+            for (DetailedBolusInfo detailedBolusInfo : detailedBolusInfos) {
+                if (!medtronicPump && detailedBolusInfo.source == Source.PUMP && detailedBolusInfo.pumpId != 0 && detailedBolusInfo.carbTime == 0) {
+                    Treatment treatment = toTreatment(detailedBolusInfo);
+                    treatment.date = DatabaseHelper.roundDateToSec(treatment.date);
+                    Treatment known = stored.get(detailedBolusInfo.pumpId);
+                    if (known != null && known.equalsRePumpHistory(treatment))
+                        continue; // unchanged or duplicate in batch
+                    stored.put(treatment.pumpId, treatment);
+                }
+                if (addToHistoryTreatment(detailedBolusInfo, true))
+                    created.add(detailedBolusInfo);
+            }
+        });
+        if (L.isEnabled(L.DATATREATMENTS))
+            log.debug("Stored batch of " + detailedBolusInfos.size() + " treatments, new: " + created.size());
+        return created.size();
+    }
+
+    private Treatment toTreatment(DetailedBolusInfo detailedBolusInfo) {
         Treatment treatment = new Treatment();
         treatment.date = detailedBolusInfo.date;
         treatment.source = detailedBolusInfo.source;
@@ -642,6 +679,18 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
         treatment.source = detailedBolusInfo.source;
         treatment.mealBolus = treatment.carbs > 0;
         treatment.boluscalc = detailedBolusInfo.boluscalc != null ? detailedBolusInfo.boluscalc.toString() : null;
+        return treatment;
+    }
+
+    // return true if new record is created
+    @Override
+    public boolean addToHistoryTreatment(DetailedBolusInfo detailedBolusInfo, boolean allowUpdate) {
+        boolean medtronicPump = MedtronicUtil.isMedtronicPump();
+
+        if (MedtronicHistoryData.doubleBolusDebug)
+            log.debug("DoubleBolusDebug: addToHistoryTreatment::isMedtronicPump={}", medtronicPump);
+
+        Treatment treatment = toTreatment(detailedBolusInfo);
         TreatmentService.UpdateReturn creatOrUpdateResult;
 
         if (medtronicPump && MedtronicHistoryData.doubleBolusDebug)
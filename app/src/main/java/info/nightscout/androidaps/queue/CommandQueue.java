@@ -2,7 +2,6 @@ package info.nightscout.androidaps.queue;
 
 import android.content.Context;
 import android.content.Intent;
-import android.os.SystemClock;
 import android.text.Html;
 import android.text.Spanned;
 
@@ -11,7 +10,13 @@ import androidx.appcompat.app.AppCompatActivity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
@@ -62,6 +67,7 @@ import info.nightscout.androidaps.queue.commands.CommandTempBasalPercent;
  * <p>
  * request is added to queue, if another request of the same type already exists in queue, it's removed prior adding
  * but if request of the same type is currently executed (probably important only for bolus which is running long time), new request is declined
+ * requests are ordered by Command#priority(): boluses first, then basal changes, then status and history reads
  * new QueueThread is created and started if current if finished
  * CommandReadStatus is added automatically before command if queue is empty
  * <p>
@@ -85,8 +91,11 @@ import info.nightscout.androidaps.queue.commands.CommandTempBasalPercent;
 public class CommandQueue {
     private Logger log = LoggerFactory.getLogger(L.PUMPQUEUE);
 
+    // guards queue and performing, thread lifecycle is guarded by this
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition commandAdded = lock.newCondition();
     private final LinkedList<Command> queue = new LinkedList<>();
-    Command performing;
+    volatile Command performing;
 
     private QueueThread thread = null;
 
@@ -95,65 +104,111 @@ public class CommandQueue {
     }
 
     public boolean isRunning(Command.CommandType type) {
-        if (performing != null && performing.commandType == type)
+        Command perf = performing;
+        if (perf != null && perf.commandType == type)
             return true;
         return false;
     }
 
-    private synchronized void removeAll(Command.CommandType type) {
-        synchronized (queue) {
-            for (int i = queue.size() - 1; i >= 0; i--) {
-                if (queue.get(i).commandType == type) {
-                    queue.remove(i);
-                }
-            }
+    private void removeAll(Command.CommandType type) {
+        lock.lock();
+        try {
+            Iterator<Command> iterator = queue.iterator();
+            while (iterator.hasNext())
+                if (iterator.next().commandType == type)
+                    iterator.remove();
+        } finally {
+            lock.unlock();
         }
     }
 
-    private synchronized boolean isLastScheduled(Command.CommandType type) {
-        synchronized (queue) {
-            if (queue.size() > 0 && queue.get(queue.size() - 1).commandType == type) {
-                return true;
-            }
+    private boolean isScheduled(Command.CommandType type) {
+        lock.lock();
+        try {
+            for (Command command : queue)
+                if (command.commandType == type)
+                    return true;
+        } finally {
+            lock.unlock();
         }
         return false;
     }
 
-    private synchronized void inject(Command command) {
+    private void inject(Command command) {
         // inject as a first command
         if (L.isEnabled(L.PUMPQUEUE))
             log.debug("Adding as first: " + command.getClass().getSimpleName() + " - " + command.status());
-        synchronized (queue) {
+        lock.lock();
+        try {
+            command.queuedTime = System.currentTimeMillis();
             queue.addFirst(command);
+            commandAdded.signalAll();
+        } finally {
+            lock.unlock();
         }
     }
 
-    private synchronized void add(Command command) {
+    private void add(Command command) {
         if (L.isEnabled(L.PUMPQUEUE))
             log.debug("Adding: " + command.getClass().getSimpleName() + " - " + command.status());
-        synchronized (queue) {
-            queue.add(command);
+        lock.lock();
+        try {
+            command.queuedTime = System.currentTimeMillis();
+            // behind all commands of the same or higher priority
+            int index = queue.size();
+            while (index > 0 && queue.get(index - 1).priority() > command.priority())
+                index--;
+            queue.add(index, command);
+            commandAdded.signalAll();
+        } finally {
+            lock.unlock();
         }
     }
 
-    synchronized void pickup() {
-        synchronized (queue) {
+    // superseded commands of the same type are dropped
+    private void replace(Command command) {
+        lock.lock();
+        try {
+            removeAll(command.commandType);
+            add(command);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void pickup() {
+        lock.lock();
+        try {
             performing = queue.poll();
+            if (performing != null)
+                performing.startTime = System.currentTimeMillis();
+        } finally {
+            lock.unlock();
         }
     }
 
-    synchronized void clear() {
-        performing = null;
-        synchronized (queue) {
-            for (int i = 0; i < queue.size(); i++) {
-                queue.get(i).cancel();
-            }
+    void clear() {
+        List<Command> cancelled;
+        lock.lock();
+        try {
+            performing = null;
+            cancelled = new ArrayList<>(queue);
             queue.clear();
+        } finally {
+            lock.unlock();
         }
+        // callbacks may queue new commands
+        for (Command command : cancelled)
+            command.cancel();
     }
 
     public int size() {
-        return queue.size();
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
     }
 
     Command performing() {
@@ -164,13 +219,30 @@ public class CommandQueue {
         performing = null;
     }
 
+    // Returns when command is added or timeout elapsed
+    void awaitCommand(long timeoutMillis) {
+        lock.lock();
+        try {
+            if (queue.isEmpty())
+                commandAdded.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     // After new command added to the queue
     // start thread again if not already running
     protected synchronized void notifyAboutNewCommand() {
-        while (thread != null && thread.getState() != Thread.State.TERMINATED && thread.waitingForDisconnect) {
+        if (thread != null && thread.getState() != Thread.State.TERMINATED && thread.waitingForDisconnect) {
             if (L.isEnabled(L.PUMPQUEUE))
                 log.debug("Waiting for previous thread finish");
-            SystemClock.sleep(500);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
         if (thread == null || thread.getState() == Thread.State.TERMINATED) {
             thread = new QueueThread(this);
@@ -190,16 +262,9 @@ public class CommandQueue {
         tempCommandQueue.readStatus(reason, callback);
     }
 
-    public synchronized boolean bolusInQueue() {
+    public boolean bolusInQueue() {
         if (isRunning(Command.CommandType.BOLUS)) return true;
-        synchronized (queue) {
-            for (int i = 0; i < queue.size(); i++) {
-                if (queue.get(i).commandType == Command.CommandType.BOLUS) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return isScheduled(Command.CommandType.BOLUS);
     }
 
     // returns true if command is queued
@@ -290,13 +355,10 @@ public class CommandQueue {
             return false;
         }
 
-        // remove all unfinished 
-        removeAll(Command.CommandType.TEMPBASAL);
-
         Double rateAfterConstraints = MainApp.getConstraintChecker().applyBasalConstraints(new Constraint<>(absoluteRate), profile).value();
 
-        // add new command to queue
-        add(new CommandTempBasalAbsolute(rateAfterConstraints, durationInMinutes, enforceNew, profile, callback));
+        // replace all unfinished
+        replace(new CommandTempBasalAbsolute(rateAfterConstraints, durationInMinutes, enforceNew, profile, callback));
 
         notifyAboutNewCommand();
 
@@ -311,13 +373,10 @@ public class CommandQueue {
             return false;
         }
 
-        // remove all unfinished 
-        removeAll(Command.CommandType.TEMPBASAL);
-
         Integer percentAfterConstraints = MainApp.getConstraintChecker().applyBasalPercentConstraints(new Constraint<>(percent), profile).value();
 
-        // add new command to queue
-        add(new CommandTempBasalPercent(percentAfterConstraints, durationInMinutes, enforceNew, profile, callback));
+        // replace all unfinished
+        replace(new CommandTempBasalPercent(percentAfterConstraints, durationInMinutes, enforceNew, profile, callback));
 
         notifyAboutNewCommand();
 
@@ -334,11 +393,8 @@ public class CommandQueue {
 
         Double rateAfterConstraints = MainApp.getConstraintChecker().applyExtendedBolusConstraints(new Constraint<>(insulin)).value();
 
-        // remove all unfinished
-        removeAll(Command.CommandType.EXTENDEDBOLUS);
-
-        // add new command to queue
-        add(new CommandExtendedBolus(rateAfterConstraints, durationInMinutes, callback));
+        // replace all unfinished
+        replace(new CommandExtendedBolus(rateAfterConstraints, durationInMinutes, callback));
 
         notifyAboutNewCommand();
 
@@ -353,11 +409,8 @@ public class CommandQueue {
             return false;
         }
 
-        // remove all unfinished 
-        removeAll(Command.CommandType.TEMPBASAL);
-
-        // add new command to queue
-        add(new CommandCancelTempBasal(enforceNew, callback));
+        // replace all unfinished
+        replace(new CommandCancelTempBasal(enforceNew, callback));
 
         notifyAboutNewCommand();
 
@@ -372,11 +425,8 @@ public class CommandQueue {
             return false;
         }
 
-        // remove all unfinished 
-        removeAll(Command.CommandType.EXTENDEDBOLUS);
-
-        // add new command to queue
-        add(new CommandCancelExtendedBolus(callback));
+        // replace all unfinished
+        replace(new CommandCancelExtendedBolus(callback));
 
         notifyAboutNewCommand();
 
@@ -417,11 +467,8 @@ public class CommandQueue {
 
         RxBus.INSTANCE.send(new EventDismissNotification(Notification.BASAL_VALUE_BELOW_MINIMUM));
 
-        // remove all unfinished
-        removeAll(Command.CommandType.BASALPROFILE);
-
-        // add new command to queue
-        add(new CommandSetProfile(profile, callback));
+        // replace all unfinished
+        replace(new CommandSetProfile(profile, callback));
 
         notifyAboutNewCommand();
 
@@ -430,7 +477,8 @@ public class CommandQueue {
 
     // returns true if command is queued
     public boolean readStatus(String reason, Callback callback) {
-        if (isLastScheduled(Command.CommandType.READSTATUS)) {
+        // status is read after all other queued commands anyway
+        if (isScheduled(Command.CommandType.READSTATUS)) {
             if (L.isEnabled(L.PUMPQUEUE))
                 log.debug("READSTATUS " + reason + " ignored as duplicated");
             if (callback != null)
@@ -450,17 +498,10 @@ public class CommandQueue {
     }
 
 
-    public synchronized boolean statusInQueue() {
+    public boolean statusInQueue() {
         if (isRunning(Command.CommandType.READSTATUS))
             return true;
-        synchronized (queue) {
-            for (int i = 0; i < queue.size(); i++) {
-                if (queue.get(i).commandType == Command.CommandType.READSTATUS) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return isScheduled(Command.CommandType.READSTATUS);
     }
 
 
@@ -472,11 +513,8 @@ public class CommandQueue {
             return false;
         }
 
-        // remove all unfinished 
-        removeAll(Command.CommandType.LOADHISTORY);
-
-        // add new command to queue
-        add(new CommandLoadHistory(type, callback));
+        // replace all unfinished
+        replace(new CommandLoadHistory(type, callback));
 
         notifyAboutNewCommand();
 
@@ -491,11 +529,8 @@ public class CommandQueue {
             return false;
         }
 
-        // remove all unfinished
-        removeAll(Command.CommandType.SETUSERSETTINGS);
-
-        // add new command to queue
-        add(new CommandSetUserSettings(callback));
+        // replace all unfinished
+        replace(new CommandSetUserSettings(callback));
 
         notifyAboutNewCommand();
 
@@ -510,11 +545,8 @@ public class CommandQueue {
             return false;
         }
 
-        // remove all unfinished
-        removeAll(Command.CommandType.LOADHISTORY);
-
-        // add new command to queue
-        add(new CommandLoadTDDs(callback));
+        // replace all unfinished
+        replace(new CommandLoadTDDs(callback));
 
         notifyAboutNewCommand();
 
@@ -529,11 +561,8 @@ public class CommandQueue {
             return false;
         }
 
-        // remove all unfinished
-        removeAll(Command.CommandType.LOADEVENTS);
-
-        // add new command to queue
-        add(new CommandLoadEvents(callback));
+        // replace all unfinished
+        replace(new CommandLoadEvents(callback));
 
         notifyAboutNewCommand();
 
@@ -548,13 +577,16 @@ public class CommandQueue {
             s += "<b>" + perf.status() + "</b>";
             line++;
         }
-        synchronized (queue) {
-            for (int i = 0; i < queue.size(); i++) {
+        lock.lock();
+        try {
+            for (Command command : queue) {
                 if (line != 0)
                     s += "<br>";
-                s += queue.get(i).status();
+                s += command.status();
                 line++;
             }
+        } finally {
+            lock.unlock();
         }
         return Html.fromHtml(s);
     }
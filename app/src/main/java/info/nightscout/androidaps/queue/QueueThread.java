@@ -17,6 +17,7 @@ import info.nightscout.androidaps.logging.L;
 import info.nightscout.androidaps.plugins.bus.RxBus;
 import info.nightscout.androidaps.plugins.configBuilder.ConfigBuilderPlugin;
 import info.nightscout.androidaps.plugins.general.overview.events.EventDismissBolusProgressIfRunning;
+import info.nightscout.androidaps.queue.commands.Command;
 import info.nightscout.androidaps.queue.events.EventQueueChanged;
 import info.nightscout.androidaps.utils.SP;
 import info.nightscout.androidaps.utils.T;
@@ -31,7 +32,7 @@ public class QueueThread extends Thread {
     private CommandQueue queue;
 
     private boolean connectLogged = false;
-    boolean waitingForDisconnect = false;
+    volatile boolean waitingForDisconnect = false;
 
     private PowerManager.WakeLock mWakeLock;
 
@@ -142,12 +143,16 @@ public class QueueThread extends Thread {
                     // Pickup 1st command and set performing variable
                     if (queue.size() > 0) {
                         queue.pickup();
-                        if (queue.performing() != null) {
+                        Command command = queue.performing();
+                        if (command != null) {
                             if (L.isEnabled(L.PUMPQUEUE))
-                                log.debug("performing " + queue.performing().status());
+                                log.debug("performing " + command.status());
                             RxBus.INSTANCE.send(new EventQueueChanged());
-                            queue.performing().execute();
+                            command.execute();
+                            command.finishTime = System.currentTimeMillis();
                             queue.resetPerforming();
+                            if (L.isEnabled(L.PUMPQUEUE))
+                                log.debug("finished " + command.commandType + " waiting: " + (command.startTime - command.queuedTime) + "ms execution: " + (command.finishTime - command.startTime) + "ms");
                             RxBus.INSTANCE.send(new EventQueueChanged());
                             lastCommandTime = System.currentTimeMillis();
                             SystemClock.sleep(100);
@@ -159,7 +164,12 @@ public class QueueThread extends Thread {
                 if (queue.size() == 0 && queue.performing() == null) {
                     long secondsFromLastCommand = (System.currentTimeMillis() - lastCommandTime) / 1000;
                     if (secondsFromLastCommand >= 5) {
-                        waitingForDisconnect = true;
+                        // commands added from now on are picked up by new thread
+                        synchronized (queue) {
+                            if (queue.size() > 0)
+                                continue;
+                            waitingForDisconnect = true;
+                        }
                         if (L.isEnabled(L.PUMPQUEUE))
                             log.debug("queue empty. disconnect");
                         RxBus.INSTANCE.send(new EventPumpStatusChanged(EventPumpStatusChanged.Status.DISCONNECTING));
@@ -171,7 +181,7 @@ public class QueueThread extends Thread {
                     } else {
                         if (L.isEnabled(L.PUMPQUEUE))
                             log.debug("waiting for disconnect");
-                        SystemClock.sleep(1000);
+                        queue.awaitCommand(1000);
                     }
                 }
             }
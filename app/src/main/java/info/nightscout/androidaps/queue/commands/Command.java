@@ -34,8 +34,35 @@ public abstract class Command {
     public CommandType commandType;
     protected Callback callback;
 
+    // for queue latency
+    public long queuedTime;
+    public long startTime;
+    public long finishTime;
+
     public abstract void execute();
 
+    /**
+     * Lower value is executed first, commands of the same priority in order of adding
+     */
+    public int priority() {
+        switch (commandType) {
+            case BOLUS:
+            case SMB_BOLUS:
+            case CARBS_ONLY_TREATMENT:
+            case START_PUMP:
+            case STOP_PUMP:
+                return 0;
+            case TEMPBASAL:
+            case EXTENDEDBOLUS:
+            case BASALPROFILE:
+            case SETUSERSETTINGS:
+            case INSIGHT_SET_TBR_OVER_ALARM:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
     public abstract String status();
 
     public void cancel() {
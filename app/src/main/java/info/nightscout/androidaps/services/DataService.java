@@ -14,12 +14,10 @@ import org.slf4j.LoggerFactory;
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.R;
 import info.nightscout.androidaps.db.CareportalEvent;
-import info.nightscout.androidaps.events.EventNsFood;
 import info.nightscout.androidaps.events.EventNsTreatment;
 import info.nightscout.androidaps.logging.BundleLogger;
 import info.nightscout.androidaps.logging.L;
 import info.nightscout.androidaps.plugins.bus.RxBus;
-import info.nightscout.androidaps.plugins.general.nsclient.data.NSDeviceStatus;
 import info.nightscout.androidaps.plugins.general.nsclient.data.NSMbg;
 import info.nightscout.androidaps.plugins.general.nsclient.data.NSSettingsStatus;
 import info.nightscout.androidaps.plugins.general.overview.events.EventNewNotification;
@@ -31,7 +29,6 @@ import info.nightscout.androidaps.plugins.source.SourceDexcomPlugin;
 import info.nightscout.androidaps.plugins.source.SourceEversensePlugin;
 import info.nightscout.androidaps.plugins.source.SourceGlimpPlugin;
 import info.nightscout.androidaps.plugins.source.SourceMM640gPlugin;
-import info.nightscout.androidaps.plugins.source.SourceNSClientPlugin;
 import info.nightscout.androidaps.plugins.source.SourcePoctechPlugin;
 import info.nightscout.androidaps.plugins.source.SourceTomatoPlugin;
 import info.nightscout.androidaps.plugins.source.SourceXdripPlugin;
@@ -41,7 +38,7 @@ import info.nightscout.androidaps.utils.SP;
 
 
 public class DataService extends IntentService {
-    private Logger log = LoggerFactory.getLogger(L.DATASERVICE);
+    private static Logger log = LoggerFactory.getLogger(L.DATASERVICE);
 
     public DataService() {
         super("DataService");
@@ -54,8 +51,7 @@ public class DataService extends IntentService {
             log.debug("onHandleIntent " + BundleLogger.log(intent.getExtras()));
         }
 
-        boolean acceptNSData = !SP.getBoolean(R.string.key_ns_upload_only, true);
-        Bundle bundles = intent.getExtras();
+        boolean acceptNSData = acceptNSData();
 
         final String action = intent.getAction();
         if (Intents.ACTION_NEW_BG_ESTIMATE.equals(action)) {
@@ -72,29 +68,13 @@ public class DataService extends IntentService {
             SourceTomatoPlugin.getPlugin().handleNewData(intent);
         } else if (Intents.EVERSENSE_BG.equals(action)) {
             SourceEversensePlugin.getPlugin().handleNewData(intent);
-        } else if (Intents.ACTION_NEW_SGV.equals(action)) {
-            SourceNSClientPlugin.getPlugin().handleNewData(intent);
         } else if (Intents.ACTION_NEW_PROFILE.equals(action)) {
             // always handle Profile if NSProfile is enabled without looking at nsUploadOnly
             NSProfilePlugin.getPlugin().handleNewData(intent);
-        } else if (Intents.ACTION_NEW_DEVICESTATUS.equals(action)) {
-            NSDeviceStatus.getInstance().handleNewData(intent);
         } else if (Intents.ACTION_NEW_STATUS.equals(action)) {
             NSSettingsStatus.getInstance().handleNewData(intent);
-        } else if (Intents.ACTION_NEW_FOOD.equals(action)) {
-            EventNsFood evt = new EventNsFood(EventNsFood.Companion.getADD(), bundles);
-            RxBus.INSTANCE.send(evt);
-        } else if (Intents.ACTION_CHANGED_FOOD.equals(action)) {
-            EventNsFood evt = new EventNsFood(EventNsFood.Companion.getUPDATE(), bundles);
-            RxBus.INSTANCE.send(evt);
-        } else if (Intents.ACTION_REMOVED_FOOD.equals(action)) {
-            EventNsFood evt = new EventNsFood(EventNsFood.Companion.getREMOVE(), bundles);
-            RxBus.INSTANCE.send(evt);
         } else if (acceptNSData &&
-                (Intents.ACTION_NEW_TREATMENT.equals(action) ||
-                        Intents.ACTION_CHANGED_TREATMENT.equals(action) ||
-                        Intents.ACTION_REMOVED_TREATMENT.equals(action) ||
-                        Intents.ACTION_NEW_CAL.equals(action) ||
+                (Intents.ACTION_NEW_CAL.equals(action) ||
                         Intents.ACTION_NEW_MBG.equals(action))
         ) {
             handleNewDataFromNSClient(intent);
@@ -119,46 +99,6 @@ public class DataService extends IntentService {
             log.debug("Got intent: " + intent.getAction());
 
 
-        if (intent.getAction().equals(Intents.ACTION_NEW_TREATMENT) || intent.getAction().equals(Intents.ACTION_CHANGED_TREATMENT)) {
-            try {
-                if (bundles.containsKey("treatment")) {
-                    JSONObject json = new JSONObject(bundles.getString("treatment"));
-                    handleTreatmentFromNS(json, intent);
-                }
-                if (bundles.containsKey("treatments")) {
-                    String trstring = bundles.getString("treatments");
-                    JSONArray jsonArray = new JSONArray(trstring);
-                    for (int i = 0; i < jsonArray.length(); i++) {
-                        JSONObject json = jsonArray.getJSONObject(i);
-                        handleTreatmentFromNS(json, intent);
-                    }
-                }
-            } catch (JSONException e) {
-                log.error("Unhandled exception", e);
-            }
-        }
-
-        if (intent.getAction().equals(Intents.ACTION_REMOVED_TREATMENT)) {
-            try {
-                if (bundles.containsKey("treatment")) {
-                    String trstring = bundles.getString("treatment");
-                    JSONObject json = new JSONObject(trstring);
-                    handleRemovedTreatmentFromNS(json);
-                }
-
-                if (bundles.containsKey("treatments")) {
-                    String trstring = bundles.getString("treatments");
-                    JSONArray jsonArray = new JSONArray(trstring);
-                    for (int i = 0; i < jsonArray.length(); i++) {
-                        JSONObject json = jsonArray.getJSONObject(i);
-                        handleRemovedTreatmentFromNS(json);
-                    }
-                }
-            } catch (JSONException e) {
-                log.error("Unhandled exception", e);
-            }
-        }
-
         if (intent.getAction().equals(Intents.ACTION_NEW_MBG)) {
             try {
                 if (bundles.containsKey("mbg")) {
@@ -181,7 +121,38 @@ public class DataService extends IntentService {
         }
     }
 
-    private void handleRemovedTreatmentFromNS(JSONObject json) {
+    private static boolean acceptNSData() {
+        return !SP.getBoolean(R.string.key_ns_upload_only, true);
+    }
+
+    /**
+     * Treatments received by NSClientService are processed directly without passing them through Bundle
+     *
+     * @param mode EventNsTreatment.ADD or EventNsTreatment.UPDATE
+     */
+    public static void handleTreatmentsFromNS(JSONArray treatments, int mode) {
+        if (!acceptNSData()) return;
+        try {
+            for (int i = 0; i < treatments.length(); i++) {
+                handleTreatmentFromNS(treatments.getJSONObject(i), mode);
+            }
+        } catch (JSONException e) {
+            log.error("Unhandled exception", e);
+        }
+    }
+
+    public static void handleRemovedTreatmentsFromNS(JSONArray treatments) {
+        if (!acceptNSData()) return;
+        try {
+            for (int i = 0; i < treatments.length(); i++) {
+                handleRemovedTreatmentFromNS(treatments.getJSONObject(i));
+            }
+        } catch (JSONException e) {
+            log.error("Unhandled exception", e);
+        }
+    }
+
+    private static void handleRemovedTreatmentFromNS(JSONObject json) {
         // new DB model
         EventNsTreatment evtTreatment = new EventNsTreatment(EventNsTreatment.Companion.getREMOVE(), json);
         RxBus.INSTANCE.send(evtTreatment);
@@ -194,9 +165,8 @@ public class DataService extends IntentService {
         MainApp.getDbHelper().deleteProfileSwitchById(_id);
     }
 
-    private void handleTreatmentFromNS(JSONObject json, Intent intent) {
+    private static void handleTreatmentFromNS(JSONObject json, int mode) {
         // new DB model
-        int mode = Intents.ACTION_NEW_TREATMENT.equals(intent.getAction()) ? EventNsTreatment.Companion.getADD() : EventNsTreatment.Companion.getUPDATE();
         double insulin = JsonHelper.safeGetDouble(json, "insulin");
         double carbs = JsonHelper.safeGetDouble(json, "carbs");
         String eventType = JsonHelper.safeGetString(json, "eventType");
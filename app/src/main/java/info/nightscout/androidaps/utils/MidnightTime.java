@@ -12,6 +12,19 @@ public class MidnightTime {
 
     private static final int THRESHOLD = 100000;
 
+    // last resolved day <start, end), end is next midnight so DST days have 23 or 25 hours
+    private static class Day {
+        final long start;
+        final long end;
+
+        Day(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static volatile Day lastDay = null;
+
     public static long calc() {
         Calendar c = Calendar.getInstance();
         c.set(Calendar.HOUR_OF_DAY, 0);
@@ -22,6 +35,8 @@ public class MidnightTime {
     }
 
     public static long calc(long time) {
+        Day day = lastDay;
+        if (day != null && time >= day.start && time < day.end) return day.start;
         Long m;
         synchronized (times) {
             m = times.get(time);
@@ -36,6 +51,8 @@ public class MidnightTime {
             c.set(Calendar.SECOND, 0);
             c.set(Calendar.MILLISECOND, 0);
             m = c.getTimeInMillis();
+            c.add(Calendar.DAY_OF_MONTH, 1);
+            lastDay = new Day(m, c.getTimeInMillis());
             times.append(time, m);
             ++misses;
             if (times.size() > THRESHOLD) resetCache();
@@ -43,13 +60,18 @@ public class MidnightTime {
         return m;
     }
 
-    static void resetCache() {
-        hits = 0;
-        misses = 0;
-        times.clear();
+    public static void resetCache() {
+        synchronized (times) {
+            hits = 0;
+            misses = 0;
+            times.clear();
+            lastDay = null;
+        }
     }
 
     public static String log() {
-        return "Hits: " + hits + " misses: " + misses + " stored: " + times.size();
+        synchronized (times) {
+            return "Hits: " + hits + " misses: " + misses + " stored: " + times.size();
+        }
     }
 }
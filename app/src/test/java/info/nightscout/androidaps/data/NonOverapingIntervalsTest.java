@@ -46,6 +46,21 @@ public class NonOverapingIntervalsTest {
         Assert.assertEquals(null, list.getValueByInterval(startDate + T.hours(10).msecs() + 1));
     }
 
+    @Test
+    public void testLastIndexStartingBefore() {
+        list.reset();
+        Assert.assertEquals(-1, list.lastIndexStartingBefore(startDate));
+        list.add(new TemporaryBasal().date(startDate).duration((int) T.hours(1).mins()).absolute(1));
+        list.add(new TemporaryBasal().date(startDate + T.hours(1).msecs()).duration((int) T.hours(1).mins()).absolute(2));
+        list.add(new TemporaryBasal().date(startDate + T.hours(3).msecs()).duration((int) T.hours(1).mins()).absolute(3));
+        Assert.assertEquals(-1, list.lastIndexStartingBefore(startDate - 1));
+        Assert.assertEquals(0, list.lastIndexStartingBefore(startDate));
+        Assert.assertEquals(0, list.lastIndexStartingBefore(startDate + T.hours(1).msecs() - 1));
+        Assert.assertEquals(1, list.lastIndexStartingBefore(startDate + T.hours(1).msecs()));
+        Assert.assertEquals(1, list.lastIndexStartingBefore(startDate + T.hours(2).msecs()));
+        Assert.assertEquals(2, list.lastIndexStartingBefore(startDate + T.hours(10).msecs()));
+    }
+
     @Test
     public void testCopyConstructor() {
         list.reset();
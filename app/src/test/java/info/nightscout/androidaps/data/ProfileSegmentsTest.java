@@ -0,0 +1,36 @@
+package info.nightscout.androidaps.data;
+
+import androidx.collection.LongSparseArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProfileSegmentsTest {
+
+    @Test
+    public void valueAtTest() {
+        LongSparseArray<Double> array = new LongSparseArray<>();
+        array.put(3600, 1d);
+        array.put(0, 0.5d);
+        array.put(7200, 2d);
+        ProfileSegments segments = new ProfileSegments(array);
+
+        Assert.assertEquals(0.5d, segments.valueAt(0), 0.0001);
+        Assert.assertEquals(0.5d, segments.valueAt(3599), 0.0001);
+        Assert.assertEquals(1d, segments.valueAt(3600), 0.0001);
+        Assert.assertEquals(2d, segments.valueAt(7200), 0.0001);
+        Assert.assertEquals(2d, segments.valueAt(86399), 0.0001);
+        // before first segment first value is used
+        Assert.assertEquals(0.5d, segments.valueAt(-1), 0.0001);
+    }
+
+    @Test
+    public void singleSegmentTest() {
+        LongSparseArray<Double> array = new LongSparseArray<>();
+        array.put(1800, 3d);
+        ProfileSegments segments = new ProfileSegments(array);
+
+        Assert.assertEquals(3d, segments.valueAt(0), 0.0001);
+        Assert.assertEquals(3d, segments.valueAt(50000), 0.0001);
+    }
+}
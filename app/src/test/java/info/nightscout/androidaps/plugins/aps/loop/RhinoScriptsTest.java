@@ -0,0 +1,57 @@
+package info.nightscout.androidaps.plugins.aps.loop;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeJSON;
+import org.mozilla.javascript.Scriptable;
+
+public class RhinoScriptsTest {
+
+    @Test
+    public void toNativeMatchesJsonParse() throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("int", 5);
+        json.put("double", 1.25);
+        json.put("date", 1563000000000L);
+        json.put("string", "text");
+        json.put("bool", true);
+        json.put("null", JSONObject.NULL);
+        json.put("array", new JSONArray().put(1).put(new JSONObject().put("a", -0.5)));
+
+        Context rhino = Context.enter();
+        rhino.setOptimizationLevel(-1);
+        try {
+            Scriptable scope = RhinoScripts.newScope(rhino);
+            Object parsed = NativeJSON.parse(rhino, scope, json.toString(), (context, scriptable, scriptable1, objects) -> objects[1]);
+            Object converted = RhinoScripts.toNative(rhino, scope, json);
+            Assert.assertEquals(
+                    NativeJSON.stringify(rhino, scope, parsed, null, null).toString(),
+                    NativeJSON.stringify(rhino, scope, converted, null, null).toString());
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void scopesAreIsolated() throws Exception {
+        Context rhino = Context.enter();
+        rhino.setOptimizationLevel(-1);
+        try {
+            Scriptable first = RhinoScripts.newScope(rhino);
+            RhinoScripts.getScript(rhino, "var leaked = 1; notDeclared = 2;", "test.js").exec(rhino, first);
+            Assert.assertEquals(1, ((Number) first.get("leaked", first)).intValue());
+
+            Scriptable second = RhinoScripts.newScope(rhino);
+            Assert.assertFalse(second.has("leaked", second));
+            Assert.assertFalse(second.has("notDeclared", second));
+            // standard objects are available through shared scope
+            Object result = RhinoScripts.getScript(rhino, "Math.round(JSON.parse('1.6'))", "test.js").exec(rhino, second);
+            Assert.assertEquals(2, ((Number) result).intValue());
+        } finally {
+            Context.exit();
+        }
+    }
+}
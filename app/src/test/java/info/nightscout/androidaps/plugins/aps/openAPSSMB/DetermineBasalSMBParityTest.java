@@ -0,0 +1,435 @@
+package info.nightscout.androidaps.plugins.aps.openAPSSMB;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.NativeJSON;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.Undefined;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.skyscreamer.jsonassert.JSONAssert;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import info.AAPSMocker;
+import info.nightscout.androidaps.logging.L;
+import info.nightscout.androidaps.plugins.aps.loop.RhinoScripts;
+import info.nightscout.androidaps.plugins.aps.openAPSMA.LoggerCallback;
+
+/**
+ * Runs determine-basal.js in Rhino and DetermineBasalSMB on the same inputs
+ * and checks result and console output are identical
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({L.class})
+public class DetermineBasalSMBParityTest {
+    private static final long NOW = 1563000000000L;
+
+    @Before
+    public void prepare() {
+        AAPSMocker.mockL();
+    }
+
+    @Test
+    public void inRange() throws Exception {
+        compare(glucoseStatus(110, 1, 0.5, 0.2), currentTemp(0, 0), iobArray(0.5, 0.005, 0.3), profile(), autosens(1), mealData(0, 0), true);
+    }
+
+    @Test
+    public void smbWhenHigh() throws Exception {
+        JSONObject profile = profile().put("enableSMB_always", true);
+        compare(glucoseStatus(220, 6, 5, 3), currentTemp(1.2, 20), iobArray(1.2, 0.01, 0.8), profile, autosens(1.1), mealData(0, 0), true);
+        // last bolus 2 minutes ago
+        JSONArray iob = iobArray(1.2, 0.01, 0.8);
+        iob.getJSONObject(0).put("lastBolusTime", NOW - 2 * 60 * 1000);
+        compare(glucoseStatus(220, 6, 5, 3), currentTemp(0, 0), iob, profile, autosens(1.1), mealData(0, 0), true);
+    }
+
+    @Test
+    public void lowSuspend() throws Exception {
+        compare(glucoseStatus(75, -4, -3, -2), currentTemp(1, 25), iobArray(1.5, 0.02, 1), profile(), autosens(0.8), mealData(0, 0), false);
+        compare(glucoseStatus(62, 3, 2, 1), currentTemp(0, 10), iobArray(-1.5, -0.01, -1.8), profile(), autosens(1), mealData(0, 0), true);
+    }
+
+    @Test
+    public void staleBg() throws Exception {
+        JSONObject glucoseStatus = glucoseStatus(150, 0, 0, 0).put("date", NOW - 20 * 60 * 1000);
+        compare(glucoseStatus, currentTemp(2, 30), iobArray(0.5, 0.005, 0.3), profile(), autosens(1), mealData(0, 0), true);
+        compare(glucoseStatus, currentTemp(0, 60), iobArray(0.5, 0.005, 0.3), profile(), autosens(1), mealData(0, 0), true);
+        compare(glucoseStatus, currentTemp(0.5, 10), iobArray(0.5, 0.005, 0.3), profile(), autosens(1), mealData(0, 0), true);
+        compare(glucoseStatus(38, 0, 0, 0), currentTemp(0.5, 10), iobArray(0.5, 0.005, 0.3), profile(), autosens(1), mealData(0, 0), true);
+    }
+
+    @Test
+    public void carbsOnBoardWithUam() throws Exception {
+        JSONObject profile = profile().put("enableSMB_with_COB", true).put("enableUAM", true);
+        compare(glucoseStatus(160, 8, 6, 4), currentTemp(1.5, 15), iobArray(2, 0.015, 1.5), profile, autosens(1), mealData(40, 60), true);
+        compare(glucoseStatus(160, 8, 6, 4), currentTemp(1.5, 15), iobArray(2, 0.015, 1.5), profile, autosens(1), mealData(40, 60).put("bwCarbs", true), true);
+        compare(glucoseStatus(100, -2, -1, 0), currentTemp(0, 0), iobArray(3, 0.03, 2.5), profile().put("enableUAM", true), autosens(1), mealData(10, 60), false);
+    }
+
+    @Test
+    public void mmol() throws Exception {
+        JSONObject profile = profile().put("out_units", "mmol/L");
+        compare(glucoseStatus(185, 3, 2.5, 2), currentTemp(0, 0), iobArray(0.2, 0.002, 0.1), profile, autosens(0.9), mealData(0, 0), true);
+        compare(glucoseStatus(95, -2.4, -2, -1), currentTemp(0.5, 20), iobArray(1, 0.01, 0.8), profile, autosens(1), mealData(0, 0), false);
+    }
+
+    @Test
+    public void temporaryTargets() throws Exception {
+        JSONObject high = profile().put("temptargetSet", true).put("min_bg", 140).put("max_bg", 140).put("target_bg", 140)
+                .put("exercise_mode", true);
+        compare(glucoseStatus(150, 1, 1, 0.5), currentTemp(0, 0), iobArray(0.3, 0.003, 0.1), high, autosens(1), mealData(0, 0), true);
+        JSONObject low = profile().put("temptargetSet", true).put("min_bg", 80).put("max_bg", 80).put("target_bg", 80)
+                .put("enableSMB_with_temptarget", true).put("low_temptarget_lowers_sensitivity", true);
+        compare(glucoseStatus(150, 2, 1, 1), currentTemp(0, 0), iobArray(0.3, 0.003, 0.1), low, autosens(1), mealData(0, 0), true);
+    }
+
+    @Test
+    public void iobOverMax() throws Exception {
+        compare(glucoseStatus(250, 5, 4, 3), currentTemp(2, 20), iobArray(5, 0.05, 4), profile(), autosens(1.2), mealData(0, 0), true);
+        compare(glucoseStatus(250, 5, 4, 3), currentTemp(1, 20), iobArray(2.5, 0.02, 2), profile(), autosens(1.2), mealData(0, 0), false);
+    }
+
+    @Test
+    public void eventualBelowMinRising() throws Exception {
+        compare(glucoseStatus(95, 3, 2, 1), currentTemp(0.4, 25), iobArray(1.5, 0.025, 1.2), profile(), autosens(1), mealData(0, 0), false);
+        compare(glucoseStatus(95, 0.4, 0.3, 0.1), currentTemp(0.4, 25), iobArray(1.5, 0.025, 1.2), profile(), autosens(1), mealData(0, 0), false);
+    }
+
+    @Test
+    public void invalidInputs() throws Exception {
+        compare(glucoseStatus(120, 0, 0, 0), currentTemp(0, 0), new JSONArray().put(iobArray(0, 0, 0).get(0)), profile(), autosens(1), mealData(0, 0), true);
+        JSONArray iob = iobArray(0.5, 0.005, 0.3);
+        iob.getJSONObject(5).remove("iobWithZeroTemp");
+        // console contains JS exception with line number, compare result only
+        compare(glucoseStatus(120, 0, 0, 0), currentTemp(0, 0), iob, profile(), autosens(1), mealData(0, 0), true, false);
+        JSONObject lastTemp = new JSONObject().put("date", NOW - 40 * 60 * 1000).put("rate", 1.1).put("duration", 30);
+        iob = iobArray(0.5, 0.005, 0.3);
+        iob.getJSONObject(0).put("lastTemp", lastTemp);
+        compare(glucoseStatus(120, 0, 0, 0), currentTemp(0.8, 20), iob, profile(), autosens(1), mealData(0, 0), true);
+        compare(glucoseStatus(120, 0, 0, 0), currentTemp(1.1, 20), iob, profile(), null, mealData(0, 0), false);
+    }
+
+    @Test
+    public void randomInputs() throws Exception {
+        Random random = new Random(4);
+        for (int i = 0; i < 200; i++) {
+            JSONObject profile = profile()
+                    .put("enableSMB_always", random.nextBoolean())
+                    .put("enableSMB_with_COB", random.nextBoolean())
+                    .put("enableUAM", random.nextBoolean())
+                    .put("maxSMBBasalMinutes", 15 + 15 * random.nextInt(8))
+                    .put("current_basal", 0.3 + random.nextInt(20) / 10d);
+            if (random.nextInt(4) == 0) profile.put("out_units", "mmol/L");
+            double delta = random.nextInt(200) / 10d - 8;
+            JSONObject glucoseStatus = glucoseStatus(50 + random.nextInt(300), delta, delta * random.nextDouble(), delta * random.nextDouble() / 2);
+            JSONObject currentTemp = random.nextBoolean() ? currentTemp(0, 0) : currentTemp(random.nextInt(40) / 10d, random.nextInt(120));
+            JSONArray iob = iobArray(random.nextInt(60) / 10d - 1, random.nextInt(40) / 1000d - 0.005, random.nextInt(30) / 10d - 0.5);
+            iob.getJSONObject(0).put("lastBolusTime", NOW - random.nextInt(30) * 60 * 1000L);
+            double carbs = random.nextBoolean() ? 0 : random.nextInt(120);
+            JSONObject mealData = mealData(carbs * random.nextDouble(), carbs);
+            mealData.put("slopeFromMaxDeviation", -random.nextInt(30) / 10d).put("slopeFromMinDeviation", random.nextInt(30) / 10d);
+            compare(glucoseStatus, currentTemp, iob, profile, autosens(0.7 + random.nextInt(6) / 10d), mealData, random.nextBoolean());
+        }
+    }
+
+    /**
+     * Replays determine-basal calls logged by DetermineBasalAdapterSMBJS. Any AndroidAPS.log recorded
+     * with APS logging enabled can be put into src/test/res/determinebasal. The port must give the
+     * result logged by JS (deliverAt excluded, it is taken a few ms later than logged time) and the
+     * same result and console output as JS run in Rhino at logged time.
+     */
+    @Test
+    public void recordedInputs() throws Exception {
+        List<RecordedCase> cases = recordedCases();
+        Assert.assertFalse("No determine-basal logs in src/test/res/determinebasal", cases.isEmpty());
+
+        for (RecordedCase c : cases) {
+            DetermineBasalSMB determineBasal = new DetermineBasalSMB(c.now);
+            JSONObject result = determineBasal.determineBasal(c.glucoseStatus, c.currentTemp, c.iobData, c.profile, c.autosens, c.mealData, c.microBolusAllowed);
+            JSONObject expected = new JSONObject(c.result.toString());
+            expected.remove("deliverAt");
+            JSONObject actual = new JSONObject(result.toString());
+            actual.remove("deliverAt");
+            JSONAssert.assertEquals(c.source, expected, actual, true);
+
+            compare(c.now, c.glucoseStatus, c.currentTemp, c.iobData, c.profile, c.autosens, c.mealData, c.microBolusAllowed, true);
+        }
+    }
+
+    /**
+     * Reports time spent in JS and native engine for recorded calls. JS is invoked the way
+     * the adapter does it, in a new Rhino scope for every call. Nothing is asserted on timing,
+     * it depends on the machine running the tests.
+     */
+    @Test
+    public void timingReport() throws Exception {
+        List<RecordedCase> cases = recordedCases();
+        int rounds = 5;
+        long jsTime = 0;
+        long nativeTime = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (RecordedCase c : cases) {
+                long start = System.nanoTime();
+                Context rhino = Context.enter();
+                rhino.setOptimizationLevel(-1);
+                String expected;
+                try {
+                    expected = invokeJS(rhino, c.now, c.glucoseStatus, c.currentTemp, c.iobData, c.profile, c.autosens, c.mealData, c.microBolusAllowed);
+                } finally {
+                    Context.exit();
+                }
+                long jsEnd = System.nanoTime();
+                JSONObject result = new DetermineBasalSMB(c.now).determineBasal(c.glucoseStatus, c.currentTemp, c.iobData, c.profile, c.autosens, c.mealData, c.microBolusAllowed);
+                long nativeEnd = System.nanoTime();
+                // first round warms up both engines
+                if (round > 0) {
+                    jsTime += jsEnd - start;
+                    nativeTime += nativeEnd - jsEnd;
+                }
+                JSONAssert.assertEquals(c.source, expected, result.toString(), true);
+            }
+        }
+        int invocations = (rounds - 1) * cases.size();
+        System.out.println("determine-basal " + invocations + " invocations: JS " + jsTime / invocations / 1000 + " us/call, native "
+                + nativeTime / invocations / 1000 + " us/call");
+    }
+
+    private static List<RecordedCase> recordedCases() throws Exception {
+        File[] files = new File("src/test/res/determinebasal").listFiles();
+        List<RecordedCase> cases = new ArrayList<>();
+        if (files != null)
+            for (File file : files)
+                cases.addAll(RecordedCase.parse(file));
+        return cases;
+    }
+
+    /**
+     * One invocation logged by DetermineBasalAdapterSMBJS.invoke()
+     */
+    private static class RecordedCase {
+        private static final String ADAPTER = "DetermineBasalAdapterSMBJS";
+
+        String source;
+        long now;
+        JSONObject glucoseStatus;
+        JSONArray iobData;
+        JSONObject currentTemp;
+        JSONObject profile;
+        JSONObject mealData;
+        JSONObject autosens;
+        boolean microBolusAllowed;
+        JSONObject result;
+
+        static List<RecordedCase> parse(File file) throws Exception {
+            List<RecordedCase> cases = new ArrayList<>();
+            RecordedCase current = null;
+            int lineNumber = 0;
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                lineNumber++;
+                if (!line.contains(ADAPTER)) continue;
+                if (line.contains(">>> Invoking detemine_basal <<<")) {
+                    current = new RecordedCase();
+                    current.source = file.getName() + ":" + lineNumber;
+                } else if (current != null) {
+                    String value;
+                    if ((value = value(line, "Current time:")) != null) current.now = Long.parseLong(value);
+                    else if ((value = value(line, "Glucose status:")) != null) current.glucoseStatus = new JSONObject(value);
+                    else if ((value = value(line, "IOB data:")) != null) current.iobData = new JSONArray(value);
+                    else if ((value = value(line, "Current temp:")) != null) current.currentTemp = new JSONObject(value);
+                    else if ((value = value(line, "Profile:")) != null) current.profile = new JSONObject(value);
+                    else if ((value = value(line, "Meal data:")) != null) current.mealData = new JSONObject(value);
+                    else if ((value = value(line, "Autosens data:")) != null) current.autosens = value.equals("undefined") ? null : new JSONObject(value);
+                    else if ((value = value(line, "MicroBolusAllowed:")) != null) current.microBolusAllowed = Boolean.parseBoolean(value);
+                    else if ((value = value(line, "Result:")) != null) {
+                        current.result = new JSONObject(value);
+                        // logs from versions without time can't be replayed
+                        if (current.now != 0) cases.add(current);
+                        current = null;
+                    }
+                }
+            }
+            return cases;
+        }
+
+        private static String value(String line, String label) {
+            int position = line.indexOf("]: " + label);
+            return position < 0 ? null : line.substring(position + 3 + label.length()).trim();
+        }
+    }
+
+    private void compare(JSONObject glucoseStatus, JSONObject currentTemp, JSONArray iobArray, JSONObject profile, JSONObject autosens, JSONObject mealData, boolean microBolusAllowed) throws Exception {
+        compare(glucoseStatus, currentTemp, iobArray, profile, autosens, mealData, microBolusAllowed, true);
+    }
+
+    private void compare(JSONObject glucoseStatus, JSONObject currentTemp, JSONArray iobArray, JSONObject profile, JSONObject autosens, JSONObject mealData, boolean microBolusAllowed, boolean compareDebug) throws Exception {
+        compare(NOW, glucoseStatus, currentTemp, iobArray, profile, autosens, mealData, microBolusAllowed, compareDebug);
+    }
+
+    private void compare(long now, JSONObject glucoseStatus, JSONObject currentTemp, JSONArray iobArray, JSONObject profile, JSONObject autosens, JSONObject mealData, boolean microBolusAllowed, boolean compareDebug) throws Exception {
+        String expected;
+        String expectedDebug;
+        Context rhino = Context.enter();
+        rhino.setOptimizationLevel(-1);
+        try {
+            expected = invokeJS(rhino, now, glucoseStatus, currentTemp, iobArray, profile, autosens, mealData, microBolusAllowed);
+            expectedDebug = LoggerCallback.getScriptDebug();
+        } finally {
+            Context.exit();
+        }
+
+        DetermineBasalSMB determineBasal = new DetermineBasalSMB(now);
+        JSONObject result = determineBasal.determineBasal(glucoseStatus, currentTemp, iobArray, profile, autosens, mealData, microBolusAllowed);
+
+        JSONAssert.assertEquals(expected, result.toString(), true);
+        if (compareDebug)
+            Assert.assertEquals(expectedDebug, determineBasal.getScriptDebug());
+    }
+
+    private String invokeJS(Context rhino, long now, JSONObject glucoseStatus, JSONObject currentTemp, JSONArray iobArray, JSONObject profile, JSONObject autosens, JSONObject mealData, boolean microBolusAllowed) throws Exception {
+        Scriptable scope = RhinoScripts.newScope(rhino);
+        scope.put("console2", scope, rhino.newObject(scope, "LoggerCallback", null));
+        exec(rhino, scope, readAsset("OpenAPSAMA/loggerhelper.js"));
+        exec(rhino, scope, "var module = {\"parent\":Boolean(1)};");
+        exec(rhino, scope, "var round_basal = function round_basal(basal, profile) { return basal; };");
+        exec(rhino, scope, "require = function() {return round_basal;};");
+        // freeze current time
+        exec(rhino, scope, "var RealDate = Date;");
+        exec(rhino, scope, "var Date = function(t) { return arguments.length ? new RealDate(t) : new RealDate(" + now + "); };");
+        exec(rhino, scope, readAsset("OpenAPSSMB/determine-basal.js"));
+        exec(rhino, scope, readAsset("OpenAPSSMB/basal-set-temp.js"));
+
+        Object[] params = new Object[]{
+                RhinoScripts.toNative(rhino, scope, glucoseStatus),
+                RhinoScripts.toNative(rhino, scope, currentTemp),
+                RhinoScripts.toNative(rhino, scope, iobArray),
+                RhinoScripts.toNative(rhino, scope, profile),
+                autosens != null ? RhinoScripts.toNative(rhino, scope, autosens) : Undefined.instance,
+                RhinoScripts.toNative(rhino, scope, mealData),
+                scope.get("tempBasalFunctions", scope),
+                microBolusAllowed,
+                Undefined.instance
+        };
+        Object result = ((Function) scope.get("determine_basal", scope)).call(rhino, scope, scope, params);
+        return NativeJSON.stringify(rhino, scope, result, null, null).toString();
+    }
+
+    private static void exec(Context rhino, Scriptable scope, String source) {
+        RhinoScripts.getScript(rhino, source, "JavaScript").exec(rhino, scope);
+    }
+
+    private static String readAsset(String fileName) throws Exception {
+        String string = new String(Files.readAllBytes(Paths.get("src/main/assets/" + fileName)), StandardCharsets.UTF_8);
+        if (string.startsWith("#!/usr/bin/env node")) {
+            string = string.substring(20);
+        }
+        return string;
+    }
+
+    private static JSONObject profile() throws JSONException {
+        JSONObject profile = new JSONObject();
+        profile.put("max_iob", 3);
+        profile.put("type", "current");
+        profile.put("max_daily_basal", 1.1);
+        profile.put("max_basal", 3);
+        profile.put("min_bg", 100);
+        profile.put("max_bg", 100);
+        profile.put("target_bg", 100);
+        profile.put("carb_ratio", 10);
+        profile.put("sens", 45);
+        profile.put("max_daily_safety_multiplier", 3);
+        profile.put("current_basal_safety_multiplier", 4d);
+        profile.put("high_temptarget_raises_sensitivity", false);
+        profile.put("low_temptarget_lowers_sensitivity", false);
+        profile.put("sensitivity_raises_target", SMBDefaults.sensitivity_raises_target);
+        profile.put("resistance_lowers_target", SMBDefaults.resistance_lowers_target);
+        profile.put("adv_target_adjustments", SMBDefaults.adv_target_adjustments);
+        profile.put("exercise_mode", SMBDefaults.exercise_mode);
+        profile.put("half_basal_exercise_target", SMBDefaults.half_basal_exercise_target);
+        profile.put("maxCOB", SMBDefaults.maxCOB);
+        profile.put("skip_neutral_temps", SMBDefaults.skip_neutral_temps);
+        profile.put("remainingCarbsCap", SMBDefaults.remainingCarbsCap);
+        profile.put("enableUAM", false);
+        profile.put("A52_risk_enable", SMBDefaults.A52_risk_enable);
+        profile.put("enableSMB_with_COB", false);
+        profile.put("enableSMB_with_temptarget", false);
+        profile.put("allowSMB_with_high_temptarget", false);
+        profile.put("enableSMB_always", false);
+        profile.put("enableSMB_after_carbs", false);
+        profile.put("maxSMBBasalMinutes", SMBDefaults.maxSMBBasalMinutes);
+        profile.put("carbsReqThreshold", SMBDefaults.carbsReqThreshold);
+        profile.put("current_basal", 0.9);
+        profile.put("temptargetSet", false);
+        profile.put("autosens_max", 1.2);
+        return profile;
+    }
+
+    private static JSONObject glucoseStatus(double glucose, double delta, double shortAvgDelta, double longAvgDelta) throws JSONException {
+        return new JSONObject()
+                .put("glucose", glucose)
+                .put("delta", delta)
+                .put("short_avgdelta", shortAvgDelta)
+                .put("long_avgdelta", longAvgDelta)
+                .put("date", NOW - 2 * 60 * 1000);
+    }
+
+    private static JSONObject currentTemp(double rate, int duration) throws JSONException {
+        return new JSONObject()
+                .put("temp", "absolute")
+                .put("duration", duration)
+                .put("rate", rate);
+    }
+
+    // IOB and activity decaying over next 4 hours
+    private static JSONArray iobArray(double iob, double activity, double iobWithZeroTemp) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < 48; i++) {
+            double decay = Math.exp(-i / 18d);
+            JSONObject zeroTemp = new JSONObject()
+                    .put("iob", iobWithZeroTemp * decay - 0.02 * i)
+                    .put("basaliob", iobWithZeroTemp * decay)
+                    .put("bolussnooze", 0)
+                    .put("activity", activity * decay - 0.0002 * Math.min(i, 12))
+                    .put("time", NOW + i * 5 * 60 * 1000);
+            JSONObject tick = new JSONObject()
+                    .put("iob", iob * decay)
+                    .put("basaliob", iob * decay / 2)
+                    .put("bolussnooze", 0)
+                    .put("activity", activity * decay)
+                    .put("time", NOW + i * 5 * 60 * 1000)
+                    .put("iobWithZeroTemp", zeroTemp);
+            if (i == 0) tick.put("lastBolusTime", NOW - 60 * 60 * 1000);
+            array.put(tick);
+        }
+        return array;
+    }
+
+    private static JSONObject autosens(double ratio) throws JSONException {
+        return new JSONObject().put("ratio", ratio);
+    }
+
+    private static JSONObject mealData(double mealCOB, double carbs) throws JSONException {
+        return new JSONObject()
+                .put("carbs", carbs)
+                .put("boluses", 0)
+                .put("mealCOB", mealCOB)
+                .put("slopeFromMaxDeviation", -0.5)
+                .put("slopeFromMinDeviation", 1.2)
+                .put("lastBolusTime", NOW - 60 * 60 * 1000)
+                .put("lastCarbTime", carbs > 0 ? NOW - 45 * 60 * 1000 : 0);
+    }
+}
@@ -0,0 +1,131 @@
+package info.nightscout.androidaps.plugins.configBuilder;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import info.AAPSMocker;
+import info.nightscout.androidaps.MainApp;
+import info.nightscout.androidaps.data.Profile;
+import info.nightscout.androidaps.data.ProfileStore;
+import info.nightscout.androidaps.db.ProfileSwitch;
+import info.nightscout.androidaps.events.Event;
+import info.nightscout.androidaps.events.EventConfigBuilderChange;
+import info.nightscout.androidaps.events.EventProfileNeedsUpdate;
+import info.nightscout.androidaps.events.EventProfileStoreChanged;
+import info.nightscout.androidaps.events.EventReloadProfileSwitchData;
+import info.nightscout.androidaps.interfaces.ProfileInterface;
+import info.nightscout.androidaps.logging.L;
+import info.nightscout.androidaps.plugins.bus.RxBus;
+import info.nightscout.androidaps.plugins.treatments.TreatmentsPlugin;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({MainApp.class, ConfigBuilderPlugin.class, TreatmentsPlugin.class, L.class, ProfileStore.class})
+public class ProfileFunctionsTest {
+
+    private ProfileStore profileStore;
+    private Profile profile;
+    private ProfileSwitch profileSwitch;
+    private TreatmentsPlugin treatmentsPlugin;
+
+    @Before
+    public void prepare() {
+        // bus subscriptions and io observers run on the calling thread
+        RxJavaPlugins.setIoSchedulerHandler(scheduler -> Schedulers.trampoline());
+        AAPSMocker.mockMainApp();
+        AAPSMocker.mockConfigBuilder();
+        AAPSMocker.mockCommandQueue();
+        AAPSMocker.mockL();
+        treatmentsPlugin = AAPSMocker.mockTreatmentPlugin();
+
+        profile = mock(Profile.class);
+        profileStore = PowerMockito.mock(ProfileStore.class);
+        when(profileStore.getSpecificProfile("test")).thenReturn(profile);
+        ProfileInterface profileInterface = mock(ProfileInterface.class);
+        when(profileInterface.getProfile()).thenReturn(profileStore);
+        when(ConfigBuilderPlugin.getPlugin().getActiveProfileInterface()).thenReturn(profileInterface);
+
+        profileSwitch = profileSwitch(1000);
+        when(treatmentsPlugin.getProfileSwitchFromHistory(anyLong())).thenReturn(profileSwitch);
+
+        ProfileFunctions.getInstance().resetCache("test");
+    }
+
+    @After
+    public void cleanup() {
+        RxJavaPlugins.reset();
+    }
+
+    @Test
+    public void cachedProfileIsServed() {
+        Assert.assertSame(profile, ProfileFunctions.getInstance().getProfile());
+        Assert.assertSame(profile, ProfileFunctions.getInstance().getProfile(5000));
+        verify(profileStore, times(1)).getSpecificProfile("test");
+
+        // switches are recreated when reloaded from DB, the same date is not enough
+        when(treatmentsPlugin.getProfileSwitchFromHistory(anyLong())).thenReturn(profileSwitch(1000));
+        Assert.assertSame(profile, ProfileFunctions.getInstance().getProfile());
+        verify(profileStore, times(2)).getSpecificProfile("test");
+    }
+
+    @Test
+    public void subscribedEventsInvalidateCache() {
+        assertInvalidatedBy(new EventReloadProfileSwitchData());
+        assertInvalidatedBy(new EventProfileStoreChanged());
+        assertInvalidatedBy(new EventConfigBuilderChange());
+        assertInvalidatedBy(new EventProfileNeedsUpdate());
+        verify(AAPSMocker.queue).setProfile(any(), any());
+    }
+
+    @Test
+    public void profileLoadedBeforeResetIsNotCached() {
+        doAnswer(invocation -> {
+            // profile store changes while profile is being loaded
+            RxBus.INSTANCE.send(new EventProfileStoreChanged());
+            return profile;
+        }).when(profileStore).getSpecificProfile("test");
+        Assert.assertSame(profile, ProfileFunctions.getInstance().getProfile());
+
+        doReturn(profile).when(profileStore).getSpecificProfile("test");
+        Assert.assertSame(profile, ProfileFunctions.getInstance().getProfile());
+        Assert.assertSame(profile, ProfileFunctions.getInstance().getProfile());
+        verify(profileStore, times(2)).getSpecificProfile("test");
+    }
+
+    // profile is loaded once again after event, EventProfileNeedsUpdate loads it itself to update pump
+    private void assertInvalidatedBy(Event event) {
+        ProfileFunctions.getInstance().getProfile();
+        clearInvocations(profileStore);
+        ProfileFunctions.getInstance().getProfile();
+        verify(profileStore, times(0)).getSpecificProfile("test");
+
+        RxBus.INSTANCE.send(event);
+        ProfileFunctions.getInstance().getProfile();
+        ProfileFunctions.getInstance().getProfile();
+        verify(profileStore, times(1)).getSpecificProfile("test");
+    }
+
+    private static ProfileSwitch profileSwitch(long date) {
+        ProfileSwitch profileSwitch = new ProfileSwitch();
+        profileSwitch.date = date;
+        profileSwitch.profileName = "test";
+        return profileSwitch;
+    }
+}
@@ -23,6 +23,7 @@ import info.nightscout.androidaps.db.BgReading;
 import info.nightscout.androidaps.plugins.configBuilder.ProfileFunctions;
 import info.nightscout.androidaps.plugins.general.automation.elements.Comparator;
 import info.nightscout.androidaps.plugins.general.nsclient.data.NSSgv;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.BgTimeSeries;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.IobCobCalculatorPlugin;
 import info.nightscout.androidaps.utils.DateUtil;
 
@@ -36,7 +37,7 @@ public class TriggerBgTest {
 
     @Test
     public void shouldRunTest() {
-        when(IobCobCalculatorPlugin.getPlugin().getBgReadings()).thenReturn(generateOneCurrentRecordBgData());
+        when(IobCobCalculatorPlugin.getPlugin().getBgData()).thenReturn(BgTimeSeries.fromReadings(generateOneCurrentRecordBgData()));
 
         TriggerBg t = new TriggerBg().setUnits(Constants.MMOL).setValue(4.1d).comparator(Comparator.Compare.IS_EQUAL);
         Assert.assertFalse(t.shouldRun());
@@ -57,7 +58,7 @@ public class TriggerBgTest {
         t = new TriggerBg().setUnits(Constants.MGDL).setValue(213).comparator(Comparator.Compare.IS_EQUAL_OR_LESSER);
         Assert.assertFalse(t.shouldRun());
 
-        when(IobCobCalculatorPlugin.getPlugin().getBgReadings()).thenReturn(new ArrayList<>());
+        when(IobCobCalculatorPlugin.getPlugin().getBgData()).thenReturn(BgTimeSeries.fromReadings(new ArrayList<>()));
         t = new TriggerBg().setUnits(Constants.MGDL).setValue(213).comparator(Comparator.Compare.IS_EQUAL_OR_LESSER);
         Assert.assertFalse(t.shouldRun());
         t = new TriggerBg().comparator(Comparator.Compare.IS_NOT_AVAILABLE);
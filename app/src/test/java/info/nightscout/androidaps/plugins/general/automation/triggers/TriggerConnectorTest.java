@@ -9,6 +9,8 @@ import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.EnumSet;
+
 import info.AAPSMocker;
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.logging.L;
@@ -103,6 +105,22 @@ public class TriggerConnectorTest {
         Assert.assertTrue(t2.get(0) instanceof TriggerConnector);
     }
 
+    @Test
+    public void testDependencies() {
+        TriggerConnector t = new TriggerConnector();
+        Assert.assertTrue(t.dependencies().isEmpty());
+
+        TriggerConnector t2 = new TriggerConnector(TriggerConnector.Type.OR);
+        t2.add(new TriggerTime());
+        t2.add(new TriggerWifiSsid());
+        t.add(t2);
+        Assert.assertEquals(EnumSet.of(Trigger.Dependency.TIME, Trigger.Dependency.NETWORK), t.dependencies());
+
+        // unknown dependencies -> evaluate on every change
+        t.add(new DummyTrigger(true));
+        Assert.assertEquals(EnumSet.allOf(Trigger.Dependency.class), t.dependencies());
+    }
+
     @Before
     public void prepareMock() {
         AAPSMocker.mockMainApp();
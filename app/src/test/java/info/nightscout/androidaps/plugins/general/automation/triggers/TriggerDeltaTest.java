@@ -24,6 +24,7 @@ import info.nightscout.androidaps.plugins.configBuilder.ProfileFunctions;
 import info.nightscout.androidaps.plugins.general.automation.elements.Comparator;
 import info.nightscout.androidaps.plugins.general.automation.elements.InputDelta.DeltaType;
 import info.nightscout.androidaps.plugins.general.nsclient.data.NSSgv;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.BgTimeSeries;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.GlucoseStatus;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.IobCobCalculatorPlugin;
 import info.nightscout.androidaps.utils.DateUtil;
@@ -38,7 +39,7 @@ public class TriggerDeltaTest {
 
     @Test
     public void shouldRunTest() {
-        when(IobCobCalculatorPlugin.getPlugin().getBgReadings()).thenReturn(generateValidBgData());
+        when(IobCobCalculatorPlugin.getPlugin().getBgData()).thenReturn(BgTimeSeries.fromReadings(generateValidBgData()));
         //Test if time passed is less than 5 min
         TriggerDelta t = new TriggerDelta().setUnits(Constants.MGDL).setValue(-3d, DeltaType.DELTA).comparator(Comparator.Compare.IS_EQUAL_OR_GREATER).lastRun(now-1);
         Assert.assertFalse(t.shouldRun());
@@ -64,7 +65,7 @@ public class TriggerDeltaTest {
         t = new TriggerDelta().setUnits(Constants.MMOL).setValue(-0.2d, DeltaType.LONG_AVERAGE).comparator(Comparator.Compare.IS_EQUAL_OR_LESSER);
         Assert.assertFalse(t.shouldRun());
 
-        when(IobCobCalculatorPlugin.getPlugin().getBgReadings()).thenReturn(new ArrayList<>());
+        when(IobCobCalculatorPlugin.getPlugin().getBgData()).thenReturn(BgTimeSeries.fromReadings(new ArrayList<>()));
         t = new TriggerDelta().setUnits(Constants.MGDL).setValue(213, DeltaType.DELTA).comparator(Comparator.Compare.IS_EQUAL_OR_LESSER);
         Assert.assertFalse(t.shouldRun());
         t = new TriggerDelta().comparator(Comparator.Compare.IS_NOT_AVAILABLE);
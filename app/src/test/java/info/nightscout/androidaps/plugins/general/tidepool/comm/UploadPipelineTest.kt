@@ -0,0 +1,135 @@
+package info.nightscout.androidaps.plugins.general.tidepool.comm
+
+import info.nightscout.androidaps.logging.L
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.powermock.api.mockito.PowerMockito
+import org.powermock.core.classloader.annotations.PrepareForTest
+import org.powermock.modules.junit4.PowerMockRunner
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+@RunWith(PowerMockRunner::class)
+@PrepareForTest(L::class)
+class UploadPipelineTest {
+
+    private val window = 100L
+    private val maxInFlight = 3
+
+    // answers uploads on its own threads in random order like remote server would,
+    // first answer is held until concurrentUploads uploads were started
+    private class StubServer(private val failingWindow: Long? = null, concurrentUploads: Int = 0) {
+        private val executor = Executors.newFixedThreadPool(4)
+        private val gate = CountDownLatch(concurrentUploads)
+        private val random = Random(1)
+        private val inFlight = AtomicInteger(0)
+        val maxInFlight = AtomicInteger(0)
+        val received: MutableList<Long> = Collections.synchronizedList(ArrayList<Long>())
+
+        fun upload(body: String, onSuccess: () -> Unit, onFail: () -> Unit) {
+            val start = body.trim('[', ']').toLong()
+            val delay = random.nextInt(20).toLong()
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet()) { a, b -> Math.max(a, b) }
+            gate.countDown()
+            executor.execute {
+                gate.await(5, TimeUnit.SECONDS)
+                Thread.sleep(delay)
+                inFlight.decrementAndGet()
+                if (start == failingWindow) onFail()
+                else {
+                    received.add(start)
+                    onSuccess()
+                }
+            }
+        }
+    }
+
+    private class Store {
+        var lastEnd = 0L
+        var completed = ""
+
+        fun checkpoint() = UploadCheckpoint(lastEnd, completed) { end, windows ->
+            lastEnd = end
+            completed = windows
+        }
+    }
+
+    private fun pipeline(store: Store, server: StubServer, built: MutableList<Long> = ArrayList()) =
+            UploadPipeline(store.checkpoint(), window, maxInFlight,
+                    { start, _ ->
+                        built.add(start)
+                        "[$start]"
+                    },
+                    { body, onSuccess, onFail -> server.upload(body, onSuccess, onFail) })
+
+    @Test
+    fun uploadsAllWindowsWithBoundedParallelism() {
+        val store = Store()
+        val server = StubServer(concurrentUploads = maxInFlight)
+        assertTrue(pipeline(store, server).run(2050))
+        assertEquals(21, server.received.size)
+        assertEquals((0L..2000L step window).toSet(), server.received.toSet())
+        assertEquals(maxInFlight, server.maxInFlight.get())
+        assertEquals(2050L, store.lastEnd)
+        assertEquals("", store.completed)
+    }
+
+    @Test
+    fun resumesAfterFailure() {
+        val store = Store()
+        val server = StubServer(failingWindow = 500)
+        assertFalse(pipeline(store, server).run(1000))
+        assertEquals(500L, store.lastEnd)
+
+        // nothing uploaded before interruption is built again
+        val built = ArrayList<Long>()
+        val uploadedBefore = HashSet(server.received)
+        assertTrue(pipeline(store, StubServer(), built).run(1000))
+        assertTrue(built.contains(500L))
+        for (start in built) assertFalse(uploadedBefore.contains(start))
+        assertEquals(1000L, store.lastEnd)
+        assertEquals("", store.completed)
+    }
+
+    @Test
+    fun skipsEmptyWindows() {
+        val store = Store()
+        val server = StubServer()
+        val pipeline = UploadPipeline(store.checkpoint(), window, maxInFlight,
+                { start, _ -> if (start == 100L) "[$start]" else "[]" },
+                { body, onSuccess, onFail -> server.upload(body, onSuccess, onFail) })
+        assertTrue(pipeline.run(300))
+        assertEquals(listOf(100L), server.received)
+        assertEquals(300L, store.lastEnd)
+    }
+
+    @Test
+    fun checkpointAdvancesOverContiguousWindows() {
+        val persisted = ArrayList<String>()
+        val checkpoint = UploadCheckpoint(0, "") { end, completed -> persisted.add("$end|$completed") }
+        checkpoint.complete(200, 300)
+        checkpoint.complete(100, 200)
+        assertEquals(0L, checkpoint.lastEnd)
+        checkpoint.complete(0, 100)
+        assertEquals(300L, checkpoint.lastEnd)
+        assertEquals(listOf("0|200:300", "0|100:200,200:300", "300|"), persisted)
+
+        // restored state drops windows already behind lastEnd
+        val restored = UploadCheckpoint(100, "0:100,200:300,bad") { _, _ -> }
+        assertEquals(100L, restored.lastEnd)
+        assertEquals(300L, restored.completedEnd(200))
+        assertEquals("200:300", restored.serialize())
+    }
+
+    @Before
+    fun prepareMock() {
+        PowerMockito.mockStatic(L::class.java)
+    }
+}
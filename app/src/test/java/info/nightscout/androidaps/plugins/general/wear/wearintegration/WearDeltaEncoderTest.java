@@ -0,0 +1,179 @@
+package info.nightscout.androidaps.plugins.general.wear.wearintegration;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class WearDeltaEncoderTest {
+
+    @Test
+    public void deltaAgainstAcknowledgedState() {
+        WearDeltaEncoder encoder = new WearDeltaEncoder(1);
+
+        WearDeltaEncoder.Delta first = encoder.encode(state(new long[]{1000, 2000, 800}, new long[]{2000, 3000, 900}));
+        Assert.assertTrue(first.isFull());
+        Assert.assertEquals(6, first.upserts.get("basals").length);
+
+        // not acknowledged yet, still full
+        WearDeltaEncoder.Delta second = encoder.encode(state(new long[]{1000, 2000, 800}, new long[]{2000, 3000, 900}));
+        Assert.assertTrue(second.isFull());
+
+        encoder.ack(1, second.seq);
+        WearDeltaEncoder.Delta third = encoder.encode(state(new long[]{2000, 3500, 900}, new long[]{3500, 4000, 1000}));
+        Assert.assertFalse(third.isFull());
+        Assert.assertEquals(second.seq, third.baseSeq);
+        Assert.assertArrayEquals(new long[]{2000, 3500, 900, 3500, 4000, 1000}, third.upserts.get("basals"));
+        Assert.assertArrayEquals(new long[]{1000}, third.removed.get("basals"));
+
+        // wrong version and unknown seq are ignored
+        encoder.ack(2, third.seq);
+        encoder.ack(1, 100);
+        WearDeltaEncoder.Delta fourth = encoder.encode(state(new long[]{2000, 3500, 900}, new long[]{3500, 4000, 1000}));
+        Assert.assertEquals(second.seq, fourth.baseSeq);
+
+        encoder.ack(1, fourth.seq);
+        WearDeltaEncoder.Delta unchanged = encoder.encode(state(new long[]{2000, 3500, 900}, new long[]{3500, 4000, 1000}));
+        Assert.assertEquals(0, unchanged.upserts.get("basals").length);
+        Assert.assertEquals(0, unchanged.removed.get("basals").length);
+
+        encoder.reset();
+        Assert.assertTrue(encoder.encode(state(new long[]{2000, 3500, 900})).isFull());
+    }
+
+    @Test
+    public void unacknowledgedStatesAreLimited() {
+        WearDeltaEncoder encoder = new WearDeltaEncoder(1);
+        WearDeltaEncoder.Delta acked = encoder.encode(state(new long[]{1000, 2000, 800}));
+        encoder.ack(1, acked.seq);
+        for (int i = 0; i < 20; i++)
+            encoder.encode(state(new long[]{1000, 2000, 800}));
+        // acknowledged state is kept as base
+        Assert.assertEquals(acked.seq, encoder.encode(state(new long[]{1000, 2000, 800})).baseSeq);
+    }
+
+    @Test
+    public void deltasSentBeforeAcknowledgeRebuildState() {
+        WearDeltaEncoder encoder = new WearDeltaEncoder(1);
+        Watch watch = new Watch();
+        watch.receive(encoder, encoder.encode(state(new long[]{1000, 2000, 800})));
+
+        // loop cycle sends several updates before acknowledge comes back
+        WearDeltaEncoder.Delta second = encoder.encode(state(new long[]{1000, 2000, 800}, new long[]{2000, 3000, 900}));
+        WearDeltaEncoder.Delta third = encoder.encode(state(new long[]{2000, 3500, 900}));
+        Assert.assertEquals(second.baseSeq, third.baseSeq);
+
+        Assert.assertTrue(watch.receive(encoder, second));
+        Assert.assertTrue(watch.receive(encoder, third));
+        Assert.assertEquals("2000-3500:900", watch.basals());
+
+        WearDeltaEncoder.Delta fourth = encoder.encode(state(new long[]{2000, 3500, 900}, new long[]{3500, 4000, 1000}));
+        Assert.assertEquals(third.seq, fourth.baseSeq);
+        Assert.assertTrue(watch.receive(encoder, fourth));
+        Assert.assertEquals("2000-3500:900 3500-4000:1000", watch.basals());
+    }
+
+    @Test
+    public void mergedAndReorderedDeltasRebuildState() {
+        WearDeltaEncoder encoder = new WearDeltaEncoder(1);
+        Watch watch = new Watch();
+        watch.receive(encoder, encoder.encode(state(new long[]{1000, 2000, 800})));
+
+        WearDeltaEncoder.Delta second = encoder.encode(state(new long[]{1000, 2000, 800}, new long[]{2000, 3000, 900}));
+        WearDeltaEncoder.Delta third = encoder.encode(state(new long[]{2000, 3000, 900}, new long[]{3000, 4000, 1000}));
+        WearDeltaEncoder.Delta fourth = encoder.encode(state(new long[]{3000, 4000, 1000}));
+
+        // second was merged by data layer, fourth comes before third
+        Assert.assertTrue(watch.receive(encoder, fourth));
+        Assert.assertFalse(watch.receive(encoder, third));
+        Assert.assertEquals("3000-4000:1000", watch.basals());
+
+        WearDeltaEncoder.Delta fifth = encoder.encode(state(new long[]{3000, 4500, 1000}));
+        Assert.assertEquals(fourth.seq, fifth.baseSeq);
+        Assert.assertTrue(watch.receive(encoder, fifth));
+        Assert.assertEquals("3000-4500:1000", watch.basals());
+        Assert.assertFalse(watch.receive(encoder, second));
+    }
+
+    @Test
+    public void entriesSharingTimeAreSentAsGroup() {
+        WearDeltaEncoder encoder = new WearDeltaEncoder(1);
+        // IOB, COB and UAM curves on the same timestamps
+        long[] iob = {5000, 100000, 1};
+        long[] cob = {5000, 120000, 2};
+        long[] uam = {5000, 130000, 3};
+        long[] iobNext = {10000, 95000, 1};
+
+        WearDeltaEncoder.Delta full = encoder.encode(predictions(iob, cob, uam, iobNext));
+        Assert.assertArrayEquals(new long[]{5000, 100000, 1, 5000, 120000, 2, 5000, 130000, 3, 10000, 95000, 1}, full.upserts.get("predictions"));
+        encoder.ack(1, full.seq);
+
+        // one curve changed, whole group of its time is sent
+        WearDeltaEncoder.Delta changed = encoder.encode(predictions(iob, new long[]{5000, 125000, 2}, uam, iobNext));
+        Assert.assertArrayEquals(new long[]{5000, 100000, 1, 5000, 125000, 2, 5000, 130000, 3}, changed.upserts.get("predictions"));
+        Assert.assertEquals(0, changed.removed.get("predictions").length);
+        encoder.ack(1, changed.seq);
+
+        // curve disappeared, remaining group replaces the old one
+        WearDeltaEncoder.Delta fewer = encoder.encode(predictions(iob, iobNext));
+        Assert.assertArrayEquals(new long[]{5000, 100000, 1}, fewer.upserts.get("predictions"));
+        Assert.assertEquals(0, fewer.removed.get("predictions").length);
+        encoder.ack(1, fewer.seq);
+
+        WearDeltaEncoder.Delta removed = encoder.encode(predictions(iobNext));
+        Assert.assertEquals(0, removed.upserts.get("predictions").length);
+        Assert.assertArrayEquals(new long[]{5000}, removed.removed.get("predictions"));
+    }
+
+    /**
+     * Watch side of protocol as in BasalsDeltaDecoder (wear module): recent states are kept by seq,
+     * older deltas are ignored and applied state is acknowledged.
+     */
+    private static class Watch {
+        private int seq = WearDeltaEncoder.FULL;
+        private final Map<Integer, TreeMap<Long, long[]>> states = new HashMap<>();
+
+        boolean receive(WearDeltaEncoder encoder, WearDeltaEncoder.Delta delta) {
+            if (delta.seq <= seq) return false;
+            TreeMap<Long, long[]> base = delta.isFull() ? new TreeMap<>() : states.get(delta.baseSeq);
+            Assert.assertNotNull("base state is not known", base);
+            TreeMap<Long, long[]> state = new TreeMap<>(base);
+            for (long key : delta.removed.get("basals"))
+                state.remove(key);
+            long[] upserts = delta.upserts.get("basals");
+            for (int i = 0; i < upserts.length; i += 3)
+                state.put(upserts[i], new long[]{upserts[i], upserts[i + 1], upserts[i + 2]});
+            states.put(delta.seq, state);
+            seq = delta.seq;
+            encoder.ack(delta.version, delta.seq);
+            return true;
+        }
+
+        String basals() {
+            StringBuilder sb = new StringBuilder();
+            for (long[] basal : states.get(seq).values())
+                sb.append(basal[0]).append("-").append(basal[1]).append(":").append(basal[2]).append(" ");
+            return sb.toString().trim();
+        }
+    }
+
+    private Map<String, List<long[]>> predictions(long[]... predictions) {
+        Map<String, List<long[]>> state = new HashMap<>();
+        List<long[]> list = new ArrayList<>();
+        for (long[] prediction : predictions) list.add(prediction);
+        state.put("predictions", list);
+        return state;
+    }
+
+    private Map<String, List<long[]>> state(long[]... basals) {
+        Map<String, List<long[]>> state = new HashMap<>();
+        List<long[]> list = new ArrayList<>();
+        for (long[] basal : basals) list.add(basal);
+        state.put("basals", list);
+        return state;
+    }
+}
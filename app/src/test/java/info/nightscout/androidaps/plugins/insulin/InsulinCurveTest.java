@@ -0,0 +1,64 @@
+package info.nightscout.androidaps.plugins.insulin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class InsulinCurveTest {
+
+    private static final double IOB_PRECISION = 0.00000001;
+    private static final double ACTIVITY_PRECISION = 0.000000001;
+
+    @Test
+    public void curveMatchesAnalyticFormula() {
+        int[] peaks = {45, 55, 75, 90};
+        double[] dias = {5, 6.5, 8, 9.75};
+        for (int peak : peaks) {
+            for (double dia : dias) {
+                InsulinCurve curve = new InsulinCurve(peak, dia);
+                // 7 sec step to hit points between table values
+                for (double t = 0; t < dia * 60 + 10; t += 7 / 60d) {
+                    assertEquals("iob peak=" + peak + " dia=" + dia + " t=" + t, analyticIob(peak, dia, t), curve.iob(t), IOB_PRECISION);
+                    assertEquals("activity peak=" + peak + " dia=" + dia + " t=" + t, analyticActivity(peak, dia, t), curve.activity(t), ACTIVITY_PRECISION);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void curveOutsideOfTable() {
+        InsulinCurve curve = new InsulinCurve(75, 5);
+        assertEquals(1d, curve.iob(0), IOB_PRECISION);
+        assertEquals(0d, curve.iob(5 * 60), 0);
+        assertEquals(0d, curve.activity(5 * 60 + 1), 0);
+        // treatment in the future is not in the table
+        assertEquals(analyticIob(75, 5, -10), curve.iob(-10), 0);
+        assertEquals(analyticActivity(75, 5, -10), curve.activity(-10), 0);
+    }
+
+    @Test
+    public void isFor() {
+        InsulinCurve curve = new InsulinCurve(55, 6);
+        assertEquals(true, curve.isFor(55, 6));
+        assertEquals(false, curve.isFor(75, 6));
+        assertEquals(false, curve.isFor(55, 7));
+    }
+
+    private double analyticIob(int peak, double dia, double t) {
+        double td = dia * 60;
+        if (t >= td) return 0;
+        double tau = peak * (1 - peak / td) / (1 - 2 * peak / td);
+        double a = 2 * tau / td;
+        double S = 1 / (1 - a + (1 + a) * Math.exp(-td / tau));
+        return 1 - S * (1 - a) * ((Math.pow(t, 2) / (tau * td * (1 - a)) - t / tau - 1) * Math.exp(-t / tau) + 1);
+    }
+
+    private double analyticActivity(int peak, double dia, double t) {
+        double td = dia * 60;
+        if (t >= td) return 0;
+        double tau = peak * (1 - peak / td) / (1 - 2 * peak / td);
+        double a = 2 * tau / td;
+        double S = 1 / (1 - a + (1 + a) * Math.exp(-td / tau));
+        return (S / Math.pow(tau, 2)) * t * (1 - t / td) * Math.exp(-t / tau);
+    }
+}
@@ -76,6 +76,32 @@ public class InsulinOrefBasePluginTest extends InsulinOrefBasePlugin {
         assertEquals(0d, this.iobCalcForTreatment(treatment, time).iobContrib, 0.1);
     }
 
+    @Test
+    public void testAddIobContrib() {
+        this.peak = 75;
+        this.dia = 5;
+        long time = System.currentTimeMillis();
+
+        Treatment treatment = new Treatment();
+        treatment.insulin = 0.1d;
+        Iob accumulator = new Iob();
+        double iob = 0d;
+        double activity = 0d;
+        // 5 min slices as in temp basal calculation
+        for (int i = 0; i < 60; i++) {
+            treatment.date = time - i * 5 * 60 * 1000L - 150 * 1000L;
+            Iob single = this.iobCalcForTreatment(treatment, time);
+            iob += single.iobContrib;
+            activity += single.activityContrib;
+            this.addIobContrib(treatment.insulin, treatment.date, time, 0d, accumulator);
+        }
+        assertEquals(iob, accumulator.iobContrib, 0.0000001);
+        assertEquals(activity, accumulator.activityContrib, 0.0000001);
+
+        // zero insulin doesn't touch accumulator
+        this.addIobContrib(0d, time, time, 0d, accumulator);
+        assertEquals(iob, accumulator.iobContrib, 0.0000001);
+    }
 
     /**
      * this method is implemented to allow tests of the iobCalcForTreatment calculation
@@ -0,0 +1,126 @@
+package info.nightscout.androidaps.plugins.iob.iobCobCalculator;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import info.nightscout.androidaps.events.EventNewBG;
+import info.nightscout.androidaps.events.EventPreferenceChange;
+import info.nightscout.androidaps.logging.L;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({L.class})
+public class CalculationExecutorTest {
+
+    private LinkedBlockingQueue<CalculationExecutor.Request> calculated = new LinkedBlockingQueue<>();
+    private CountDownLatch firstStarted = new CountDownLatch(1);
+    private CountDownLatch releaseFirst = new CountDownLatch(1);
+    private CalculationExecutor executor;
+
+    @Before
+    public void prepare() {
+        PowerMockito.mockStatic(L.class);
+
+        // first calculation runs until released, the following ones finish immediately
+        IobCobCalculatorPlugin plugin = mock(IobCobCalculatorPlugin.class);
+        doAnswer(invocation -> {
+            CalculationExecutor.Request request = invocation.getArgument(0);
+            if (firstStarted.getCount() > 0) {
+                firstStarted.countDown();
+                releaseFirst.await(5, TimeUnit.SECONDS);
+            }
+            calculated.add(request);
+            return null;
+        }).when(plugin).calculate(any());
+
+        executor = new CalculationExecutor(plugin);
+    }
+
+    @Test
+    public void overlappingRequestsAreMergedToEarliestStart() throws Exception {
+        CalculationExecutor.Request first = new CalculationExecutor.Request("first", 10000, false, true, new EventNewBG(null));
+        executor.submit(first);
+        Assert.assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+
+        executor.submit(new CalculationExecutor.Request("second", 20000, false, true, new EventPreferenceChange("key"))
+                .invalidateFrom(3000, "second").newBg(5000));
+        executor.submit(new CalculationExecutor.Request("third", 15000, true, true, new EventPreferenceChange("key"))
+                .invalidateFrom(1000, "third").newBg(7000));
+        Assert.assertTrue(first.isCancelled());
+        releaseFirst.countDown();
+
+        Assert.assertSame(first, calculated.poll(5, TimeUnit.SECONDS));
+        CalculationExecutor.Request merged = calculated.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(merged);
+        Assert.assertEquals("second,third", merged.from);
+        Assert.assertEquals(1000, merged.invalidateFrom);
+        Assert.assertEquals("third", merged.invalidateReason);
+        Assert.assertEquals(5000, merged.newBgTime);
+        Assert.assertEquals(20000, merged.end);
+        Assert.assertTrue(merged.bgDataReload);
+        // loop must still run after cancelled calculation caused by new BG
+        Assert.assertTrue(merged.cause instanceof EventNewBG);
+        Assert.assertFalse(merged.isCancelled());
+        // merged requests are calculated only once
+        Assert.assertNull(calculated.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void readersWaitForInvalidatedData() throws Exception {
+        executor.submit(new CalculationExecutor.Request("newBG", 10000, false, true, new EventNewBG(null)).newBg(5000));
+        Assert.assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        // calculation without invalidation doesn't block readers
+        Assert.assertTrue(executor.awaitInvalidations(0));
+
+        executor.submit(new CalculationExecutor.Request("history", 10000, false, true, null)
+                .invalidateFrom(1000, "history"));
+        Assert.assertFalse(executor.awaitInvalidations(100));
+
+        releaseFirst.countDown();
+        Assert.assertTrue(executor.awaitInvalidations(5000));
+        Assert.assertEquals(2, calculated.size());
+    }
+
+    @Test
+    public void cancelStopsRunningCalculation() throws Exception {
+        IobCobCalculatorPlugin plugin = mock(IobCobCalculatorPlugin.class);
+        CountDownLatch started = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            CalculationExecutor.Request request = invocation.getArgument(0);
+            started.countDown();
+            // as calculation loop checks cancellation between buckets
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!request.isCancelled() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            calculated.add(request);
+            return null;
+        }).when(plugin).calculate(any());
+        CalculationExecutor executor = new CalculationExecutor(plugin);
+
+        CalculationExecutor.Request running = new CalculationExecutor.Request("running", 10000, false, true, null);
+        executor.submit(running);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.submit(new CalculationExecutor.Request("waiting", 20000, false, true, null));
+
+        long start = System.currentTimeMillis();
+        executor.cancel("test");
+
+        // cancel returns after running calculation stopped, waiting one is dropped
+        Assert.assertTrue(System.currentTimeMillis() - start < 4000);
+        Assert.assertTrue(running.isCancelled());
+        Assert.assertSame(running, calculated.poll());
+        Assert.assertNull(calculated.poll(200, TimeUnit.MILLISECONDS));
+    }
+}
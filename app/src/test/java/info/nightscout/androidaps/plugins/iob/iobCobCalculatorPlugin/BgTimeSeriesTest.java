@@ -0,0 +1,126 @@
+package info.nightscout.androidaps.plugins.iob.iobCobCalculatorPlugin;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.nightscout.androidaps.db.BgReading;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.BgTimeSeries;
+import info.nightscout.androidaps.utils.T;
+
+public class BgTimeSeriesTest {
+
+    @Test
+    public void fromReadingsTest() {
+        List<BgReading> bgReadingList = new ArrayList<>();
+        bgReadingList.add(new BgReading().date(T.mins(20).msecs()).value(120));
+        bgReadingList.add(new BgReading().date(T.mins(15).msecs()).value(115));
+        bgReadingList.add(new BgReading().date(T.mins(10).msecs()).value(110));
+
+        BgTimeSeries series = BgTimeSeries.fromReadings(bgReadingList);
+        Assert.assertEquals(3, series.size());
+        for (int i = 0; i < bgReadingList.size(); i++) {
+            Assert.assertEquals(bgReadingList.get(i).date, series.getDate(i));
+            Assert.assertEquals(bgReadingList.get(i).value, series.getValue(i), 0.01d);
+        }
+        Assert.assertEquals(0, BgTimeSeries.fromReadings(new ArrayList<>()).size());
+    }
+
+    @Test
+    public void appendAndRemoveTest() {
+        BgTimeSeries series = new BgTimeSeries(2);
+        for (int i = 1; i <= 10; i++)
+            series.addNewest(T.mins(5 * i).msecs(), 100 + i);
+        series.addOldest(0, 100);
+        Assert.assertEquals(11, series.size());
+        Assert.assertEquals(T.mins(50).msecs(), series.getDate(0));
+        Assert.assertEquals(110, series.getValue(0), 0.01d);
+        Assert.assertEquals(0, series.getDate(10));
+
+        Assert.assertEquals(4, series.removeOlderThan(T.mins(18).msecs()));
+        Assert.assertEquals(7, series.size());
+        Assert.assertEquals(T.mins(20).msecs(), series.getDate(6));
+
+        series.addNewest(T.mins(55).msecs(), 111);
+        Assert.assertEquals(8, series.size());
+        Assert.assertEquals(111, series.getValue(0), 0.01d);
+        Assert.assertEquals(T.mins(20).msecs(), series.getDate(7));
+
+        Assert.assertEquals(8, series.removeOlderThan(T.mins(60).msecs()));
+        Assert.assertEquals(0, series.size());
+    }
+
+    @Test
+    public void removedSpaceIsReusedTest() {
+        BgTimeSeries series = new BgTimeSeries(8);
+        // one day of readings while keeping last 5
+        for (int i = 1; i <= 288; i++) {
+            series.addNewest(T.mins(5 * i).msecs(), 100 + i % 50);
+            series.removeOlderThan(T.mins(5 * i - 20).msecs());
+            Assert.assertEquals(Math.min(i, 5), series.size());
+            Assert.assertEquals(T.mins(5 * i).msecs(), series.getDate(0));
+            Assert.assertEquals(T.mins(5 * Math.max(1, i - 4)).msecs(), series.getDate(series.size() - 1));
+        }
+        Assert.assertEquals(16, series.capacity());
+
+        // older values fill space at the other end before arrays grow
+        for (int i = 1; i <= 3; i++)
+            series.addOldest(T.mins(1420 - 5 * i).msecs(), 100);
+        Assert.assertEquals(8, series.size());
+        Assert.assertEquals(16, series.capacity());
+        Assert.assertEquals(T.mins(1440).msecs(), series.getDate(0));
+        Assert.assertEquals(T.mins(1420).msecs(), series.getDate(4));
+        Assert.assertEquals(T.mins(1405).msecs(), series.getDate(7));
+        // and grow when more than half is used
+        series.addOldest(T.mins(1400).msecs(), 100);
+        series.addOldest(T.mins(1395).msecs(), 100);
+        Assert.assertEquals(10, series.size());
+        Assert.assertEquals(T.mins(1395).msecs(), series.getDate(9));
+    }
+
+    @Test
+    public void copyTest() {
+        BgTimeSeries series = series();
+        series.removeOlderThan(T.mins(10).msecs());
+        BgTimeSeries copy = series.copy();
+        series.addNewest(T.mins(25).msecs(), 125);
+        Assert.assertEquals(3, copy.size());
+        Assert.assertEquals(T.mins(20).msecs(), copy.getDate(0));
+        Assert.assertEquals(T.mins(10).msecs(), copy.getDate(2));
+        copy.addNewest(T.mins(30).msecs(), 130);
+        Assert.assertEquals(4, series.size());
+        Assert.assertEquals(125, series.getValue(0), 0.01d);
+    }
+
+    @Test
+    public void indexOfNewerTest() {
+        BgTimeSeries series = series();
+        Assert.assertEquals(T.mins(10).msecs(), series.getDate(series.indexOfNewer(T.mins(8).msecs())));
+        Assert.assertEquals(T.mins(5).msecs(), series.getDate(series.indexOfNewer(T.mins(5).msecs())));
+        Assert.assertEquals(T.mins(5).msecs(), series.getDate(series.indexOfNewer(T.mins(1).msecs())));
+        Assert.assertEquals(T.mins(20).msecs(), series.getDate(series.indexOfNewer(T.mins(20).msecs())));
+        Assert.assertEquals(-1, series.indexOfNewer(T.mins(22).msecs()));
+        Assert.assertEquals(-1, new BgTimeSeries().indexOfNewer(0));
+    }
+
+    @Test
+    public void indexOfOlderTest() {
+        BgTimeSeries series = series();
+        Assert.assertEquals(T.mins(5).msecs(), series.getDate(series.indexOfOlder(T.mins(8).msecs())));
+        Assert.assertEquals(T.mins(10).msecs(), series.getDate(series.indexOfOlder(T.mins(10).msecs())));
+        Assert.assertEquals(T.mins(20).msecs(), series.getDate(series.indexOfOlder(T.mins(25).msecs())));
+        Assert.assertEquals(-1, series.indexOfOlder(T.mins(4).msecs()));
+        Assert.assertEquals(-1, new BgTimeSeries().indexOfOlder(0));
+    }
+
+    private BgTimeSeries series() {
+        BgTimeSeries series = new BgTimeSeries();
+        series.addNewest(T.mins(5).msecs(), 100);
+        series.addNewest(T.mins(10).msecs(), 100);
+        series.addNewest(T.mins(15).msecs(), 100);
+        series.addNewest(T.mins(20).msecs(), 100);
+        return series;
+    }
+}
@@ -16,6 +16,7 @@ import java.util.List;
 import info.AAPSMocker;
 import info.nightscout.androidaps.MainApp;
 import info.nightscout.androidaps.db.BgReading;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.BgTimeSeries;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.GlucoseStatus;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.IobCobCalculatorPlugin;
 import info.nightscout.androidaps.plugins.general.nsclient.data.NSSgv;
@@ -49,7 +50,7 @@ public class GlucoseStatusTest {
 
     @Test
     public void calculateValidGlucoseStatus() {
-        when(iobCobCalculatorPlugin.getBgReadings()).thenReturn(generateValidBgData());
+        when(iobCobCalculatorPlugin.getBgData()).thenReturn(BgTimeSeries.fromReadings(generateValidBgData()));
 
         GlucoseStatus glucoseStatus = GlucoseStatus.getGlucoseStatusData();
         Assert.assertEquals(214d, glucoseStatus.glucose, 0.001d);
@@ -62,7 +63,7 @@ public class GlucoseStatusTest {
 
     @Test
     public void calculateMostRecentGlucoseStatus() {
-        when(iobCobCalculatorPlugin.getBgReadings()).thenReturn(generateMostRecentBgData());
+        when(iobCobCalculatorPlugin.getBgData()).thenReturn(BgTimeSeries.fromReadings(generateMostRecentBgData()));
 
         GlucoseStatus glucoseStatus = GlucoseStatus.getGlucoseStatusData();
         Assert.assertEquals(215d, glucoseStatus.glucose, 0.001d); // (214+216) / 2
@@ -75,7 +76,7 @@ public class GlucoseStatusTest {
 
     @Test
     public void oneRecordShouldProduceZeroDeltas() {
-        when(iobCobCalculatorPlugin.getBgReadings()).thenReturn(generateOneCurrentRecordBgData());
+        when(iobCobCalculatorPlugin.getBgData()).thenReturn(BgTimeSeries.fromReadings(generateOneCurrentRecordBgData()));
 
         GlucoseStatus glucoseStatus = GlucoseStatus.getGlucoseStatusData();
 
@@ -89,7 +90,7 @@ public class GlucoseStatusTest {
 
     @Test
     public void insuffientDataShouldReturnNull() {
-        when(iobCobCalculatorPlugin.getBgReadings()).thenReturn(generateInsufficientBgData());
+        when(iobCobCalculatorPlugin.getBgData()).thenReturn(BgTimeSeries.fromReadings(generateInsufficientBgData()));
 
         GlucoseStatus glucoseStatus = GlucoseStatus.getGlucoseStatusData();
         Assert.assertEquals(null, glucoseStatus);
@@ -97,7 +98,7 @@ public class GlucoseStatusTest {
 
     @Test
     public void oldDataShouldReturnNull() {
-        when(iobCobCalculatorPlugin.getBgReadings()).thenReturn(generateOldBgData());
+        when(iobCobCalculatorPlugin.getBgData()).thenReturn(BgTimeSeries.fromReadings(generateOldBgData()));
 
         GlucoseStatus glucoseStatus = GlucoseStatus.getGlucoseStatusData();
         Assert.assertEquals(null, glucoseStatus);
@@ -105,7 +106,7 @@ public class GlucoseStatusTest {
 
     @Test
     public void returnOldDataIfAllowed() {
-        when(iobCobCalculatorPlugin.getBgReadings()).thenReturn(generateOldBgData());
+        when(iobCobCalculatorPlugin.getBgData()).thenReturn(BgTimeSeries.fromReadings(generateOldBgData()));
 
         GlucoseStatus glucoseStatus = GlucoseStatus.getGlucoseStatusData(true);
         Assert.assertNotEquals(null, glucoseStatus);
@@ -118,7 +119,7 @@ public class GlucoseStatusTest {
 
     @Test
     public void calculateGlucoseStatusForLibreTestBgData() {
-        when(iobCobCalculatorPlugin.getBgReadings()).thenReturn(generateLibreTestData());
+        when(iobCobCalculatorPlugin.getBgData()).thenReturn(BgTimeSeries.fromReadings(generateLibreTestData()));
 
         GlucoseStatus glucoseStatus = GlucoseStatus.getGlucoseStatusData();
 
@@ -2,6 +2,8 @@ package info.nightscout.androidaps.plugins.iob.iobCobCalculatorPlugin;
 
 import android.content.Context;
 
+import androidx.collection.LongSparseArray;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -123,9 +125,10 @@ public class IobCobCalculatorPluginTest {
         Assert.assertEquals(true, iobCobCalculatorPlugin.isAbout5minData());
 
         iobCobCalculatorPlugin.createBucketedData();
+        iobCobCalculatorPlugin.publishSnapshot();
 
-        Assert.assertEquals(bgReadingList.get(0).date, iobCobCalculatorPlugin.getBucketedData().get(0).date);
-        Assert.assertEquals(bgReadingList.get(3).date, iobCobCalculatorPlugin.getBucketedData().get(3).date);
+        Assert.assertEquals(bgReadingList.get(0).date, iobCobCalculatorPlugin.getBucketedData().getDate(0));
+        Assert.assertEquals(bgReadingList.get(3).date, iobCobCalculatorPlugin.getBucketedData().getDate(3));
         Assert.assertEquals(bgReadingList.size(), iobCobCalculatorPlugin.getBucketedData().size());
 
         // Missing value should be replaced
@@ -138,9 +141,10 @@ public class IobCobCalculatorPluginTest {
         Assert.assertEquals(true, iobCobCalculatorPlugin.isAbout5minData());
 
         iobCobCalculatorPlugin.createBucketedData();
+        iobCobCalculatorPlugin.publishSnapshot();
 
-        Assert.assertEquals(bgReadingList.get(0).date, iobCobCalculatorPlugin.getBucketedData().get(0).date);
-        Assert.assertEquals(bgReadingList.get(2).date, iobCobCalculatorPlugin.getBucketedData().get(3).date);
+        Assert.assertEquals(bgReadingList.get(0).date, iobCobCalculatorPlugin.getBucketedData().getDate(0));
+        Assert.assertEquals(bgReadingList.get(2).date, iobCobCalculatorPlugin.getBucketedData().getDate(3));
         Assert.assertEquals(bgReadingList.size() + 1, iobCobCalculatorPlugin.getBucketedData().size());
 
         // drift should be cleared
@@ -155,11 +159,12 @@ public class IobCobCalculatorPluginTest {
         Assert.assertEquals(true, iobCobCalculatorPlugin.isAbout5minData());
 
         iobCobCalculatorPlugin.createBucketedData();
+        iobCobCalculatorPlugin.publishSnapshot();
 
-        Assert.assertEquals(T.mins(20).msecs(), iobCobCalculatorPlugin.getBucketedData().get(0).date);
-        Assert.assertEquals(T.mins(15).msecs(), iobCobCalculatorPlugin.getBucketedData().get(1).date);
-        Assert.assertEquals(T.mins(10).msecs(), iobCobCalculatorPlugin.getBucketedData().get(2).date);
-        Assert.assertEquals(T.mins(5).msecs(), iobCobCalculatorPlugin.getBucketedData().get(3).date);
+        Assert.assertEquals(T.mins(20).msecs(), iobCobCalculatorPlugin.getBucketedData().getDate(0));
+        Assert.assertEquals(T.mins(15).msecs(), iobCobCalculatorPlugin.getBucketedData().getDate(1));
+        Assert.assertEquals(T.mins(10).msecs(), iobCobCalculatorPlugin.getBucketedData().getDate(2));
+        Assert.assertEquals(T.mins(5).msecs(), iobCobCalculatorPlugin.getBucketedData().getDate(3));
         Assert.assertEquals(bgReadingList.size(), iobCobCalculatorPlugin.getBucketedData().size());
 
         // bucketed data should return null if not enough bg data
@@ -171,6 +176,7 @@ public class IobCobCalculatorPluginTest {
         Assert.assertEquals(true, iobCobCalculatorPlugin.isAbout5minData());
 
         iobCobCalculatorPlugin.createBucketedData();
+        iobCobCalculatorPlugin.publishSnapshot();
 
         Assert.assertEquals(null, iobCobCalculatorPlugin.getBucketedData());
 
@@ -184,15 +190,16 @@ public class IobCobCalculatorPluginTest {
         Assert.assertEquals(true, iobCobCalculatorPlugin.isAbout5minData());
 
         iobCobCalculatorPlugin.createBucketedData();
+        iobCobCalculatorPlugin.publishSnapshot();
 
-        Assert.assertEquals(T.mins(50).msecs(), iobCobCalculatorPlugin.getBucketedData().get(0).date);
-        Assert.assertEquals(T.mins(20).msecs(), iobCobCalculatorPlugin.getBucketedData().get(6).date);
+        Assert.assertEquals(T.mins(50).msecs(), iobCobCalculatorPlugin.getBucketedData().getDate(0));
+        Assert.assertEquals(T.mins(20).msecs(), iobCobCalculatorPlugin.getBucketedData().getDate(6));
         Assert.assertEquals(7, iobCobCalculatorPlugin.getBucketedData().size());
 
-        Assert.assertEquals(100, iobCobCalculatorPlugin.getBucketedData().get(0).value, 1);
-        Assert.assertEquals(90, iobCobCalculatorPlugin.getBucketedData().get(1).value, 1);
-        Assert.assertEquals(50, iobCobCalculatorPlugin.getBucketedData().get(5).value, 1);
-        Assert.assertEquals(40, iobCobCalculatorPlugin.getBucketedData().get(6).value, 1);
+        Assert.assertEquals(100, iobCobCalculatorPlugin.getBucketedData().getValue(0), 1);
+        Assert.assertEquals(90, iobCobCalculatorPlugin.getBucketedData().getValue(1), 1);
+        Assert.assertEquals(50, iobCobCalculatorPlugin.getBucketedData().getValue(5), 1);
+        Assert.assertEquals(40, iobCobCalculatorPlugin.getBucketedData().getValue(6), 1);
 
         // non 5min data should be reconstructed
         bgReadingList.clear();
@@ -204,19 +211,21 @@ public class IobCobCalculatorPluginTest {
         Assert.assertEquals(false, iobCobCalculatorPlugin.isAbout5minData());
 
         iobCobCalculatorPlugin.createBucketedData();
+        iobCobCalculatorPlugin.publishSnapshot();
 
-        Assert.assertEquals(T.mins(50).msecs(), iobCobCalculatorPlugin.getBucketedData().get(0).date);
-        Assert.assertEquals(T.mins(20).msecs(), iobCobCalculatorPlugin.getBucketedData().get(6).date);
+        Assert.assertEquals(T.mins(50).msecs(), iobCobCalculatorPlugin.getBucketedData().getDate(0));
+        Assert.assertEquals(T.mins(20).msecs(), iobCobCalculatorPlugin.getBucketedData().getDate(6));
         Assert.assertEquals(7, iobCobCalculatorPlugin.getBucketedData().size());
 
-        Assert.assertEquals(100, iobCobCalculatorPlugin.getBucketedData().get(0).value, 1);
-        Assert.assertEquals(90, iobCobCalculatorPlugin.getBucketedData().get(1).value, 1);
-        Assert.assertEquals(50, iobCobCalculatorPlugin.getBucketedData().get(5).value, 1);
-        Assert.assertEquals(40, iobCobCalculatorPlugin.getBucketedData().get(6).value, 1);
+        Assert.assertEquals(100, iobCobCalculatorPlugin.getBucketedData().getValue(0), 1);
+        Assert.assertEquals(90, iobCobCalculatorPlugin.getBucketedData().getValue(1), 1);
+        Assert.assertEquals(50, iobCobCalculatorPlugin.getBucketedData().getValue(5), 1);
+        Assert.assertEquals(40, iobCobCalculatorPlugin.getBucketedData().getValue(6), 1);
 
         //bucketed data should be null if no bg data available
         iobCobCalculatorPlugin.setBgReadings(null);
         iobCobCalculatorPlugin.createBucketedData();
+        iobCobCalculatorPlugin.publishSnapshot();
         Assert.assertEquals(null, iobCobCalculatorPlugin.getBucketedData());
 
         // real data gap test
@@ -342,8 +351,9 @@ public class IobCobCalculatorPluginTest {
         Assert.assertEquals(true, iobCobCalculatorPlugin.isAbout5minData());
 
         iobCobCalculatorPlugin.createBucketedData();
-        Assert.assertEquals(DateUtil.fromISODateString("2018-09-05T13:34:57Z").getTime(), iobCobCalculatorPlugin.getBucketedData().get(0).date);
-        Assert.assertEquals(DateUtil.fromISODateString("2018-09-05T03:44:57Z").getTime(), iobCobCalculatorPlugin.getBucketedData().get(iobCobCalculatorPlugin.getBucketedData().size() - 1).date);
+        iobCobCalculatorPlugin.publishSnapshot();
+        Assert.assertEquals(DateUtil.fromISODateString("2018-09-05T13:34:57Z").getTime(), iobCobCalculatorPlugin.getBucketedData().getDate(0));
+        Assert.assertEquals(DateUtil.fromISODateString("2018-09-05T03:44:57Z").getTime(), iobCobCalculatorPlugin.getBucketedData().getDate(iobCobCalculatorPlugin.getBucketedData().size() - 1));
 
         // 5min 4sec data
         bgReadingList.clear();
@@ -380,6 +390,7 @@ public class IobCobCalculatorPluginTest {
         List<BgReading> bgReadingList = new ArrayList<>();
 
         iobCobCalculatorPlugin.setBgReadings(bgReadingList);
+        iobCobCalculatorPlugin.publishSnapshot();
 
         Assert.assertEquals(bgReadingList, iobCobCalculatorPlugin.getBgReadings());
     }
@@ -399,6 +410,7 @@ public class IobCobCalculatorPluginTest {
         bgReadingList.add(new BgReading().date(T.mins(5).msecs()).value(100));
 
         iobCobCalculatorPlugin.setBgReadings(bgReadingList);
+        iobCobCalculatorPlugin.publishSnapshot();
 
         Assert.assertEquals(T.mins(10).msecs(), iobCobCalculatorPlugin.findNewer(T.mins(8).msecs()).date);
         Assert.assertEquals(T.mins(5).msecs(), iobCobCalculatorPlugin.findNewer(T.mins(5).msecs()).date);
@@ -417,6 +429,7 @@ public class IobCobCalculatorPluginTest {
         bgReadingList.add(new BgReading().date(T.mins(5).msecs()).value(100));
 
         iobCobCalculatorPlugin.setBgReadings(bgReadingList);
+        iobCobCalculatorPlugin.publishSnapshot();
 
         Assert.assertEquals(T.mins(5).msecs(), iobCobCalculatorPlugin.findOlder(T.mins(8).msecs()).date);
         Assert.assertEquals(T.mins(5).msecs(), iobCobCalculatorPlugin.findOlder(T.mins(5).msecs()).date);
@@ -431,6 +444,7 @@ public class IobCobCalculatorPluginTest {
 
         iobCobCalculatorPlugin.setBgReadings(bgReadingList);
         iobCobCalculatorPlugin.createBucketedData();
+        iobCobCalculatorPlugin.publishSnapshot();
         Assert.assertEquals(null, iobCobCalculatorPlugin.findPreviousTimeFromBucketedData(1000));
 
         // Super data should not be touched
@@ -442,6 +456,7 @@ public class IobCobCalculatorPluginTest {
 
         iobCobCalculatorPlugin.setBgReadings(bgReadingList);
         iobCobCalculatorPlugin.createBucketedData();
+        iobCobCalculatorPlugin.publishSnapshot();
 
         Assert.assertEquals(null, iobCobCalculatorPlugin.findPreviousTimeFromBucketedData(T.mins(4).msecs()));
         Assert.assertEquals((Long) T.mins(5).msecs(), iobCobCalculatorPlugin.findPreviousTimeFromBucketedData(T.mins(6).msecs()));
@@ -449,6 +464,29 @@ public class IobCobCalculatorPluginTest {
         Assert.assertEquals((Long) T.mins(20).msecs(), iobCobCalculatorPlugin.findPreviousTimeFromBucketedData(T.mins(25).msecs()));
     }
 
+    @Test
+    public void removeNewerTest() {
+        LongSparseArray<String> table = new LongSparseArray<>();
+        Assert.assertEquals(0, IobCobCalculatorPlugin.removeNewer(table, T.mins(10).msecs()));
+
+        table.append(T.mins(5).msecs(), "5");
+        table.append(T.mins(10).msecs(), "10");
+        table.append(T.mins(15).msecs(), "15");
+        table.append(T.mins(20).msecs(), "20");
+
+        // nothing newer
+        Assert.assertEquals(0, IobCobCalculatorPlugin.removeNewer(table, T.mins(20).msecs()));
+        Assert.assertEquals(4, table.size());
+
+        // record at time itself is kept
+        Assert.assertEquals(2, IobCobCalculatorPlugin.removeNewer(table, T.mins(10).msecs()));
+        Assert.assertEquals(2, table.size());
+        Assert.assertEquals("10", table.valueAt(table.size() - 1));
+
+        Assert.assertEquals(2, IobCobCalculatorPlugin.removeNewer(table, 0));
+        Assert.assertEquals(0, table.size());
+    }
+
     @Before
     public void doMock() {
         AAPSMocker.mockMainApp();
@@ -0,0 +1,162 @@
+package info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+import info.nightscout.androidaps.logging.L;
+import info.nightscout.androidaps.plugins.pump.common.hw.rileylink.ble.operations.BLECommOperationResult;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({L.class})
+public class RFSpyReaderUTest {
+
+    // stands in for RileyLink GATT server, radio data characteristic returns queued responses
+    private LinkedBlockingQueue<byte[]> radioData = new LinkedBlockingQueue<>();
+    private RFSpyReader reader;
+
+    @Before
+    public void prepare() {
+        PowerMockito.mockStatic(L.class);
+
+        RileyLinkBLE rileyLinkBLE = mock(RileyLinkBLE.class);
+        when(rileyLinkBLE.readCharacteristic_blocking(any(), any())).thenAnswer(invocation -> {
+            BLECommOperationResult result = new BLECommOperationResult();
+            result.value = radioData.take();
+            result.resultCode = BLECommOperationResult.RESULT_SUCCESS;
+            return result;
+        });
+
+        reader = new RFSpyReader(rileyLinkBLE);
+        reader.start();
+    }
+
+    @After
+    public void stop() {
+        reader.stop();
+    }
+
+    private void respond(byte... data) {
+        radioData.add(data);
+        reader.newDataIsAvailable();
+    }
+
+    private void respond(int responseCount, byte... data) {
+        radioData.add(data);
+        reader.newDataIsAvailable(new byte[]{(byte) responseCount});
+    }
+
+    @Test
+    public void responseIsReturnedForItsRequest() {
+        long requestId = reader.startRequest();
+        respond((byte) 0xDD, 0x01, 0x02);
+
+        Assert.assertArrayEquals(new byte[]{(byte) 0xDD, 0x01, 0x02}, reader.poll(requestId, 1000));
+        Assert.assertEquals(1, reader.getRoundTripStatistics().getCount());
+    }
+
+    @Test
+    public void dataAfterNullIsCut() {
+        long requestId = reader.startRequest();
+        respond((byte) 0xDD, 0x01, 0x00, 0x05);
+
+        Assert.assertArrayEquals(new byte[]{(byte) 0xDD, 0x01}, reader.poll(requestId, 1000));
+    }
+
+    @Test
+    public void responseOfPreviousRequestIsDropped() {
+        reader.startRequest();
+        respond((byte) 0xAA);
+
+        // previous request timed out on caller side, its response may arrive any time
+        long requestId = reader.startRequest();
+        respond((byte) 0xBB);
+
+        Assert.assertArrayEquals(new byte[]{(byte) 0xBB}, reader.poll(requestId, 1000));
+    }
+
+    @Test
+    public void lateResponseOfTimedOutRequestIsDropped() {
+        long timedOut = reader.startRequest();
+        Assert.assertNull(reader.poll(timedOut, 50));
+
+        // response of timed out request arrives after next request was started
+        long requestId = reader.startRequest();
+        respond((byte) 0xAA);
+        respond((byte) 0xBB);
+
+        Assert.assertArrayEquals(new byte[]{(byte) 0xBB}, reader.poll(requestId, 1000));
+    }
+
+    @Test
+    public void lateResponseBeforeNextRequestIsDropped() {
+        long timedOut = reader.startRequest();
+        Assert.assertNull(reader.poll(timedOut, 50));
+        respond((byte) 0xAA);
+
+        long requestId = reader.startRequest();
+        respond((byte) 0xBB);
+
+        Assert.assertArrayEquals(new byte[]{(byte) 0xBB}, reader.poll(requestId, 1000));
+        // nothing more is expected, next response is returned
+        requestId = reader.startRequest();
+        respond((byte) 0xCC);
+        Assert.assertArrayEquals(new byte[]{(byte) 0xCC}, reader.poll(requestId, 1000));
+    }
+
+    @Test
+    public void responseThatNeverComesIsNotExpectedAfterTimeout() throws Exception {
+        long lost = reader.startRequest();
+        Assert.assertNull(reader.poll(lost, 50));
+
+        // RileyLink never answered, late response is expected only for another timeout
+        Thread.sleep(100);
+        long requestId = reader.startRequest();
+        respond((byte) 0xBB);
+        Assert.assertArrayEquals(new byte[]{(byte) 0xBB}, reader.poll(requestId, 1000));
+
+        requestId = reader.startRequest();
+        respond((byte) 0xCC);
+        Assert.assertArrayEquals(new byte[]{(byte) 0xCC}, reader.poll(requestId, 1000));
+    }
+
+    @Test
+    public void lostNotificationIsDetectedByResponseCount() {
+        long requestId = reader.startRequest();
+        respond(1, (byte) 0xAA);
+        Assert.assertArrayEquals(new byte[]{(byte) 0xAA}, reader.poll(requestId, 1000));
+
+        // response was produced but its notification was lost
+        long timedOut = reader.startRequest();
+        Assert.assertNull(reader.poll(timedOut, 50));
+
+        // count tells there are two new responses, the last one is for current request
+        requestId = reader.startRequest();
+        respond(3, (byte) 0xCC);
+        Assert.assertArrayEquals(new byte[]{(byte) 0xCC}, reader.poll(requestId, 1000));
+
+        // nothing more is expected
+        requestId = reader.startRequest();
+        respond(4, (byte) 0xDD);
+        Assert.assertArrayEquals(new byte[]{(byte) 0xDD}, reader.poll(requestId, 1000));
+    }
+
+    @Test
+    public void pollTimesOutWithoutResponse() {
+        long requestId = reader.startRequest();
+
+        Assert.assertNull(reader.poll(requestId, 50));
+        Assert.assertEquals(0, reader.getRoundTripStatistics().getCount());
+    }
+}
@@ -0,0 +1,70 @@
+package info.nightscout.androidaps.plugins.pump.insight.database;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class InsightHistoryIndexTest {
+
+    private static InsightBolusID bolusID(int bolusID, long timestamp) {
+        InsightBolusID insightBolusID = new InsightBolusID();
+        insightBolusID.pumpSerial = "123";
+        insightBolusID.bolusID = bolusID;
+        insightBolusID.timestamp = timestamp;
+        return insightBolusID;
+    }
+
+    private static InsightPumpID pumpID(String eventType, long timestamp) {
+        InsightPumpID pumpID = new InsightPumpID();
+        pumpID.pumpSerial = "123";
+        pumpID.eventType = eventType;
+        pumpID.timestamp = timestamp;
+        return pumpID;
+    }
+
+    @Test
+    public void bolusIDIsFoundWithinWindow() {
+        long now = 1560000000000L;
+        InsightBolusID old = bolusID(5, now - 2 * InsightHistoryIndex.BOLUS_ID_WINDOW);
+        InsightBolusID recent = bolusID(5, now - 60000);
+        InsightHistoryIndex index = new InsightHistoryIndex(Arrays.asList(old, recent), Collections.emptyList());
+
+        Assert.assertSame(recent, index.getInsightBolusID(5, now));
+        Assert.assertSame(old, index.getInsightBolusID(5, now - 2 * InsightHistoryIndex.BOLUS_ID_WINDOW + InsightHistoryIndex.BOLUS_ID_WINDOW));
+        Assert.assertNull(index.getInsightBolusID(6, now));
+        Assert.assertNull(index.getInsightBolusID(5, now + 2 * InsightHistoryIndex.BOLUS_ID_WINDOW));
+    }
+
+    @Test
+    public void addedBolusIDIsFound() {
+        long now = 1560000000000L;
+        InsightHistoryIndex index = new InsightHistoryIndex(new ArrayList<>(), new ArrayList<>());
+        Assert.assertNull(index.getInsightBolusID(1, now));
+
+        InsightBolusID created = bolusID(1, now);
+        index.add(created);
+        index.add(created);
+
+        Assert.assertSame(created, index.getInsightBolusID(1, now + 1000));
+    }
+
+    @Test
+    public void lastStoppedEventBeforeTimeIsReturned() {
+        InsightPumpID stopped = pumpID("PumpStopped", 1000);
+        InsightPumpID paused = pumpID("PumpPaused", 5000);
+        InsightHistoryIndex index = new InsightHistoryIndex(Collections.emptyList(), Arrays.asList(paused, stopped));
+        index.add(pumpID("PumpStarted", 3000));
+
+        Assert.assertNull(index.getPumpStoppedEvent(1000));
+        Assert.assertSame(stopped, index.getPumpStoppedEvent(1001));
+        Assert.assertSame(stopped, index.getPumpStoppedEvent(5000));
+        Assert.assertSame(paused, index.getPumpStoppedEvent(6000));
+
+        InsightPumpID stoppedLater = pumpID("PumpStopped", 7000);
+        index.add(stoppedLater);
+        Assert.assertSame(stoppedLater, index.getPumpStoppedEvent(8000));
+    }
+}
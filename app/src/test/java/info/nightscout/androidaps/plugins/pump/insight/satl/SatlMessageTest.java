@@ -0,0 +1,51 @@
+package info.nightscout.androidaps.plugins.pump.insight.satl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import info.nightscout.androidaps.plugins.pump.insight.exceptions.InvalidMacTrailerException;
+import info.nightscout.androidaps.plugins.pump.insight.utils.ByteBuf;
+import info.nightscout.androidaps.plugins.pump.insight.utils.Nonce;
+
+public class SatlMessageTest {
+
+    private static final byte[] KEY = new byte[]{0x12, 0x34, 0x56, 0x78, (byte) 0x9A, (byte) 0xBC, (byte) 0xDE, (byte) 0xF0,
+            0x0F, 0x1E, 0x2D, 0x3C, 0x4B, 0x5A, 0x69, 0x78};
+
+    private ByteBuf serializeDataMessage(byte[] payload) {
+        Nonce nonce = new Nonce();
+        nonce.increment(5);
+        DataMessage message = new DataMessage();
+        message.setData(ByteBuf.from(payload));
+        message.setNonce(nonce);
+        message.setCommID(7);
+        ByteBuf packet = message.serialize(DataMessage.class, KEY);
+        // received packets come in larger buffer
+        ByteBuf buffer = new ByteBuf(1024);
+        buffer.putByteBuf(packet);
+        return buffer;
+    }
+
+    @Test
+    public void encryptedMessageRoundTrip() throws Exception {
+        byte[] payload = new byte[]{0x10, 0x00, 0x55, (byte) 0xAA, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08,
+                0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F, 0x10, 0x11};
+        ByteBuf buffer = serializeDataMessage(payload);
+
+        Assert.assertTrue(SatlMessage.hasCompletePacket(buffer));
+        SatlMessage received = SatlMessage.deserialize(buffer, new Nonce(), KEY);
+
+        Assert.assertTrue(received instanceof DataMessage);
+        Assert.assertArrayEquals(payload, ((DataMessage) received).getData().getBytes());
+        Assert.assertEquals(7, received.getCommID());
+        Assert.assertEquals(0, buffer.getSize());
+    }
+
+    @Test(expected = InvalidMacTrailerException.class)
+    public void modifiedPayloadIsRejected() throws Exception {
+        ByteBuf buffer = serializeDataMessage(new byte[]{0x01, 0x02, 0x03});
+        buffer.array()[30] ^= 0x01;
+
+        SatlMessage.deserialize(buffer, new Nonce(), KEY);
+    }
+}
@@ -0,0 +1,177 @@
+package info.nightscout.androidaps.plugins.pump.insight.utils.crypto;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.spongycastle.crypto.engines.TwofishEngine;
+import org.spongycastle.crypto.modes.CBCBlockCipher;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.crypto.params.ParametersWithIV;
+
+import java.util.Random;
+
+public class CryptographTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void encryptDataCTRMatchesReference() {
+        byte[] key = randomBytes(16);
+        byte[] nonce = randomBytes(13);
+        for (int length = 0; length < 80; length++) {
+            byte[] data = randomBytes(length);
+            Assert.assertArrayEquals(referenceEncryptDataCTR(data, key, nonce), Cryptograph.encryptDataCTR(data, key, nonce));
+        }
+    }
+
+    @Test
+    public void encryptDataCTRInPlace() {
+        byte[] key = randomBytes(16);
+        byte[] nonce = randomBytes(13);
+        byte[] data = randomBytes(37);
+        byte[] buffer = new byte[data.length + 10];
+        System.arraycopy(data, 0, buffer, 5, data.length);
+
+        Cryptograph.encryptDataCTR(buffer, 5, data.length, key, nonce);
+
+        byte[] expected = referenceEncryptDataCTR(data, key, nonce);
+        for (int i = 0; i < data.length; i++) Assert.assertEquals(expected[i], buffer[5 + i]);
+        for (int i = 0; i < 5; i++) Assert.assertEquals(0, buffer[i]);
+
+        Cryptograph.encryptDataCTR(buffer, 5, data.length, key, nonce);
+        for (int i = 0; i < data.length; i++) Assert.assertEquals(data[i], buffer[5 + i]);
+    }
+
+    @Test
+    public void produceCCMTagMatchesReference() {
+        byte[] incomingKey = randomBytes(16);
+        byte[] outgoingKey = randomBytes(16);
+        byte[] otherKey = randomBytes(16);
+        for (int length = 0; length < 80; length++) {
+            byte[] nonce = randomBytes(13);
+            byte[] header = randomBytes(21);
+            byte[] payload = randomBytes(length);
+            // switching keys, as with sent and received messages or after reconnect
+            for (byte[] key : new byte[][]{incomingKey, outgoingKey, otherKey}) {
+                Assert.assertArrayEquals(referenceProduceCCMTag(nonce, payload, header, key), Cryptograph.produceCCMTag(nonce, payload, header, key));
+            }
+        }
+    }
+
+    @Test
+    public void produceCCMTagOverBufferRange() {
+        byte[] key = randomBytes(16);
+        byte[] nonce = randomBytes(13);
+        byte[] header = randomBytes(21);
+        byte[] payload = randomBytes(45);
+        byte[] buffer = new byte[payload.length + 29 + 8];
+        System.arraycopy(payload, 0, buffer, 29, payload.length);
+
+        Assert.assertArrayEquals(referenceProduceCCMTag(nonce, payload, header, key),
+                Cryptograph.produceCCMTag(nonce, buffer, 29, payload.length, header, key));
+    }
+
+    /**
+     * Times encryption and tagging of generated SATL traffic (alternating incoming and outgoing
+     * keys, as in a history read) with cached cipher contexts against a fresh engine and padded
+     * copies per message. Only reports, run manually.
+     */
+    @Ignore
+    @Test
+    public void timingReport() {
+        byte[] incomingKey = randomBytes(16);
+        byte[] outgoingKey = randomBytes(16);
+        int messages = 500;
+        byte[][] nonces = new byte[messages][];
+        byte[][] headers = new byte[messages][];
+        byte[][] payloads = new byte[messages][];
+        for (int i = 0; i < messages; i++) {
+            nonces[i] = randomBytes(13);
+            headers[i] = randomBytes(21);
+            payloads[i] = randomBytes(10 + random.nextInt(300));
+        }
+
+        int rounds = 20;
+        long cachedTime = 0;
+        long referenceTime = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                byte[] key = i % 2 == 0 ? outgoingKey : incomingKey;
+                byte[] data = payloads[i].clone();
+                Cryptograph.encryptDataCTR(data, 0, data.length, key, nonces[i]);
+                Cryptograph.produceCCMTag(nonces[i], data, 0, data.length, headers[i], key);
+            }
+            long cachedEnd = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                byte[] key = i % 2 == 0 ? outgoingKey : incomingKey;
+                byte[] data = referenceEncryptDataCTR(payloads[i], key, nonces[i]);
+                referenceProduceCCMTag(nonces[i], data, headers[i], key);
+            }
+            long referenceEnd = System.nanoTime();
+            // first half warms up
+            if (round >= rounds / 2) {
+                cachedTime += cachedEnd - start;
+                referenceTime += referenceEnd - cachedEnd;
+            }
+        }
+        int measured = (rounds - rounds / 2) * messages;
+        System.out.println("SATL crypto " + messages + " messages: cached contexts " + cachedTime / measured + " ns/message, fresh engine "
+                + referenceTime / measured + " ns/message");
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    // previous implementation, fresh engine and padded copies for each call
+
+    private static byte[] produceCCMPrimitive(byte headerByte, byte[] nonce, short number) {
+        byte[] primitive = new byte[16];
+        primitive[0] = headerByte;
+        System.arraycopy(nonce, 0, primitive, 1, nonce.length);
+        primitive[14] = (byte) (number >> 8);
+        primitive[15] = (byte) number;
+        return primitive;
+    }
+
+    private static byte[] zeroPad(byte[] input) {
+        int modulus = input.length % 16;
+        if (modulus == 0) return input;
+        return Cryptograph.combine(input, new byte[16 - modulus]);
+    }
+
+    private static byte[] referenceEncryptDataCTR(byte[] data, byte[] key, byte[] nonce) {
+        byte[] padded = zeroPad(data);
+        TwofishEngine engine = new TwofishEngine();
+        engine.init(true, new KeyParameter(key));
+        byte[] keyStream = new byte[padded.length];
+        for (int i = 0; i < padded.length / 16; i++) {
+            engine.processBlock(produceCCMPrimitive((byte) 0x01, nonce, (short) (i + 1)), 0, keyStream, i * 16);
+        }
+        byte[] result = new byte[data.length];
+        for (int i = 0; i < data.length; i++) result[i] = (byte) (padded[i] ^ keyStream[i]);
+        return result;
+    }
+
+    private static byte[] referenceProduceCCMTag(byte[] nonce, byte[] payload, byte[] header, byte[] key) {
+        TwofishEngine engine = new TwofishEngine();
+        engine.init(true, new KeyParameter(key));
+        byte[] initializationVector = new byte[16];
+        engine.processBlock(produceCCMPrimitive((byte) 0x59, nonce, (short) payload.length), 0, initializationVector, 0);
+        CBCBlockCipher cbc = new CBCBlockCipher(new TwofishEngine());
+        cbc.init(true, new ParametersWithIV(new KeyParameter(key), initializationVector));
+        byte[] processedHeader = Cryptograph.combine(new byte[]{(byte) (header.length >> 8), (byte) header.length}, header);
+        byte[] combine = Cryptograph.combine(zeroPad(processedHeader), zeroPad(payload));
+        byte[] result = new byte[combine.length];
+        for (int i = 0; i < combine.length / 16; i++)
+            cbc.processBlock(combine, i * 16, result, i * 16);
+        byte[] ctr = new byte[16];
+        engine.processBlock(produceCCMPrimitive((byte) 0x01, nonce, (short) 0), 0, ctr, 0);
+        byte[] tag = new byte[8];
+        for (int i = 0; i < 8; i++) tag[i] = (byte) (result[result.length - 16 + i] ^ ctr[i]);
+        return tag;
+    }
+}
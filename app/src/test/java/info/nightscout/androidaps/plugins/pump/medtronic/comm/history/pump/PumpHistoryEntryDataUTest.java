@@ -0,0 +1,148 @@
+package info.nightscout.androidaps.plugins.pump.medtronic.comm.history.pump;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.AAPSMocker;
+import info.nightscout.androidaps.MainApp;
+import info.nightscout.androidaps.logging.L;
+import info.nightscout.androidaps.plugins.pump.common.utils.ByteUtil;
+import info.nightscout.androidaps.plugins.pump.common.utils.CRC;
+import info.nightscout.androidaps.plugins.pump.medtronic.comm.history.RawHistoryPage;
+import info.nightscout.androidaps.plugins.pump.medtronic.comm.history.RecordDecodeStatus;
+import info.nightscout.androidaps.plugins.pump.medtronic.defs.MedtronicDeviceType;
+import info.nightscout.androidaps.plugins.pump.medtronic.util.MedtronicUtil;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({MainApp.class, L.class})
+public class PumpHistoryEntryDataUTest {
+
+    private static final byte[] PRIME = new byte[]{0x03, 0x00, 0x00, 0x00, 0x12, 0x2E, 0x0C, 0x0B, 0x05, 0x13};
+
+    @Before
+    public void prepareMocks() {
+        AAPSMocker.mockMainApp();
+        AAPSMocker.mockStrings();
+        PowerMockito.mockStatic(L.class);
+    }
+
+    @Test
+    public void recordInsidePageEqualsCopiedRecord() {
+        byte[] page = new byte[PRIME.length + 4];
+        page[0] = 0x7F;
+        page[1] = 0x7F;
+        System.arraycopy(PRIME, 0, page, 2, PRIME.length);
+
+        PumpHistoryEntry fromPage = new PumpHistoryEntry();
+        fromPage.setEntryType(PumpHistoryEntryType.Prime);
+        fromPage.setData(page, 2, PRIME.length, false);
+
+        PumpHistoryEntry fromList = new PumpHistoryEntry();
+        fromList.setEntryType(PumpHistoryEntryType.Prime);
+        fromList.setData(ByteUtil.getListFromByteArray(PRIME), false);
+
+        Assert.assertArrayEquals(PRIME, fromPage.getRawData());
+        Assert.assertArrayEquals(fromList.getRawData(), fromPage.getRawData());
+        Assert.assertArrayEquals(fromList.getHead(), fromPage.getHead());
+        Assert.assertArrayEquals(fromList.getDatetime(), fromPage.getDatetime());
+        Assert.assertEquals(PRIME.length, fromPage.getRawDataLength());
+        Assert.assertEquals(0x13, fromPage.getUnsignedRawDataByIndex(9));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void indexOutsideRecordIsRejected() {
+        byte[] page = new byte[PRIME.length + 4];
+        System.arraycopy(PRIME, 0, page, 0, PRIME.length);
+
+        PumpHistoryEntry entry = new PumpHistoryEntry();
+        entry.setEntryType(PumpHistoryEntryType.Prime);
+        entry.setData(page, 0, PRIME.length, false);
+
+        entry.getRawDataByIndex(PRIME.length);
+    }
+
+    @Test
+    public void incompleteRecordAtEndOfPageIsSkipped() {
+        byte[] page = new byte[]{0x00, 0x00, 0x03, 0x00, 0x00};
+
+        List<PumpHistoryEntry> records = new MedtronicPumpHistoryDecoder().createRecords(page, page.length);
+
+        Assert.assertEquals(0, records.size());
+    }
+
+    /**
+     * Times decoding of generated 1024 byte pages (5 pages as read by getPumpHistory) from page
+     * buffer against decoding records copied to boxed lists, as done before. Only reports, run manually.
+     */
+    @Ignore
+    @Test
+    public void decodeTimingReport() {
+        MedtronicUtil.setMedtronicPumpModel(MedtronicDeviceType.Medtronic_522);
+        PumpHistoryEntryType[] types = new PumpHistoryEntryType[]{PumpHistoryEntryType.TempBasalRate,
+                PumpHistoryEntryType.TempBasalDuration, PumpHistoryEntryType.BGReceived, PumpHistoryEntryType.Prime};
+        List<RawHistoryPage> pages = new ArrayList<>();
+        List<int[]> records = new ArrayList<>(); // page, type, offset, length
+        for (int pageNumber = 0; pageNumber < 5; pageNumber++) {
+            byte[] page = new byte[1024];
+            int offset = 0;
+            for (int i = 0; ; i++) {
+                PumpHistoryEntryType type = types[i % types.length];
+                int length = type.getTotalLength();
+                if (offset + length > 1022) break;
+                page[offset] = (byte) type.getCode();
+                System.arraycopy(PRIME, 2, page, offset + type.getHeadLength(), type.getDateLength());
+                records.add(new int[]{pageNumber, i % types.length, offset, length});
+                offset += length;
+            }
+            byte[] crc = CRC.calculate16CCITT(ByteUtil.substring(page, 0, 1022));
+            page[1022] = crc[0];
+            page[1023] = crc[1];
+            RawHistoryPage rawHistoryPage = new RawHistoryPage();
+            rawHistoryPage.appendData(page);
+            pages.add(rawHistoryPage);
+        }
+
+        MedtronicPumpHistoryDecoder decoder = new MedtronicPumpHistoryDecoder();
+        int rounds = 200;
+        long pageTime = 0;
+        long boxedTime = 0;
+        int decoded = 0;
+        int decodedBoxed = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (RawHistoryPage page : pages)
+                decoded += decoder.processPageAndCreateRecords(page).size();
+            long pageEnd = System.nanoTime();
+            List<List<Byte>> boxedPages = new ArrayList<>();
+            for (RawHistoryPage page : pages)
+                boxedPages.add(ByteUtil.getListFromByteArray(page.getData()));
+            for (int[] record : records) {
+                List<Byte> rawData = new ArrayList<>(boxedPages.get(record[0]).subList(record[2], record[2] + record[3]));
+                PumpHistoryEntry entry = new PumpHistoryEntry();
+                entry.setEntryType(types[record[1]]);
+                entry.setData(rawData, false);
+                if (decoder.decodeRecord(entry) == RecordDecodeStatus.OK)
+                    decodedBoxed++;
+            }
+            long boxedEnd = System.nanoTime();
+            // first half warms up
+            if (round >= rounds / 2) {
+                pageTime += pageEnd - start;
+                boxedTime += boxedEnd - pageEnd;
+            }
+        }
+        Assert.assertEquals(decodedBoxed, decoded);
+        int measured = rounds - rounds / 2;
+        System.out.println("Decoding " + pages.size() + " pages (" + records.size() + " records): page buffer "
+                + pageTime / measured / 1000 + " us, boxed copies " + boxedTime / measured / 1000 + " us");
+    }
+}
@@ -0,0 +1,74 @@
+package info.nightscout.androidaps.plugins.pump.medtronic.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import info.nightscout.androidaps.db.DbObjectBase;
+
+public class DbEntryIndexUTest {
+
+    private static class Entry implements DbObjectBase {
+        private final long date;
+        private final long pumpId;
+
+        Entry(long date, long pumpId) {
+            this.date = date;
+            this.pumpId = pumpId;
+        }
+
+        @Override
+        public long getDate() {
+            return date;
+        }
+
+        @Override
+        public long getPumpId() {
+            return pumpId;
+        }
+    }
+
+    @Test
+    public void getWithinMatchesLinearSearch() {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // unsorted, with duplicate dates
+            entries.add(new Entry(((i * 7919L) % 100) * 5000L, i));
+        }
+
+        DbEntryIndex<Entry> index = new DbEntryIndex<>(entries);
+
+        for (long time = -20000; time < 520000; time += 2500) {
+            for (long diff : new long[]{0, 10000, 20000, 59000}) {
+                int expected = 0;
+                for (Entry entry : entries) {
+                    if (entry.getDate() > time - diff && entry.getDate() < time + diff)
+                        expected++;
+                }
+
+                List<Entry> found = index.getWithin(time, diff);
+                Assert.assertEquals(expected, found.size());
+                for (Entry entry : found) {
+                    Assert.assertTrue(entry.getDate() > time - diff && entry.getDate() < time + diff);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void findByPumpIdReturnsFirstEntry() {
+        Entry first = new Entry(3000, 5);
+        Entry second = new Entry(1000, 5);
+        Entry withoutPumpId = new Entry(2000, 0);
+
+        DbEntryIndex<Entry> index = new DbEntryIndex<>(Arrays.asList(first, second, withoutPumpId));
+
+        Assert.assertSame(first, index.findByPumpId(5));
+        Assert.assertNull(index.findByPumpId(0));
+        Assert.assertNull(index.findByPumpId(6));
+        Assert.assertEquals(Arrays.asList(second, withoutPumpId, first), index.getEntries());
+    }
+}
@@ -0,0 +1,38 @@
+package info.nightscout.androidaps.plugins.treatments;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.nightscout.androidaps.utils.T;
+
+public class TreatmentsPluginTest {
+
+    @Test
+    public void firstIndexNotNewerThanTest() {
+        List<Treatment> list = new ArrayList<>();
+        Assert.assertEquals(0, TreatmentsPlugin.firstIndexNotNewerThan(list, T.mins(10).msecs()));
+
+        // newest first as loaded from database
+        list.add(treatment(T.mins(30).msecs()));
+        list.add(treatment(T.mins(20).msecs()));
+        list.add(treatment(T.mins(20).msecs()));
+        list.add(treatment(T.mins(10).msecs()));
+
+        Assert.assertEquals(0, TreatmentsPlugin.firstIndexNotNewerThan(list, T.mins(40).msecs()));
+        Assert.assertEquals(0, TreatmentsPlugin.firstIndexNotNewerThan(list, T.mins(30).msecs()));
+        Assert.assertEquals(1, TreatmentsPlugin.firstIndexNotNewerThan(list, T.mins(25).msecs()));
+        Assert.assertEquals(1, TreatmentsPlugin.firstIndexNotNewerThan(list, T.mins(20).msecs()));
+        Assert.assertEquals(3, TreatmentsPlugin.firstIndexNotNewerThan(list, T.mins(15).msecs()));
+        Assert.assertEquals(4, TreatmentsPlugin.firstIndexNotNewerThan(list, T.mins(5).msecs()));
+    }
+
+    private Treatment treatment(long date) {
+        Treatment t = new Treatment();
+        t.date = date;
+        t.insulin = 1;
+        return t;
+    }
+}
@@ -112,6 +112,31 @@ public class CommandQueueTest extends CommandQueue {
         Assert.assertNull(performing);
     }
 
+    @Test
+    public void commandsArePickedUpByPriority() throws Exception {
+        prepareMock(0d, 0);
+
+        readStatus("anyString", null);
+        tempBasalAbsolute(0, 30, true, profile, null);
+        bolus(new DetailedBolusInfo(), null);
+        // status is read after everything anyway, second one is not queued
+        Assert.assertFalse(readStatus("anyString", null));
+        setProfile(profile, null);
+        Assert.assertEquals(4, size());
+
+        pickup();
+        Assert.assertEquals(Command.CommandType.BOLUS, performing.commandType);
+        Assert.assertTrue(performing.startTime >= performing.queuedTime);
+        pickup();
+        Assert.assertEquals(Command.CommandType.TEMPBASAL, performing.commandType);
+        pickup();
+        Assert.assertEquals(Command.CommandType.BASALPROFILE, performing.commandType);
+        pickup();
+        Assert.assertEquals(Command.CommandType.READSTATUS, performing.commandType);
+        pickup();
+        Assert.assertNull(performing);
+    }
+
     private void prepareMock(Double insulin, Integer carbs) throws Exception {
         ConstraintChecker constraintChecker = mock(ConstraintChecker.class);
 
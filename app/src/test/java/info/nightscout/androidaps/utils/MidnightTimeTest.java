@@ -53,6 +53,22 @@ public class MidnightTimeTest {
         Assert.assertEquals(midnight, MidnightTime.calc(now));
     }
 
+    @Test
+    public void calc_sameDay() {
+        MidnightTime.resetCache();
+        long midnight = MidnightTime.calc(DateUtil.now());
+        // whole day is answered from last resolved day
+        Assert.assertEquals(midnight, MidnightTime.calc(midnight));
+        Assert.assertEquals(midnight, MidnightTime.calc(midnight + T.hours(12).msecs()));
+        // previous day is resolved again
+        long previous = MidnightTime.calc(midnight - 1);
+        Assert.assertTrue(previous < midnight);
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(previous);
+        Assert.assertEquals(0, c.get(Calendar.HOUR_OF_DAY));
+        Assert.assertEquals(0, c.get(Calendar.MINUTE));
+    }
+
     @Test
     public void resetCache() {
         long now = DateUtil.now();
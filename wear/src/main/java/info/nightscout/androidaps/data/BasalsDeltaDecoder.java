@@ -0,0 +1,189 @@
+package info.nightscout.androidaps.data;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Applies basal deltas sent by phone and rebuilds DataMap in format used by watchfaces.
+ * <p>
+ * Entries come flattened in long arrays, time key first, amounts as thousandths. Entries sharing
+ * the same key (prediction curves, bolus and carbs at the same time) always come together and
+ * replace the whole group.
+ * Phone calculates delta against the last state it saw acknowledged, which may be older than the
+ * newest state here (acknowledge still on the way, or older delta merged by data layer), so
+ * several recent states are kept by seq. Deltas older than the current state are ignored.
+ */
+class BasalsDeltaDecoder {
+    static final int FULL = -1;
+    static final String PERSISTENCE_KEY = "basals_delta_state";
+    // states kept as possible base of next delta
+    private static final int KEPT_STATES = 5;
+
+    private static final String BASALS = "basals";
+    private static final String TEMPS = "temps";
+    private static final String BOLUSES = "boluses";
+    private static final String PREDICTIONS = "predictions";
+
+    enum Result {
+        APPLIED,
+        // older than current state, nothing to do
+        STALE,
+        // base state is not known, full state is needed
+        MISSING_BASE
+    }
+
+    private long version = 0;
+    private int seq = FULL;
+    private final TreeMap<Integer, Map<String, TreeMap<Long, List<long[]>>>> states = new TreeMap<>();
+
+    synchronized long getVersion() {
+        return version;
+    }
+
+    synchronized int getSeq() {
+        return seq;
+    }
+
+    synchronized Result apply(DataMap dataMap) {
+        long version = dataMap.getLong("version");
+        int seq = dataMap.getInt("seq");
+        int baseSeq = dataMap.getInt("baseSeq", FULL);
+        if (version < this.version || (version == this.version && seq <= this.seq))
+            return Result.STALE;
+
+        Map<String, TreeMap<Long, List<long[]>>> base = null;
+        if (baseSeq != FULL) {
+            if (version == this.version) base = states.get(baseSeq);
+            if (base == null) return Result.MISSING_BASE;
+        }
+        if (version != this.version) states.clear();
+
+        Map<String, TreeMap<Long, List<long[]>>> state = new HashMap<>();
+        apply(dataMap, state, base, BASALS, 3);
+        apply(dataMap, state, base, TEMPS, 5);
+        apply(dataMap, state, base, BOLUSES, 5);
+        apply(dataMap, state, base, PREDICTIONS, 3);
+
+        states.put(seq, state);
+        while (states.size() > KEPT_STATES)
+            states.remove(states.firstKey());
+        this.version = version;
+        this.seq = seq;
+        return Result.APPLIED;
+    }
+
+    private void apply(DataMap dataMap, Map<String, TreeMap<Long, List<long[]>>> state, Map<String, TreeMap<Long, List<long[]>>> base, String category, int size) {
+        TreeMap<Long, List<long[]>> baseEntries = base != null ? base.get(category) : null;
+        // entries are never modified, copy of map is enough
+        TreeMap<Long, List<long[]>> entries = baseEntries != null ? new TreeMap<>(baseEntries) : new TreeMap<>();
+        long[] removed = dataMap.getLongArray(category + "_removed");
+        if (removed != null)
+            for (long key : removed)
+                entries.remove(key);
+        long[] upserts = dataMap.getLongArray(category);
+        if (upserts != null) {
+            // groups from delta replace groups of base
+            Map<Long, List<long[]>> groups = new HashMap<>();
+            for (int i = 0; i + size <= upserts.length; i += size) {
+                long[] entry = new long[size];
+                System.arraycopy(upserts, i, entry, 0, size);
+                List<long[]> group = groups.get(entry[0]);
+                if (group == null) {
+                    group = new ArrayList<>(1);
+                    groups.put(entry[0], group);
+                }
+                group.add(entry);
+            }
+            entries.putAll(groups);
+        }
+        state.put(category, entries);
+    }
+
+    /**
+     * Current state in the same format as full delta, used to keep state when service is restarted
+     */
+    synchronized DataMap toPersistenceDataMap() {
+        DataMap dataMap = new DataMap();
+        dataMap.putLong("version", version);
+        dataMap.putInt("seq", seq);
+        dataMap.putInt("baseSeq", FULL);
+        for (String category : new String[]{BASALS, TEMPS, BOLUSES, PREDICTIONS}) {
+            int length = 0;
+            for (long[] entry : entries(category)) length += entry.length;
+            long[] flattened = new long[length];
+            int position = 0;
+            for (long[] entry : entries(category)) {
+                System.arraycopy(entry, 0, flattened, position, entry.length);
+                position += entry.length;
+            }
+            dataMap.putLongArray(category, flattened);
+        }
+        return dataMap;
+    }
+
+    synchronized void restore(DataMap dataMap) {
+        if (dataMap != null && seq == FULL && dataMap.getInt("seq", FULL) != FULL)
+            apply(dataMap);
+    }
+
+    synchronized DataMap toDataMap() {
+        ArrayList<DataMap> basals = new ArrayList<>();
+        for (long[] e : entries(BASALS)) {
+            DataMap dm = new DataMap();
+            dm.putLong("starttime", e[0]);
+            dm.putLong("endtime", e[1]);
+            dm.putDouble("amount", e[2] / 1000d);
+            basals.add(dm);
+        }
+        ArrayList<DataMap> temps = new ArrayList<>();
+        for (long[] e : entries(TEMPS)) {
+            DataMap dm = new DataMap();
+            dm.putLong("starttime", e[0]);
+            dm.putDouble("startBasal", e[1] / 1000d);
+            dm.putLong("endtime", e[2]);
+            dm.putDouble("endbasal", e[3] / 1000d);
+            dm.putDouble("amount", e[4] / 1000d);
+            temps.add(dm);
+        }
+        ArrayList<DataMap> boluses = new ArrayList<>();
+        for (long[] e : entries(BOLUSES)) {
+            DataMap dm = new DataMap();
+            dm.putLong("date", e[0]);
+            dm.putDouble("bolus", e[1] / 1000d);
+            dm.putDouble("carbs", e[2] / 1000d);
+            dm.putBoolean("isSMB", e[3] != 0);
+            dm.putBoolean("isValid", e[4] != 0);
+            boluses.add(dm);
+        }
+        ArrayList<DataMap> predictions = new ArrayList<>();
+        for (long[] e : entries(PREDICTIONS)) {
+            DataMap dm = new DataMap();
+            dm.putLong("timestamp", e[0]);
+            dm.putDouble("sgv", e[1] / 1000d);
+            dm.putInt("color", (int) e[2]);
+            predictions.add(dm);
+        }
+
+        DataMap dataMap = new DataMap();
+        dataMap.putDataMapArrayList("basals", basals);
+        dataMap.putDataMapArrayList("temps", temps);
+        dataMap.putDataMapArrayList("boluses", boluses);
+        dataMap.putDataMapArrayList("predictions", predictions);
+        return dataMap;
+    }
+
+    private List<long[]> entries(String category) {
+        List<long[]> result = new ArrayList<>();
+        Map<String, TreeMap<Long, List<long[]>>> state = states.get(seq);
+        TreeMap<Long, List<long[]>> entries = state != null ? state.get(category) : null;
+        if (entries != null)
+            for (List<long[]> group : entries.values())
+                result.addAll(group);
+        return result;
+    }
+}
@@ -62,6 +62,8 @@ public class ListenerService extends WearableListenerService implements GoogleAp
     private static final String NEW_STATUS_PATH = "/sendstatustowear";
     private static final String NEW_PREFERENCES_PATH = "/sendpreferencestowear";
     public static final String BASAL_DATA_PATH = "/nightscout_watch_basal";
+    private static final String BASAL_DATA_ACK_PATH = "/nightscout_watch_basal_ack";
+    private static final String BASAL_DATA_RESEND_PATH = "/nightscout_watch_basal_resend";
     public static final String BOLUS_PROGRESS_PATH = "/nightscout_watch_bolusprogress";
     public static final String ACTION_CONFIRMATION_REQUEST_PATH = "/nightscout_watch_actionconfirmationrequest";
     public static final String NEW_CHANGECONFIRMATIONREQUEST_PATH = "/nightscout_watch_changeconfirmationrequest";
@@ -89,6 +91,7 @@ public class ListenerService extends WearableListenerService implements GoogleAp
     private static final String TAG = "ListenerService";
 
     private DataRequester mDataRequester = null;
+    private BasalsDeltaDecoder basalsDecoder = null;
     private static final int GET_CAPABILITIES_TIMEOUT_MS = 5000;
 
     // Phone
@@ -309,6 +312,15 @@ public class ListenerService extends WearableListenerService implements GoogleAp
         }
     }
 
+    // state of the last applied delta survives restart of service
+    private synchronized BasalsDeltaDecoder getBasalsDecoder() {
+        if (basalsDecoder == null) {
+            basalsDecoder = new BasalsDeltaDecoder();
+            basalsDecoder.restore(new Persistence().getDataMap(BasalsDeltaDecoder.PERSISTENCE_KEY));
+        }
+        return basalsDecoder;
+    }
+
     public void requestData() {
         sendData(WEARABLE_RESEND_PATH, null);
     }
@@ -518,7 +530,18 @@ public class ListenerService extends WearableListenerService implements GoogleAp
                     Persistence.storeDataMap(RawDisplayData.STATUS_PERSISTENCE_KEY, dataMap);
                     LocalBroadcastManager.getInstance(this).sendBroadcast(messageIntent);
                 } else if (path.equals(BASAL_DATA_PATH)){
-                    dataMap = DataMapItem.fromDataItem(event.getDataItem()).getDataMap();
+                    // phone sends only changes against acknowledged state
+                    BasalsDeltaDecoder basalsDecoder = getBasalsDecoder();
+                    BasalsDeltaDecoder.Result result = basalsDecoder.apply(DataMapItem.fromDataItem(event.getDataItem()).getDataMap());
+                    if (result == BasalsDeltaDecoder.Result.STALE) continue;
+                    if (result == BasalsDeltaDecoder.Result.MISSING_BASE) {
+                        Log.d(TAG, logPrefix + "Basals delta base is not known, requesting basals");
+                        new MessageActionTask(this, BASAL_DATA_RESEND_PATH, "").execute();
+                        continue;
+                    }
+                    new MessageActionTask(this, BASAL_DATA_ACK_PATH, basalsDecoder.getVersion() + " " + basalsDecoder.getSeq()).execute();
+                    new Persistence().putDataMap(BasalsDeltaDecoder.PERSISTENCE_KEY, basalsDecoder.toPersistenceDataMap());
+                    dataMap = basalsDecoder.toDataMap();
                     Intent messageIntent = new Intent();
                     messageIntent.setAction(Intent.ACTION_SEND);
                     messageIntent.putExtra("basals", dataMap.toBundle());
@@ -0,0 +1,147 @@
+package info.nightscout.androidaps.data;
+
+import com.google.android.gms.wearable.DataMap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BasalsDeltaDecoderTest {
+
+    private static final long VERSION = 1000;
+
+    // delta as sent by phone, basals only
+    private DataMap delta(long version, int seq, int baseSeq, long[] upserts, long[] removed) {
+        DataMap dataMap = new DataMap();
+        dataMap.putLong("version", version);
+        dataMap.putInt("seq", seq);
+        dataMap.putInt("baseSeq", baseSeq);
+        dataMap.putLongArray("basals", upserts);
+        dataMap.putLongArray("basals_removed", removed);
+        return dataMap;
+    }
+
+    private String basals(BasalsDeltaDecoder decoder) {
+        StringBuilder sb = new StringBuilder();
+        ArrayList<DataMap> basals = decoder.toDataMap().getDataMapArrayList("basals");
+        for (DataMap basal : basals)
+            sb.append(basal.getLong("starttime")).append("-").append(basal.getLong("endtime")).append(":").append(basal.getDouble("amount")).append(" ");
+        return sb.toString().trim();
+    }
+
+    private String predictions(BasalsDeltaDecoder decoder) {
+        StringBuilder sb = new StringBuilder();
+        for (DataMap prediction : decoder.toDataMap().getDataMapArrayList("predictions"))
+            sb.append(prediction.getLong("timestamp")).append(":").append(prediction.getDouble("sgv")).append(":").append(prediction.getInt("color")).append(" ");
+        return sb.toString().trim();
+    }
+
+    @Test
+    public void deltaIsAppliedOnTopOfBase() {
+        BasalsDeltaDecoder decoder = new BasalsDeltaDecoder();
+
+        assertThat(decoder.apply(delta(VERSION, 1, BasalsDeltaDecoder.FULL, new long[]{1000, 2000, 800, 2000, 3000, 900}, new long[0])), is(BasalsDeltaDecoder.Result.APPLIED));
+        assertThat(decoder.apply(delta(VERSION, 2, 1, new long[]{3000, 4000, 1000}, new long[]{1000})), is(BasalsDeltaDecoder.Result.APPLIED));
+
+        assertThat(decoder.getSeq(), is(2));
+        assertThat(basals(decoder), is("2000-3000:0.9 3000-4000:1.0"));
+    }
+
+    @Test
+    public void deltasSentBeforeAcknowledgeShareBase() {
+        BasalsDeltaDecoder decoder = new BasalsDeltaDecoder();
+        decoder.apply(delta(VERSION, 1, BasalsDeltaDecoder.FULL, new long[]{1000, 2000, 800}, new long[0]));
+
+        // phone didn't get acknowledge of 1 yet, both deltas are against full state 1
+        assertThat(decoder.apply(delta(VERSION, 2, 1, new long[]{2000, 3000, 900}, new long[0])), is(BasalsDeltaDecoder.Result.APPLIED));
+        assertThat(decoder.apply(delta(VERSION, 3, 1, new long[]{2000, 3500, 900}, new long[]{1000})), is(BasalsDeltaDecoder.Result.APPLIED));
+
+        assertThat(basals(decoder), is("2000-3500:0.9"));
+    }
+
+    @Test
+    public void mergedDeltaIsApplied() {
+        BasalsDeltaDecoder decoder = new BasalsDeltaDecoder();
+        decoder.apply(delta(VERSION, 1, BasalsDeltaDecoder.FULL, new long[]{1000, 2000, 800}, new long[0]));
+
+        // delta 2 was replaced by data layer, only 3 arrives
+        assertThat(decoder.apply(delta(VERSION, 3, 1, new long[]{2000, 3000, 900}, new long[0])), is(BasalsDeltaDecoder.Result.APPLIED));
+
+        assertThat(decoder.getSeq(), is(3));
+        assertThat(basals(decoder), is("1000-2000:0.8 2000-3000:0.9"));
+    }
+
+    @Test
+    public void olderDeltaIsIgnored() {
+        BasalsDeltaDecoder decoder = new BasalsDeltaDecoder();
+        decoder.apply(delta(VERSION, 1, BasalsDeltaDecoder.FULL, new long[]{1000, 2000, 800}, new long[0]));
+        decoder.apply(delta(VERSION, 3, 1, new long[]{2000, 3000, 900}, new long[0]));
+
+        assertThat(decoder.apply(delta(VERSION, 2, 1, new long[]{5000, 6000, 100}, new long[0])), is(BasalsDeltaDecoder.Result.STALE));
+        assertThat(decoder.apply(delta(VERSION - 1, 10, BasalsDeltaDecoder.FULL, new long[]{5000, 6000, 100}, new long[0])), is(BasalsDeltaDecoder.Result.STALE));
+
+        assertThat(decoder.getSeq(), is(3));
+        assertThat(basals(decoder), is("1000-2000:0.8 2000-3000:0.9"));
+    }
+
+    @Test
+    public void unknownBaseNeedsFullState() {
+        BasalsDeltaDecoder decoder = new BasalsDeltaDecoder();
+        assertThat(decoder.apply(delta(VERSION, 2, 1, new long[]{1000, 2000, 800}, new long[0])), is(BasalsDeltaDecoder.Result.MISSING_BASE));
+
+        decoder.apply(delta(VERSION, 3, BasalsDeltaDecoder.FULL, new long[]{1000, 2000, 800}, new long[0]));
+        // phone was restarted, new version
+        assertThat(decoder.apply(delta(VERSION + 1, 1, 3, new long[0], new long[0])), is(BasalsDeltaDecoder.Result.MISSING_BASE));
+        assertThat(decoder.apply(delta(VERSION + 1, 1, BasalsDeltaDecoder.FULL, new long[]{2000, 3000, 900}, new long[0])), is(BasalsDeltaDecoder.Result.APPLIED));
+        assertThat(basals(decoder), is("2000-3000:0.9"));
+
+        // only few recent states are kept
+        for (int seq = 2; seq < 10; seq++)
+            decoder.apply(delta(VERSION + 1, seq, seq - 1, new long[0], new long[0]));
+        assertThat(decoder.apply(delta(VERSION + 1, 10, 1, new long[0], new long[0])), is(BasalsDeltaDecoder.Result.MISSING_BASE));
+        assertThat(decoder.apply(delta(VERSION + 1, 10, 8, new long[0], new long[0])), is(BasalsDeltaDecoder.Result.APPLIED));
+    }
+
+    @Test
+    public void curvesSharingTimeAreKept() {
+        BasalsDeltaDecoder decoder = new BasalsDeltaDecoder();
+        DataMap full = delta(VERSION, 1, BasalsDeltaDecoder.FULL, new long[0], new long[0]);
+        // IOB, COB and UAM predictions on the same timestamps
+        full.putLongArray("predictions", new long[]{5000, 100000, 1, 5000, 120000, 2, 5000, 130000, 3, 10000, 95000, 1});
+        decoder.apply(full);
+        assertThat(predictions(decoder), is("5000:100.0:1 5000:120.0:2 5000:130.0:3 10000:95.0:1"));
+
+        // group of changed time replaces the old one
+        DataMap changed = delta(VERSION, 2, 1, new long[0], new long[0]);
+        changed.putLongArray("predictions", new long[]{5000, 100000, 1, 5000, 125000, 2});
+        assertThat(decoder.apply(changed), is(BasalsDeltaDecoder.Result.APPLIED));
+        assertThat(predictions(decoder), is("5000:100.0:1 5000:125.0:2 10000:95.0:1"));
+
+        BasalsDeltaDecoder restored = new BasalsDeltaDecoder();
+        restored.restore(decoder.toPersistenceDataMap());
+        assertThat(predictions(restored), is(predictions(decoder)));
+    }
+
+    @Test
+    public void stateIsRestored() {
+        BasalsDeltaDecoder decoder = new BasalsDeltaDecoder();
+        decoder.apply(delta(VERSION, 1, BasalsDeltaDecoder.FULL, new long[]{1000, 2000, 800}, new long[0]));
+        decoder.apply(delta(VERSION, 2, 1, new long[]{2000, 3000, 900}, new long[0]));
+
+        BasalsDeltaDecoder restored = new BasalsDeltaDecoder();
+        restored.restore(decoder.toPersistenceDataMap());
+
+        assertThat(restored.getVersion(), is(VERSION));
+        assertThat(restored.getSeq(), is(2));
+        assertThat(basals(restored), is(basals(decoder)));
+        // next delta against acknowledged state continues without resend
+        assertThat(restored.apply(delta(VERSION, 3, 2, new long[]{3000, 4000, 1000}, new long[0])), is(BasalsDeltaDecoder.Result.APPLIED));
+
+        BasalsDeltaDecoder empty = new BasalsDeltaDecoder();
+        empty.restore(null);
+        assertThat(empty.getSeq(), is(BasalsDeltaDecoder.FULL));
+    }
+}